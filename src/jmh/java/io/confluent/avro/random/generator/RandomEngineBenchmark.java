@@ -0,0 +1,131 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link RandomEngine random engines} on the draws generators make most, on bulk
+ * fills, on reseeding (which generating records by index does for every record) and on generating
+ * whole records. Run with {@code ./gradlew jmh}; JMH's own options can be passed along with
+ * {@code -PjmhArgs='...'}, for example {@code -PjmhArgs='-p engine=jdk,xoshiro256ss'} to compare
+ * just two engines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RandomEngineBenchmark {
+
+  // A little of everything the generator draws for: unbounded and ranged numbers, booleans,
+  // strings, bytes, enums and unions
+  private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"bench\", \"fields\": ["
+      + "{\"name\": \"id\", \"type\": \"long\"},"
+      + "{\"name\": \"score\", \"type\": {\"type\": \"int\", "
+      + "\"arg.properties\": {\"range\": {\"min\": 0, \"max\": 1000}}}},"
+      + "{\"name\": \"ratio\", \"type\": \"double\"},"
+      + "{\"name\": \"active\", \"type\": \"boolean\"},"
+      + "{\"name\": \"name\", \"type\": \"string\"},"
+      + "{\"name\": \"payload\", \"type\": \"bytes\"},"
+      + "{\"name\": \"color\", \"type\": {\"type\": \"enum\", \"name\": \"color\", "
+      + "\"symbols\": [\"RED\", \"GREEN\", \"BLUE\"]}},"
+      + "{\"name\": \"note\", \"type\": [\"null\", \"string\"]}"
+      + "]}";
+
+  /**
+   * The name of the engine to benchmark.
+   */
+  @Param({RandomEngine.JDK, RandomEngine.SPLITMIX64, RandomEngine.XOROSHIRO128PP,
+      RandomEngine.XOSHIRO256SS, RandomEngine.PHILOX4X32})
+  public String engine;
+
+  private Random random;
+  private long[] longs;
+  private byte[] bytes;
+  private Generator generator;
+  private long recordIndex;
+
+  /**
+   * Creates the engine, and a generator of its own that draws from another one of the same kind.
+   */
+  @Setup
+  public void setUp() {
+    random = RandomEngine.create(engine, 42);
+    longs = new long[1024];
+    bytes = new byte[1024];
+    generator = new Generator(SCHEMA, RandomEngine.create(engine, 42));
+  }
+
+  @Benchmark
+  public long nextLong() {
+    return random.nextLong();
+  }
+
+  @Benchmark
+  public int nextIntBounded() {
+    return random.nextInt(1000);
+  }
+
+  @Benchmark
+  public double nextDouble() {
+    return random.nextDouble();
+  }
+
+  /**
+   * Fills 1024 longs at once, which engines do in a loop over their state kept in locals.
+   * @return The filled array, so that JMH doesn't optimize the fill away.
+   */
+  @Benchmark
+  public long[] nextLongs() {
+    if (random instanceof RandomEngine) {
+      ((RandomEngine) random).nextLongs(longs);
+    } else {
+      for (int i = 0; i < longs.length; i++) {
+        longs[i] = random.nextLong();
+      }
+    }
+    return longs;
+  }
+
+  @Benchmark
+  public byte[] nextBytes() {
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  @Benchmark
+  public long reseed() {
+    random.setSeed(recordIndex++);
+    return random.nextLong();
+  }
+
+  @Benchmark
+  public Object generate() {
+    return generator.generate();
+  }
+
+  @Benchmark
+  public Object generateByIndex() {
+    return generator.generate(recordIndex++);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes records with Avro's own binary encoder.
+ */
+final class AvroRecordEncoder implements RecordEncoder {
+
+  private final GenericDatumWriter<Object> writer;
+  private final Encoder encoder;
+
+  private AvroRecordEncoder(Schema schema, Encoder encoder) {
+    this.writer = new GenericDatumWriter<>(schema);
+    this.encoder = encoder;
+  }
+
+  /**
+   * @param schema The schema of the records to encode.
+   * @return A factory for encoders that use the Avro binary encoding.
+   */
+  static RecordEncoder.Factory binary(Schema schema) {
+    return output -> new AvroRecordEncoder(
+        schema,
+        EncoderFactory.get().binaryEncoder(output, null)
+    );
+  }
+
+  /**
+   * @param schema The schema of the values to encode.
+   * @return An encoder for lone values in the Avro binary encoding.
+   */
+  static RecordEncoder.ValueEncoder binaryValue(Schema schema) {
+    final GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema);
+    return new RecordEncoder.ValueEncoder() {
+      // Values are a few bytes at most, so there's nothing to gain from buffering them
+      private BinaryEncoder encoder;
+
+      @Override
+      public void write(Object value, OutputStream output) throws IOException {
+        encoder = EncoderFactory.get().directBinaryEncoder(output, encoder);
+        writer.write(value, encoder);
+      }
+    };
+  }
+
+  @Override
+  public void write(Object record) throws IOException {
+    writer.write(record, encoder);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    encoder.flush();
+  }
+
+}
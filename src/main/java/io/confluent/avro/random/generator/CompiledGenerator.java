@@ -0,0 +1,212 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The base of the classes {@link GeneratorCompiler} compiles for schemas, each of which generates
+ * records of its schema and writes them straight to a {@link BinaryEncoder}, with no values in
+ * between. Compiled code draws from the generator's {@link Random} exactly as the generator would,
+ * so the bytes it writes are the same as those of the record the generator would have produced,
+ * encoded in the Avro binary encoding. Values it doesn't compile are generated by the generator
+ * itself, as a fallback.
+ *
+ * <p>Only public because the compiled classes are loaded by a class loader of their own, which
+ * puts them in a package of their own as far as access goes; it isn't meant to be extended by
+ * anything else.
+ */
+public abstract class CompiledGenerator {
+
+  /**
+   * The generator's own source of randomness.
+   */
+  protected final Random random;
+  private final Generator generator;
+  private final Schema[] fallbackSchemas;
+  private final GenericDatumWriter<Object>[] fallbackWriters;
+  private BinaryEncoder encoder;
+  private byte[] scratch;
+
+  /**
+   * @param generator The generator whose records to generate.
+   * @param fallbackSchemas The schemas of the values that are generated by the generator, in the
+   *     order the compiled code numbers them.
+   */
+  @SuppressWarnings("unchecked")
+  protected CompiledGenerator(Generator generator, Schema[] fallbackSchemas) {
+    this.random = generator.random();
+    this.generator = generator;
+    this.fallbackSchemas = fallbackSchemas;
+    this.fallbackWriters = new GenericDatumWriter[fallbackSchemas.length];
+    for (int i = 0; i < fallbackSchemas.length; i++) {
+      fallbackWriters[i] = new GenericDatumWriter<>(fallbackSchemas[i]);
+    }
+    this.scratch = new byte[Generator.DEFAULT_LENGTH_MAX];
+  }
+
+  /**
+   * Generates a record and encodes it.
+   * @param recordIndex The index of the record, as for {@link Generator#generate(long)}, or -1 to
+   *     carry on after the last record generated.
+   * @param output Receives the encoded record.
+   * @throws IOException if the output can't be written to.
+   */
+  final void generate(long recordIndex, OutputStream output) throws IOException {
+    encoder = EncoderFactory.get().directBinaryEncoder(output, encoder);
+    generator.startRecord(recordIndex);
+    write(encoder);
+  }
+
+  /**
+   * Generates a record, writing its values as they're generated.
+   * @param encoder The encoder to write the values with.
+   * @throws IOException if the encoder can't be written to.
+   */
+  protected abstract void write(BinaryEncoder encoder) throws IOException;
+
+  /**
+   * Has the generator generate a value, and writes it.
+   * @param value The number of the value's schema among the fallback schemas.
+   * @param depth The number of records the value is nested in.
+   * @param encoder The encoder to write the value with.
+   * @throws IOException if the encoder can't be written to.
+   */
+  protected final void fallback(int value, int depth, BinaryEncoder encoder) throws IOException {
+    fallbackWriters[value].write(generator.generateNested(fallbackSchemas[value], depth), encoder);
+  }
+
+  /**
+   * @param length The length chosen for an array or map.
+   * @param depth The number of records the array or map is nested in.
+   * @return The length the array or map may have, given what's left of the record's element
+   *     budget.
+   */
+  protected final int elements(int length, int depth) {
+    return generator.budgetElements(length, depth);
+  }
+
+  /**
+   * @param length The length of the string.
+   * @return A random string, as generated for a map key.
+   */
+  protected final String randomString(int length) {
+    return generator.generateRandomString(length);
+  }
+
+  /**
+   * @param map The number of the map's schema among the fallback schemas.
+   * @return A key for the map, picked from the options for its keys.
+   */
+  protected final Object keyOption(int map) {
+    return generator.generateKeyOption(fallbackSchemas[map]);
+  }
+
+  /**
+   * @return Somewhere to collect the entries of a map as they're generated.
+   */
+  protected final MapEntries startMap() {
+    return new MapEntries();
+  }
+
+  /**
+   * @param length The most bytes that are needed.
+   * @return A buffer of at least that many bytes, whose contents are only good until the next call.
+   */
+  protected final byte[] scratch(int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    return scratch;
+  }
+
+  /**
+   * The entries of a map being generated, each value encoded as soon as it's generated. A key
+   * that's generated more than once keeps only its last value, and the entries are written in the
+   * order of a {@link HashMap} with the same keys put in the same order, as a generated map's
+   * would be; so only one encoded value per distinct key is kept, however long the map is.
+   */
+  protected static final class MapEntries {
+    // A new map every time, since the order of a map that's been cleared depends on how large it
+    // grew before
+    private final Map<Object, EncodedValue> values;
+    private BinaryEncoder encoder;
+
+    MapEntries() {
+      this.values = new HashMap<>();
+      this.encoder = null;
+    }
+
+    /**
+     * @param key The key of the next entry.
+     * @return The encoder to write the entry's value with, in place of any value the key had.
+     */
+    public BinaryEncoder put(Object key) {
+      EncodedValue value = values.get(key);
+      if (value == null) {
+        value = new EncodedValue();
+        values.put(key, value);
+      } else {
+        value.length = 0;
+      }
+      encoder = EncoderFactory.get().directBinaryEncoder(value, encoder);
+      return encoder;
+    }
+
+    /**
+     * Writes the map, in a single block of entries.
+     * @param output The encoder to write the map with.
+     * @throws IOException if the encoder can't be written to.
+     */
+    public void write(BinaryEncoder output) throws IOException {
+      output.writeMapStart();
+      output.setItemCount(values.size());
+      for (Map.Entry<Object, EncodedValue> entry : values.entrySet()) {
+        output.startItem();
+        output.writeString(entry.getKey().toString());
+        output.writeFixed(entry.getValue().bytes, 0, entry.getValue().length);
+      }
+      output.writeMapEnd();
+    }
+  }
+
+  private static final class EncodedValue extends OutputStream {
+    byte[] bytes = new byte[16];
+    int length;
+
+    @Override
+    public void write(int value) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(length + count, bytes.length * 2));
+      }
+      System.arraycopy(buffer, offset, bytes, length, count);
+      length += count;
+    }
+  }
+
+}
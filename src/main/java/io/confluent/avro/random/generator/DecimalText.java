@@ -0,0 +1,429 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes numbers as ASCII decimal text straight into a byte array, without allocating anything.
+ * Integers are written the way {@link Long#toString(long)} writes them, two digits at a time;
+ * doubles and floats are written in the same format as {@link Double#toString(double)} and
+ * {@link Float#toString(float)}, but with the fewest digits that read back as the same value.
+ *
+ * <p>The digits are found with Raffaello Giulietti's Schubfach algorithm ("The Schubfach way to
+ * render doubles", 2020), which is also what the JDK itself has used since Java 19; the JDKs this
+ * project runs on go through a much slower arbitrary-precision path, and sometimes produce a digit
+ * more than they need to.
+ */
+final class DecimalText {
+
+  /**
+   * The most bytes a single value can take up, as in {@code -2.2250738585072014E-308}.
+   */
+  static final int MAX_LENGTH = 24;
+
+  private static final int DOUBLE_PRECISION = 53;
+  private static final int DOUBLE_EXPONENT_MASK = 0x7ff;
+  private static final long DOUBLE_SIGNIFICAND_MASK = (1L << DOUBLE_PRECISION - 1) - 1;
+  private static final int DOUBLE_Q_MIN = -1074;
+  private static final long DOUBLE_C_MIN = 1L << DOUBLE_PRECISION - 1;
+  // Subnormal significands below this have too few digits to be told apart from their neighbours
+  // without one more digit of precision
+  private static final long DOUBLE_C_TINY = 3;
+
+  private static final int FLOAT_PRECISION = 24;
+  private static final int FLOAT_EXPONENT_MASK = 0xff;
+  private static final int FLOAT_SIGNIFICAND_MASK = (1 << FLOAT_PRECISION - 1) - 1;
+  private static final int FLOAT_Q_MIN = -149;
+  private static final int FLOAT_C_MIN = 1 << FLOAT_PRECISION - 1;
+  private static final int FLOAT_C_TINY = 8;
+
+  // The range of decimal exponents that the table of powers of ten covers
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+
+  private static final long MASK_63 = (1L << 63) - 1;
+  private static final long MASK_32 = (1L << 32) - 1;
+
+  // Plain notation is used for magnitudes in [10^-3, 10^7), scientific notation otherwise
+  private static final int PLAIN_EXPONENT_MIN = -2;
+  private static final int PLAIN_EXPONENT_MAX = 7;
+
+  private static final byte[] NAN = ascii("NaN");
+  private static final byte[] LONG_MIN_VALUE = ascii(Long.toString(Long.MIN_VALUE));
+  private static final byte[] INFINITY = ascii("Infinity");
+  private static final byte[] ZERO = ascii("0.0");
+
+  // For each exponent k from K_MIN to K_MAX, the 126-bit g = floor(10^-k * 2^-r) + 1 (where r is
+  // picked so that 2^125 <= g < 2^126), split into its high and low 63 bits
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+  // The two digits of every number below 100
+  private static final byte[] DIGIT_TENS = new byte[100];
+  private static final byte[] DIGIT_ONES = new byte[100];
+
+  private static final int EIGHT_DIGITS = 100_000_000;
+
+  static {
+    for (int i = 0; i < 100; i++) {
+      DIGIT_TENS[i] = (byte) ('0' + i / 10);
+      DIGIT_ONES[i] = (byte) ('0' + i % 10);
+    }
+    for (int exp10 = K_MIN; exp10 <= K_MAX; exp10++) {
+      BigInteger g126;
+      if (exp10 <= 0) {
+        BigInteger power = BigInteger.TEN.pow(-exp10);
+        int shift = 126 - power.bitLength();
+        g126 = shift >= 0 ? power.shiftLeft(shift) : power.shiftRight(-shift);
+      } else {
+        BigInteger power = BigInteger.TEN.pow(exp10);
+        g126 = BigInteger.ONE.shiftLeft(125 + power.bitLength()).divide(power);
+      }
+      g126 = g126.add(BigInteger.ONE);
+      G[2 * (exp10 - K_MIN)] = g126.shiftRight(63).longValue();
+      G[2 * (exp10 - K_MIN) + 1] = g126.longValue() & MASK_63;
+    }
+  }
+
+  private DecimalText() {
+  }
+
+  /**
+   * @param value The value to write.
+   * @param buffer Where to write it; must have at least {@link #MAX_LENGTH} bytes to spare.
+   * @param offset Where in the buffer to start.
+   * @return The offset just past the last byte written.
+   */
+  static int write(long value, byte[] buffer, int offset) {
+    if (value == Long.MIN_VALUE) {
+      // The only value whose negation doesn't fit
+      return copy(LONG_MIN_VALUE, buffer, offset);
+    }
+    offset = sign(value < 0, buffer, offset);
+    long magnitude = Math.abs(value);
+    int end = offset + digitCount(magnitude);
+    putDigits(magnitude, buffer, end);
+    return end;
+  }
+
+  /**
+   * @param value The value to write.
+   * @param buffer Where to write it; must have at least {@link #MAX_LENGTH} bytes to spare.
+   * @param offset Where in the buffer to start.
+   * @return The offset just past the last byte written.
+   */
+  static int write(double value, byte[] buffer, int offset) {
+    long bits = Double.doubleToRawLongBits(value);
+    long significand = bits & DOUBLE_SIGNIFICAND_MASK;
+    int exponent = (int) (bits >>> DOUBLE_PRECISION - 1) & DOUBLE_EXPONENT_MASK;
+    if (exponent == DOUBLE_EXPONENT_MASK) {
+      return significand != 0
+          ? copy(NAN, buffer, offset)
+          : copy(INFINITY, buffer, sign(bits < 0, buffer, offset));
+    }
+    offset = sign(bits < 0, buffer, offset);
+    if (exponent != 0) {
+      int exp2 = exponent + DOUBLE_Q_MIN - 1;
+      long sig = DOUBLE_C_MIN | significand;
+      // Integers are their own shortest representation
+      if (exp2 < 0 && exp2 > -DOUBLE_PRECISION) {
+        long integer = sig >> -exp2;
+        if (integer << -exp2 == sig) {
+          return digits(integer, 0, buffer, offset);
+        }
+      }
+      return toDecimal(exp2, sig, 0, buffer, offset);
+    } else if (significand != 0) {
+      return significand < DOUBLE_C_TINY
+          ? toDecimal(DOUBLE_Q_MIN, 10 * significand, -1, buffer, offset)
+          : toDecimal(DOUBLE_Q_MIN, significand, 0, buffer, offset);
+    } else {
+      return copy(ZERO, buffer, offset);
+    }
+  }
+
+  /**
+   * @param value The value to write.
+   * @param buffer Where to write it; must have at least {@link #MAX_LENGTH} bytes to spare.
+   * @param offset Where in the buffer to start.
+   * @return The offset just past the last byte written.
+   */
+  static int write(float value, byte[] buffer, int offset) {
+    int bits = Float.floatToRawIntBits(value);
+    int significand = bits & FLOAT_SIGNIFICAND_MASK;
+    int exponent = bits >>> FLOAT_PRECISION - 1 & FLOAT_EXPONENT_MASK;
+    if (exponent == FLOAT_EXPONENT_MASK) {
+      return significand != 0
+          ? copy(NAN, buffer, offset)
+          : copy(INFINITY, buffer, sign(bits < 0, buffer, offset));
+    }
+    offset = sign(bits < 0, buffer, offset);
+    if (exponent != 0) {
+      int exp2 = exponent + FLOAT_Q_MIN - 1;
+      int sig = FLOAT_C_MIN | significand;
+      if (exp2 < 0 && exp2 > -FLOAT_PRECISION) {
+        int integer = sig >> -exp2;
+        if (integer << -exp2 == sig) {
+          return digits(integer, 0, buffer, offset);
+        }
+      }
+      return toDecimal(exp2, sig, 0, buffer, offset);
+    } else if (significand != 0) {
+      return significand < FLOAT_C_TINY
+          ? toDecimal(FLOAT_Q_MIN, 10 * significand, -1, buffer, offset)
+          : toDecimal(FLOAT_Q_MIN, significand, 0, buffer, offset);
+    } else {
+      return copy(ZERO, buffer, offset);
+    }
+  }
+
+  // Finds the shortest decimal in the rounding interval of sig * 2^exp2, as in section 9 of the
+  // paper; the interval's bounds and the value itself are all computed four times over (vbl, vbr
+  // and vb) so that the comparisons below can be done on integers
+  private static int toDecimal(int exp2, long sig, int dk, byte[] buffer, int offset) {
+    int out = (int) sig & 1;
+    long cb = sig << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int exp10;
+    if (sig != DOUBLE_C_MIN || exp2 == DOUBLE_Q_MIN) {
+      cbl = cb - 2;
+      exp10 = floorLog10Pow2(exp2);
+    } else {
+      // The interval below a power of two is only half as wide
+      cbl = cb - 1;
+      exp10 = floorLog10ThreeQuartersPow2(exp2);
+    }
+    int shift = exp2 + floorLog2Pow10(-exp10) + 2;
+    long g1 = G[2 * (exp10 - K_MIN)];
+    long g0 = G[2 * (exp10 - K_MIN) + 1];
+
+    long vb = roundToOdd(g1, g0, cb << shift);
+    long vbl = roundToOdd(g1, g0, cbl << shift);
+    long vbr = roundToOdd(g1, g0, cbr << shift);
+
+    long down = vb >> 2;
+    if (down >= 100) {
+      long sp10 = down / 10 * 10;
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return digits(upin ? sp10 : tp10, exp10, buffer, offset);
+      }
+    }
+    long up = down + 1;
+    boolean uin = vbl + out <= down << 2;
+    boolean win = (up << 2) + out <= vbr;
+    if (uin != win) {
+      return digits(uin ? down : up, exp10 + dk, buffer, offset);
+    }
+    long cmp = vb - (down + up << 1);
+    return digits(cmp < 0 || cmp == 0 && (down & 1) == 0 ? down : up, exp10 + dk, buffer, offset);
+  }
+
+  private static int toDecimal(int exp2, int sig, int dk, byte[] buffer, int offset) {
+    int out = sig & 1;
+    long cb = (long) sig << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int exp10;
+    if (sig != FLOAT_C_MIN || exp2 == FLOAT_Q_MIN) {
+      cbl = cb - 2;
+      exp10 = floorLog10Pow2(exp2);
+    } else {
+      cbl = cb - 1;
+      exp10 = floorLog10ThreeQuartersPow2(exp2);
+    }
+    int shift = exp2 + floorLog2Pow10(-exp10) + 33;
+    // Floats only need the high half of g, rounded up
+    long g1 = G[2 * (exp10 - K_MIN)] + 1;
+
+    int vb = roundToOdd(g1, cb << shift);
+    int vbl = roundToOdd(g1, cbl << shift);
+    int vbr = roundToOdd(g1, cbr << shift);
+
+    int down = vb >> 2;
+    if (down >= 100) {
+      int sp10 = down / 10 * 10;
+      int tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return digits(upin ? sp10 : tp10, exp10, buffer, offset);
+      }
+    }
+    int up = down + 1;
+    boolean uin = vbl + out <= down << 2;
+    boolean win = (up << 2) + out <= vbr;
+    if (uin != win) {
+      return digits(uin ? down : up, exp10 + dk, buffer, offset);
+    }
+    int cmp = vb - (down + up << 1);
+    return digits(cmp < 0 || cmp == 0 && (down & 1) == 0 ? down : up, exp10 + dk, buffer, offset);
+  }
+
+  // The product of g1:g0 and cp, shifted right by 127 bits and rounded to odd
+  private static long roundToOdd(long g1, long g0, long cp) {
+    long x1 = multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = multiplyHigh(g1, cp);
+    long mid = (y0 >>> 1) + x1;
+    long vbp = y1 + (mid >>> 63);
+    return vbp | (mid & MASK_63) + MASK_63 >>> 63;
+  }
+
+  private static int roundToOdd(long g1, long cp) {
+    long x1 = multiplyHigh(g1, cp);
+    long vbp = x1 >>> 31;
+    return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+  }
+
+  // The high 64 bits of the 128-bit product of its arguments (Math.multiplyHigh() came in Java 9)
+  private static long multiplyHigh(long left, long right) {
+    long l1 = left >> 32;
+    long l2 = left & MASK_32;
+    long r1 = right >> 32;
+    long r2 = right & MASK_32;
+    long low = l2 * r2;
+    long mid = l1 * r2 + (low >>> 32);
+    long z1 = (mid & MASK_32) + l2 * r1;
+    long z0 = mid >> 32;
+    return l1 * r1 + z0 + (z1 >> 32);
+  }
+
+  // floor(exp * log10(2)), floor(log10(3/4 * 2^exp)) and floor(exp * log2(10)), for the range of
+  // exponents that can come up
+  private static int floorLog10Pow2(int exp) {
+    return (int) (exp * 661_971_961_083L >> 41);
+  }
+
+  private static int floorLog10ThreeQuartersPow2(int exp) {
+    return (int) (exp * 661_971_961_083L - 274_743_187_321L >> 41);
+  }
+
+  private static int floorLog2Pow10(int exp) {
+    return (int) (exp * 913_124_641_741L >> 38);
+  }
+
+  // Writes sig * 10^exp the way Double.toString() would: plainly if it's at least 10^-3 and less
+  // than 10^7, as in "1234.5" or "0.001", and in scientific notation otherwise, as in "1.2345E-7";
+  // there is always at least one digit after the decimal point
+  private static int digits(long sig, int exp, byte[] buffer, int offset) {
+    while (sig % 10 == 0 && sig != 0) {
+      sig /= 10;
+      exp++;
+    }
+    int length = digitCount(sig);
+    // The digits are laid down at the end of the space the value could take (less the sign, which
+    // has already been written), and moved into place from there
+    int digits = offset + MAX_LENGTH - 1 - length;
+    putDigits(sig, buffer, digits + length);
+    int pointExponent = length + exp;
+    if (pointExponent > 0 && pointExponent <= PLAIN_EXPONENT_MAX) {
+      if (length <= pointExponent) {
+        System.arraycopy(buffer, digits, buffer, offset, length);
+        offset += length;
+        for (int i = length; i < pointExponent; i++) {
+          buffer[offset++] = '0';
+        }
+        buffer[offset++] = '.';
+        buffer[offset++] = '0';
+      } else {
+        System.arraycopy(buffer, digits, buffer, offset, pointExponent);
+        offset += pointExponent;
+        buffer[offset++] = '.';
+        System.arraycopy(buffer, digits + pointExponent, buffer, offset, length - pointExponent);
+        offset += length - pointExponent;
+      }
+    } else if (pointExponent <= 0 && pointExponent >= PLAIN_EXPONENT_MIN) {
+      buffer[offset++] = '0';
+      buffer[offset++] = '.';
+      for (int i = pointExponent; i < 0; i++) {
+        buffer[offset++] = '0';
+      }
+      System.arraycopy(buffer, digits, buffer, offset, length);
+      offset += length;
+    } else {
+      buffer[offset++] = buffer[digits];
+      buffer[offset++] = '.';
+      if (length > 1) {
+        System.arraycopy(buffer, digits + 1, buffer, offset, length - 1);
+        offset += length - 1;
+      } else {
+        buffer[offset++] = '0';
+      }
+      buffer[offset++] = 'E';
+      int exponent = pointExponent - 1;
+      if (exponent < 0) {
+        buffer[offset++] = '-';
+        exponent = -exponent;
+      }
+      if (exponent >= 100) {
+        buffer[offset++] = (byte) ('0' + exponent / 100);
+      }
+      if (exponent >= 10) {
+        buffer[offset++] = (byte) ('0' + exponent / 10 % 10);
+      }
+      buffer[offset++] = (byte) ('0' + exponent % 10);
+    }
+    return offset;
+  }
+
+  private static int digitCount(long value) {
+    int count = 1;
+    for (long bound = 10; count < 19 && value >= bound; bound *= 10) {
+      count++;
+    }
+    return count;
+  }
+
+  // Writes the digits of a non-negative value backwards from end, eight at a time in int arithmetic
+  // and two at a time within that
+  private static void putDigits(long value, byte[] buffer, int end) {
+    while (value > Integer.MAX_VALUE) {
+      long high = value / EIGHT_DIGITS;
+      int low = (int) (value - high * EIGHT_DIGITS);
+      for (int i = 0; i < 4; i++) {
+        int lastTwo = low % 100;
+        low /= 100;
+        buffer[--end] = DIGIT_ONES[lastTwo];
+        buffer[--end] = DIGIT_TENS[lastTwo];
+      }
+      value = high;
+    }
+    int rest = (int) value;
+    while (rest >= 100) {
+      int lastTwo = rest % 100;
+      rest /= 100;
+      buffer[--end] = DIGIT_ONES[lastTwo];
+      buffer[--end] = DIGIT_TENS[lastTwo];
+    }
+    buffer[--end] = DIGIT_ONES[rest];
+    if (rest >= 10) {
+      buffer[--end] = DIGIT_TENS[rest];
+    }
+  }
+
+  private static int sign(boolean negative, byte[] buffer, int offset) {
+    if (negative) {
+      buffer[offset++] = '-';
+    }
+    return offset;
+  }
+
+  private static int copy(byte[] text, byte[] buffer, int offset) {
+    System.arraycopy(text, 0, buffer, offset, text.length);
+    return offset + text.length;
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
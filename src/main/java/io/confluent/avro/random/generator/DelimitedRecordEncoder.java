@@ -0,0 +1,601 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.IndexedRecord;
+
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes records as rows of comma- or tab-separated values, preceded by a header row unless
+ * they're to follow rows written elsewhere.
+ *
+ * <p>Nested records are flattened into one column per field, named by the dotted path to it
+ * ({@code address.city}); a record that's nullable (a union of null and the record) is flattened
+ * the same way, with every one of its columns left null when it is. Arrays, maps, records that
+ * recur inside themselves and unions of more than one non-null type that includes a record can't
+ * be given a fixed set of columns, so they're written as (plain, not Avro) JSON text in a single
+ * column instead.
+ *
+ * <p>CSV follows RFC 4180, quoting only fields that contain a delimiter, a quote or a line
+ * break; null is an empty field, and the empty string is {@code ""} so that the two can be told
+ * apart. TSV follows the text format of PostgreSQL's {@code COPY}: nothing is quoted, tabs, line
+ * breaks and backslashes are escaped with a backslash, and null is {@code \N}. Bytes and fixed
+ * values are written the way Avro's JSON encoding writes them, as one character per byte, except
+ * for decimals, which are written as plain decimal numbers ({@code -12.50}), in JSON text too.
+ *
+ * <p>Rows are assembled in a reusable byte buffer rather than through strings: numbers are
+ * converted to text in place by {@link DecimalText}, with floating-point values written in the
+ * fewest digits that read back as the same value.
+ */
+final class DelimitedRecordEncoder implements RecordEncoder {
+
+  private static final byte CSV_DELIMITER = ',';
+  private static final byte TSV_DELIMITER = '\t';
+
+  private static final String TOP_LEVEL_COLUMN = "value";
+
+  // Rows are handed to the output stream once at least this many bytes of them have built up
+  private static final int WRITE_THRESHOLD = 8192;
+
+  private static final byte[] TRUE = ascii("true");
+  private static final byte[] FALSE = ascii("false");
+  private static final byte[] JSON_NULL = ascii("null");
+  private static final byte[] TSV_NULL = ascii("\\N");
+  private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+  private final OutputStream output;
+  private final Schema schema;
+  private final boolean csv;
+  private final byte delimiter;
+  private final Column root;
+  private final List<String> columnNames;
+  // The decimal scale of each bytes and fixed schema values have been written for, or -1
+  private final Map<Schema, Integer> decimalScales;
+
+  private byte[] buffer = new byte[2 * WRITE_THRESHOLD];
+  private int length;
+
+  private boolean headerWritten;
+  // Whether a line has been written, which the next row has to be separated from
+  private boolean lineWritten;
+  private int columnsWritten;
+
+  // Where the field currently being written started, and whether it has to be quoted
+  private int fieldStart;
+  private boolean quoteField;
+
+  private DelimitedRecordEncoder(Schema schema, OutputStream output, boolean csv, boolean header) {
+    this.output = output;
+    this.schema = schema;
+    this.csv = csv;
+    this.headerWritten = !header;
+    this.lineWritten = false;
+    this.delimiter = csv ? CSV_DELIMITER : TSV_DELIMITER;
+    this.columnNames = new ArrayList<>();
+    this.decimalScales = new IdentityHashMap<>();
+    Schema record = flattenedRecord(schema);
+    if (record != null) {
+      Set<Schema> enclosing = Collections.newSetFromMap(new IdentityHashMap<>());
+      Column[] children = columns(record, "", enclosing);
+      this.root = new Column(-1, schema, children, columnNames.size());
+    } else {
+      columnNames.add(TOP_LEVEL_COLUMN);
+      this.root = new Column(-1, schema, null, 1);
+    }
+  }
+
+  /**
+   * @param schema The schema of the records to encode.
+   * @param header Whether to start each output with a header row; left out when the rows carry on
+   *     from rows written elsewhere, such as an earlier slice of the same records.
+   * @return A factory for encoders that write comma-separated values.
+   */
+  static RecordEncoder.Factory csv(Schema schema, boolean header) {
+    return output -> new DelimitedRecordEncoder(schema, output, true, header);
+  }
+
+  /**
+   * @param schema The schema of the records to encode.
+   * @param header Whether to start each output with a header row; left out when the rows carry on
+   *     from rows written elsewhere, such as an earlier slice of the same records.
+   * @return A factory for encoders that write tab-separated values.
+   */
+  static RecordEncoder.Factory tsv(Schema schema, boolean header) {
+    return output -> new DelimitedRecordEncoder(schema, output, false, header);
+  }
+
+  /**
+   * @param schema The schema of the values to encode.
+   * @return An encoder for lone comma-separated fields.
+   */
+  static RecordEncoder.ValueEncoder csvValue(Schema schema) {
+    return fieldEncoder(new DelimitedRecordEncoder(schema, null, true, false));
+  }
+
+  /**
+   * @param schema The schema of the values to encode.
+   * @return An encoder for lone tab-separated fields.
+   */
+  static RecordEncoder.ValueEncoder tsvValue(Schema schema) {
+    return fieldEncoder(new DelimitedRecordEncoder(schema, null, false, false));
+  }
+
+  private static RecordEncoder.ValueEncoder fieldEncoder(DelimitedRecordEncoder scratch) {
+    return (value, output) -> {
+      scratch.writeValue(value, scratch.schema);
+      output.write(scratch.buffer, 0, scratch.length);
+      scratch.length = 0;
+    };
+  }
+
+  @Override
+  public void write(Object record) throws IOException {
+    if (!headerWritten) {
+      writeHeader();
+    }
+    // Rows are separated rather than terminated, since the pipeline ends every file with a line
+    // break of its own
+    if (lineWritten) {
+      put('\n');
+    }
+    lineWritten = true;
+    columnsWritten = 0;
+    writeColumn(record, root);
+    if (length >= WRITE_THRESHOLD) {
+      writeBuffer();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (!headerWritten) {
+      writeHeader();
+    }
+    writeBuffer();
+  }
+
+  private void writeBuffer() throws IOException {
+    output.write(buffer, 0, length);
+    length = 0;
+  }
+
+  private void writeHeader() {
+    headerWritten = true;
+    lineWritten = true;
+    columnsWritten = 0;
+    for (String name : columnNames) {
+      separate();
+      startField();
+      writeText(name, false);
+      endField(true);
+    }
+  }
+
+  // The record a schema is flattened into columns for, if it's either a record or a nullable one
+  private static Schema flattenedRecord(Schema schema) {
+    if (schema.getType() == Schema.Type.RECORD) {
+      return schema;
+    }
+    if (schema.getType() != Schema.Type.UNION || schema.getTypes().size() != 2) {
+      return null;
+    }
+    Schema first = schema.getTypes().get(0);
+    Schema second = schema.getTypes().get(1);
+    if (first.getType() == Schema.Type.NULL && second.getType() == Schema.Type.RECORD) {
+      return second;
+    } else if (second.getType() == Schema.Type.NULL && first.getType() == Schema.Type.RECORD) {
+      return first;
+    } else {
+      return null;
+    }
+  }
+
+  private Column[] columns(Schema record, String prefix, Set<Schema> enclosing) {
+    enclosing.add(record);
+    Column[] result = new Column[record.getFields().size()];
+    for (Schema.Field field : record.getFields()) {
+      String name = prefix + field.name();
+      Schema nested = flattenedRecord(field.schema());
+      if (nested != null && !enclosing.contains(nested)) {
+        int first = columnNames.size();
+        Column[] children = columns(nested, name + ".", enclosing);
+        result[field.pos()] =
+            new Column(field.pos(), field.schema(), children, columnNames.size() - first);
+      } else {
+        columnNames.add(name);
+        result[field.pos()] = new Column(field.pos(), field.schema(), null, 1);
+      }
+    }
+    enclosing.remove(record);
+    return result;
+  }
+
+  private void writeColumn(Object value, Column column) {
+    if (column.children == null) {
+      separate();
+      writeValue(value, column.schema);
+    } else if (value == null) {
+      for (int i = 0; i < column.width; i++) {
+        separate();
+        writeNull();
+      }
+    } else {
+      IndexedRecord record = (IndexedRecord) value;
+      for (Column child : column.children) {
+        writeColumn(record.get(child.position), child);
+      }
+    }
+  }
+
+  private void separate() {
+    if (columnsWritten++ > 0) {
+      put(delimiter);
+    }
+  }
+
+  private void writeNull() {
+    if (!csv) {
+      put(TSV_NULL);
+    }
+  }
+
+  private void writeValue(Object value, Schema valueSchema) {
+    if (value == null) {
+      writeNull();
+    } else if (value instanceof Integer || value instanceof Long) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      writeFloatingPoint((Number) value);
+    } else if (value instanceof Boolean) {
+      put((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof CharSequence) {
+      startField();
+      writeText((CharSequence) value, false);
+      endField(true);
+    } else if (value instanceof GenericEnumSymbol) {
+      startField();
+      writeText(value.toString(), false);
+      endField(true);
+    } else if (value instanceof ByteBuffer || value instanceof GenericFixed) {
+      int scale = decimalScale(value, valueSchema);
+      if (scale >= 0) {
+        writeDecimal(value, scale);
+      } else {
+        startField();
+        writeBytes(value, false);
+        endField(true);
+      }
+    } else if (value instanceof BigDecimal) {
+      writeText(((BigDecimal) value).toPlainString(), false);
+    } else {
+      startField();
+      writeJson(value, valueSchema);
+      endField(false);
+    }
+  }
+
+  private void writeJson(Object value, Schema valueSchema) {
+    if (value == null) {
+      put(JSON_NULL);
+    } else if (value instanceof Integer || value instanceof Long) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      writeFloatingPoint((Number) value);
+    } else if (value instanceof Boolean) {
+      put((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof CharSequence || value instanceof GenericEnumSymbol) {
+      fieldByte('"');
+      writeText(value instanceof CharSequence ? (CharSequence) value : value.toString(), true);
+      fieldByte('"');
+    } else if (value instanceof ByteBuffer || value instanceof GenericFixed) {
+      int scale = decimalScale(value, valueSchema);
+      if (scale >= 0) {
+        writeDecimal(value, scale);
+      } else {
+        fieldByte('"');
+        writeBytes(value, true);
+        fieldByte('"');
+      }
+    } else if (value instanceof BigDecimal) {
+      writeText(((BigDecimal) value).toPlainString(), true);
+    } else if (value instanceof IndexedRecord) {
+      IndexedRecord record = (IndexedRecord) value;
+      fieldByte('{');
+      for (Schema.Field field : record.getSchema().getFields()) {
+        if (field.pos() > 0) {
+          fieldByte(',');
+        }
+        fieldByte('"');
+        writeText(field.name(), true);
+        fieldByte('"');
+        fieldByte(':');
+        writeJson(record.get(field.pos()), field.schema());
+      }
+      fieldByte('}');
+    } else if (value instanceof Map) {
+      fieldByte('{');
+      Schema entrySchema = branch(valueSchema, value).getValueType();
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          fieldByte(',');
+        }
+        first = false;
+        fieldByte('"');
+        writeText((CharSequence) entry.getKey(), true);
+        fieldByte('"');
+        fieldByte(':');
+        writeJson(entry.getValue(), entrySchema);
+      }
+      fieldByte('}');
+    } else if (value instanceof Collection) {
+      fieldByte('[');
+      Schema elementSchema = branch(valueSchema, value).getElementType();
+      boolean first = true;
+      for (Object element : (Collection<?>) value) {
+        if (!first) {
+          fieldByte(',');
+        }
+        first = false;
+        writeJson(element, elementSchema);
+      }
+      fieldByte(']');
+    } else {
+      throw new RuntimeException(String.format(
+          "Cannot write value of class %s as delimited text",
+          value.getClass().getName()
+      ));
+    }
+  }
+
+  private void writeText(CharSequence text, boolean json) {
+    if (text instanceof Utf8) {
+      // Every byte of a multi-byte UTF-8 sequence is non-ASCII, so nothing in one can be mistaken
+      // for a character that needs escaping
+      Utf8 utf8 = (Utf8) text;
+      byte[] bytes = utf8.getBytes();
+      for (int i = 0; i < utf8.getByteLength(); i++) {
+        textByte(bytes[i] & 0xff, json);
+      }
+      return;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch < 0x80) {
+        textByte(ch, json);
+      } else if (ch < 0x800) {
+        put(0xc0 | ch >> 6);
+        put(0x80 | ch & 0x3f);
+      } else if (Character.isHighSurrogate(ch)
+          && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(ch, text.charAt(++i));
+        put(0xf0 | codePoint >> 18);
+        put(0x80 | codePoint >> 12 & 0x3f);
+        put(0x80 | codePoint >> 6 & 0x3f);
+        put(0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(ch)) {
+        // An unpaired surrogate can't be encoded; this is what String.getBytes() writes instead
+        put('?');
+      } else {
+        put(0xe0 | ch >> 12);
+        put(0x80 | ch >> 6 & 0x3f);
+        put(0x80 | ch & 0x3f);
+      }
+    }
+  }
+
+  // The branch of a union that a (non-null) value was generated for, or the schema itself if it
+  // isn't a union
+  private static Schema branch(Schema valueSchema, Object value) {
+    if (valueSchema.getType() != Schema.Type.UNION) {
+      return valueSchema;
+    }
+    return valueSchema.getTypes().get(GenericData.get().resolveUnion(valueSchema, value));
+  }
+
+  // The scale of the decimal a bytes or fixed value holds, or -1 if it's not a decimal
+  private int decimalScale(Object value, Schema valueSchema) {
+    Schema bytesSchema = branch(valueSchema, value);
+    Integer scale = decimalScales.get(bytesSchema);
+    if (scale == null) {
+      scale = LogicalTypeGenerator.decimalScaleOf(bytesSchema);
+      decimalScales.put(bytesSchema, scale);
+    }
+    return scale;
+  }
+
+  // Decimals are rendered like the numbers they stand for rather than as their two's-complement
+  // unscaled bytes; the digits, sign and point never need quoting or escaping
+  private void writeDecimal(Object value, int scale) {
+    byte[] unscaled;
+    if (value instanceof ByteBuffer) {
+      ByteBuffer bytes = (ByteBuffer) value;
+      unscaled = new byte[bytes.remaining()];
+      bytes.duplicate().get(unscaled);
+    } else {
+      unscaled = ((GenericFixed) value).bytes();
+    }
+    put(ascii(new BigDecimal(new BigInteger(unscaled), scale).toPlainString()));
+  }
+
+  private void writeBytes(Object value, boolean json) {
+    if (value instanceof ByteBuffer) {
+      ByteBuffer bytes = (ByteBuffer) value;
+      for (int i = bytes.position(); i < bytes.limit(); i++) {
+        byteAsCharacter(bytes.get(i) & 0xff, json);
+      }
+    } else {
+      for (byte octet : ((GenericFixed) value).bytes()) {
+        byteAsCharacter(octet & 0xff, json);
+      }
+    }
+  }
+
+  private void byteAsCharacter(int octet, boolean json) {
+    if (octet < 0x80) {
+      textByte(octet, json);
+    } else {
+      put(0xc0 | octet >> 6);
+      put(0x80 | octet & 0x3f);
+    }
+  }
+
+  private void textByte(int octet, boolean json) {
+    if (json && (octet == '"' || octet == '\\' || octet < 0x20)) {
+      fieldByte('\\');
+      switch (octet) {
+        case '"':
+        case '\\':
+          fieldByte(octet);
+          break;
+        case '\n':
+          fieldByte('n');
+          break;
+        case '\r':
+          fieldByte('r');
+          break;
+        case '\t':
+          fieldByte('t');
+          break;
+        default:
+          fieldByte('u');
+          fieldByte('0');
+          fieldByte('0');
+          fieldByte(HEX_DIGITS[octet >> 4]);
+          fieldByte(HEX_DIGITS[octet & 0xf]);
+          break;
+      }
+    } else {
+      fieldByte(octet);
+    }
+  }
+
+  private void startField() {
+    fieldStart = length;
+    quoteField = false;
+  }
+
+  // Writes a single byte of a field's content, escaping or noting that the field has to be quoted
+  // if it's special
+  private void fieldByte(int octet) {
+    if (csv) {
+      if (octet == '"') {
+        quoteField = true;
+        put('"');
+      } else if (octet == CSV_DELIMITER || octet == '\n' || octet == '\r') {
+        quoteField = true;
+      }
+      put(octet);
+      return;
+    }
+    switch (octet) {
+      case '\\':
+        put('\\');
+        put('\\');
+        break;
+      case '\t':
+        put('\\');
+        put('t');
+        break;
+      case '\n':
+        put('\\');
+        put('n');
+        break;
+      case '\r':
+        put('\\');
+        put('r');
+        break;
+      default:
+        put(octet);
+        break;
+    }
+  }
+
+  // Quoting is only known to be needed once the whole field has been written, so the opening
+  // quote is slipped in ahead of it after the fact
+  private void endField(boolean text) {
+    if (csv && (quoteField || (text && length == fieldStart))) {
+      ensureCapacity(2);
+      System.arraycopy(buffer, fieldStart, buffer, fieldStart + 1, length - fieldStart);
+      buffer[fieldStart] = '"';
+      length++;
+      buffer[length++] = '"';
+    }
+  }
+
+  private void writeLong(long value) {
+    ensureCapacity(DecimalText.MAX_LENGTH);
+    length = DecimalText.write(value, buffer, length);
+  }
+
+  private void writeFloatingPoint(Number value) {
+    ensureCapacity(DecimalText.MAX_LENGTH);
+    if (value instanceof Double) {
+      length = DecimalText.write(value.doubleValue(), buffer, length);
+    } else {
+      length = DecimalText.write(value.floatValue(), buffer, length);
+    }
+  }
+
+  private void put(int octet) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) octet;
+  }
+
+  private void put(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (length + bytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + bytes));
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // A column, or (if it has children) a flattened record spanning width consecutive columns
+  private static final class Column {
+    final int position;
+    final Schema schema;
+    final Column[] children;
+    final int width;
+
+    Column(int position, Schema schema, Column[] children, int width) {
+      this.position = position;
+      this.schema = schema;
+      this.children = children;
+      this.width = width;
+    }
+  }
+}
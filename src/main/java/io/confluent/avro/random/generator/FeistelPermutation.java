@@ -0,0 +1,77 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+/**
+ * A keyed pseudorandom permutation of the integers from zero up to (but not including) some size,
+ * which maps each of them to a different one of them. Nothing is stored per value, so it takes
+ * the same few words of memory however big the domain is, and any value's image can be computed
+ * on its own: feeding it a counter gives values that look random but never repeat.
+ *
+ * <p>It's a balanced Feistel network over the smallest even number of bits that covers the size.
+ * Where the size isn't a power of four, images that land past its end are permuted again (cycle
+ * walking) until they land inside it, which takes fewer than four rounds of the network on
+ * average. The permutation is only meant to look random, not to keep its key secret.
+ */
+final class FeistelPermutation {
+
+  private static final int ROUNDS = 6;
+
+  // Unsigned, with zero standing in for 2^64
+  private final long size;
+  private final int halfBits;
+  private final long halfMask;
+  private final long[] roundKeys;
+
+  /**
+   * @param size The size of the domain, as an unsigned number; zero stands for 2^64, the whole
+   *     range of a long.
+   * @param key Picks which permutation of the domain this is.
+   */
+  FeistelPermutation(long size, long key) {
+    this.size = size;
+    int bits = size == 0 ? Long.SIZE : Long.SIZE - Long.numberOfLeadingZeros(size - 1);
+    this.halfBits = Math.max(1, (bits + 1) / 2);
+    this.halfMask = (1L << halfBits) - 1;
+    // Round keys are spread out with the same golden ratio increment as record seeds are
+    this.roundKeys = new long[ROUNDS];
+    for (int i = 0; i < ROUNDS; i++) {
+      roundKeys[i] = Generator.mix(key + (i + 1) * 0x9e3779b97f4a7c15L);
+    }
+  }
+
+  /**
+   * @return The size of the domain, as given to the constructor.
+   */
+  long size() {
+    return size;
+  }
+
+  /**
+   * @param value A member of the domain.
+   * @return The value it's mapped to, also a member of the domain.
+   */
+  long permute(long value) {
+    do {
+      value = encrypt(value);
+    } while (size != 0 && Long.compareUnsigned(value, size) >= 0);
+    return value;
+  }
+
+  private long encrypt(long value) {
+    long left = (value >>> halfBits) & halfMask;
+    long right = value & halfMask;
+    for (long roundKey : roundKeys) {
+      long mixed = left ^ (Generator.mix(right ^ roundKey) & halfMask);
+      left = right;
+      right = mixed;
+    }
+    return (left << halfBits) | right;
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits a JDK Flight Recorder event for each profiled field, so that field generation costs show
+ * up next to GC, allocation and I/O in a recording. The event type is
+ * {@value #EVENT_NAME}, with the field's schema path and the time spent generating it, both in
+ * total and excluding its own nested fields.
+ *
+ * <p>Arg still targets Java 8, where the Flight Recorder API may not exist, so the event type is
+ * defined at runtime through {@code jdk.jfr.EventFactory} by reflection. On a JVM without it,
+ * {@link #create()} returns null and profiling carries on without events.
+ */
+final class FieldGenerationEvents {
+
+  static final String EVENT_NAME = "io.confluent.avro.random.generator.FieldGeneration";
+
+  private final Object factory;
+  private final Method newEvent;
+  private final Method shouldCommit;
+  private final Method set;
+  private final Method commit;
+
+  private FieldGenerationEvents(Object factory) throws ReflectiveOperationException {
+    Class<?> event = Class.forName("jdk.jfr.Event");
+    this.factory = factory;
+    this.newEvent = factory.getClass().getMethod("newEvent");
+    this.shouldCommit = event.getMethod("shouldCommit");
+    this.set = event.getMethod("set", int.class, Object.class);
+    this.commit = event.getMethod("commit");
+  }
+
+  /**
+   * @return Events for the running JVM's Flight Recorder, or null if it doesn't have one.
+   */
+  static FieldGenerationEvents create() {
+    try {
+      Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+      Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+      Constructor<?> newValue =
+          valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+      List<Object> eventAnnotations = Arrays.asList(
+          annotation(newAnnotation, "jdk.jfr.Name", EVENT_NAME),
+          annotation(newAnnotation, "jdk.jfr.Label", "Field Generation"),
+          annotation(newAnnotation, "jdk.jfr.Category", new String[] {"Avro Random Generator"}),
+          annotation(
+              newAnnotation,
+              "jdk.jfr.Description",
+              "Time spent generating a single value for a schema field, in a sampled record"
+          )
+      );
+      List<Object> fields = Arrays.asList(
+          newValue.newInstance(
+              String.class,
+              "path",
+              Collections.singletonList(annotation(newAnnotation, "jdk.jfr.Label", "Path"))
+          ),
+          newValue.newInstance(long.class, "totalTime", timespan(newAnnotation, "Total Time")),
+          newValue.newInstance(long.class, "selfTime", timespan(newAnnotation, "Self Time"))
+      );
+      Object factory = Class.forName("jdk.jfr.EventFactory")
+          .getMethod("create", List.class, List.class)
+          .invoke(null, eventAnnotations, fields);
+      return new FieldGenerationEvents(factory);
+    } catch (ReflectiveOperationException | LinkageError exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Records one generated field value, if a recording that includes these events is running.
+   * @param path The schema path of the field.
+   * @param totalNanos The time spent generating the value.
+   * @param selfNanos The time spent generating the value, excluding any nested fields.
+   */
+  void commit(String path, long totalNanos, long selfNanos) {
+    try {
+      Object event = newEvent.invoke(factory);
+      if (!(Boolean) shouldCommit.invoke(event)) {
+        return;
+      }
+      set.invoke(event, 0, path);
+      set.invoke(event, 1, totalNanos);
+      set.invoke(event, 2, selfNanos);
+      commit.invoke(event);
+    } catch (IllegalAccessException | InvocationTargetException exception) {
+      throw new RuntimeException("Unable to emit field generation event", exception);
+    }
+  }
+
+  private static List<Object> timespan(Constructor<?> newAnnotation, String label)
+      throws ReflectiveOperationException {
+    return Arrays.asList(
+        annotation(newAnnotation, "jdk.jfr.Label", label),
+        annotation(newAnnotation, "jdk.jfr.Timespan", "NANOSECONDS")
+    );
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object annotation(Constructor<?> newAnnotation, String type, Object value)
+      throws ReflectiveOperationException {
+    Class<? extends Annotation> annotationType =
+        (Class<? extends Annotation>) Class.forName(type);
+    return newAnnotation.newInstance(annotationType, value);
+  }
+}
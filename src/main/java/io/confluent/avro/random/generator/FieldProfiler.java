@@ -0,0 +1,191 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how much of a {@link Generator}'s time goes into each field of its schema. Only one in
+ * every so many records is timed, so the overhead of timing every field stays low; within those
+ * records, every field value gets its own timing, and fields are told apart by their full path
+ * from the top-level schema (so the same record type nested in two places is profiled as two
+ * sets of fields). Time spent in nested fields is counted towards their parents' total time but
+ * not their self time, which is what the {@link #report(int) hottest fields table} ranks by.
+ *
+ * <p>A profiler belongs to a single generator, and like it, isn't thread-safe.
+ */
+final class FieldProfiler {
+
+  static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+  private final int sampleInterval;
+  private final Node root;
+  private final FieldGenerationEvents events;
+  private Node current;
+  private long records;
+  private long sampledRecords;
+  private boolean sampling;
+
+  /**
+   * @param topLevelSchema The schema of the generator being profiled.
+   * @param sampleInterval Time one in every this many records.
+   */
+  FieldProfiler(Schema topLevelSchema, int sampleInterval) {
+    this.sampleInterval = sampleInterval;
+    this.root = new Node(null, topLevelSchema.getName());
+    this.events = FieldGenerationEvents.create();
+    this.current = root;
+    this.records = 0;
+    this.sampledRecords = 0;
+    this.sampling = false;
+  }
+
+  /**
+   * @return Whether sampled fields are also emitted as JFR events, which needs the Flight Recorder
+   *     API of JDK 12 or later.
+   */
+  boolean emitsEvents() {
+    return events != null;
+  }
+
+  /**
+   * Called as the generator starts on each record.
+   * @return Whether the record's fields should be timed.
+   */
+  boolean startRecord() {
+    sampling = records++ % sampleInterval == 0;
+    if (sampling) {
+      sampledRecords++;
+      current = root;
+      root.start = System.nanoTime();
+    }
+    return sampling;
+  }
+
+  /**
+   * Called as the generator finishes a record that's being timed.
+   */
+  void endRecord() {
+    long elapsed = System.nanoTime() - root.start;
+    root.calls++;
+    root.totalNanos += elapsed;
+    sampling = false;
+  }
+
+  /**
+   * @return Whether the record currently being generated is being timed.
+   */
+  boolean sampling() {
+    return sampling;
+  }
+
+  /**
+   * Starts timing a value for the given field, which must belong to the record that's currently
+   * being generated; must be followed by {@link #exitField()}.
+   * @param field The field a value is about to be generated for.
+   */
+  void enterField(Schema.Field field) {
+    current = current.child(field);
+    current.start = System.nanoTime();
+  }
+
+  /**
+   * Stops timing the field most recently {@link #enterField(Schema.Field) entered}.
+   */
+  void exitField() {
+    Node node = current;
+    long elapsed = System.nanoTime() - node.start;
+    node.calls++;
+    node.totalNanos += elapsed;
+    node.parent.childNanos += elapsed;
+    if (events != null) {
+      events.commit(node.path, elapsed, elapsed - (node.childNanos - node.childNanosAtStart));
+    }
+    current = node.parent;
+  }
+
+  /**
+   * @param rows The most fields to include.
+   * @return A table of the fields with the highest self time, hottest first.
+   */
+  String report(int rows) {
+    List<Node> nodes = new ArrayList<>();
+    root.collect(nodes);
+    nodes.sort(Comparator.comparingLong(Node::selfNanos).reversed());
+    StringBuilder result = new StringBuilder(String.format(
+        "hottest fields (timed %,d of %,d records; self time excludes nested fields)%n"
+            + "%7s %10s %10s %12s %9s  %s%n",
+        sampledRecords,
+        records,
+        "self %",
+        "self ms",
+        "total ms",
+        "calls",
+        "us/call",
+        "field"
+    ));
+    for (Node node : nodes.subList(0, Math.min(rows, nodes.size()))) {
+      result.append(String.format(
+          "%6.1f%% %10.1f %10.1f %,12d %9.2f  %s%n",
+          root.totalNanos > 0 ? node.selfNanos() * 100.0 / root.totalNanos : 0.0,
+          node.selfNanos() / 1e6,
+          node.totalNanos / 1e6,
+          node.calls,
+          node.calls > 0 ? node.totalNanos / 1e3 / node.calls : 0.0,
+          node.path
+      ));
+    }
+    return result.toString();
+  }
+
+  // A field at a particular path; the root stands for the top-level schema itself, so its self
+  // time is whatever generating a record costs beyond its fields
+  private static final class Node {
+    final Node parent;
+    final String path;
+    final Map<Schema.Field, Node> children;
+    long start;
+    long calls;
+    long totalNanos;
+    long childNanos;
+    long childNanosAtStart;
+
+    Node(Node parent, String path) {
+      this.parent = parent;
+      this.path = path;
+      this.children = new IdentityHashMap<>();
+    }
+
+    Node child(Schema.Field field) {
+      Node result = children.get(field);
+      if (result == null) {
+        result = new Node(this, path + "." + field.name());
+        children.put(field, result);
+      }
+      result.childNanosAtStart = result.childNanos;
+      return result;
+    }
+
+    long selfNanos() {
+      return totalNanos - childNanos;
+    }
+
+    void collect(List<Node> nodes) {
+      nodes.add(this);
+      for (Node child : children.values()) {
+        child.collect(nodes);
+      }
+    }
+  }
+}
@@ -7,55 +7,56 @@
 
 package io.confluent.avro.random.generator;
 
-import com.mifmif.common.regex.Generex;
-
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
 
 import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericEnumSymbol;
-import org.apache.avro.generic.GenericFixed;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.avro.generic.IndexedRecord;
 
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
 
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.math.BigInteger;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Generates Java objects according to an {@link Schema Avro Schema}.
  */
 public class Generator {
 
-  private static final Schema.Parser schemaParser = new Schema.Parser();
-  private static final Map<Schema, Generex> generexCache = new HashMap<>();
-  private static final Map<Schema, List<Object>> optionsCache = new HashMap<>();
-  private static final Map<Schema, Iterator<Object>> iteratorCache =
-    new IdentityHashMap<>();
+  private static final Map<Schema, List<Object>> optionsCache = new ConcurrentHashMap<>();
+  // Replaced wholesale (under the class lock) whenever an iteration is added, so that looking one
+  // up never has to take a lock; each schema object gets its own sequence, even if it's equal to
+  // another one
+  private static volatile Map<Schema, Iteration> iterationCache = new IdentityHashMap<>();
+  // Likewise, and shared for the same reason: a monotonic logical type has a sequence of its own
+  private static volatile Map<Schema, LogicalTypeGenerator> logicalTypeCache =
+      new IdentityHashMap<>();
+  // Likewise; the number of the next record generated without an index, for each top-level schema
+  private static volatile Map<Schema, AtomicLong> recordCounters = new IdentityHashMap<>();
 
   /**
    * The name to use for the top-level JSON property when specifying ARG-specific attributes.
@@ -139,7 +140,9 @@ public class Generator {
    * first generated value for the schema will then be equal to the value given for
    * {@link #ITERATION_PROP_START}, and successive values will increment by the value given for
    * {@link #ITERATION_PROP_STEP} (or its default, if no value is given), wrapping around at the
-   * value given for {@link #ITERATION_PROP_RESTART} (or its default, if no value is given).
+   * value given for {@link #ITERATION_PROP_RESTART} (or its default, if no value is given). Each
+   * record takes a block of values as long as the most times the schema can come up in one, the
+   * same with or without {@link #generate(long) indexes}; any it doesn't come up for are skipped.
    */
   public static final String ITERATION_PROP = "iteration";
   /**
@@ -164,8 +167,99 @@ public class Generator {
    */
   public static final String ITERATION_PROP_STEP = "step";
 
+  /**
+   * The name of the attribute for making every value generated for an int, long, fixed or string
+   * schema different from every other, until all the values the schema allows have been used up.
+   * Values are generated like those of an {@link #ITERATION_PROP iteration}, from a position in a
+   * block of positions that belongs to the record, worked out from its index or number (see
+   * {@link #generate(long)}), but each position is mapped to a value by a pseudorandom permutation
+   * of the values the schema allows, so they look random instead of sequential. No two records
+   * share a position, however many times the schema comes up in them; a schema that can come up
+   * more times than can be counted (in a deeply recursive record, say) can't be unique. The values
+   * allowed are those in an int or long's {@link #RANGE_PROP}, any value of a fixed, or the strings
+   * matching a string's {@link #REGEX_PROP} (which it must have) within its {@link #LENGTH_PROP},
+   * if one is given.
+   * The permutation depends only on the schema, so generators for the same schema agree on it
+   * across threads, processes and machines. Must be given as a boolean.
+   */
+  public static final String UNIQUE_PROP = "unique";
+
+  /**
+   * The name of the attribute for making the values generated for a date, time or timestamp
+   * (either an Avro logical type or a Kafka Connect type) increase from one to the next, starting
+   * at the low end of its {@link #RANGE_PROP} and wrapping around at the high end. Must be given as
+   * either a boolean or an object with the {@link #MONOTONIC_PROP_STEP} property specified; each
+   * value is chosen at random from within its own step, so consecutive values are strictly
+   * increasing but not evenly spaced.
+   */
+  public static final String MONOTONIC_PROP = "monotonic";
+  /**
+   * The name of the attribute for specifying the width of each step in a monotonic date, time or
+   * timestamp, in the units of its type (days, milliseconds or microseconds). Must be given as a
+   * positive integral number; defaults to one day for dates and one second for everything else.
+   */
+  public static final String MONOTONIC_PROP_STEP = "step";
+
+  /**
+   * The name of the attribute for deciding whether a field is generated afresh every time a record
+   * is replayed from a corpus (see {@link RecordCorpus}), rather than replayed as it was first
+   * generated, and whether a top-level field changes in every update of an {@link UpdateStream}.
+   * Must be given as a boolean; fields with an {@link #ITERATION_PROP}, a {@link #UNIQUE_PROP} or a
+   * {@link #MONOTONIC_PROP} attribute are refreshed unless this is given as false.
+   */
+  public static final String REFRESH_PROP = "refresh";
+
+  /**
+   * The name of the attribute for marking the field that identifies the entity a record describes,
+   * when generating a stream of updates to a set of entities (see {@link UpdateStream}). Must be
+   * given as a boolean.
+   */
+  public static final String ENTITY_KEY_PROP = "entity_key";
+
+  /**
+   * How deeply records may be nested inside one another by default; see {@link #maxDepth(int)}.
+   */
+  public static final int DEFAULT_MAX_DEPTH = 64;
+  /**
+   * The default element budget of each record, which is no budget at all; see
+   * {@link #maxElements(long)}.
+   */
+  public static final long UNLIMITED_ELEMENTS = Long.MAX_VALUE;
+
+  static final int DEFAULT_LENGTH_MIN = 8;
+  static final int DEFAULT_LENGTH_MAX = 16;
+
+  // Spreads consecutive record indexes out over the whole range of seeds (the golden ratio
+  // increment used by SplitMix64)
+  private static final long INDEX_SEED_INCREMENT = 0x9e3779b97f4a7c15L;
+  private static final long NOT_INDEXED = -1;
+  private static final long UNKNOWN_OCCURRENCES = -1;
+  private static final long NOT_COUNTED = -2;
+
   private final Schema topLevelSchema;
   private final Random random;
+  // Null when generating generic records
+  private final SpecificRecordTarget specific;
+  private FieldProfiler profiler;
+  private int maxDepth;
+  private long maxElements;
+  // The number of records the value being generated is nested in, and how many more array and map
+  // elements the current record may have
+  private int depth;
+  private long elementsLeft;
+  // Only used when generating records by index
+  private boolean indexSeeded;
+  private long indexSeed;
+  // Null if the schema has no iterations, unique values or monotonic logical types
+  private final AtomicLong recordCounter;
+  // The index of the record being generated, or the number it took from the record counter; the
+  // positions its values take in their sequences are worked out from it
+  private long recordNumber;
+  // The position the last value of each sequence in the current record took, keyed by iteration
+  // or monotonic logical type
+  private final Map<Object, Long> recordIterations;
+  // The most times a value of each sequenced schema can come up in one record
+  private final Map<Schema, Long> strides;
 
   /**
    * Creates a generator out of an already-parsed {@link Schema}.
@@ -173,8 +267,39 @@ public class Generator {
    * @param random The object to use for generating randomness when producing values.
    */
   public Generator(Schema topLevelSchema, Random random) {
+    this(topLevelSchema, random, null);
+  }
+
+  /**
+   * Creates a generator that produces instances of a {@link SpecificRecord} class, such as one
+   * generated by the Avro compiler, instead of generic records. Nested records, enums and fixed
+   * values are instances of their own generated classes, and fields whose logical types the class
+   * converts are set to converted values; otherwise values are generated exactly as they would be
+   * for the class's schema, annotations included. This is much cheaper than generating generic
+   * records and copying them into the class with {@link SpecificData#deepCopy(Schema, Object)}.
+   * @param recordClass The class to generate instances of; its schema is the one the Avro compiler
+   *     embedded in it.
+   * @param random The object to use for generating randomness when producing values.
+   */
+  public Generator(Class<? extends SpecificRecord> recordClass, Random random) {
+    this(SpecificData.get().getSchema(recordClass), random, recordClass);
+  }
+
+  private Generator(
+      Schema topLevelSchema,
+      Random random,
+      Class<? extends SpecificRecord> recordClass) {
     this.topLevelSchema = topLevelSchema;
     this.random = random;
+    this.specific =
+        recordClass != null ? new SpecificRecordTarget(recordClass, topLevelSchema) : null;
+    this.maxDepth = DEFAULT_MAX_DEPTH;
+    this.maxElements = UNLIMITED_ELEMENTS;
+    this.indexSeeded = false;
+    Set<Schema> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    this.recordCounter = sequenced(topLevelSchema, visited) ? recordCounter(topLevelSchema) : null;
+    this.recordIterations = new IdentityHashMap<>();
+    this.strides = new IdentityHashMap<>();
   }
 
   /**
@@ -183,7 +308,7 @@ public class Generator {
    * @param random The object to use for generating randomness when producing values.
    */
   public Generator(String schemaString, Random random) {
-    this(schemaParser.parse(schemaString), random);
+    this(new Schema.Parser().parse(schemaString), random);
   }
 
   /**
@@ -193,7 +318,7 @@ public class Generator {
    * @throws IOException if an error occurs while reading from the input stream.
    */
   public Generator(InputStream schemaStream, Random random) throws IOException {
-    this(schemaParser.parse(schemaStream), random);
+    this(new Schema.Parser().parse(schemaStream), random);
   }
 
   /**
@@ -203,7 +328,7 @@ public class Generator {
    * @throws IOException if an error occurs while reading from the schema file.
    */
   public Generator(File schemaFile, Random random) throws IOException {
-    this(schemaParser.parse(schemaFile), random);
+    this(new Schema.Parser().parse(schemaFile), random);
   }
 
   /**
@@ -213,6 +338,136 @@ public class Generator {
     return topLevelSchema;
   }
 
+  /**
+   * Times the fields of some of the records generated from now on.
+   * @param profiler The profiler to report field timings to, or null to stop profiling.
+   */
+  void profile(FieldProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  /**
+   * Limits how deeply records may be nested inside one another (directly, or through arrays, maps
+   * and unions), which keeps recursive schemas such as linked lists and trees from growing without
+   * bound. Once a value is nested in that many records, arrays and maps are generated empty, and
+   * unions choose their null branch (or failing that, a branch that isn't a record) instead of a
+   * random one; a record that has to be nested any deeper than that anyway is an error.
+   * @param maxDepth The most records a value may be nested in; must be positive.
+   * @return This generator.
+   */
+  public Generator maxDepth(int maxDepth) {
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("Max depth must be positive: " + maxDepth);
+    }
+    this.maxDepth = maxDepth;
+    strides.clear();
+    return this;
+  }
+
+  int maxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Limits the total number of array and map elements in each generated record, no matter how
+   * they're nested, so that the size of records stays predictable. Lengths are chosen as usual,
+   * and then cut down to whatever is left of the budget; once it's used up, every further array
+   * and map in the record is empty.
+   * @param maxElements The most array and map elements a record may have; must not be negative.
+   * @return This generator.
+   */
+  public Generator maxElements(long maxElements) {
+    if (maxElements < 0) {
+      throw new IllegalArgumentException("Max elements cannot be negative: " + maxElements);
+    }
+    this.maxElements = maxElements;
+    strides.clear();
+    return this;
+  }
+
+  long maxElements() {
+    return maxElements;
+  }
+
+  /**
+   * @param arrays Whether to count arrays as well as maps.
+   * @return The most elements that any single array or map of a record could be given, going by
+   *     their length annotations and the element budget.
+   */
+  long longestCollection(boolean arrays) {
+    Set<Schema> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    return longestCollection(topLevelSchema, arrays, visited);
+  }
+
+  private long longestCollection(Schema schema, boolean arrays, Set<Schema> visited) {
+    if (!visited.add(schema)) {
+      return 0;
+    }
+    Map propertiesProp = getProperties(schema).orElse(Collections.emptyMap());
+    if (propertiesProp.containsKey(OPTIONS_PROP) || propertiesProp.containsKey(ITERATION_PROP)) {
+      return 0;
+    }
+    switch (schema.getType()) {
+      case RECORD:
+        long longest = 0;
+        for (Schema.Field field : schema.getFields()) {
+          longest = Math.max(longest, longestCollection(field.schema(), arrays, visited));
+        }
+        return longest;
+      case UNION:
+        longest = 0;
+        for (Schema branch : schema.getTypes()) {
+          longest = Math.max(longest, longestCollection(branch, arrays, visited));
+        }
+        return longest;
+      case ARRAY:
+      case MAP:
+        boolean map = schema.getType() == Schema.Type.MAP;
+        long length = map || arrays
+            ? Math.min(getLengthBounds(propertiesProp).max() - 1L, maxElements)
+            : 0;
+        Schema elements = map ? schema.getValueType() : schema.getElementType();
+        return Math.max(length, longestCollection(elements, arrays, visited));
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @param schema A schema with the {@link #OPTIONS_PROP} property.
+   * @param propertiesProp The schema's arg.properties.
+   * @return The options that values for the schema are picked from.
+   */
+  List<Object> options(Schema schema, Map propertiesProp) {
+    if (!optionsCache.containsKey(schema)) {
+      optionsCache.put(schema, parseOptions(schema, propertiesProp));
+    }
+    return optionsCache.get(schema);
+  }
+
+  /**
+   * @param schema A map schema whose {@link #KEYS_PROP} property has the {@link #OPTIONS_PROP}
+   *     property.
+   * @param keyPropMap The map schema's keys property.
+   * @return The options that keys for the map are picked from.
+   */
+  List<Object> keyOptions(Schema schema, Map keyPropMap) {
+    if (!optionsCache.containsKey(schema)) {
+      optionsCache.put(schema, parseOptions(Schema.create(Schema.Type.STRING), keyPropMap));
+    }
+    return optionsCache.get(schema);
+  }
+
+  /**
+   * @param schema A map schema whose key options have been parsed by
+   *     {@link #keyOptions(Schema, Map)}.
+   * @return A key for the map, picked the way a generated map's would be.
+   */
+  Object generateKeyOption(Schema schema) {
+    List<Object> options = optionsCache.get(schema);
+    return options.get(random.nextInt(options.size()));
+  }
+
   /**
    * Generate an object that matches the given schema and its specified properties.
    * @return An object whose type corresponds to the top-level schema as follows:
@@ -235,10 +490,16 @@ public class Generator {
    *     <td>{@link Double}</td>
    *   <tr>
    *     <td>{@link org.apache.avro.Schema.Type#ENUM ENUM}</td>
-   *     <td>{@link GenericEnumSymbol}</td>
+   *     <td>
+   *       {@link org.apache.avro.generic.GenericEnumSymbol}, or the enum's own class for a
+   *       {@link #Generator(Class, Random) generator of specific records}
+   *     </td>
    *   <tr>
    *     <td>{@link org.apache.avro.Schema.Type#FIXED FIXED}</td>
-   *     <td>{@link GenericFixed}</td>
+   *     <td>
+   *       {@link org.apache.avro.generic.GenericFixed}, or the fixed's own class for a
+   *       {@link #Generator(Class, Random) generator of specific records}
+   *     </td>
    *   <tr>
    *     <td>{@link org.apache.avro.Schema.Type#FLOAT FLOAT}</td>
    *     <td>{@link Float}</td>
@@ -259,7 +520,10 @@ public class Generator {
    *     <td>{@link Object} (but will always be null)</td>
    *   <tr>
    *     <td>{@link org.apache.avro.Schema.Type#RECORD RECORD}</td>
-   *     <td>{@link GenericRecord}</td>
+   *     <td>
+   *       {@link org.apache.avro.generic.GenericRecord}, or the record's own class for a
+   *       {@link #Generator(Class, Random) generator of specific records}
+   *     </td>
    *   <tr>
    *     <td>{@link org.apache.avro.Schema.Type#STRING STRING}</td>
    *     <td>{@link String}</td>
@@ -272,17 +536,184 @@ public class Generator {
    * </table>
    */
   public Object generate() {
+    startSequentialRecord();
+    return generateTopLevel();
+  }
+
+  /**
+   * Generate the record at the given position of the sequence of records this generator can
+   * produce. Unlike {@link #generate()}, the result depends only on the schema, the seed and the
+   * index, and not on what has been generated before: the same record is produced for the same
+   * index by any generator for the same schema whose {@link Random} was created with the same seed,
+   * no matter which other records it has or hasn't generated. That makes it possible to split one
+   * logical sequence of records between any number of threads, processes or machines, each
+   * generating its own range of indexes.
+   *
+   * <p>Each record gets its own stream of randomness, seeded from a mix of the index and a seed
+   * drawn from the generator's {@link Random} the first time this is called. Values with an
+   * iteration or unique annotation or a monotonic logical type take the same values as in the
+   * record {@link #generate()} generates with that number: each record has a block of positions in
+   * each such sequence, as long as the most times the annotated schema can come up in one record,
+   * and the value's occurrences in the record take them in turn.
+   * @param recordIndex The position of the record to generate; must not be negative.
+   * @return The generated object, as described in {@link #generate()}.
+   */
+  public Object generate(long recordIndex) {
+    if (recordIndex < 0) {
+      throw new IllegalArgumentException("Record index cannot be negative: " + recordIndex);
+    }
+    startIndexedRecord(recordIndex);
+    return generateTopLevel();
+  }
+
+  private Object generateTopLevel() {
+    depth = 0;
+    elementsLeft = maxElements;
+    if (profiler != null && profiler.startRecord()) {
+      Object result = generateObject(topLevelSchema);
+      profiler.endRecord();
+      return result;
+    }
     return generateObject(topLevelSchema);
   }
 
+  /**
+   * Generates new values for just some of the values in a record, each the way it would be
+   * generated as part of a whole one: values with an iteration annotation or a monotonic logical
+   * type carry on from the last record generated, or, given an index, take the values they'd have
+   * in the record {@link #generate(long) generated for that index}. Lets a previously generated
+   * record be reused with only those values changed. Records among the values are nested as if
+   * they were fields of the top-level record, and the values share one fresh element budget.
+   * @param schemas The schemas of the values, in the order they appear in the record.
+   * @param recordIndex The index of the record the values are for, or -1 to carry on after the last
+   *     record generated.
+   * @param values Receives the generated values, in the same order as their schemas.
+   */
+  void generateValues(Schema[] schemas, long recordIndex, Object[] values) {
+    depth = topLevelSchema.getType() == Schema.Type.RECORD ? 1 : 0;
+    elementsLeft = maxElements;
+    startRecordNumber(recordIndex);
+    for (int i = 0; i < schemas.length; i++) {
+      values[i] = generateObject(schemas[i]);
+    }
+  }
+
+  /**
+   * Starts a record that code compiled for the schema (see {@link GeneratorCompiler}) generates
+   * itself, calling back into the generator only for the values it doesn't compile.
+   * @param recordIndex The index of the record, as for {@link #generate(long)}, or -1 to carry on
+   *     after the last record generated.
+   */
+  void startRecord(long recordIndex) {
+    depth = 0;
+    elementsLeft = maxElements;
+    startRecordNumber(recordIndex);
+  }
+
+  /**
+   * Generates a value in the middle of a record started with {@link #startRecord(long)}.
+   * @param schema The schema of the value, as reached from the top-level schema.
+   * @param depth The number of records the value is nested in.
+   * @return The generated value.
+   */
+  Object generateNested(Schema schema, int depth) {
+    this.depth = depth;
+    return generateObject(schema);
+  }
+
+  /**
+   * Cuts the length of an array or map in the middle of a record started with
+   * {@link #startRecord(long)} down to what's left of the record's element budget, the way a
+   * generated one's would be.
+   * @param length The length chosen for the array or map.
+   * @param depth The number of records the array or map is nested in.
+   * @return The length the array or map may have, which is now used up.
+   */
+  int budgetElements(int length, int depth) {
+    this.depth = depth;
+    return budgetLength(length);
+  }
+
+  /**
+   * Reseeds the generator, so that {@link #generate(long)} goes on to produce the records that a
+   * generator whose {@link Random} had been created with the given seed would.
+   * @param seed The seed to generate records for.
+   */
+  void reseed(long seed) {
+    random.setSeed(seed);
+    indexSeeded = false;
+  }
+
+  Random random() {
+    return random;
+  }
+
+  private void startRecordNumber(long recordIndex) {
+    if (recordIndex == NOT_INDEXED) {
+      startSequentialRecord();
+      return;
+    }
+    if (recordIndex < 0) {
+      throw new IllegalArgumentException("Record index cannot be negative: " + recordIndex);
+    }
+    startIndexedRecord(recordIndex);
+  }
+
+  // Records generated without an index are numbered by a counter shared by every generator for the
+  // schema, so that their sequences have the values of the records generated with those indexes
+  private void startSequentialRecord() {
+    if (recordCounter != null) {
+      recordNumber = recordCounter.getAndIncrement();
+      recordIterations.clear();
+    }
+  }
+
+  private void startIndexedRecord(long recordIndex) {
+    if (!indexSeeded) {
+      indexSeed = random.nextLong();
+      indexSeeded = true;
+    }
+    random.setSeed(mix(indexSeed + (recordIndex + 1) * INDEX_SEED_INCREMENT));
+    if (recordCounter != null) {
+      recordNumber = recordIndex;
+      recordIterations.clear();
+    }
+  }
+
+  // The SplitMix64 finalizer; java.util.Random only scrambles its seed with a single XOR, so
+  // seeds that differ in a few bits would otherwise start out with visibly similar values
+  static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+
   private Object generateObject(Schema schema) {
     Map propertiesProp = getProperties(schema).orElse(Collections.emptyMap());
+    if (isUnique(propertiesProp)) {
+      Object value = generateIteration(schema, propertiesProp);
+      return specific != null ? specific.copy(schema, value) : value;
+    }
     if (propertiesProp.containsKey(OPTIONS_PROP)) {
-      return generateOption(schema, propertiesProp);
+      Object option = generateOption(schema, propertiesProp);
+      return specific != null ? specific.copy(schema, option) : option;
     }
     if (propertiesProp.containsKey(ITERATION_PROP)) {
       return generateIteration(schema, propertiesProp);
     }
+    if (mayHaveLogicalType(schema)) {
+      LogicalTypeGenerator logicalType = logicalTypeCache.get(schema);
+      if (logicalType == null) {
+        logicalType = LogicalTypeGenerator.of(schema, propertiesProp);
+        if (logicalType != null) {
+          logicalType = cacheLogicalType(schema, logicalType);
+        }
+      }
+      if (logicalType != null) {
+        Object value = generateLogicalType(schema, logicalType);
+        return specific != null ? specific.copy(schema, value) : value;
+      }
+    }
     switch (schema.getType()) {
       case ARRAY:
         return generateArray(schema, propertiesProp);
@@ -332,6 +763,21 @@ public class Generator {
     }
   }
 
+  static boolean isUnique(Map propertiesProp) {
+    Object uniqueProp = propertiesProp.get(UNIQUE_PROP);
+    if (uniqueProp == null) {
+      return false;
+    }
+    if (!(uniqueProp instanceof Boolean)) {
+      throw new RuntimeException(String.format(
+          "%s property must be given as a boolean, was %s instead",
+          UNIQUE_PROP,
+          uniqueProp.getClass().getName()
+      ));
+    }
+    return (Boolean) uniqueProp;
+  }
+
   private void enforceMutualExclusion(
       Map propertiesProp,
       String includedProp,
@@ -439,23 +885,12 @@ public class Generator {
             optionsEncoding.getClass().getName()
         ));
       }
-      try (InputStream optionsStream = new FileInputStream((String) optionsFile)) {
-        DatumReader<Object> optionReader = new GenericDatumReader(schema);
-        Decoder decoder;
-        if ("binary".equals(optionsEncoding)) {
-          decoder = DecoderFactory.get().binaryDecoder(optionsStream, null);
-        } else if ("json".equals(optionsEncoding)) {
-          decoder = DecoderFactory.get().jsonDecoder(schema, optionsStream);
-        } else {
-          throw new RuntimeException(String.format(
-              "'%s' field of %s property only supports two formats: 'binary' and 'json'",
-              OPTIONS_PROP_ENCODING,
-              OPTIONS_PROP
-          ));
-        }
+      try {
         List<Object> options = new ArrayList<>();
-        Object option = optionReader.read(null, decoder);
-        while (option != null) {
+        for (Object option : OptionsFileReader.read(
+            schema,
+            (String) optionsFile,
+            (String) optionsEncoding)) {
           option = wrapOption(schema, option);
           if (!GenericData.get().validate(schema, option)) {
             throw new RuntimeException(String.format(
@@ -466,11 +901,6 @@ public class Generator {
             ));
           }
           options.add(option);
-          try {
-            option = optionReader.read(null, decoder);
-          } catch (EOFException eofe) {
-            break;
-          }
         }
         return options;
       } catch (FileNotFoundException fnfe) {
@@ -501,14 +931,11 @@ public class Generator {
 
   @SuppressWarnings("unchecked")
   private <T> T generateOption(Schema schema, Map propertiesProp) {
-    if (!optionsCache.containsKey(schema)) {
-      optionsCache.put(schema, parseOptions(schema, propertiesProp));
-    }
-    List<Object> options = optionsCache.get(schema);
+    List<Object> options = options(schema, propertiesProp);
     return (T) options.get(random.nextInt(options.size()));
   }
 
-  private Iterator<Object> getBooleanIterator(Map iterationProps) {
+  private Iteration getBooleanIteration(Map iterationProps) {
     Object startProp = iterationProps.get(ITERATION_PROP_START);
     if (startProp == null) {
       throw new RuntimeException(String.format(
@@ -539,14 +966,14 @@ public class Generator {
           ITERATION_PROP_STEP
       ));
     }
-    return new BooleanIterator((Boolean) startProp);
+    return new BooleanIteration((Boolean) startProp);
   }
 
-  private Iterator<Object> getIntegralIterator(
+  private Iteration getIntegralIteration(
       Long iterationStartField,
       Long iterationRestartField,
       Long iterationStepField,
-      IntegralIterator.Type type) {
+      IntegralIteration.Type type) {
 
     if (iterationStartField == null) {
       throw new RuntimeException(String.format(
@@ -573,7 +1000,7 @@ public class Generator {
         break;
       default:
         throw new RuntimeException(String.format(
-            "Unexpected IntegralIterator type: %s",
+            "Unexpected IntegralIteration type: %s",
             type
         ));
     }
@@ -586,7 +1013,7 @@ public class Generator {
       if (iterationStep > 0) {
         iterationRestart = restartHighDefault;
       } else if (iterationStep < 0) {
-        iterationRestart = -1 * restartLowDefault;
+        iterationRestart = restartLowDefault;
       } else {
         throw new RuntimeException(String.format(
             "%s field of %s property cannot be zero",
@@ -646,7 +1073,7 @@ public class Generator {
       }
     }
 
-    return new IntegralIterator(
+    return new IntegralIteration(
         iterationStart,
         iterationRestart,
         iterationStep,
@@ -654,11 +1081,11 @@ public class Generator {
     );
   }
 
-  private Iterator<Object> getDecimalIterator(
+  private Iteration getDecimalIteration(
       Double iterationStartField,
       Double iterationRestartField,
       Double iterationStepField,
-      DecimalIterator.Type type) {
+      DecimalIteration.Type type) {
 
     if (iterationStartField == null) {
       throw new RuntimeException(String.format(
@@ -685,7 +1112,7 @@ public class Generator {
         break;
       default:
         throw new RuntimeException(String.format(
-            "Unexpected DecimalIterator type: %s",
+            "Unexpected DecimalIteration type: %s",
             type
         ));
     }
@@ -698,7 +1125,7 @@ public class Generator {
       if (iterationStep > 0) {
         iterationRestart = restartHighDefault;
       } else if (iterationStep < 0) {
-        iterationRestart = -1 * restartLowDefault;
+        iterationRestart = restartLowDefault;
       } else {
         throw new RuntimeException(String.format(
             "%s field of %s property cannot be zero",
@@ -758,7 +1185,7 @@ public class Generator {
       }
     }
 
-    return new DecimalIterator(
+    return new DecimalIteration(
         iterationStart,
         iterationRestart,
         iterationStep,
@@ -766,10 +1193,10 @@ public class Generator {
     );
   }
 
-  private Iterator<Object> parseIterations(Schema schema, Map propertiesProp) {
+  private Iteration parseIterations(Schema schema, Map propertiesProp) {
     enforceMutualExclusion(
         propertiesProp, ITERATION_PROP,
-        LENGTH_PROP, REGEX_PROP, OPTIONS_PROP, RANGE_PROP
+        LENGTH_PROP, REGEX_PROP, OPTIONS_PROP, RANGE_PROP, UNIQUE_PROP
     );
 
     Object iterationProp = propertiesProp.get(ITERATION_PROP);
@@ -777,7 +1204,7 @@ public class Generator {
       Map iterationProps = (Map) iterationProp;
       switch (schema.getType()) {
         case BOOLEAN:
-          return getBooleanIterator(iterationProps);
+          return getBooleanIteration(iterationProps);
         case INT: {
           Integer iterationStartField = getIntegerNumberField(
               ITERATION_PROP,
@@ -794,11 +1221,11 @@ public class Generator {
               ITERATION_PROP_STEP,
               iterationProps
           );
-          return getIntegralIterator(
+          return getIntegralIteration(
               iterationStartField != null ? iterationStartField.longValue() : null,
               iterationRestartField != null ? iterationRestartField.longValue() : null,
               iterationStepField != null ? iterationStepField.longValue() : null,
-              IntegralIterator.Type.INTEGER
+              IntegralIteration.Type.INTEGER
           );
         }
         case LONG: {
@@ -817,11 +1244,11 @@ public class Generator {
               ITERATION_PROP_STEP,
               iterationProps
           );
-          return getIntegralIterator(
+          return getIntegralIteration(
               iterationStartField,
               iterationRestartField,
               iterationStepField,
-              IntegralIterator.Type.LONG
+              IntegralIteration.Type.LONG
           );
         }
         case FLOAT: {
@@ -840,11 +1267,11 @@ public class Generator {
               ITERATION_PROP_STEP,
               iterationProps
           );
-          return getDecimalIterator(
+          return getDecimalIteration(
               iterationStartField != null ? iterationStartField.doubleValue() : null,
               iterationRestartField != null ? iterationRestartField.doubleValue() : null,
               iterationStepField != null ? iterationStepField.doubleValue() : null,
-              DecimalIterator.Type.FLOAT
+              DecimalIteration.Type.FLOAT
           );
         }
         case DOUBLE: {
@@ -863,11 +1290,11 @@ public class Generator {
               ITERATION_PROP_STEP,
               iterationProps
           );
-          return getDecimalIterator(
+          return getDecimalIteration(
               iterationStartField,
               iterationRestartField,
               iterationStepField,
-              DecimalIterator.Type.DOUBLE
+              DecimalIteration.Type.DOUBLE
           );
         }
         default:
@@ -886,16 +1313,321 @@ public class Generator {
     }
   }
 
+  private Iteration parseUnique(Schema schema, Map propertiesProp) {
+    enforceMutualExclusion(
+        propertiesProp, UNIQUE_PROP,
+        OPTIONS_PROP, ITERATION_PROP
+    );
+
+    long key = mix(SchemaNormalization.fingerprint64(
+        schema.toString().getBytes(StandardCharsets.UTF_8)
+    ));
+    Object rangeProp = propertiesProp.get(RANGE_PROP);
+    switch (schema.getType()) {
+      case INT: {
+        if (rangeProp instanceof Map) {
+          int[] range = intRange((Map) rangeProp);
+          return new UniqueIntegralIteration(
+              range[0],
+              new FeistelPermutation((long) range[1] - range[0], key),
+              UniqueIntegralIteration.Type.INTEGER
+          );
+        }
+        return new UniqueIntegralIteration(
+            Integer.MIN_VALUE,
+            new FeistelPermutation(1L << Integer.SIZE, key),
+            UniqueIntegralIteration.Type.INTEGER
+        );
+      }
+      case LONG: {
+        if (rangeProp instanceof Map) {
+          long[] range = longRange((Map) rangeProp);
+          // The difference may not fit in a long, but it always fits in an unsigned one
+          return new UniqueIntegralIteration(
+              range[0],
+              new FeistelPermutation(range[1] - range[0], key),
+              UniqueIntegralIteration.Type.LONG
+          );
+        }
+        return new UniqueIntegralIteration(
+            0,
+            new FeistelPermutation(0, key),
+            UniqueIntegralIteration.Type.LONG
+        );
+      }
+      case FIXED: {
+        int size = schema.getFixedSize();
+        long domain = size < Long.BYTES ? 1L << (Byte.SIZE * size) : 0;
+        return new UniqueFixedIteration(schema, new FeistelPermutation(domain, key), key);
+      }
+      case STRING: {
+        Object regexProp = propertiesProp.get(REGEX_PROP);
+        if (!(regexProp instanceof String)) {
+          throw new RuntimeException(String.format(
+              "%s property of a string schema requires a %s property, given as a string",
+              UNIQUE_PROP,
+              REGEX_PROP
+          ));
+        }
+        // Only the lengths asked for, rather than the lengths random strings default to, since
+        // many a regex has no strings of those lengths
+        Object lengthProp = propertiesProp.get(LENGTH_PROP);
+        LengthBounds lengthBounds = lengthProp != null
+            ? getLengthBounds(lengthProp)
+            : new LengthBounds(0, Integer.MAX_VALUE);
+        RegexStringGenerator.RankedLanguage language = RegexStringGenerator.ranked(
+            (String) regexProp,
+            lengthBounds.min(),
+            lengthBounds.max()
+        );
+        return new UniqueStringIteration(language, new FeistelPermutation(language.size(), key));
+      }
+      default:
+        throw new RuntimeException(String.format(
+            "%s property can only be specified for int, long, fixed and string schemas, not %s",
+            UNIQUE_PROP,
+            schema.getType().getName()
+        ));
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T generateIteration(Schema schema, Map propertiesProp) {
-    if (!iteratorCache.containsKey(schema)) {
-      iteratorCache.put(schema, parseIterations(schema, propertiesProp));
+    Iteration iteration = iterationCache.get(schema);
+    if (iteration == null) {
+      iteration = cacheIteration(
+          schema,
+          propertiesProp.containsKey(ITERATION_PROP)
+              ? parseIterations(schema, propertiesProp)
+              : parseUnique(schema, propertiesProp)
+      );
+    }
+    return (T) iteration.valueAt(nextPosition(schema, iteration));
+  }
+
+  // The position in its sequence of the next value of the schema in the current record; the
+  // record's block of positions is as long as the most times the value can come up in a record,
+  // so that no two records share a position
+  private long nextPosition(Schema schema, Object sequence) {
+    Long previous = recordIterations.get(sequence);
+    long position;
+    if (previous != null) {
+      position = previous + 1;
+    } else {
+      long stride = stride(schema);
+      if (recordNumber > Long.MAX_VALUE / stride) {
+        throw new RuntimeException(String.format(
+            "Record %d is past the end of the sequences of values that can come up %d times in "
+                + "each record",
+            recordNumber,
+            stride
+        ));
+      }
+      position = recordNumber * stride;
+    }
+    recordIterations.put(sequence, position);
+    return position;
+  }
+
+  private long stride(Schema schema) {
+    Long stride = strides.get(schema);
+    if (stride == null) {
+      long occurrences = occurrences(topLevelSchema, schema, 0, new IdentityHashMap<>());
+      if (occurrences == UNKNOWN_OCCURRENCES) {
+        throw new RuntimeException(String.format(
+            "A %s %s, %s or %s value can come up too many times in one record to tell; give the "
+                + "arrays and maps around it a shorter %s or lower the depth limit of recursive "
+                + "records around it",
+            schema.getType().getName(),
+            ITERATION_PROP,
+            UNIQUE_PROP,
+            MONOTONIC_PROP,
+            LENGTH_PROP
+        ));
+      }
+      // A schema generated on its own (as a refreshed value, say) has a block to itself
+      stride = Math.max(1, occurrences);
+      strides.put(schema, stride);
     }
-    return (T) iteratorCache.get(schema).next();
+    return stride;
+  }
+
+  // The most times the target schema can be generated as part of a value of the given schema,
+  // nested in the given number of records, following the same depth limit and element budget as
+  // generation does; or -1 if that's too many to count, which unions of records can make it
+  private long occurrences(Schema schema, Schema target, int depth, Map<Schema, long[]> known) {
+    if (schema == target) {
+      return 1;
+    }
+    long[] byDepth = known.get(schema);
+    if (byDepth == null) {
+      byDepth = new long[maxDepth + 1];
+      Arrays.fill(byDepth, NOT_COUNTED);
+      known.put(schema, byDepth);
+    }
+    if (byDepth[depth] != NOT_COUNTED) {
+      return byDepth[depth];
+    }
+    Map propertiesProp = getProperties(schema).orElse(Collections.emptyMap());
+    long result = 0;
+    if (!propertiesProp.containsKey(OPTIONS_PROP)) {
+      switch (schema.getType()) {
+        case RECORD:
+          if (depth < maxDepth) {
+            for (Schema.Field field : schema.getFields()) {
+              result = saturatedSum(result, occurrences(field.schema(), target, depth + 1, known));
+            }
+          }
+          break;
+        case UNION:
+          if (depth >= maxDepth) {
+            result = occurrences(shallowestBranch(schema.getTypes()), target, depth, known);
+          } else {
+            for (Schema branch : schema.getTypes()) {
+              long branchOccurrences = occurrences(branch, target, depth, known);
+              if (branchOccurrences == UNKNOWN_OCCURRENCES) {
+                result = UNKNOWN_OCCURRENCES;
+                break;
+              }
+              result = Math.max(result, branchOccurrences);
+            }
+          }
+          break;
+        case ARRAY:
+        case MAP:
+          if (depth < maxDepth) {
+            long length = Math.min(getLengthBounds(propertiesProp).max() - 1L, maxElements);
+            Schema elements = schema.getType() == Schema.Type.ARRAY
+                ? schema.getElementType()
+                : schema.getValueType();
+            result = saturatedProduct(length, occurrences(elements, target, depth, known));
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    byDepth[depth] = result;
+    return result;
+  }
+
+  private static long saturatedSum(long first, long second) {
+    if (first == UNKNOWN_OCCURRENCES || second == UNKNOWN_OCCURRENCES
+        || first > Long.MAX_VALUE - second) {
+      return UNKNOWN_OCCURRENCES;
+    }
+    return first + second;
+  }
+
+  private static long saturatedProduct(long first, long second) {
+    if (first == 0 || second == 0) {
+      return 0;
+    }
+    if (first == UNKNOWN_OCCURRENCES || second == UNKNOWN_OCCURRENCES
+        || first > Long.MAX_VALUE / second) {
+      return UNKNOWN_OCCURRENCES;
+    }
+    return first * second;
+  }
+
+  // Whether any value of the schema is part of a sequence: an iteration, a unique value or a
+  // monotonic logical type
+  private static boolean sequenced(Schema schema, Set<Schema> visited) {
+    if (!visited.add(schema)) {
+      return false;
+    }
+    Object propertiesProp = schema.getObjectProp(ARG_PROPERTIES_PROP);
+    if (propertiesProp instanceof Map) {
+      Map properties = (Map) propertiesProp;
+      if (properties.containsKey(ITERATION_PROP)
+          || properties.containsKey(UNIQUE_PROP)
+          || properties.containsKey(MONOTONIC_PROP)) {
+        return true;
+      }
+    }
+    switch (schema.getType()) {
+      case RECORD:
+        for (Schema.Field field : schema.getFields()) {
+          if (sequenced(field.schema(), visited)) {
+            return true;
+          }
+        }
+        return false;
+      case UNION:
+        for (Schema branch : schema.getTypes()) {
+          if (sequenced(branch, visited)) {
+            return true;
+          }
+        }
+        return false;
+      case ARRAY:
+        return sequenced(schema.getElementType(), visited);
+      case MAP:
+        return sequenced(schema.getValueType(), visited);
+      default:
+        return false;
+    }
+  }
+
+  private static synchronized AtomicLong recordCounter(Schema schema) {
+    AtomicLong existing = recordCounters.get(schema);
+    if (existing != null) {
+      return existing;
+    }
+    Map<Schema, AtomicLong> updated = new IdentityHashMap<>(recordCounters);
+    AtomicLong recordCounter = new AtomicLong();
+    updated.put(schema, recordCounter);
+    recordCounters = updated;
+    return recordCounter;
+  }
+
+  static boolean mayHaveLogicalType(Schema schema) {
+    switch (schema.getType()) {
+      case BYTES:
+      case FIXED:
+      case INT:
+      case LONG:
+      case STRING:
+        return schema.getLogicalType() != null
+            || schema.getProp(LogicalTypeGenerator.CONNECT_NAME_PROP) != null;
+      default:
+        return false;
+    }
+  }
+
+  private Object generateLogicalType(Schema schema, LogicalTypeGenerator logicalType) {
+    if (!logicalType.monotonic()) {
+      return logicalType.generate(random, 0);
+    }
+    return logicalType.generate(random, nextPosition(schema, logicalType));
+  }
+
+  private static synchronized LogicalTypeGenerator cacheLogicalType(
+      Schema schema,
+      LogicalTypeGenerator logicalType) {
+    LogicalTypeGenerator existing = logicalTypeCache.get(schema);
+    if (existing != null) {
+      return existing;
+    }
+    Map<Schema, LogicalTypeGenerator> updated = new IdentityHashMap<>(logicalTypeCache);
+    updated.put(schema, logicalType);
+    logicalTypeCache = updated;
+    return logicalType;
+  }
+
+  private static synchronized Iteration cacheIteration(Schema schema, Iteration iteration) {
+    Iteration existing = iterationCache.get(schema);
+    if (existing != null) {
+      return existing;
+    }
+    Map<Schema, Iteration> updated = new IdentityHashMap<>(iterationCache);
+    updated.put(schema, iteration);
+    iterationCache = updated;
+    return iteration;
   }
 
   private Collection<Object> generateArray(Schema schema, Map propertiesProp) {
-    int length = getLengthBounds(propertiesProp).random();
+    int length = budgetLength(getLengthBounds(propertiesProp).random());
     Collection<Object> result = new ArrayList<>(length);
     for (int i = 0; i < length; i++) {
       result.add(generateObject(schema.getElementType()));
@@ -903,21 +1635,41 @@ public class Generator {
     return result;
   }
 
+  // Cuts an array or map down to nothing if its elements could only nest records too deeply, and
+  // otherwise to what is left of the record's element budget, which it then uses up
+  private int budgetLength(int length) {
+    if (depth >= maxDepth) {
+      return 0;
+    }
+    int result = (int) Math.min(length, elementsLeft);
+    elementsLeft -= result;
+    return result;
+  }
+
   private Boolean generateBoolean(Map propertiesProp) {
-    Double odds = getDecimalNumberField(ARG_PROPERTIES_PROP, ODDS_PROP, propertiesProp);
+    Double odds = odds(propertiesProp);
     if (odds == null) {
       return random.nextBoolean();
     } else {
-      if (odds < 0.0 || odds > 1.0) {
-        throw new RuntimeException(String.format(
-            "%s property must be in the range [0.0, 1.0]",
-            ODDS_PROP
-        ));
-      }
       return random.nextDouble() < odds;
     }
   }
 
+  /**
+   * @param propertiesProp The properties of a boolean schema.
+   * @return The odds of generating true, or null if they're not given.
+   */
+  Double odds(Map propertiesProp) {
+    Double odds = getDecimalNumberField(ARG_PROPERTIES_PROP, ODDS_PROP, propertiesProp);
+    if (odds != null && (odds < 0.0 || odds > 1.0)) {
+      throw new RuntimeException(String.format(
+          "%s property must be in the range [0.0, 1.0]",
+          ODDS_PROP
+      ));
+    }
+    return odds;
+  }
+
   private ByteBuffer generateBytes(Map propertiesProp) {
     byte[] bytes = new byte[getLengthBounds(propertiesProp.get(LENGTH_PROP)).random()];
     random.nextBytes(bytes);
@@ -928,19 +1680,9 @@ public class Generator {
     Object rangeProp = propertiesProp.get(RANGE_PROP);
     if (rangeProp != null) {
       if (rangeProp instanceof Map) {
-        Map rangeProps = (Map) rangeProp;
-        Double rangeMinField = getDecimalNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
-        Double rangeMaxField = getDecimalNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
-        double rangeMin = rangeMinField != null ? rangeMinField : -1 * Double.MAX_VALUE;
-        double rangeMax = rangeMaxField != null ? rangeMaxField : Double.MAX_VALUE;
-        if (rangeMin >= rangeMax) {
-          throw new RuntimeException(String.format(
-              "'%s' field must be strictly less than '%s' field in %s property",
-              RANGE_PROP_MIN,
-              RANGE_PROP_MAX,
-              RANGE_PROP
-          ));
-        }
+        double[] range = doubleRange((Map) rangeProp);
+        double rangeMin = range[0];
+        double rangeMax = range[1];
         return rangeMin + (random.nextDouble() * (rangeMax - rangeMin));
       } else {
         throw new RuntimeException(String.format(
@@ -952,15 +1694,45 @@ public class Generator {
     return random.nextDouble();
   }
 
-  private GenericEnumSymbol generateEnumSymbol(Schema schema) {
+  /**
+   * @param rangeProps The range property of a double schema.
+   * @return The minimum (inclusive) and maximum (exclusive) of the range.
+   */
+  double[] doubleRange(Map rangeProps) {
+    Double rangeMinField = getDecimalNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
+    Double rangeMaxField = getDecimalNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
+    double rangeMin = rangeMinField != null ? rangeMinField : -1 * Double.MAX_VALUE;
+    double rangeMax = rangeMaxField != null ? rangeMaxField : Double.MAX_VALUE;
+    checkRange(rangeMin < rangeMax);
+    return new double[] {rangeMin, rangeMax};
+  }
+
+  private static void checkRange(boolean ordered) {
+    if (!ordered) {
+      throw new RuntimeException(String.format(
+          "'%s' field must be strictly less than '%s' field in %s property",
+          RANGE_PROP_MIN,
+          RANGE_PROP_MAX,
+          RANGE_PROP
+      ));
+    }
+  }
+
+  private Object generateEnumSymbol(Schema schema) {
     List<String> enums = schema.getEnumSymbols();
-    return new
-        GenericData.EnumSymbol(schema, enums.get(random.nextInt(enums.size())));
+    int symbol = random.nextInt(enums.size());
+    if (specific != null) {
+      return specific.enumSymbol(schema, symbol);
+    }
+    return new GenericData.EnumSymbol(schema, enums.get(symbol));
   }
 
-  private GenericFixed generateFixed(Schema schema) {
+  private Object generateFixed(Schema schema) {
     byte[] bytes = new byte[schema.getFixedSize()];
     random.nextBytes(bytes);
+    if (specific != null) {
+      return specific.fixed(schema, bytes);
+    }
     return new GenericData.Fixed(schema, bytes);
   }
 
@@ -968,82 +1740,91 @@ public class Generator {
     Object rangeProp = propertiesProp.get(RANGE_PROP);
     if (rangeProp != null) {
       if (rangeProp instanceof Map) {
-        Map rangeProps = (Map) rangeProp;
-        Float rangeMinField = getFloatNumberField(
-            RANGE_PROP,
-            RANGE_PROP_MIN,
-            rangeProps
-        );
-        Float rangeMaxField = getFloatNumberField(
-            RANGE_PROP,
-            RANGE_PROP_MAX,
-            rangeProps
-        );
-        float rangeMin = Optional.ofNullable(rangeMinField).orElse(-1 * Float.MAX_VALUE);
-        float rangeMax = Optional.ofNullable(rangeMaxField).orElse(Float.MAX_VALUE);
-        if (rangeMin >= rangeMax) {
-          throw new RuntimeException(String.format(
-              "'%s' field must be strictly less than '%s' field in %s property",
-              RANGE_PROP_MIN,
-              RANGE_PROP_MAX,
-              RANGE_PROP
-          ));
-        }
+        float[] range = floatRange((Map) rangeProp);
+        float rangeMin = range[0];
+        float rangeMax = range[1];
         return rangeMin + (random.nextFloat() * (rangeMax - rangeMin));
       }
     }
     return random.nextFloat();
   }
 
+  /**
+   * @param rangeProps The range property of a float schema.
+   * @return The minimum (inclusive) and maximum (exclusive) of the range.
+   */
+  float[] floatRange(Map rangeProps) {
+    Float rangeMinField = getFloatNumberField(
+        RANGE_PROP,
+        RANGE_PROP_MIN,
+        rangeProps
+    );
+    Float rangeMaxField = getFloatNumberField(
+        RANGE_PROP,
+        RANGE_PROP_MAX,
+        rangeProps
+    );
+    float rangeMin = Optional.ofNullable(rangeMinField).orElse(-1 * Float.MAX_VALUE);
+    float rangeMax = Optional.ofNullable(rangeMaxField).orElse(Float.MAX_VALUE);
+    checkRange(rangeMin < rangeMax);
+    return new float[] {rangeMin, rangeMax};
+  }
+
   private Integer generateInt(Map propertiesProp) {
     Object rangeProp = propertiesProp.get(RANGE_PROP);
     if (rangeProp != null) {
       if (rangeProp instanceof Map) {
-        Map rangeProps = (Map) rangeProp;
-        Integer rangeMinField = getIntegerNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
-        Integer rangeMaxField = getIntegerNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
-        int rangeMin = Optional.ofNullable(rangeMinField).orElse(Integer.MIN_VALUE);
-        int rangeMax = Optional.ofNullable(rangeMaxField).orElse(Integer.MAX_VALUE);
-        if (rangeMin >= rangeMax) {
-          throw new RuntimeException(String.format(
-              "'%s' field must be strictly less than '%s' field in %s property",
-              RANGE_PROP_MIN,
-              RANGE_PROP_MAX,
-              RANGE_PROP
-          ));
-        }
+        int[] range = intRange((Map) rangeProp);
+        int rangeMin = range[0];
+        int rangeMax = range[1];
         return rangeMin + ((int) (random.nextDouble() * (rangeMax - rangeMin)));
       }
     }
     return random.nextInt();
   }
 
+  /**
+   * @param rangeProps The range property of an int schema.
+   * @return The minimum (inclusive) and maximum (exclusive) of the range.
+   */
+  int[] intRange(Map rangeProps) {
+    Integer rangeMinField = getIntegerNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
+    Integer rangeMaxField = getIntegerNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
+    int rangeMin = Optional.ofNullable(rangeMinField).orElse(Integer.MIN_VALUE);
+    int rangeMax = Optional.ofNullable(rangeMaxField).orElse(Integer.MAX_VALUE);
+    checkRange(rangeMin < rangeMax);
+    return new int[] {rangeMin, rangeMax};
+  }
+
   private Long generateLong(Map propertiesProp) {
     Object rangeProp = propertiesProp.get(RANGE_PROP);
     if (rangeProp != null) {
       if (rangeProp instanceof Map) {
-        Map rangeProps = (Map) rangeProp;
-        Long rangeMinField = getIntegralNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
-        Long rangeMaxField = getIntegralNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
-        long rangeMin = Optional.ofNullable(rangeMinField).orElse(Long.MIN_VALUE);
-        long rangeMax = Optional.ofNullable(rangeMaxField).orElse(Long.MAX_VALUE);
-        if (rangeMin >= rangeMax) {
-          throw new RuntimeException(String.format(
-              "'%s' field must be strictly less than '%s' field in %s property",
-              RANGE_PROP_MIN,
-              RANGE_PROP_MAX,
-              RANGE_PROP
-          ));
-        }
+        long[] range = longRange((Map) rangeProp);
+        long rangeMin = range[0];
+        long rangeMax = range[1];
         return rangeMin + (((long) (random.nextDouble() * (rangeMax - rangeMin))));
       }
     }
     return random.nextLong();
   }
 
+  /**
+   * @param rangeProps The range property of a long schema.
+   * @return The minimum (inclusive) and maximum (exclusive) of the range.
+   */
+  long[] longRange(Map rangeProps) {
+    Long rangeMinField = getIntegralNumberField(RANGE_PROP, RANGE_PROP_MIN, rangeProps);
+    Long rangeMaxField = getIntegralNumberField(RANGE_PROP, RANGE_PROP_MAX, rangeProps);
+    long rangeMin = Optional.ofNullable(rangeMinField).orElse(Long.MIN_VALUE);
+    long rangeMax = Optional.ofNullable(rangeMaxField).orElse(Long.MAX_VALUE);
+    checkRange(rangeMin < rangeMax);
+    return new long[] {rangeMin, rangeMax};
+  }
+
   private Map<String, Object> generateMap(Schema schema, Map propertiesProp) {
     Map<String, Object> result = new HashMap<>();
-    int length = getLengthBounds(propertiesProp).random();
+    int length = budgetLength(getLengthBounds(propertiesProp).random());
     Object keyProp = propertiesProp.get(KEYS_PROP);
     if (keyProp == null) {
       for (int i = 0; i < length; i++) {
@@ -1052,9 +1833,7 @@ public class Generator {
     } else if (keyProp instanceof Map) {
       Map keyPropMap = (Map) keyProp;
       if (keyPropMap.containsKey(OPTIONS_PROP)) {
-        if (!optionsCache.containsKey(schema)) {
-          optionsCache.put(schema, parseOptions(Schema.create(Schema.Type.STRING), keyPropMap));
-        }
+        keyOptions(schema, keyPropMap);
         for (int i = 0; i < length; i++) {
           result.put(generateOption(schema, keyPropMap), generateObject(schema.getValueType()));
         }
@@ -1080,28 +1859,58 @@ public class Generator {
     return null;
   }
 
-  private GenericRecord generateRecord(Schema schema) {
+  private IndexedRecord generateRecord(Schema schema) {
+    if (depth >= maxDepth) {
+      throw new RuntimeException(String.format(
+          "Record %s would be nested more than %d deep; the schema has no optional branch to cut "
+              + "it short with, so either the depth limit is too low or the schema can't end",
+          schema.getFullName(),
+          maxDepth
+      ));
+    }
+    if (specific != null) {
+      SpecificRecordTarget.RecordClass recordClass = specific.recordClass(schema);
+      SpecificRecord record = recordClass.newInstance();
+      depth++;
+      for (Schema.Field field : schema.getFields()) {
+        recordClass.put(record, field, generateField(field));
+      }
+      depth--;
+      return record;
+    }
     GenericRecordBuilder builder = new GenericRecordBuilder(schema);
+    depth++;
     for (Schema.Field field : schema.getFields()) {
-      builder.set(field, generateObject(field.schema()));
+      builder.set(field, generateField(field));
     }
+    depth--;
     return builder.build();
   }
 
-  @SuppressWarnings("unchecked")
+  private Object generateField(Schema.Field field) {
+    if (profiler != null && profiler.sampling()) {
+      profiler.enterField(field);
+      Object value = generateObject(field.schema());
+      profiler.exitField();
+      return value;
+    }
+    return generateObject(field.schema());
+  }
+
   private String generateRegexString(Schema schema, Object regexProp, LengthBounds lengthBounds) {
-    if (!generexCache.containsKey(schema)) {
-      if (!(regexProp instanceof String)) {
-        throw new RuntimeException(String.format("%s property must be a string", REGEX_PROP));
-      }
-      generexCache.put(schema, new Generex((String) regexProp));
+    if (!(regexProp instanceof String)) {
+      throw new RuntimeException(String.format("%s property must be a string", REGEX_PROP));
     }
-    // Generex.random(low, high) generates in range [low, high]; we want [low, high), so subtract
-    // 1 from maxLength
-    return generexCache.get(schema).random(lengthBounds.min(), lengthBounds.max() - 1);
+    return RegexStringGenerator.random(
+        random,
+        schema,
+        (String) regexProp,
+        lengthBounds.min(),
+        lengthBounds.max()
+    );
   }
 
-  private String generateRandomString(int length) {
+  String generateRandomString(int length) {
     byte[] bytes = new byte[length];
     for (int i = 0; i < length; i++) {
       bytes[i] = (byte) random.nextInt(128);
@@ -1120,9 +1929,35 @@ public class Generator {
 
   private Object generateUnion(Schema schema) {
     List<Schema> schemas = schema.getTypes();
+    if (depth >= maxDepth) {
+      return generateObject(shallowestBranch(schemas));
+    }
     return generateObject(schemas.get(random.nextInt(schemas.size())));
   }
 
+  // Null if it's there, and otherwise anything that won't have to nest a record any deeper
+  static Schema shallowestBranch(List<Schema> schemas) {
+    Schema result = null;
+    for (Schema branch : schemas) {
+      if (branch.getType() == Schema.Type.NULL) {
+        return branch;
+      }
+      if (result == null && branch.getType() != Schema.Type.RECORD) {
+        result = branch;
+      }
+    }
+    return result != null ? result : schemas.get(0);
+  }
+
+  /**
+   * @param lengthProp The length property of a string, bytes, array or map schema, or null.
+   * @return The minimum (inclusive) and maximum (exclusive) of the lengths it allows.
+   */
+  int[] lengthBounds(Object lengthProp) {
+    LengthBounds lengthBounds = getLengthBounds(lengthProp);
+    return new int[] {lengthBounds.min(), lengthBounds.max()};
+  }
+
   private LengthBounds getLengthBounds(Map propertiesProp) {
     return getLengthBounds(propertiesProp.get(LENGTH_PROP));
   }
@@ -1239,8 +2074,8 @@ public class Generator {
   }
 
   private class LengthBounds {
-    public static final int DEFAULT_MIN = 8;
-    public static final int DEFAULT_MAX = 16;
+    public static final int DEFAULT_MIN = DEFAULT_LENGTH_MIN;
+    public static final int DEFAULT_MAX = DEFAULT_LENGTH_MAX;
 
     private final int min;
     private final int max;
@@ -1271,36 +2106,64 @@ public class Generator {
     }
   }
 
-  private static class IntegralIterator implements Iterator<Object> {
+  /**
+   * A repeating sequence of values, any one of which can be computed directly from its position in
+   * the sequence. Positions are worked out from the number of the record a value is generated for,
+   * which generators for the same schema claim atomically, so any number of threads can share a
+   * sequence without locking.
+   */
+  private abstract static class Iteration {
+    /**
+     * @param index The position in the sequence, starting from zero.
+     * @return The value at that position.
+     */
+    public abstract Object valueAt(long index);
+  }
+
+  // The value at index i is start + (i * step) modulo (restart - start), where the modulo takes
+  // the sign of (restart - start). That is computed in longs where it can be; where either the
+  // range or the product would overflow, it's computed exactly instead.
+  private static class IntegralIteration extends Iteration {
     public enum Type {
       INTEGER, LONG
     }
 
     private final long start;
-    private final long restart;
     private final long step;
     private final Type type;
-    private long current;
+    private final long range;
+    private final BigInteger exactRange;
+    // The highest index for which index * step is known not to overflow, or -1 if the range
+    // itself doesn't fit in a long
+    private final long maxFastIndex;
 
-    public IntegralIterator(long start, long restart, long step, Type type) {
+    public IntegralIteration(long start, long restart, long step, Type type) {
       this.start = start;
-      this.restart = restart;
       this.step = step;
       this.type = type;
-      current = start;
+      this.exactRange = BigInteger.valueOf(restart).subtract(BigInteger.valueOf(start));
+      if (exactRange.bitLength() < Long.SIZE && step != Long.MIN_VALUE) {
+        this.range = exactRange.longValue();
+        this.maxFastIndex = Long.MAX_VALUE / Math.abs(step);
+      } else {
+        this.range = 0;
+        this.maxFastIndex = -1;
+      }
     }
 
     @Override
-    @SuppressFBWarnings(
-        value = "IT_NO_SUCH_ELEMENT",
-        justification = "This iterator is infinite."
-    )
-    public Object next() {
-      long result = current;
-      if ((step > 0 && current >= restart - step) || (step < 0 && current <= restart - step)) {
-        current = start + modulo(step - (restart - current), restart - start);
+    public Object valueAt(long index) {
+      long result;
+      if (index <= maxFastIndex) {
+        result = start + Math.floorMod(index * step, range);
       } else {
-        current += step;
+        BigInteger offset = BigInteger.valueOf(index)
+            .multiply(BigInteger.valueOf(step))
+            .mod(exactRange.abs());
+        if (exactRange.signum() < 0 && offset.signum() != 0) {
+          offset = offset.add(exactRange);
+        }
+        result = BigInteger.valueOf(start).add(offset).longValue();
       }
       switch (type) {
         case INTEGER:
@@ -1311,50 +2174,38 @@ public class Generator {
           throw new RuntimeException(String.format("Unexpected Type: %s", type));
       }
     }
-
-    @Override
-    public boolean hasNext() {
-      return true;
-    }
-
-    // first % second, but with first guarantee that the result will always have the same sign as
-    // second
-    private static long modulo(long first, long second) {
-      return ((first % second) + second) % second;
-    }
   }
 
-  private static class DecimalIterator implements Iterator<Object> {
+  // Computed the same way as an IntegralIteration; since the values are floating-point, they can
+  // differ from repeatedly adding step to start in the last few bits, but unlike that they don't
+  // accumulate rounding error the further along the sequence they are
+  private static class DecimalIteration extends Iteration {
     public enum Type {
       FLOAT, DOUBLE
     }
 
     private final double start;
-    private final double restart;
     private final double step;
     private final Type type;
-    private double current;
+    private final double range;
 
-    public DecimalIterator(double start, double restart, double step, Type type) {
+    public DecimalIteration(double start, double restart, double step, Type type) {
       this.start = start;
-      this.restart = restart;
       this.step = step;
       this.type = type;
-      current = start;
+      this.range = restart - start;
     }
 
     @Override
-    @SuppressFBWarnings(
-        value = "IT_NO_SUCH_ELEMENT",
-        justification = "This iterator is infinite."
-    )
-    public Object next() {
-      double result = current;
-      if ((step > 0 && current >= restart - step) || (step < 0 && current <= restart - step)) {
-        current = start + modulo(step - (restart - current), restart - start);
-      } else {
-        current += step;
+    public Object valueAt(long index) {
+      // Step always has the same sign as the range, so the offset only needs wrapping once it's
+      // gone past the end; wrapping it regardless would throw away its low bits whenever the range
+      // is as huge as the default restarts make it
+      double offset = index * step;
+      if (Math.abs(offset) >= Math.abs(range)) {
+        offset %= range;
       }
+      double result = start + offset;
       switch (type) {
         case FLOAT:
           return (float) result;
@@ -1365,39 +2216,115 @@ public class Generator {
       }
     }
 
+  }
+
+  private static class BooleanIteration extends Iteration {
+    private final boolean start;
+
+    public BooleanIteration(boolean start) {
+      this.start = start;
+    }
+
+    @Override
+    public Boolean valueAt(long index) {
+      return start ^ (index & 1) == 1;
+    }
+  }
+
+  // The value at each position is the position's image under a permutation of the values the
+  // schema allows, so no value comes up twice until every position in the domain has been used;
+  // after that, the positions (and so the values) start over
+  private abstract static class UniqueIteration extends Iteration {
+    private final FeistelPermutation permutation;
+
+    protected UniqueIteration(FeistelPermutation permutation) {
+      this.permutation = permutation;
+    }
+
     @Override
-    public boolean hasNext() {
-      return true;
+    public Object valueAt(long index) {
+      long size = permutation.size();
+      return valueOf(permutation.permute(size != 0 ? Long.remainderUnsigned(index, size) : index));
+    }
+
+    /**
+     * @param value A member of the permutation's domain.
+     * @return The value of the schema it stands for.
+     */
+    protected abstract Object valueOf(long value);
+  }
+
+  private static class UniqueIntegralIteration extends UniqueIteration {
+    public enum Type {
+      INTEGER, LONG
+    }
+
+    private final long min;
+    private final Type type;
+
+    public UniqueIntegralIteration(long min, FeistelPermutation permutation, Type type) {
+      super(permutation);
+      this.min = min;
+      this.type = type;
     }
 
-    // first % second, but with first guarantee that the result will always have the same sign as
-    // second
-    private static double modulo(double first, double second) {
-      return ((first % second) + second) % second;
+    @Override
+    protected Object valueOf(long value) {
+      switch (type) {
+        case INTEGER:
+          return (int) (min + value);
+        case LONG:
+          return min + value;
+        default:
+          throw new RuntimeException(String.format("Unexpected Type: %s", type));
+      }
     }
   }
 
-  private static class BooleanIterator implements Iterator<Object> {
-    private boolean current;
+  // Fixed values of up to eight bytes are permuted whole; longer ones hold the permuted value in
+  // their last eight bytes, which alone keeps them unique, and fill the rest with a hash of it
+  private static class UniqueFixedIteration extends UniqueIteration {
+    private final Schema schema;
+    private final long key;
 
-    public BooleanIterator(boolean start) {
-      current = start;
+    public UniqueFixedIteration(Schema schema, FeistelPermutation permutation, long key) {
+      super(permutation);
+      this.schema = schema;
+      this.key = key;
     }
 
     @Override
-    @SuppressFBWarnings(
-        value = "IT_NO_SUCH_ELEMENT",
-        justification = "This iterator is infinite."
-    )
-    public Boolean next() {
-      boolean result = current;
-      current = !current;
-      return result;
+    protected Object valueOf(long value) {
+      byte[] bytes = new byte[schema.getFixedSize()];
+      int hashed = Math.max(0, bytes.length - Long.BYTES);
+      for (int i = bytes.length - 1, shift = 0; i >= hashed; i--, shift += Byte.SIZE) {
+        bytes[i] = (byte) (value >>> shift);
+      }
+      long hash = 0;
+      for (int i = 0; i < hashed; i++) {
+        if (i % Long.BYTES == 0) {
+          hash = mix(value ^ mix(key + i));
+        }
+        bytes[i] = (byte) hash;
+        hash >>>= Byte.SIZE;
+      }
+      return new GenericData.Fixed(schema, bytes);
+    }
+  }
+
+  private static class UniqueStringIteration extends UniqueIteration {
+    private final RegexStringGenerator.RankedLanguage language;
+
+    public UniqueStringIteration(
+        RegexStringGenerator.RankedLanguage language,
+        FeistelPermutation permutation) {
+      super(permutation);
+      this.language = language;
     }
 
     @Override
-    public boolean hasNext() {
-      return true;
+    protected Object valueOf(long value) {
+      return language.get(value);
     }
   }
 }
@@ -0,0 +1,600 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.CodeSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles a schema into a {@link CompiledGenerator}: Java source that generates records of the
+ * schema with every record's fields unrolled into a method of its own and every value generated
+ * and written inline, compiled at run time with the JDK's own compiler. That leaves none of the
+ * interpreter's per-value dispatch on schema types and annotations, nor the values themselves,
+ * which are written to the encoder as they're generated.
+ *
+ * <p>Records, unions, arrays, maps, enums, fixed values and the primitives are compiled, along
+ * with the range, odds, length and keys annotations. Arrays are written a block at a time, each
+ * element as it's generated, so an array of any length takes no more memory than one of its
+ * elements; maps keep an encoded value per distinct key until they're written, as their keys
+ * have to be deduplicated. Anything else (options, iterations, unique values, regular expressions
+ * and logical types, and records nested too deeply or recursively) is left to the generator.
+ * Compiled classes are cached by the fingerprint of the schema, annotations included, so that
+ * compiling the same schema again costs no more than walking it.
+ */
+final class GeneratorCompiler {
+
+  private static final String PACKAGE = "io.confluent.avro.random.generator.compiled";
+  private static final Map<String, Class<? extends CompiledGenerator>> compiledClasses =
+      new ConcurrentHashMap<>();
+
+  private final Generator generator;
+  private final int maxDepth;
+  private final StringBuilder fields;
+  private final StringBuilder methods;
+  private final List<Schema> fallbackSchemas;
+  // The records being compiled, innermost last; a record that contains itself is left to the
+  // generator rather than unrolled over and over
+  private final Map<Schema, Boolean> recordPath;
+  private int records;
+  private int maps;
+  private int constants;
+  private int variables;
+
+  private GeneratorCompiler(Generator generator) {
+    this.generator = generator;
+    this.maxDepth = generator.maxDepth();
+    this.fields = new StringBuilder();
+    this.methods = new StringBuilder();
+    this.fallbackSchemas = new ArrayList<>();
+    this.recordPath = new IdentityHashMap<>();
+    this.records = 0;
+    this.maps = 0;
+    this.constants = 0;
+    this.variables = 0;
+  }
+
+  /**
+   * @param generator The generator to compile the schema of; its depth limit is compiled in, so it
+   *     mustn't change afterwards.
+   * @return Compiled code that generates the generator's records, or null if no Java compiler is
+   *     available (as on a JRE).
+   * @throws RuntimeException if the schema's annotations are invalid, or the generated code fails
+   *     to compile.
+   */
+  static CompiledGenerator compile(Generator generator) {
+    GeneratorCompiler compiler = new GeneratorCompiler(generator);
+    String body = compiler.value(generator.schema(), 0, "    ");
+    String className = String.format(
+        "Generator%016x_%d",
+        SchemaNormalization.fingerprint64(
+            generator.schema().toString().getBytes(StandardCharsets.UTF_8)
+        ),
+        compiler.maxDepth
+    );
+    Class<? extends CompiledGenerator> compiledClass = compiledClasses.get(className);
+    if (compiledClass == null) {
+      JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+      if (javac == null) {
+        return null;
+      }
+      compiledClass = compiledClasses.computeIfAbsent(
+          className,
+          name -> compiler.compileSource(javac, name, compiler.source(name, body))
+      );
+    }
+    Schema[] fallbackSchemas = compiler.fallbackSchemas.toArray(new Schema[0]);
+    try {
+      return compiledClass.getConstructor(Generator.class, Schema[].class)
+          .newInstance(generator, fallbackSchemas);
+    } catch (ReflectiveOperationException exception) {
+      throw new RuntimeException("Failed to instantiate " + compiledClass.getName(), exception);
+    }
+  }
+
+  // Returns the statements that generate and write a value of the schema, at the given
+  // indentation
+  private String value(Schema schema, int depth, String indent) {
+    Object propertiesProp = schema.getObjectProp(Generator.ARG_PROPERTIES_PROP);
+    if (propertiesProp != null && !(propertiesProp instanceof Map)) {
+      // The generator reports the problem, if there is one
+      return fallback(schema, depth, indent);
+    }
+    Map properties = propertiesProp != null ? (Map) propertiesProp : Collections.emptyMap();
+    if (properties.containsKey(Generator.OPTIONS_PROP)
+        || properties.containsKey(Generator.ITERATION_PROP)
+        || Generator.isUnique(properties)
+        || Generator.mayHaveLogicalType(schema)) {
+      return fallback(schema, depth, indent);
+    }
+    switch (schema.getType()) {
+      case NULL:
+        return "";
+      case BOOLEAN:
+        Double odds = generator.odds(properties);
+        if (odds == null) {
+          return indent + "encoder.writeBoolean(random.nextBoolean());\n";
+        }
+        return String.format(
+            "%sencoder.writeBoolean(random.nextDouble() < %s);%n",
+            indent,
+            constant(odds)
+        );
+      case INT:
+        Object intRangeProp = properties.get(Generator.RANGE_PROP);
+        if (!(intRangeProp instanceof Map)) {
+          return indent + "encoder.writeInt(random.nextInt());\n";
+        }
+        int[] intRange = generator.intRange((Map) intRangeProp);
+        return String.format(
+            "%sencoder.writeInt((%d) + ((int) (random.nextDouble() * ((%d) - (%d)))));%n",
+            indent,
+            intRange[0],
+            intRange[1],
+            intRange[0]
+        );
+      case LONG:
+        Object longRangeProp = properties.get(Generator.RANGE_PROP);
+        if (!(longRangeProp instanceof Map)) {
+          return indent + "encoder.writeLong(random.nextLong());\n";
+        }
+        long[] longRange = generator.longRange((Map) longRangeProp);
+        return String.format(
+            "%sencoder.writeLong((%dL) + ((long) (random.nextDouble() * ((%dL) - (%dL)))));%n",
+            indent,
+            longRange[0],
+            longRange[1],
+            longRange[0]
+        );
+      case FLOAT:
+        Object floatRangeProp = properties.get(Generator.RANGE_PROP);
+        if (!(floatRangeProp instanceof Map)) {
+          return indent + "encoder.writeFloat(random.nextFloat());\n";
+        }
+        float[] floatRange = generator.floatRange((Map) floatRangeProp);
+        String floatMin = constant(floatRange[0]);
+        return String.format(
+            "%sencoder.writeFloat(%s + (random.nextFloat() * (%s - %s)));%n",
+            indent,
+            floatMin,
+            constant(floatRange[1]),
+            floatMin
+        );
+      case DOUBLE:
+        Object doubleRangeProp = properties.get(Generator.RANGE_PROP);
+        if (doubleRangeProp == null) {
+          return indent + "encoder.writeDouble(random.nextDouble());\n";
+        }
+        if (!(doubleRangeProp instanceof Map)) {
+          return fallback(schema, depth, indent);
+        }
+        double[] doubleRange = generator.doubleRange((Map) doubleRangeProp);
+        String doubleMin = constant(doubleRange[0]);
+        return String.format(
+            "%sencoder.writeDouble(%s + (random.nextDouble() * (%s - %s)));%n",
+            indent,
+            doubleMin,
+            constant(doubleRange[1]),
+            doubleMin
+        );
+      case STRING:
+        if (properties.containsKey(Generator.REGEX_PROP)) {
+          return fallback(schema, depth, indent);
+        }
+        return string(generator.lengthBounds(properties.get(Generator.LENGTH_PROP)), indent);
+      case BYTES:
+        return bytes(generator.lengthBounds(properties.get(Generator.LENGTH_PROP)), indent);
+      case ENUM:
+        return String.format(
+            "%sencoder.writeEnum(random.nextInt(%d));%n",
+            indent,
+            schema.getEnumSymbols().size()
+        );
+      case FIXED:
+        String fixed = "fixed" + constants++;
+        fields.append(String.format(
+            "  private final byte[] %s = new byte[%d];%n",
+            fixed,
+            schema.getFixedSize()
+        ));
+        return String.format(
+            "%srandom.nextBytes(%s);%n%sencoder.writeFixed(%s);%n",
+            indent,
+            fixed,
+            indent,
+            fixed
+        );
+      case RECORD:
+        if (depth >= maxDepth || recordPath.containsKey(schema)) {
+          return fallback(schema, depth, indent);
+        }
+        return String.format("%s%s(encoder);%n", indent, record(schema, depth));
+      case UNION:
+        return union(schema, depth, indent);
+      case ARRAY:
+        return array(schema, properties, depth, indent);
+      case MAP:
+        return map(schema, properties, depth, indent);
+      default:
+        return fallback(schema, depth, indent);
+    }
+  }
+
+  private String fallback(Schema schema, int depth, String indent) {
+    fallbackSchemas.add(schema);
+    return String.format(
+        "%sfallback(%d, %d, encoder);%n",
+        indent,
+        fallbackSchemas.size() - 1,
+        depth
+    );
+  }
+
+  // Each record gets a method of its own, so that no method grows with the size of the schema as
+  // a whole; returns the method's name
+  private String record(Schema schema, int depth) {
+    final String method = "record" + records++;
+    recordPath.put(schema, Boolean.TRUE);
+    StringBuilder body = new StringBuilder();
+    for (Schema.Field field : schema.getFields()) {
+      body.append(String.format("    // %s%n", field.name()));
+      body.append(value(field.schema(), depth + 1, "    "));
+    }
+    recordPath.remove(schema);
+    methods.append(String.format(
+        "%n  // %s%n  private void %s(BinaryEncoder encoder) throws IOException {%n%s  }%n",
+        schema.getFullName(),
+        method,
+        body
+    ));
+    return method;
+  }
+
+  private String union(Schema schema, int depth, String indent) {
+    List<Schema> branches = schema.getTypes();
+    StringBuilder code = new StringBuilder();
+    if (depth >= maxDepth) {
+      Schema branch = Generator.shallowestBranch(branches);
+      int index = 0;
+      while (branches.get(index) != branch) {
+        index++;
+      }
+      code.append(String.format("%sencoder.writeIndex(%d);%n", indent, index));
+      code.append(value(branch, depth, indent));
+      return code.toString();
+    }
+    code.append(String.format(
+        "%sswitch (random.nextInt(%d)) {%n",
+        indent,
+        branches.size()
+    ));
+    for (int i = 0; i < branches.size(); i++) {
+      code.append(String.format(
+          i < branches.size() - 1 ? "%s  case %d:%n" : "%s  default:%n",
+          indent,
+          i
+      ));
+      code.append(String.format("%s    encoder.writeIndex(%d);%n", indent, i));
+      code.append(value(branches.get(i), depth, indent + "    "));
+      code.append(String.format("%s    break;%n", indent));
+    }
+    code.append(String.format("%s}%n", indent));
+    return code.toString();
+  }
+
+  private String array(Schema schema, Map properties, int depth, String indent) {
+    int[] lengthBounds = generator.lengthBounds(properties.get(Generator.LENGTH_PROP));
+    String length = "length" + variables;
+    String item = "item" + variables++;
+    return String.format(
+        "%s{%n"
+            + "%s  int %s = elements((%d) + random.nextInt(%d), %d);%n"
+            + "%s  encoder.writeArrayStart();%n"
+            + "%s  encoder.setItemCount(%s);%n"
+            + "%s  for (int %s = 0; %s < %s; %s++) {%n"
+            + "%s    encoder.startItem();%n"
+            + "%s"
+            + "%s  }%n"
+            + "%s  encoder.writeArrayEnd();%n"
+            + "%s}%n",
+        indent,
+        indent, length, lengthBounds[0], lengthBounds[1] - lengthBounds[0], depth,
+        indent,
+        indent, length,
+        indent, item, item, length, item,
+        indent,
+        value(schema.getElementType(), depth, indent + "    "),
+        indent,
+        indent,
+        indent
+    );
+  }
+
+  // Each value goes to an encoder of its own, so it's generated by a method that takes one
+  private String map(Schema schema, Map properties, int depth, String indent) {
+    Object keysProp = properties.get(Generator.KEYS_PROP);
+    if (keysProp != null && !(keysProp instanceof Map)) {
+      return fallback(schema, depth, indent);
+    }
+    int[] lengthBounds = generator.lengthBounds(properties.get(Generator.LENGTH_PROP));
+    String length = "length" + variables;
+    String keyLength = "keyLength" + variables;
+    String entries = "entries" + variables;
+    String item = "item" + variables++;
+    String keyLengthDeclaration = "";
+    String key;
+    if (keysProp == null) {
+      key = "randomString(1)";
+    } else if (((Map) keysProp).containsKey(Generator.OPTIONS_PROP)) {
+      generator.keyOptions(schema, (Map) keysProp);
+      fallbackSchemas.add(schema);
+      key = String.format("keyOption(%d)", fallbackSchemas.size() - 1);
+    } else {
+      // Every key of a map is as long as every other
+      int[] keyLengthBounds = generator.lengthBounds(((Map) keysProp).get(Generator.LENGTH_PROP));
+      keyLengthDeclaration = String.format(
+          "%s  int %s = (%d) + random.nextInt(%d);%n",
+          indent,
+          keyLength,
+          keyLengthBounds[0],
+          keyLengthBounds[1] - keyLengthBounds[0]
+      );
+      key = String.format("randomString(%s)", keyLength);
+    }
+    final String method = "mapValue" + maps++;
+    String body = value(schema.getValueType(), depth, "    ");
+    methods.append(String.format(
+        "%n  // map of %s%n  private void %s(BinaryEncoder encoder) throws IOException {%n%s  }%n",
+        schema.getValueType().getName(),
+        method,
+        body
+    ));
+    return String.format(
+        "%s{%n"
+            + "%s  int %s = elements((%d) + random.nextInt(%d), %d);%n"
+            + "%s"
+            + "%s  MapEntries %s = startMap();%n"
+            + "%s  for (int %s = 0; %s < %s; %s++) {%n"
+            + "%s    %s(%s.put(%s));%n"
+            + "%s  }%n"
+            + "%s  %s.write(encoder);%n"
+            + "%s}%n",
+        indent,
+        indent, length, lengthBounds[0], lengthBounds[1] - lengthBounds[0], depth,
+        keyLengthDeclaration,
+        indent, entries,
+        indent, item, item, length, item,
+        indent, method, entries, key,
+        indent,
+        indent, entries,
+        indent
+    );
+  }
+
+  private String string(int[] lengthBounds, String indent) {
+    String length = "length" + variables;
+    String bytes = "bytes" + variables;
+    String character = "character" + variables++;
+    return String.format(
+        "%s{%n"
+            + "%s  int %s = (%d) + random.nextInt(%d);%n"
+            + "%s  byte[] %s = scratch(%s);%n"
+            + "%s  for (int %s = 0; %s < %s; %s++) {%n"
+            + "%s    %s[%s] = (byte) random.nextInt(128);%n"
+            + "%s  }%n"
+            + "%s  encoder.writeBytes(%s, 0, %s);%n"
+            + "%s}%n",
+        indent,
+        indent, length, lengthBounds[0], lengthBounds[1] - lengthBounds[0],
+        indent, bytes, length,
+        indent, character, character, length, character,
+        indent, bytes, character,
+        indent,
+        indent, bytes, length,
+        indent
+    );
+  }
+
+  private String bytes(int[] lengthBounds, String indent) {
+    String bytes = "bytes" + variables++;
+    return String.format(
+        "%s{%n"
+            + "%s  byte[] %s = new byte[(%d) + random.nextInt(%d)];%n"
+            + "%s  random.nextBytes(%s);%n"
+            + "%s  encoder.writeBytes(%s);%n"
+            + "%s}%n",
+        indent,
+        indent, bytes, lengthBounds[0], lengthBounds[1] - lengthBounds[0],
+        indent, bytes,
+        indent, bytes,
+        indent
+    );
+  }
+
+  // Floating-point constants are given by their bits, so that they're exactly what the generator
+  // would use
+  private String constant(double value) {
+    String name = "CONSTANT_" + constants++;
+    fields.append(String.format(
+        "  private static final double %s = Double.longBitsToDouble(0x%xL); // %s%n",
+        name,
+        Double.doubleToRawLongBits(value),
+        value
+    ));
+    return name;
+  }
+
+  private String constant(float value) {
+    String name = "CONSTANT_" + constants++;
+    fields.append(String.format(
+        "  private static final float %s = Float.intBitsToFloat(0x%x); // %s%n",
+        name,
+        Float.floatToRawIntBits(value),
+        value
+    ));
+    return name;
+  }
+
+  private String source(String className, String body) {
+    return String.format(
+        "package %s;%n%n"
+            + "import io.confluent.avro.random.generator.CompiledGenerator;%n"
+            + "import io.confluent.avro.random.generator.Generator;%n"
+            + "import java.io.IOException;%n"
+            + "import org.apache.avro.Schema;%n"
+            + "import org.apache.avro.io.BinaryEncoder;%n%n"
+            + "// Generates %s records%n"
+            + "public final class %s extends CompiledGenerator {%n%n"
+            + "%s%n"
+            + "  public %s(Generator generator, Schema[] fallbackSchemas) {%n"
+            + "    super(generator, fallbackSchemas);%n"
+            + "  }%n%n"
+            + "  @Override%n"
+            + "  protected void write(BinaryEncoder encoder) throws IOException {%n"
+            + "%s"
+            + "  }%n"
+            + "%s"
+            + "}%n",
+        PACKAGE,
+        generator.schema().getFullName(),
+        className,
+        fields,
+        className,
+        body,
+        methods
+    );
+  }
+
+  private Class<? extends CompiledGenerator> compileSource(
+      JavaCompiler javac,
+      String className,
+      String source) {
+    String qualifiedName = PACKAGE + "." + className;
+    Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+    JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+        javac.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8)) {
+      @Override
+      public JavaFileObject getJavaFileForOutput(
+          Location location,
+          String outputName,
+          JavaFileObject.Kind kind,
+          FileObject sibling) {
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        classFiles.put(outputName, classFile);
+        return new SimpleJavaFileObject(uri(outputName, kind), kind) {
+          @Override
+          public OutputStream openOutputStream() {
+            return classFile;
+          }
+        };
+      }
+    };
+    JavaFileObject sourceFile =
+        new SimpleJavaFileObject(uri(qualifiedName, JavaFileObject.Kind.SOURCE),
+            JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+          }
+        };
+    StringWriter diagnostics = new StringWriter();
+    boolean compiled = javac.getTask(
+        diagnostics,
+        fileManager,
+        null,
+        Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn"),
+        null,
+        Collections.singletonList(sourceFile)
+    ).call();
+    if (!compiled) {
+      throw new RuntimeException(String.format(
+          "Failed to compile generated code for %s:%n%s",
+          generator.schema().getFullName(),
+          diagnostics
+      ));
+    }
+    CompiledClassLoader classLoader =
+        new CompiledClassLoader(CompiledGenerator.class.getClassLoader(), classFiles);
+    try {
+      return classLoader.loadClass(qualifiedName).asSubclass(CompiledGenerator.class);
+    } catch (ClassNotFoundException exception) {
+      throw new RuntimeException("Failed to load " + qualifiedName, exception);
+    }
+  }
+
+  private static URI uri(String className, JavaFileObject.Kind kind) {
+    return URI.create("string:///" + className.replace('.', '/') + kind.extension);
+  }
+
+  // The application's class path, along with wherever this package and Avro were actually loaded
+  // from, in case that isn't on it
+  private static String classPath() {
+    StringBuilder result = new StringBuilder(System.getProperty("java.class.path", ""));
+    for (Class<?> loaded : Arrays.asList(CompiledGenerator.class, Schema.class)) {
+      CodeSource codeSource = loaded.getProtectionDomain().getCodeSource();
+      if (codeSource == null || codeSource.getLocation() == null) {
+        continue;
+      }
+      try {
+        result.append(File.pathSeparator).append(new File(codeSource.getLocation().toURI()));
+      } catch (URISyntaxException | IllegalArgumentException exception) {
+        // Not a file; the class path will have to do
+      }
+    }
+    return result.toString();
+  }
+
+  private static final class CompiledClassLoader extends ClassLoader {
+    private final Map<String, ByteArrayOutputStream> classFiles;
+
+    CompiledClassLoader(ClassLoader parent, Map<String, ByteArrayOutputStream> classFiles) {
+      super(parent);
+      this.classFiles = classFiles;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      ByteArrayOutputStream classFile = classFiles.get(name);
+      if (classFile == null) {
+        throw new ClassNotFoundException(name);
+      }
+      byte[] bytes = classFile.toByteArray();
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+}
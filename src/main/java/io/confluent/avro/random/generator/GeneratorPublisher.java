@@ -0,0 +1,250 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a generator's records as a Reactive Streams {@link Publisher}, generating them only as
+ * subscribers request them, so that asynchronous code can consume generated data without a thread
+ * of its own blocking in a loop around {@link Generator#generate()}. On JDK 9 or later,
+ * {@code org.reactivestreams.FlowAdapters.toFlowPublisher()} turns it into a
+ * {@link java.util.concurrent.Flow.Publisher}.
+ *
+ * <p>Records are generated in batches on an {@link Executor}, never on the thread that requests
+ * them, and each batch holds no more records than the subscriber has asked for and hasn't been
+ * given yet (and no more than {@link #batchSize(int)}), so a slow subscriber holds generation back
+ * instead of having records pile up for it. After each batch, generation goes back to the executor
+ * as a task of its own, so a single-threaded executor such as an event loop still gets to run
+ * other work in between.
+ *
+ * <p>Any number of subscribers can subscribe, each with a subscription of its own, but they all
+ * share the one generator: batches for different subscribers take turns with it, and every
+ * subscriber sees different records. Nothing else should use the generator in the meantime.
+ *
+ * @param <T> The type of the items published: records, or encoded records.
+ */
+public final class GeneratorPublisher<T> implements Publisher<T> {
+
+  /**
+   * How many records are generated at a time by default; see {@link #batchSize(int)}.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final Generator generator;
+  private final Executor executor;
+  private final Item<T> item;
+  private long records;
+  private int batchSize;
+
+  private GeneratorPublisher(Generator generator, Executor executor, Item<T> item) {
+    this.generator = generator;
+    this.executor = executor;
+    this.item = item;
+    this.records = Long.MAX_VALUE;
+    this.batchSize = DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * @param generator The generator to publish the records of.
+   * @param executor Generates the records, and delivers them to subscribers.
+   * @return A publisher of records, as produced by {@link Generator#generate()}.
+   */
+  public static GeneratorPublisher<Object> records(Generator generator, Executor executor) {
+    return new GeneratorPublisher<>(generator, executor, Generator::generate);
+  }
+
+  /**
+   * @param generator The generator to publish the records of.
+   * @param executor Generates and encodes the records, and delivers them to subscribers.
+   * @return A publisher of records, each encoded in the Avro binary encoding into a buffer of its
+   *     own.
+   */
+  public static GeneratorPublisher<ByteBuffer> binary(Generator generator, Executor executor) {
+    final GenericDatumWriter<Object> writer = new GenericDatumWriter<>(generator.schema());
+    final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(encoded, null);
+    // Only ever used while holding the generator's lock, like the generator itself
+    return new GeneratorPublisher<>(generator, executor, source -> {
+      encoded.reset();
+      writer.write(source.generate(), encoder);
+      return ByteBuffer.wrap(encoded.toByteArray());
+    });
+  }
+
+  /**
+   * @param records How many records each subscriber gets before its subscription completes; by
+   *     default, subscriptions never complete. Must not be negative.
+   * @return This publisher.
+   */
+  public GeneratorPublisher<T> maxRecords(long records) {
+    if (records < 0) {
+      throw new IllegalArgumentException("Number of records cannot be negative: " + records);
+    }
+    this.records = records;
+    return this;
+  }
+
+  /**
+   * @param batchSize The most records to generate at a time for a subscriber, however many it has
+   *     requested; larger batches spend less time handing work to the executor, smaller ones
+   *     share it more fairly. Must be positive.
+   * @return This publisher.
+   */
+  public GeneratorPublisher<T> batchSize(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+    }
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber cannot be null");
+    }
+    GeneratorSubscription subscription = new GeneratorSubscription(subscriber, records, batchSize);
+    subscriber.onSubscribe(subscription);
+    // A subscription to no records at all completes without waiting for any demand
+    subscription.signal();
+  }
+
+  // Makes one item from the generator's next record
+  private interface Item<T> {
+    T next(Generator generator) throws IOException;
+  }
+
+  // Every signal to the subscriber is sent from run(), and only one run() is ever scheduled or
+  // running at a time, so signals are never sent concurrently; work counts the requests for a
+  // run() since the last one started, so that none of them is lost to a run that's finishing
+  private final class GeneratorSubscription implements Subscription {
+    private final Subscriber<? super T> subscriber;
+    private final int batchSize;
+    private final Object[] batch;
+    private final AtomicLong demand;
+    private final AtomicInteger work;
+    private long remaining;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private boolean terminated;
+
+    GeneratorSubscription(Subscriber<? super T> subscriber, long records, int batchSize) {
+      this.subscriber = subscriber;
+      this.batchSize = batchSize;
+      this.batch = new Object[(int) Math.min(batchSize, Math.max(records, 1))];
+      this.demand = new AtomicLong();
+      this.work = new AtomicInteger();
+      this.remaining = records;
+      this.cancelled = false;
+      this.error = null;
+      this.terminated = false;
+    }
+
+    @Override
+    public void request(long count) {
+      if (count <= 0) {
+        error = new IllegalArgumentException(
+            "Subscribers must request a positive number of records, not " + count
+        );
+      } else {
+        demand.getAndUpdate(current -> current + count < 0 ? Long.MAX_VALUE : current + count);
+      }
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    void signal() {
+      if (work.getAndIncrement() == 0) {
+        schedule();
+      }
+    }
+
+    private void schedule() {
+      try {
+        executor.execute(this::run);
+      } catch (RejectedExecutionException exception) {
+        // Nothing is running, so nothing else can be signalling the subscriber
+        cancelled = true;
+        subscriber.onError(exception);
+      }
+    }
+
+    private void run() {
+      int requests = work.get();
+      boolean more = emitBatch();
+      if (more || work.addAndGet(-requests) != 0) {
+        schedule();
+      }
+    }
+
+    // Returns whether there's demand for another batch
+    @SuppressWarnings("unchecked")
+    private boolean emitBatch() {
+      if (cancelled || terminated) {
+        return false;
+      }
+      if (error != null) {
+        terminate();
+        subscriber.onError(error);
+        return false;
+      }
+      int size = (int) Math.min(Math.min(demand.get(), remaining), batchSize);
+      if (size > 0) {
+        try {
+          synchronized (generator) {
+            for (int i = 0; i < size; i++) {
+              batch[i] = item.next(generator);
+            }
+          }
+        } catch (IOException | RuntimeException exception) {
+          terminate();
+          subscriber.onError(exception);
+          return false;
+        }
+        remaining -= size;
+        demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - size);
+        for (int i = 0; i < size && !cancelled; i++) {
+          T next = (T) batch[i];
+          batch[i] = null;
+          subscriber.onNext(next);
+        }
+      }
+      if (remaining == 0 && !cancelled) {
+        terminate();
+        subscriber.onComplete();
+        return false;
+      }
+      return !cancelled && demand.get() > 0;
+    }
+
+    private void terminate() {
+      terminated = true;
+      cancelled = true;
+    }
+  }
+}
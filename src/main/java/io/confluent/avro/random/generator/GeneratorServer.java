@@ -0,0 +1,503 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Serves generated data over TCP, so that a single long-running (and JIT-warmed) process can answer
+ * many short requests. All connections are multiplexed over one non-blocking selector thread, and
+ * records are generated a chunk at a time as each connection's socket becomes writable, so a slow
+ * or large request never holds up the others.
+ *
+ * <p>The protocol is line-based; every command is a single line terminated by {@code '\n'}:
+ * <ul>
+ *   <li>
+ *     {@code SCHEMA <length>} followed by {@code <length>} bytes of schema JSON registers a schema
+ *     and is answered with {@code OK <fingerprint>}, where the fingerprint is a hexadecimal
+ *     identifier for the schema (including its {@value Generator#ARG_PROPERTIES_PROP} annotations).
+ *     A schema whose annotations are invalid is turned away with an {@code ERR} line instead.
+ *   </li>
+ *   <li>
+ *     {@code GENERATE <fingerprint> <count> <binary|json> <seed>} is answered with {@code OK}
+ *     followed by the generated data, sent as a series of chunks that each consist of a four-byte,
+ *     big-endian length and then that many bytes of data. A chunk with a length of zero ends the
+ *     response; a chunk with a length of -1 means generation failed, and is followed by an
+ *     {@code ERR} line.
+ *   </li>
+ * </ul>
+ * Any command that cannot be carried out is answered with {@code ERR <message>}.
+ *
+ * <p>Generators for registered schemas stay resident for the lifetime of the server, one per
+ * fingerprint. Each request is served the first {@code <count>} records
+ * {@link Generator#generate(long) generated by index} for its seed, the same ones a run with that
+ * seed would produce, so the same request always gets the same data and iteration annotations
+ * start over with every request.
+ */
+public class GeneratorServer implements Closeable {
+
+  public static final String SCHEMA_COMMAND = "SCHEMA";
+  public static final String GENERATE_COMMAND = "GENERATE";
+
+  public static final String BINARY_ENCODING = "binary";
+  public static final String JSON_ENCODING = "json";
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_LINE_LENGTH = 4096;
+  private static final int MAX_SCHEMA_LENGTH = 16 * 1024 * 1024;
+
+  private static final int END_OF_RESPONSE = 0;
+  private static final int GENERATION_FAILED = -1;
+
+  private final Map<String, Generator> generators;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private volatile boolean running;
+
+  /**
+   * Binds a new server to the given address; no connections are accepted until
+   * {@link #serve()} is called.
+   * @param address The address to listen on.
+   * @throws IOException if the address cannot be bound.
+   */
+  public GeneratorServer(InetSocketAddress address) throws IOException {
+    this.generators = new HashMap<>();
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    this.running = true;
+    serverChannel.configureBlocking(false);
+    serverChannel.bind(address);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * @return The address the server is listening on.
+   * @throws IOException if the address cannot be determined.
+   */
+  public InetSocketAddress address() throws IOException {
+    return (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  /**
+   * Accepts and serves connections on the current thread until {@link #close()} is called.
+   * @throws IOException if the server socket fails.
+   */
+  public void serve() throws IOException {
+    while (running) {
+      selector.select();
+      Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+      while (selectedKeys.hasNext()) {
+        SelectionKey key = selectedKeys.next();
+        selectedKeys.remove();
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.isAcceptable()) {
+          accept();
+          continue;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+          if (key.isReadable()) {
+            connection.read();
+          }
+          if (key.isValid() && key.isWritable()) {
+            connection.write();
+          }
+        } catch (IOException ioe) {
+          connection.close();
+        }
+      }
+    }
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+  }
+
+  /**
+   * Stops the server and closes every open connection.
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    key.attach(new Connection(channel, key));
+  }
+
+  private static String fingerprint(Schema schema) {
+    return String.format(
+        "%016x",
+        SchemaNormalization.fingerprint64(schema.toString().getBytes(StandardCharsets.UTF_8))
+    );
+  }
+
+  private class Connection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Chunk chunk;
+    private ByteBuffer input;
+    private ByteBuffer output;
+    private Job job;
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+      this.chunk = new Chunk();
+      this.input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+      this.output = null;
+      this.job = null;
+    }
+
+    void read() throws IOException {
+      if (channel.read(input) < 0) {
+        close();
+        return;
+      }
+      processCommands();
+    }
+
+    void write() throws IOException {
+      if (flush()) {
+        processCommands();
+      }
+    }
+
+    void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ioe) {
+        // Nothing else to do with the connection
+      }
+    }
+
+    // Handles buffered commands until one of them produces a response that can't be written
+    // immediately
+    private void processCommands() throws IOException {
+      while (key.isValid() && job == null && output == null) {
+        input.flip();
+        boolean handled = handleCommand();
+        input.compact();
+        if (!handled || !flush()) {
+          break;
+        }
+      }
+      if (key.isValid()) {
+        boolean busy = job != null || output != null;
+        key.interestOps(busy ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      }
+    }
+
+    // Returns true once the response to the current command has been written in full, or false
+    // if the connection has to wait for its socket to become writable again; only one chunk is
+    // generated per call, so that other connections get their turn
+    private boolean flush() throws IOException {
+      while (true) {
+        if (output != null) {
+          channel.write(output);
+          if (output.hasRemaining()) {
+            return false;
+          }
+          output = null;
+          if (job != null) {
+            return false;
+          }
+        }
+        if (job == null) {
+          return true;
+        }
+        if (!job.nextChunk()) {
+          job = null;
+        }
+        output = chunk.toByteBuffer();
+      }
+    }
+
+    // Returns false if the input does not (yet) hold a complete command
+    private boolean handleCommand() {
+      int lineEnd = -1;
+      for (int i = input.position(); i < input.limit(); i++) {
+        if (input.get(i) == '\n') {
+          lineEnd = i;
+          break;
+        }
+      }
+      if (lineEnd < 0) {
+        if (input.remaining() >= MAX_LINE_LENGTH) {
+          input.position(input.limit());
+          respond("ERR command too long");
+          return true;
+        }
+        return false;
+      }
+      int lineStart = input.position();
+      String line = new String(
+          input.array(),
+          lineStart,
+          lineEnd - lineStart,
+          StandardCharsets.UTF_8
+      ).trim();
+      String[] command = line.split("\\s+");
+
+      if (SCHEMA_COMMAND.equals(command[0]) && command.length == 2) {
+        int schemaLength;
+        try {
+          schemaLength = Integer.parseInt(command[1]);
+        } catch (NumberFormatException nfe) {
+          input.position(lineEnd + 1);
+          respond("ERR schema length must be a number");
+          return true;
+        }
+        if (schemaLength < 0 || schemaLength > MAX_SCHEMA_LENGTH) {
+          input.position(lineEnd + 1);
+          respond(String.format("ERR schema length must be between 0 and %d", MAX_SCHEMA_LENGTH));
+          return true;
+        }
+        if (input.limit() - (lineEnd + 1) < schemaLength) {
+          ensureCapacity(lineEnd + 1 - lineStart + schemaLength);
+          return false;
+        }
+        String schemaString = new String(
+            input.array(),
+            lineEnd + 1,
+            schemaLength,
+            StandardCharsets.UTF_8
+        );
+        input.position(lineEnd + 1 + schemaLength);
+        registerSchema(schemaString);
+      } else if (GENERATE_COMMAND.equals(command[0]) && command.length == 5) {
+        input.position(lineEnd + 1);
+        startJob(command[1], command[2], command[3], command[4]);
+      } else {
+        input.position(lineEnd + 1);
+        respond(String.format(
+            "ERR expected '%s <length>' or '%s <fingerprint> <count> <%s|%s> <seed>'",
+            SCHEMA_COMMAND,
+            GENERATE_COMMAND,
+            BINARY_ENCODING,
+            JSON_ENCODING
+        ));
+      }
+      return true;
+    }
+
+    // The input buffer is in read mode when this is called, and is compacted back into write mode
+    // by the caller afterwards
+    private void ensureCapacity(int capacity) {
+      if (input.capacity() < capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        grown.put(input);
+        grown.flip();
+        input = grown;
+      }
+    }
+
+    private void registerSchema(String schemaString) {
+      Schema schema;
+      try {
+        schema = new Schema.Parser().parse(schemaString);
+      } catch (RuntimeException exception) {
+        respond("ERR invalid schema: " + exception.getMessage());
+        return;
+      }
+      String fingerprint = fingerprint(schema);
+      if (!generators.containsKey(fingerprint)) {
+        try {
+          Generator generator = new Generator(schema, new Random());
+          // Annotations are only read once a value of their schema is first generated, so a record
+          // is generated here to turn bad ones away now instead of failing every request later
+          generator.generate(0);
+          generators.put(fingerprint, generator);
+        } catch (RuntimeException exception) {
+          respond("ERR invalid schema: " + exception.getMessage());
+          return;
+        }
+      }
+      respond("OK " + fingerprint);
+    }
+
+    private void startJob(String fingerprint, String countArg, String encoding, String seedArg) {
+      Generator generator = generators.get(fingerprint);
+      if (generator == null) {
+        respond("ERR unknown schema fingerprint " + fingerprint);
+        return;
+      }
+      long count;
+      long seed;
+      try {
+        count = Long.parseLong(countArg);
+        seed = Long.parseLong(seedArg);
+      } catch (NumberFormatException nfe) {
+        respond("ERR count and seed must be numbers");
+        return;
+      }
+      if (count < 0) {
+        respond("ERR count cannot be negative");
+        return;
+      }
+      RecordEncoder encoder;
+      try {
+        if (BINARY_ENCODING.equals(encoding)) {
+          encoder = AvroRecordEncoder.binary(generator.schema()).create(chunk);
+        } else if (JSON_ENCODING.equals(encoding)) {
+          encoder = JsonRecordEncoder.factory(generator.schema(), false).create(chunk);
+        } else {
+          respond(String.format(
+              "ERR encoding must be either '%s' or '%s'",
+              BINARY_ENCODING,
+              JSON_ENCODING
+          ));
+          return;
+        }
+      } catch (IOException ioe) {
+        respond("ERR " + ioe.getMessage());
+        return;
+      }
+      respond("OK");
+      job = new Job(generator, seed, encoder, JSON_ENCODING.equals(encoding), count);
+    }
+
+    private void respond(String line) {
+      output = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private class Job {
+      private final Generator generator;
+      private final long seed;
+      private final RecordEncoder encoder;
+      private final boolean json;
+      private final long count;
+      private long index;
+
+      Job(Generator generator, long seed, RecordEncoder encoder, boolean json, long count) {
+        this.generator = generator;
+        this.seed = seed;
+        this.encoder = encoder;
+        this.json = json;
+        this.count = count;
+        this.index = 0;
+      }
+
+      // Fills the connection's chunk with the next piece of the response; returns false once the
+      // response is complete
+      boolean nextChunk() {
+        chunk.begin();
+        try {
+          // Jobs on other connections may have reseeded the generator since the last chunk
+          generator.reseed(seed);
+          while (index < count && chunk.size() < CHUNK_SIZE) {
+            encoder.write(generator.generate(index));
+            encoder.flush();
+            index++;
+          }
+          if (index == count && json) {
+            chunk.write('\n');
+          }
+        } catch (IOException | RuntimeException exception) {
+          chunk.fail(exception.getMessage());
+          return false;
+        }
+        if (index < count) {
+          chunk.end();
+          return true;
+        }
+        if (chunk.size() > Chunk.HEADER_SIZE) {
+          chunk.end();
+          chunk.terminate();
+        } else {
+          chunk.begin();
+          chunk.endOfResponse();
+        }
+        return false;
+      }
+    }
+  }
+
+  // A reusable, length-prefixed chunk of response data
+  private static class Chunk extends ByteArrayOutputStream {
+    static final int HEADER_SIZE = 4;
+
+    private int start;
+
+    Chunk() {
+      super(CHUNK_SIZE + CHUNK_SIZE / 4);
+    }
+
+    void begin() {
+      reset();
+      start = 0;
+      writeInt(0);
+    }
+
+    void end() {
+      int length = count - start - HEADER_SIZE;
+      buf[start] = (byte) (length >>> 24);
+      buf[start + 1] = (byte) (length >>> 16);
+      buf[start + 2] = (byte) (length >>> 8);
+      buf[start + 3] = (byte) length;
+    }
+
+    void terminate() {
+      start = count;
+      writeInt(END_OF_RESPONSE);
+    }
+
+    void endOfResponse() {
+      count = start;
+      writeInt(END_OF_RESPONSE);
+    }
+
+    void fail(String message) {
+      count = start;
+      writeInt(GENERATION_FAILED);
+      byte[] line = ("ERR " + message + "\n").getBytes(StandardCharsets.UTF_8);
+      write(line, 0, line.length);
+    }
+
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    private void writeInt(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+    }
+  }
+}
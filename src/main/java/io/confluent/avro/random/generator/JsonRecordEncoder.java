@@ -0,0 +1,646 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.IndexedRecord;
+
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes records in Avro's JSON encoding, producing exactly the same bytes as Avro's own
+ * {@link org.apache.avro.io.JsonEncoder} (and the Jackson generator underneath it), in both its
+ * pretty and its compact form.
+ *
+ * <p>Avro's encoder drives a Jackson generator through a grammar-driven parser, one token at a
+ * time. Here the schema is instead compiled once into a tree of writers, each of which knows what
+ * it will be handed; field names and union branch labels are escaped and quoted ahead of time, and
+ * everything is written into a reusable byte buffer, numbers included (see {@link DecimalText}).
+ *
+ * <p>A few of Avro's quirks are reproduced on purpose: supplementary characters are written as
+ * escaped surrogate pairs rather than in UTF-8, non-finite floats and doubles are quoted, and a
+ * top-level record that contains no values at all, only (possibly nested) empty records, isn't
+ * written at all, since Avro's parser never gets as far as starting it.
+ */
+final class JsonRecordEncoder implements RecordEncoder {
+
+  // Jackson and Avro both separate top-level values and indent with the platform's line separator
+  private static final byte[] LINE_SEPARATOR = ascii(System.lineSeparator());
+
+  private static final byte[] NULL = ascii("null");
+  private static final byte[] TRUE = ascii("true");
+  private static final byte[] FALSE = ascii("false");
+  private static final byte[] COMPACT_NAME_SEPARATOR = ascii(":");
+  private static final byte[] PRETTY_NAME_SEPARATOR = ascii(" : ");
+  private static final byte[] HEX_DIGITS = ascii("0123456789ABCDEF");
+
+  // Jackson's short escapes for the control characters that have one; the rest are \\u00XX
+  private static final byte[] SHORT_ESCAPES = new byte[0x20];
+
+  static {
+    SHORT_ESCAPES['\b'] = 'b';
+    SHORT_ESCAPES['\t'] = 't';
+    SHORT_ESCAPES['\n'] = 'n';
+    SHORT_ESCAPES['\f'] = 'f';
+    SHORT_ESCAPES['\r'] = 'r';
+  }
+
+  // Before Java 19, Double.toString() (which is what Jackson writes numbers with) went through a
+  // different algorithm that sometimes picks a longer or different string of digits; since then,
+  // it's the same one DecimalText uses
+  private static final boolean SHORTEST_TO_STRING = Double.toString(2.0E23).equals("2.0E23");
+
+  // Indentation is copied from a run of spaces this long, as many times as it takes
+  private static final int INDENTATION_CHUNK = 64;
+  private static final byte[] SPACES = new byte[INDENTATION_CHUNK];
+
+  static {
+    Arrays.fill(SPACES, (byte) ' ');
+  }
+
+  // Records are handed to the output stream once at least this many bytes of them have built up
+  private static final int WRITE_THRESHOLD = 8192;
+
+  private final Node root;
+  private final OutputStream output;
+  private final boolean pretty;
+  private final byte[] nameSeparator;
+
+  private final StringBuilder floatingPoint = new StringBuilder(32);
+  private byte[] buffer = new byte[2 * WRITE_THRESHOLD];
+  private int length;
+
+  // How many objects the value currently being written is nested in, for indentation
+  private int nesting;
+  private boolean firstRecord;
+
+  private JsonRecordEncoder(Node root, OutputStream output, boolean pretty) {
+    this.root = root;
+    this.output = output;
+    this.pretty = pretty;
+    this.nameSeparator = pretty ? PRETTY_NAME_SEPARATOR : COMPACT_NAME_SEPARATOR;
+    this.firstRecord = true;
+  }
+
+  /**
+   * @param schema The schema of the records to encode.
+   * @param pretty Whether to pretty-print each record instead of writing it on a single line.
+   * @return A factory for encoders that use the Avro JSON encoding.
+   */
+  static RecordEncoder.Factory factory(Schema schema, boolean pretty) {
+    // The compiled writers hold no state of their own, so every encoder can share them
+    final Node root = new Compiler().compile(schema);
+    final Node written = isRecordWithoutValues(schema, new IdentityHashMap<>()) ? null : root;
+    return output -> new JsonRecordEncoder(written, output, pretty);
+  }
+
+  /**
+   * @param schema The schema of the values to encode.
+   * @return An encoder for lone values in the Avro JSON encoding, which are the same whether
+   *     records are pretty-printed or not.
+   */
+  static RecordEncoder.ValueEncoder value(Schema schema) {
+    final Node node = new Compiler().compile(schema);
+    final JsonRecordEncoder scratch = new JsonRecordEncoder(null, null, false);
+    return (value, output) -> {
+      node.write(scratch, value);
+      output.write(scratch.buffer, 0, scratch.length);
+      scratch.length = 0;
+    };
+  }
+
+  @Override
+  public void write(Object record) throws IOException {
+    if (root == null) {
+      return;
+    }
+    if (!firstRecord) {
+      put(LINE_SEPARATOR);
+    }
+    firstRecord = false;
+    root.write(this, record);
+    if (length >= WRITE_THRESHOLD) {
+      flush();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    output.write(buffer, 0, length);
+    length = 0;
+  }
+
+  // Whether a record consists of nothing but (possibly nested) records with no fields, in which
+  // case there's no value anywhere in it for Avro's parser to advance to
+  private static boolean isRecordWithoutValues(Schema schema, Map<Schema, Boolean> enclosing) {
+    if (schema.getType() != Schema.Type.RECORD) {
+      return false;
+    }
+    if (enclosing.put(schema, Boolean.TRUE) != null) {
+      // A record that contains itself can't be generated without a value to end the recursion
+      return false;
+    }
+    boolean result = true;
+    for (Schema.Field field : schema.getFields()) {
+      result &= isRecordWithoutValues(field.schema(), enclosing);
+    }
+    enclosing.remove(schema);
+    return result;
+  }
+
+  private void startObject() {
+    put('{');
+    nesting++;
+  }
+
+  private void objectEntry(int index, byte[] quotedName) {
+    if (index > 0) {
+      put(',');
+    }
+    if (pretty) {
+      indent();
+    }
+    put(quotedName);
+    put(nameSeparator);
+  }
+
+  private void endObject(int entries) {
+    nesting--;
+    if (pretty) {
+      if (entries > 0) {
+        indent();
+      } else {
+        put(' ');
+      }
+    }
+    put('}');
+  }
+
+  private void startArray() {
+    put('[');
+  }
+
+  private void arrayElement(int index) {
+    if (index > 0) {
+      put(',');
+    }
+    if (pretty) {
+      put(' ');
+    }
+  }
+
+  private void endArray() {
+    if (pretty) {
+      put(' ');
+    }
+    put(']');
+  }
+
+  private void indent() {
+    put(LINE_SEPARATOR);
+    for (int spaces = 2 * nesting; spaces > 0; spaces -= INDENTATION_CHUNK) {
+      int chunk = Math.min(spaces, INDENTATION_CHUNK);
+      ensureCapacity(chunk);
+      System.arraycopy(SPACES, 0, buffer, length, chunk);
+      length += chunk;
+    }
+  }
+
+  private void writeLong(long value) {
+    ensureCapacity(DecimalText.MAX_LENGTH);
+    length = DecimalText.write(value, buffer, length);
+  }
+
+  private void writeDouble(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writeString(Double.toString(value));
+    } else if (SHORTEST_TO_STRING) {
+      ensureCapacity(DecimalText.MAX_LENGTH);
+      length = DecimalText.write(value, buffer, length);
+    } else {
+      floatingPoint.setLength(0);
+      writeFloatingPoint(floatingPoint.append(value));
+    }
+  }
+
+  private void writeFloat(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      writeString(Float.toString(value));
+    } else if (SHORTEST_TO_STRING) {
+      ensureCapacity(DecimalText.MAX_LENGTH);
+      length = DecimalText.write(value, buffer, length);
+    } else {
+      floatingPoint.setLength(0);
+      writeFloatingPoint(floatingPoint.append(value));
+    }
+  }
+
+  private void writeFloatingPoint(StringBuilder text) {
+    ensureCapacity(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      buffer[length++] = (byte) text.charAt(i);
+    }
+  }
+
+  private void writeString(CharSequence text) {
+    put('"');
+    if (text instanceof Utf8 && isAscii((Utf8) text)) {
+      Utf8 utf8 = (Utf8) text;
+      byte[] bytes = utf8.getBytes();
+      for (int i = 0; i < utf8.getByteLength(); i++) {
+        writeChar(bytes[i]);
+      }
+    } else {
+      // Anything else is decoded the way Avro's encoder decodes it before handing it to Jackson
+      String string = text.toString();
+      for (int i = 0; i < string.length(); i++) {
+        writeChar(string.charAt(i));
+      }
+    }
+    put('"');
+  }
+
+  // Avro writes bytes as a string of the characters with the same codes, from 0 to 255
+  private void writeBytes(byte[] bytes, int start, int count) {
+    put('"');
+    for (int i = start; i < start + count; i++) {
+      writeChar((char) (bytes[i] & 0xff));
+    }
+    put('"');
+  }
+
+  private static boolean isAscii(Utf8 utf8) {
+    byte[] bytes = utf8.getBytes();
+    for (int i = 0; i < utf8.getByteLength(); i++) {
+      if (bytes[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void writeChar(int ch) {
+    if (ch < 0x80) {
+      if (ch < 0x20) {
+        ensureCapacity(6);
+        buffer[length++] = '\\';
+        if (SHORT_ESCAPES[ch] != 0) {
+          buffer[length++] = SHORT_ESCAPES[ch];
+        } else {
+          writeUnicodeEscape(ch);
+        }
+      } else if (ch == '"' || ch == '\\') {
+        ensureCapacity(2);
+        buffer[length++] = '\\';
+        buffer[length++] = (byte) ch;
+      } else {
+        put(ch);
+      }
+    } else if (ch < 0x800) {
+      ensureCapacity(2);
+      buffer[length++] = (byte) (0xc0 | ch >> 6);
+      buffer[length++] = (byte) (0x80 | ch & 0x3f);
+    } else if (Character.isSurrogate((char) ch)) {
+      // Jackson escapes each half of a surrogate pair instead of encoding the pair in UTF-8
+      ensureCapacity(6);
+      buffer[length++] = '\\';
+      writeUnicodeEscape(ch);
+    } else {
+      ensureCapacity(3);
+      buffer[length++] = (byte) (0xe0 | ch >> 12);
+      buffer[length++] = (byte) (0x80 | ch >> 6 & 0x3f);
+      buffer[length++] = (byte) (0x80 | ch & 0x3f);
+    }
+  }
+
+  // Writes the part of a \\uXXXX escape after the backslash; there must be room for it already
+  private void writeUnicodeEscape(int ch) {
+    buffer[length++] = 'u';
+    buffer[length++] = HEX_DIGITS[ch >> 12 & 0xf];
+    buffer[length++] = HEX_DIGITS[ch >> 8 & 0xf];
+    buffer[length++] = HEX_DIGITS[ch >> 4 & 0xf];
+    buffer[length++] = HEX_DIGITS[ch & 0xf];
+  }
+
+  private void put(int octet) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) octet;
+  }
+
+  private void put(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (length + bytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + bytes));
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // The JSON string for a name that's known ahead of time, quotes and all
+  private static byte[] quoted(String name) {
+    JsonRecordEncoder scratch = new JsonRecordEncoder(null, null, false);
+    scratch.writeString(name);
+    return Arrays.copyOf(scratch.buffer, scratch.length);
+  }
+
+  /**
+   * Writes values of a single schema.
+   */
+  private abstract static class Node {
+    abstract void write(JsonRecordEncoder encoder, Object value);
+  }
+
+  /**
+   * Compiles a schema into writers, reusing the writer for a named schema wherever it recurs.
+   */
+  private static final class Compiler {
+    private final Map<Schema, Node> named = new IdentityHashMap<>();
+
+    Node compile(Schema schema) {
+      switch (schema.getType()) {
+        case NULL:
+          return NullNode.INSTANCE;
+        case BOOLEAN:
+          return BooleanNode.INSTANCE;
+        case INT:
+        case LONG:
+          return IntegralNode.INSTANCE;
+        case FLOAT:
+          return FloatNode.INSTANCE;
+        case DOUBLE:
+          return DoubleNode.INSTANCE;
+        case STRING:
+          return StringNode.INSTANCE;
+        case BYTES:
+          return BytesNode.INSTANCE;
+        case FIXED:
+          return new FixedNode(schema.getFixedSize());
+        case ENUM:
+          return new EnumNode(schema);
+        case ARRAY:
+          return new ArrayNode(compile(schema.getElementType()));
+        case MAP:
+          return new MapNode(compile(schema.getValueType()));
+        case RECORD:
+          return compileRecord(schema);
+        case UNION:
+          return compileUnion(schema);
+        default:
+          throw new RuntimeException("Unrecognized schema type: " + schema.getType());
+      }
+    }
+
+    private Node compileRecord(Schema schema) {
+      RecordNode result = (RecordNode) named.get(schema);
+      if (result == null) {
+        List<Schema.Field> fields = schema.getFields();
+        result = new RecordNode(fields.size());
+        // Registered before its fields are compiled, so that a field can refer back to it
+        named.put(schema, result);
+        for (Schema.Field field : fields) {
+          result.names[field.pos()] = quoted(field.name());
+          result.fields[field.pos()] = compile(field.schema());
+        }
+      }
+      return result;
+    }
+
+    private Node compileUnion(Schema schema) {
+      List<Schema> branches = schema.getTypes();
+      UnionNode result = new UnionNode(schema);
+      for (int i = 0; i < branches.size(); i++) {
+        Schema branch = branches.get(i);
+        // Avro labels named types by their full names and the rest by their type names
+        result.labels[i] = quoted(branch.getFullName());
+        result.branches[i] = compile(branch);
+      }
+      return result;
+    }
+  }
+
+  private static final class NullNode extends Node {
+    static final NullNode INSTANCE = new NullNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.put(NULL);
+    }
+  }
+
+  private static final class BooleanNode extends Node {
+    static final BooleanNode INSTANCE = new BooleanNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.put((Boolean) value ? TRUE : FALSE);
+    }
+  }
+
+  private static final class IntegralNode extends Node {
+    static final IntegralNode INSTANCE = new IntegralNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.writeLong(((Number) value).longValue());
+    }
+  }
+
+  private static final class FloatNode extends Node {
+    static final FloatNode INSTANCE = new FloatNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.writeFloat(((Number) value).floatValue());
+    }
+  }
+
+  private static final class DoubleNode extends Node {
+    static final DoubleNode INSTANCE = new DoubleNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.writeDouble(((Number) value).doubleValue());
+    }
+  }
+
+  private static final class StringNode extends Node {
+    static final StringNode INSTANCE = new StringNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.writeString((CharSequence) value);
+    }
+  }
+
+  private static final class BytesNode extends Node {
+    static final BytesNode INSTANCE = new BytesNode();
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      ByteBuffer bytes = (ByteBuffer) value;
+      if (bytes.hasArray()) {
+        // Avro reads from the backing array starting at the buffer's position, without adding
+        // the array offset; so does this
+        encoder.writeBytes(bytes.array(), bytes.position(), bytes.remaining());
+      } else {
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+        encoder.writeBytes(copy, 0, copy.length);
+      }
+    }
+  }
+
+  private static final class FixedNode extends Node {
+    private final int size;
+
+    FixedNode(int size) {
+      this.size = size;
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.writeBytes(((GenericFixed) value).bytes(), 0, size);
+    }
+  }
+
+  private static final class EnumNode extends Node {
+    private final Schema schema;
+    private final byte[][] symbols;
+
+    EnumNode(Schema schema) {
+      this.schema = schema;
+      List<String> symbolNames = schema.getEnumSymbols();
+      this.symbols = new byte[symbolNames.size()][];
+      for (int i = 0; i < symbols.length; i++) {
+        symbols[i] = quoted(symbolNames.get(i));
+      }
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.put(symbols[schema.getEnumOrdinal(value.toString())]);
+    }
+  }
+
+  private static final class ArrayNode extends Node {
+    private final Node elements;
+
+    ArrayNode(Node elements) {
+      this.elements = elements;
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.startArray();
+      int index = 0;
+      for (Object element : (Collection<?>) value) {
+        encoder.arrayElement(index++);
+        elements.write(encoder, element);
+      }
+      encoder.endArray();
+    }
+  }
+
+  private static final class MapNode extends Node {
+    private final Node values;
+
+    MapNode(Node values) {
+      this.values = values;
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      encoder.startObject();
+      int index = 0;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (index++ > 0) {
+          encoder.put(',');
+        }
+        if (encoder.pretty) {
+          encoder.indent();
+        }
+        encoder.writeString((CharSequence) entry.getKey());
+        encoder.put(encoder.nameSeparator);
+        values.write(encoder, entry.getValue());
+      }
+      encoder.endObject(index);
+    }
+  }
+
+  private static final class RecordNode extends Node {
+    final byte[][] names;
+    final Node[] fields;
+
+    RecordNode(int fields) {
+      this.names = new byte[fields][];
+      this.fields = new Node[fields];
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      IndexedRecord record = (IndexedRecord) value;
+      encoder.startObject();
+      for (int i = 0; i < fields.length; i++) {
+        encoder.objectEntry(i, names[i]);
+        fields[i].write(encoder, record.get(i));
+      }
+      encoder.endObject(fields.length);
+    }
+  }
+
+  private static final class UnionNode extends Node {
+    private final Schema schema;
+    private final int nullBranch;
+    final byte[][] labels;
+    final Node[] branches;
+
+    UnionNode(Schema schema) {
+      this.schema = schema;
+      Integer nullIndex = schema.getIndexNamed(Schema.Type.NULL.getName());
+      this.nullBranch = nullIndex != null ? nullIndex : -1;
+      this.labels = new byte[schema.getTypes().size()][];
+      this.branches = new Node[labels.length];
+    }
+
+    @Override
+    void write(JsonRecordEncoder encoder, Object value) {
+      int branch = value == null && nullBranch >= 0
+          ? nullBranch
+          : GenericData.get().resolveUnion(schema, value);
+      if (branches[branch] == NullNode.INSTANCE) {
+        // Null is the one branch Avro doesn't wrap in an object
+        encoder.put(NULL);
+        return;
+      }
+      encoder.startObject();
+      encoder.objectEntry(0, labels[branch]);
+      branches[branch].write(encoder, value);
+      encoder.endObject(1);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Partitions records by a key field the same way Kafka's default partitioner does: the murmur2
+ * hash of the key's serialized bytes, modulo the number of partitions. Keys are serialized the way
+ * Kafka's built-in serializers would: strings as UTF-8, ints and longs as big-endian two's
+ * complement, and bytes and fixed values as-is. Any other kind of key is hashed by its Avro binary
+ * encoding, and records with a null key are dealt out round-robin.
+ */
+final class KeyPartitioner implements RecordPartitioner {
+
+  private final String field;
+  private final String[] fieldPath;
+  private final int partitions;
+  private final GenericDatumWriter<Object> keyWriter;
+  private final ByteArrayOutputStream keyBytes;
+  private BinaryEncoder keyEncoder;
+  private int nextNullKeyPartition;
+
+  /**
+   * @param schema The schema of the records to partition; must be a record schema.
+   * @param field The name of the key field; nested fields can be given as a dot-separated path.
+   * @param partitions The number of partitions.
+   */
+  KeyPartitioner(Schema schema, String field, int partitions) {
+    this.field = field;
+    this.fieldPath = field.split("\\.");
+    this.partitions = partitions;
+    this.keyWriter = new GenericDatumWriter<>(fieldSchema(schema, field, fieldPath));
+    this.keyBytes = new ByteArrayOutputStream();
+    this.keyEncoder = null;
+    this.nextNullKeyPartition = 0;
+  }
+
+  /**
+   * @return The name of the key field, as given.
+   */
+  String field() {
+    return field;
+  }
+
+  @Override
+  public int partitions() {
+    return partitions;
+  }
+
+  @Override
+  public int partition(Object record) {
+    Object key = record;
+    for (int i = 0; i < fieldPath.length && key != null; i++) {
+      key = ((GenericRecord) key).get(fieldPath[i]);
+    }
+    if (key == null) {
+      int result = nextNullKeyPartition;
+      nextNullKeyPartition = (result + 1) % partitions;
+      return result;
+    }
+    return (murmur2(serialize(key)) & 0x7fffffff) % partitions;
+  }
+
+  private byte[] serialize(Object key) {
+    if (key instanceof CharSequence) {
+      return key.toString().getBytes(StandardCharsets.UTF_8);
+    } else if (key instanceof Integer) {
+      return ByteBuffer.allocate(Integer.BYTES).putInt((Integer) key).array();
+    } else if (key instanceof Long) {
+      return ByteBuffer.allocate(Long.BYTES).putLong((Long) key).array();
+    } else if (key instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) key).duplicate();
+      byte[] result = new byte[buffer.remaining()];
+      buffer.get(result);
+      return result;
+    } else if (key instanceof GenericFixed) {
+      return ((GenericFixed) key).bytes();
+    }
+    keyBytes.reset();
+    try {
+      keyEncoder = EncoderFactory.get().binaryEncoder(keyBytes, keyEncoder);
+      keyWriter.write(key, keyEncoder);
+      keyEncoder.flush();
+    } catch (IOException ioe) {
+      throw new RuntimeException("Unable to serialize partition key", ioe);
+    }
+    return keyBytes.toByteArray();
+  }
+
+  private static Schema fieldSchema(Schema schema, String field, String[] fieldPath) {
+    for (String fieldName : fieldPath) {
+      if (schema.getType() != Schema.Type.RECORD) {
+        throw new IllegalArgumentException(String.format(
+            "Cannot partition by field '%s': %s is not a record",
+            field,
+            schema.getFullName()
+        ));
+      }
+      Schema.Field schemaField = schema.getField(fieldName);
+      if (schemaField == null) {
+        throw new IllegalArgumentException(String.format(
+            "Cannot partition by field '%s': record %s has no field named '%s'",
+            field,
+            schema.getFullName(),
+            fieldName
+        ));
+      }
+      schema = schemaField.schema();
+    }
+    return schema;
+  }
+
+  /**
+   * The 32-bit murmur2 hash, exactly as implemented by Kafka's {@code Utils.murmur2()}.
+   * @param data The bytes to hash.
+   * @return The hash of the given bytes.
+   */
+  static int murmur2(byte[] data) {
+    final int length = data.length;
+    final int seed = 0x9747b28c;
+    final int m = 0x5bd1e995;
+    final int r = 24;
+
+    int hash = seed ^ length;
+    int length4 = length / 4;
+    for (int i = 0; i < length4; i++) {
+      int i4 = i * 4;
+      int word = (data[i4] & 0xff)
+          + ((data[i4 + 1] & 0xff) << 8)
+          + ((data[i4 + 2] & 0xff) << 16)
+          + ((data[i4 + 3] & 0xff) << 24);
+      word *= m;
+      word ^= word >>> r;
+      word *= m;
+      hash *= m;
+      hash ^= word;
+    }
+
+    int tail = length & ~3;
+    switch (length % 4) {
+      case 3:
+        hash ^= (data[tail + 2] & 0xff) << 16;
+        // fall through
+      case 2:
+        hash ^= (data[tail + 1] & 0xff) << 8;
+        // fall through
+      case 1:
+        hash ^= data[tail] & 0xff;
+        hash *= m;
+        break;
+      default:
+        break;
+    }
+
+    hash ^= hash >>> 13;
+    hash *= m;
+    hash ^= hash >>> 15;
+    return hash;
+  }
+}
@@ -0,0 +1,524 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+
+import org.apache.avro.util.Utf8;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+import java.nio.ByteBuffer;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates values for schemas with an Avro logical type, or the equivalent Kafka Connect type,
+ * in the representation that the logical type is encoded as: days since the epoch for dates,
+ * milliseconds or microseconds since midnight or the epoch for times and timestamps, two's
+ * complement unscaled values for decimals, and canonical strings for UUIDs.
+ *
+ * <p>Dates, times and timestamps can be limited with the {@value Generator#RANGE_PROP} property,
+ * whose bounds may be given either as numbers in the type's own units or as ISO-8601 strings
+ * ("2018-04-01", "12:30:00", "2018-04-01T12:30:00Z"), and can be made
+ * {@value Generator#MONOTONIC_PROP}. Decimals can be limited with a range of decimal numbers
+ * (or strings holding them), and otherwise cover every value of their precision.
+ */
+final class LogicalTypeGenerator {
+
+  static final String CONNECT_NAME_PROP = "connect.name";
+  static final String CONNECT_PARAMETERS_PROP = "connect.parameters";
+  static final String CONNECT_DECIMAL_SCALE = "scale";
+  static final String CONNECT_DECIMAL_PRECISION = "connect.decimal.precision";
+
+  // Connect decimals don't need to declare a precision; this one keeps their unscaled values
+  // within a long
+  static final int DEFAULT_CONNECT_DECIMAL_PRECISION = 18;
+
+  private static final long DEFAULT_EPOCH_MIN_MILLIS = 946684800000L; // 2000-01-01T00:00:00Z
+  private static final long DEFAULT_EPOCH_MAX_MILLIS = 1893456000000L; // 2030-01-01T00:00:00Z
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+  private static final int LONG_DECIMAL_PRECISION = 18;
+
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+  enum Kind {
+    UUID,
+    DATE,
+    TIME_MILLIS,
+    TIME_MICROS,
+    TIMESTAMP_MILLIS,
+    TIMESTAMP_MICROS,
+    DECIMAL
+  }
+
+  private final Schema schema;
+  private final Kind kind;
+  // For every kind but UUID and DECIMAL: the (inclusive) minimum, (exclusive) maximum and, if
+  // monotonic, the step between values, all in the kind's own units
+  private final long min;
+  private final long max;
+  private final long step;
+  // For DECIMAL: the (inclusive) minimum and (exclusive) maximum unscaled values
+  private final BigInteger unscaledMin;
+  private final BigInteger unscaledRange;
+  private final boolean longUnscaled;
+
+  private LogicalTypeGenerator(Schema schema, Kind kind, Map propertiesProp) {
+    this.schema = schema;
+    this.kind = kind;
+    Object rangeProp = propertiesProp.get(Generator.RANGE_PROP);
+    if (rangeProp != null && !(rangeProp instanceof Map)) {
+      throw new RuntimeException(String.format(
+          "%s property must be an object, was %s instead",
+          Generator.RANGE_PROP,
+          rangeProp.getClass().getName()
+      ));
+    }
+    Map range = (Map) rangeProp;
+    Object monotonicProp = propertiesProp.get(Generator.MONOTONIC_PROP);
+
+    if (kind == Kind.UUID || kind == Kind.DECIMAL) {
+      if (monotonicProp != null) {
+        throw new RuntimeException(String.format(
+            "%s property is only supported for dates, times and timestamps, not %s",
+            Generator.MONOTONIC_PROP,
+            kind.name().toLowerCase()
+        ));
+      }
+      this.min = 0;
+      this.max = 0;
+      this.step = 0;
+      if (kind == Kind.UUID) {
+        if (range != null) {
+          throw new RuntimeException(String.format(
+              "%s property cannot be specified for a uuid",
+              Generator.RANGE_PROP
+          ));
+        }
+        this.unscaledMin = null;
+        this.unscaledRange = null;
+        this.longUnscaled = false;
+      } else {
+        int precision = decimalPrecision(schema);
+        int scale = decimalScale(schema);
+        BigInteger limit = BigInteger.TEN.pow(precision);
+        BigInteger low = range != null && range.containsKey(Generator.RANGE_PROP_MIN)
+            ? unscaled(range.get(Generator.RANGE_PROP_MIN), scale, Generator.RANGE_PROP_MIN)
+            : limit.negate().add(BigInteger.ONE);
+        BigInteger high = range != null && range.containsKey(Generator.RANGE_PROP_MAX)
+            ? unscaled(range.get(Generator.RANGE_PROP_MAX), scale, Generator.RANGE_PROP_MAX)
+            : limit;
+        if (low.compareTo(high) >= 0) {
+          throw new RuntimeException(String.format(
+              "%s field must be strictly less than %s field in %s property",
+              Generator.RANGE_PROP_MIN,
+              Generator.RANGE_PROP_MAX,
+              Generator.RANGE_PROP
+          ));
+        }
+        if (low.abs().compareTo(limit) >= 0
+            || high.subtract(BigInteger.ONE).abs().compareTo(limit) >= 0) {
+          throw new RuntimeException(String.format(
+              "%s property for a decimal must lie within its precision of %d digits",
+              Generator.RANGE_PROP,
+              precision
+          ));
+        }
+        this.unscaledMin = low;
+        this.unscaledRange = high.subtract(low);
+        this.longUnscaled = precision <= LONG_DECIMAL_PRECISION;
+      }
+      return;
+    }
+
+    this.unscaledMin = null;
+    this.unscaledRange = null;
+    this.longUnscaled = false;
+    this.min = range != null && range.containsKey(Generator.RANGE_PROP_MIN)
+        ? temporal(range.get(Generator.RANGE_PROP_MIN), Generator.RANGE_PROP_MIN)
+        : defaultMin(kind);
+    this.max = range != null && range.containsKey(Generator.RANGE_PROP_MAX)
+        ? temporal(range.get(Generator.RANGE_PROP_MAX), Generator.RANGE_PROP_MAX)
+        : defaultMax(kind);
+    if (min >= max) {
+      throw new RuntimeException(String.format(
+          "%s field must be strictly less than %s field in %s property",
+          Generator.RANGE_PROP_MIN,
+          Generator.RANGE_PROP_MAX,
+          Generator.RANGE_PROP
+      ));
+    }
+    this.step = monotonicStep(kind, monotonicProp);
+  }
+
+  /**
+   * @param schema A schema that may have a logical type.
+   * @param propertiesProp The schema's arg.properties.
+   * @return A generator for the schema's logical type, or null if it doesn't have one that is
+   *     supported.
+   */
+  static LogicalTypeGenerator of(Schema schema, Map propertiesProp) {
+    Kind kind = kind(schema);
+    return kind != null ? new LogicalTypeGenerator(schema, kind, propertiesProp) : null;
+  }
+
+  /**
+   * @param schema A bytes or fixed schema.
+   * @return The scale of the decimals the schema's values hold, or -1 if they aren't decimals.
+   */
+  static int decimalScaleOf(Schema schema) {
+    return kind(schema) == Kind.DECIMAL ? decimalScale(schema) : -1;
+  }
+
+  /**
+   * @return Whether values are monotonic, in which case they need to be
+   *     {@link #generate(Random, long) generated} with a position.
+   */
+  boolean monotonic() {
+    return step > 0;
+  }
+
+  /**
+   * @param random The source of randomness.
+   * @param position The position in the monotonic sequence of the value to generate; ignored
+   *     unless the values are {@link #monotonic()}.
+   * @return A value for the schema, in its logical type's underlying representation.
+   */
+  Object generate(Random random, long position) {
+    switch (kind) {
+      case UUID:
+        return uuid(random);
+      case DECIMAL:
+        return decimal(random);
+      default:
+        long value = step > 0 ? monotonicValue(random, position) : randomValue(random);
+        if (schema.getType() == Schema.Type.INT) {
+          return (int) value;
+        }
+        return value;
+    }
+  }
+
+  /**
+   * @return The estimated size of a value once binary encoded.
+   */
+  SizeEstimate binarySize() {
+    switch (kind) {
+      case UUID:
+        // The length, then 36 ASCII characters
+        return SizeEstimate.constant(1 + 36);
+      case DECIMAL: {
+        double unscaledMax = unscaledMin.add(unscaledRange).doubleValue();
+        SizeEstimate bytes = SizeEstimate.twosComplement(unscaledMin.doubleValue(), unscaledMax);
+        if (schema.getType() == Schema.Type.FIXED) {
+          return SizeEstimate.constant(schema.getFixedSize());
+        }
+        return bytes.plus(SizeEstimate.varint(1, 1 + (unscaledRange.bitLength() + 8) / 8));
+      }
+      default:
+        // Monotonic values cover the range evenly over a run, just like random ones
+        return SizeEstimate.varint(min, max);
+    }
+  }
+
+  // Values are spread over [min, max) in steps; the value at a given position lies somewhere
+  // inside its own step, so values strictly increase until they wrap around at max
+  private long monotonicValue(Random random, long position) {
+    long range = max - min;
+    long steps = (range - 1) / step + 1;
+    long base = min + Math.floorMod(position, steps) * step;
+    long jitter = (long) (random.nextDouble() * step);
+    return Math.min(base + jitter, max - 1);
+  }
+
+  private long randomValue(Random random) {
+    long range = max - min;
+    if (range > 0 && range <= 1L << 53) {
+      return min + (long) (random.nextDouble() * range);
+    }
+    // The range is either too wide for a double to cover every value of, or so wide that it
+    // overflowed
+    return range > 0
+        ? min + Math.floorMod(random.nextLong(), range)
+        : randomLongIn(random, min, max);
+  }
+
+  private static long randomLongIn(Random random, long min, long max) {
+    while (true) {
+      long value = random.nextLong();
+      if (value >= min && value < max) {
+        return value;
+      }
+    }
+  }
+
+  // A random (version 4) UUID, formatted straight into the bytes of its canonical string form
+  private static Utf8 uuid(Random random) {
+    final long high = (random.nextLong() & ~0xf000L) | 0x4000L;
+    final long low = (random.nextLong() & ~0xc000000000000000L) | 0x8000000000000000L;
+    byte[] bytes = new byte[36];
+    hex(high >>> 32, bytes, 0, 8);
+    bytes[8] = '-';
+    hex(high >>> 16, bytes, 9, 4);
+    bytes[13] = '-';
+    hex(high, bytes, 14, 4);
+    bytes[18] = '-';
+    hex(low >>> 48, bytes, 19, 4);
+    bytes[23] = '-';
+    hex(low, bytes, 24, 12);
+    return new Utf8(bytes);
+  }
+
+  // Writes the lowest (digits * 4) bits of value as hex digits
+  private static void hex(long value, byte[] bytes, int offset, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      bytes[i] = HEX_DIGITS[(int) value & 0xf];
+      value >>>= 4;
+    }
+  }
+
+  private Object decimal(Random random) {
+    byte[] bytes;
+    if (longUnscaled) {
+      long range = unscaledRange.longValue();
+      bytes = twosComplement(unscaledMin.longValue() + Math.floorMod(random.nextLong(), range));
+    } else {
+      BigInteger unscaled;
+      do {
+        unscaled = new BigInteger(unscaledRange.bitLength(), random);
+      } while (unscaled.compareTo(unscaledRange) >= 0);
+      bytes = unscaledMin.add(unscaled).toByteArray();
+    }
+    if (schema.getType() == Schema.Type.FIXED) {
+      return new GenericData.Fixed(schema, signExtend(bytes, schema.getFixedSize()));
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+
+  // The shortest big-endian two's complement representation of value, as BigInteger would give
+  private static byte[] twosComplement(long value) {
+    int length = (Long.SIZE - Long.numberOfLeadingZeros(value ^ (value >> 63))) / 8 + 1;
+    byte[] result = new byte[length];
+    for (int i = length - 1; i >= 0; i--) {
+      result[i] = (byte) value;
+      value >>= 8;
+    }
+    return result;
+  }
+
+  private static byte[] signExtend(byte[] bytes, int size) {
+    if (bytes.length == size) {
+      return bytes;
+    }
+    byte[] result = new byte[size];
+    byte padding = (byte) (bytes[0] < 0 ? 0xff : 0);
+    int offset = size - bytes.length;
+    for (int i = 0; i < offset; i++) {
+      result[i] = padding;
+    }
+    System.arraycopy(bytes, 0, result, offset, bytes.length);
+    return result;
+  }
+
+  private static Kind kind(Schema schema) {
+    LogicalType logicalType = schema.getLogicalType();
+    if (logicalType != null) {
+      switch (logicalType.getName()) {
+        case "uuid":
+          return Kind.UUID;
+        case "date":
+          return Kind.DATE;
+        case "time-millis":
+          return Kind.TIME_MILLIS;
+        case "time-micros":
+          return Kind.TIME_MICROS;
+        case "timestamp-millis":
+          return Kind.TIMESTAMP_MILLIS;
+        case "timestamp-micros":
+          return Kind.TIMESTAMP_MICROS;
+        case "decimal":
+          return Kind.DECIMAL;
+        default:
+          break;
+      }
+    }
+    String connectName = schema.getProp(CONNECT_NAME_PROP);
+    if (connectName == null) {
+      return null;
+    }
+    switch (connectName) {
+      case "org.apache.kafka.connect.data.Date":
+        return schema.getType() == Schema.Type.INT ? Kind.DATE : null;
+      case "org.apache.kafka.connect.data.Time":
+        return schema.getType() == Schema.Type.INT ? Kind.TIME_MILLIS : null;
+      case "org.apache.kafka.connect.data.Timestamp":
+        return schema.getType() == Schema.Type.LONG ? Kind.TIMESTAMP_MILLIS : null;
+      case "org.apache.kafka.connect.data.Decimal":
+        return schema.getType() == Schema.Type.BYTES ? Kind.DECIMAL : null;
+      default:
+        return null;
+    }
+  }
+
+  private static int decimalPrecision(Schema schema) {
+    if (schema.getLogicalType() instanceof LogicalTypes.Decimal) {
+      return ((LogicalTypes.Decimal) schema.getLogicalType()).getPrecision();
+    }
+    String precision = connectParameter(schema, CONNECT_DECIMAL_PRECISION);
+    return precision != null ? Integer.parseInt(precision) : DEFAULT_CONNECT_DECIMAL_PRECISION;
+  }
+
+  private static int decimalScale(Schema schema) {
+    if (schema.getLogicalType() instanceof LogicalTypes.Decimal) {
+      return ((LogicalTypes.Decimal) schema.getLogicalType()).getScale();
+    }
+    String scale = connectParameter(schema, CONNECT_DECIMAL_SCALE);
+    return scale != null ? Integer.parseInt(scale) : 0;
+  }
+
+  private static String connectParameter(Schema schema, String parameter) {
+    Object parameters = schema.getObjectProp(CONNECT_PARAMETERS_PROP);
+    if (!(parameters instanceof Map)) {
+      return null;
+    }
+    Object value = ((Map) parameters).get(parameter);
+    return value != null ? value.toString() : null;
+  }
+
+  private static BigInteger unscaled(Object bound, int scale, String field) {
+    BigDecimal value;
+    try {
+      value = new BigDecimal(bound.toString());
+    } catch (NumberFormatException nfe) {
+      throw new RuntimeException(String.format(
+          "%s field of %s property for a decimal must be a number, was %s instead",
+          field,
+          Generator.RANGE_PROP,
+          bound
+      ));
+    }
+    return value.setScale(scale, RoundingMode.CEILING).unscaledValue();
+  }
+
+  private long temporal(Object bound, String field) {
+    if (bound instanceof Number) {
+      return ((Number) bound).longValue();
+    }
+    if (!(bound instanceof String)) {
+      throw new RuntimeException(String.format(
+          "%s field of %s property must be a number or a string, was %s instead",
+          field,
+          Generator.RANGE_PROP,
+          bound.getClass().getName()
+      ));
+    }
+    String text = (String) bound;
+    try {
+      switch (kind) {
+        case DATE:
+          return LocalDate.parse(text).toEpochDay();
+        case TIME_MILLIS:
+          return TimeUnit.NANOSECONDS.toMillis(LocalTime.parse(text).toNanoOfDay());
+        case TIME_MICROS:
+          return TimeUnit.NANOSECONDS.toMicros(LocalTime.parse(text).toNanoOfDay());
+        case TIMESTAMP_MILLIS:
+          return Instant.parse(text).toEpochMilli();
+        case TIMESTAMP_MICROS: {
+          Instant instant = Instant.parse(text);
+          return TimeUnit.SECONDS.toMicros(instant.getEpochSecond())
+              + TimeUnit.NANOSECONDS.toMicros(instant.getNano());
+        }
+        default:
+          throw new RuntimeException(String.format("Unexpected Kind: %s", kind));
+      }
+    } catch (DateTimeParseException exception) {
+      throw new RuntimeException(String.format(
+          "%s field of %s property is not a valid ISO-8601 %s: %s",
+          field,
+          Generator.RANGE_PROP,
+          kind == Kind.DATE ? "date" : kind.name().startsWith("TIME_") ? "time" : "instant",
+          text
+      ));
+    }
+  }
+
+  private static long defaultMin(Kind kind) {
+    switch (kind) {
+      case DATE:
+        return DEFAULT_EPOCH_MIN_MILLIS / MILLIS_PER_DAY;
+      case TIMESTAMP_MILLIS:
+        return DEFAULT_EPOCH_MIN_MILLIS;
+      case TIMESTAMP_MICROS:
+        return TimeUnit.MILLISECONDS.toMicros(DEFAULT_EPOCH_MIN_MILLIS);
+      default:
+        return 0;
+    }
+  }
+
+  private static long defaultMax(Kind kind) {
+    switch (kind) {
+      case DATE:
+        return DEFAULT_EPOCH_MAX_MILLIS / MILLIS_PER_DAY;
+      case TIME_MILLIS:
+        return MILLIS_PER_DAY;
+      case TIME_MICROS:
+        return TimeUnit.MILLISECONDS.toMicros(MILLIS_PER_DAY);
+      case TIMESTAMP_MILLIS:
+        return DEFAULT_EPOCH_MAX_MILLIS;
+      case TIMESTAMP_MICROS:
+        return TimeUnit.MILLISECONDS.toMicros(DEFAULT_EPOCH_MAX_MILLIS);
+      default:
+        throw new RuntimeException(String.format("Unexpected Kind: %s", kind));
+    }
+  }
+
+  // One day for dates and one second for everything else, unless a step is given
+  private static long monotonicStep(Kind kind, Object monotonicProp) {
+    if (monotonicProp == null || Boolean.FALSE.equals(monotonicProp)) {
+      return 0;
+    }
+    if (Boolean.TRUE.equals(monotonicProp)) {
+      switch (kind) {
+        case DATE:
+          return 1;
+        case TIME_MICROS:
+        case TIMESTAMP_MICROS:
+          return TimeUnit.SECONDS.toMicros(1);
+        default:
+          return TimeUnit.SECONDS.toMillis(1);
+      }
+    }
+    if (monotonicProp instanceof Map) {
+      Object stepProp = ((Map) monotonicProp).get(Generator.MONOTONIC_PROP_STEP);
+      if (stepProp instanceof Number
+          && ((Number) stepProp).longValue() > 0
+          && ((Number) stepProp).doubleValue() == ((Number) stepProp).longValue()) {
+        return ((Number) stepProp).longValue();
+      }
+    }
+    throw new RuntimeException(String.format(
+        "%s property must be a boolean or an object with a positive integral %s field",
+        Generator.MONOTONIC_PROP,
+        Generator.MONOTONIC_PROP_STEP
+    ));
+  }
+}
@@ -7,17 +7,22 @@
 
 package io.confluent.avro.random.generator;
 
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.Schema;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /* TODO:  Find a good argument parser that doesn't strip double quotes off of arguments and allows
           for mutually exclusive options to cancel each other out without error */
@@ -42,141 +47,594 @@ public class Main {
   public static final String BINARY_SHORT_FLAG = "-b";
   public static final String BINARY_LONG_FLAG = "--binary";
 
+  public static final String CSV_LONG_FLAG = "--csv";
+  public static final String TSV_LONG_FLAG = "--tsv";
+
   public static final String ITERATIONS_SHORT_FLAG = "-i";
   public static final String ITERATIONS_LONG_FLAG = "--iterations";
 
   public static final String OUTPUT_FILE_SHORT_FLAG = "-o";
   public static final String OUTPUT_FILE_LONG_FLAG = "--output";
 
+  public static final String SEED_LONG_FLAG = "--seed";
+  public static final String RANGE_LONG_FLAG = "--range";
+  public static final String PARTITION_LONG_FLAG = "--partition";
+  public static final String RNG_LONG_FLAG = "--rng";
+
+  public static final String MAX_DEPTH_LONG_FLAG = "--max-depth";
+  public static final String MAX_ELEMENTS_LONG_FLAG = "--max-elements";
+
+  public static final String UNBOUNDED_LONG_FLAG = "--unbounded";
+  public static final String MAX_BYTES_LONG_FLAG = "--max-bytes";
+  public static final String MAX_DURATION_LONG_FLAG = "--max-duration";
+
+  public static final String ROLL_SIZE_LONG_FLAG = "--roll-size";
+  public static final String ROLL_INTERVAL_LONG_FLAG = "--roll-interval";
+
+  public static final String STARTUP_STATS_LONG_FLAG = "--startup-stats";
+
+  public static final String SERVE_LONG_FLAG = "--serve";
+
+  public static final String PIPELINE_STATS_LONG_FLAG = "--pipeline-stats";
+
+  public static final String STATS_INTERVAL_LONG_FLAG = "--stats-interval";
+  public static final String JMX_LONG_FLAG = "--jmx";
+
+  public static final String PROFILE_FIELDS_LONG_FLAG = "--profile-fields";
+
+  public static final String ESTIMATE_LONG_FLAG = "--estimate";
+
+  public static final String SHARDS_LONG_FLAG = "--shards";
+  public static final String PARTITION_BY_LONG_FLAG = "--partition-by";
+  public static final String PARTITIONS_LONG_FLAG = "--partitions";
+
+  public static final String CORPUS_LONG_FLAG = "--corpus";
+
+  public static final String ENTITIES_LONG_FLAG = "--entities";
+  public static final String MUTATIONS_LONG_FLAG = "--mutations";
+
+  public static final String CODEGEN_LONG_FLAG = "--codegen";
+
+  public static final String FRAMING_LONG_FLAG = "--framing";
+
+  public static final String COMPRESS_LONG_FLAG = "--compress";
+
+  public static final String TCP_LONG_FLAG = "--tcp";
+  public static final String CONNECTIONS_LONG_FLAG = "--connections";
+
   public static final String HELP_SHORT_FLAG_1 = "-?";
   public static final String HELP_SHORT_FLAG_2 = "-h";
   public static final String HELP_LONG_FLAG = "--help";
 
-  private static final boolean PRETTY_FORMAT = true;
-  private static final boolean COMPACT_FORMAT = false;
+  // How many of the hottest fields --profile-fields reports
+  private static final int PROFILE_REPORT_ROWS = 20;
+
+  // --estimate calibrates against a short run of at most this many records or this long
+  private static final long CALIBRATION_RECORDS = 1000000;
+  private static final long CALIBRATION_NANOS = TimeUnit.SECONDS.toNanos(2);
 
-  private static final boolean JSON_ENCODING = true;
-  private static final boolean BINARY_ENCODING = false;
+  // Collections that can be given more elements than this are warned about, since they're built
+  // whole in memory
+  private static final long LARGE_COLLECTION = 1 << 20;
+
+  // How long the shutdown hook waits for already-generated records to be written out
+  private static final long SHUTDOWN_FLUSH_SECONDS = 30;
+
+  // Suffixes that numbered files keep at the very end, after their number and extension
+  private static final List<String> COMPRESSION_SUFFIXES = Arrays.asList(".gz", ".zz");
 
   /**
    * Parses options passed in via the args argument to main() and then leverages a new
    * {@link Generator} object to produce randomized output according to the parsed options.
    */
   public static void main(String[] args) {
-    String schema = null;
-    String schemaFile = "-";
-
-    boolean jsonFormat = PRETTY_FORMAT;
-
-    boolean encoding = JSON_ENCODING;
-
-    long iterations = 1;
-    String outputFile = null;
-
-    Iterator<String> argv = Arrays.asList(args).iterator();
-    while (argv.hasNext()) {
-      String flag = argv.next();
-      switch (flag) {
-        case SCHEMA_SHORT_FLAG:
-        case SCHEMA_LONG_FLAG:
-          schemaFile = null;
-          schema = nextArg(argv, flag);
-          break;
-        case SCHEMA_FILE_SHORT_FLAG:
-        case SCHEMA_FILE_LONG_FLAG:
-          schema = null;
-          schemaFile = nextArg(argv, flag);
-          break;
-        case PRETTY_SHORT_FLAG:
-        case PRETTY_LONG_FLAG:
-          jsonFormat = PRETTY_FORMAT;
-          break;
-        case COMPACT_SHORT_FLAG:
-        case COMPACT_LONG_FLAG:
-          jsonFormat = COMPACT_FORMAT;
-          break;
-        case JSON_SHORT_FLAG:
-        case JSON_LONG_FLAG:
-          encoding = JSON_ENCODING;
-          break;
-        case BINARY_SHORT_FLAG:
-        case BINARY_LONG_FLAG:
-          encoding = BINARY_ENCODING;
-          break;
-        case ITERATIONS_SHORT_FLAG:
-        case ITERATIONS_LONG_FLAG:
-          iterations = parseIterations(nextArg(argv, flag), flag);
-          break;
-        case OUTPUT_FILE_SHORT_FLAG:
-        case OUTPUT_FILE_LONG_FLAG:
-          outputFile = nextArg(argv, flag);
-          break;
-        case HELP_SHORT_FLAG_1:
-        case HELP_SHORT_FLAG_2:
-        case HELP_LONG_FLAG:
-          usage();
-          break;
-        default:
-          System.err.printf("%s: %s: unrecognized option%n%n", PROGRAM_NAME, flag);
-          usage(1);
+    long mainStartMillis = System.currentTimeMillis();
+    long mainStartNanos = System.nanoTime();
+
+    MainOptions options = null;
+    try {
+      options = MainOptions.parse(args);
+    } catch (IllegalArgumentException iae) {
+      System.err.printf("%s: %s%n", PROGRAM_NAME, iae.getMessage());
+      usage(1);
+    }
+    if (options.help) {
+      usage();
+    }
+    if (options.serveAddress != null) {
+      serve(options.serveAddress);
+      return;
+    }
+
+    Generator generator = createGenerator(options);
+    long schemaParsedNanos = System.nanoTime();
+    FieldProfiler profiler = null;
+    if (options.profileFields) {
+      profiler = new FieldProfiler(generator.schema(), FieldProfiler.DEFAULT_SAMPLE_INTERVAL);
+      generator.profile(profiler);
+      if (!profiler.emitsEvents()) {
+        System.err.printf(
+            "%s: warning: %s: JFR events need JDK 12 or later, so fields are only reported on "
+                + "stderr%n",
+            PROGRAM_NAME,
+            PROFILE_FIELDS_LONG_FLAG
+        );
       }
     }
 
+    final ParallelCompressor compressor = createCompressor(options);
+    RecordFraming framing = createFraming(options, generator);
+    // A slice that doesn't start at the first record carries on from the slices before it, so it
+    // has no header of its own
+    RecordEncoder.Factory encoderFactory = getEncoderFactory(
+        options.encoding,
+        generator,
+        options.jsonFormat,
+        options.firstRecordIndex() == 0
+    );
+    RecordPartitioner partitioner = createPartitioner(options, generator);
+    if (options.estimate) {
+      printEstimate(
+          generator,
+          encoderFactory,
+          framing,
+          options.encoding,
+          RecordSizeEstimator.estimate(generator, options.iterations),
+          options.iterations,
+          options.maxBytes,
+          options.maxDurationNanos
+      );
+      return;
+    }
+
+    RecordPipeline pipeline =
+        createPipeline(options, generator, encoderFactory, partitioner, framing);
+    PipelineMetrics metrics = pipeline.metrics();
+    if (options.statsIntervalNanos > 0 || options.jmx) {
+      metrics.trackAllocation();
+    }
+    if (options.jmx) {
+      try {
+        metrics.register();
+      } catch (IllegalStateException ise) {
+        System.err.printf("%s: %s%n", PROGRAM_NAME, ise.getMessage());
+        System.exit(1);
+      }
+    }
+    if (options.statsIntervalNanos > 0) {
+      metrics.report(options.statsIntervalNanos, System.err);
+    }
+
+    long firstRecordNanos = run(options, pipeline, partitioner, compressor);
+
+    if (options.statsIntervalNanos > 0) {
+      System.err.printf("%s: stats: total: %s%n", PROGRAM_NAME, metrics.summary());
+    }
+    if (profiler != null) {
+      System.err.printf("%s: %s", PROGRAM_NAME, profiler.report(PROFILE_REPORT_ROWS));
+    }
+    if (options.pipelineStats) {
+      System.err.printf("%s: pipeline: %s%n", PROGRAM_NAME, pipeline.stats());
+    }
+    if (options.startupStats) {
+      printStartupStats(mainStartMillis, mainStartNanos, schemaParsedNanos, firstRecordNanos);
+    }
+  }
+
+  private static Generator createGenerator(MainOptions options) {
     Generator generator = null;
     try {
-      generator = getGenerator(schema, schemaFile);
+      generator = getGenerator(options.schema, options.schemaFile, options.seed, options.rng);
     } catch (IOException ioe) {
       System.err.println("Error occurred while trying to read schema file");
       System.exit(1);
     }
+    return generator.maxDepth(options.maxDepth).maxElements(options.maxElements);
+  }
 
-    try (OutputStream output = getOutput(outputFile)) {
-      Encoder encoder;
+  private static ParallelCompressor createCompressor(MainOptions options) {
+    if (options.compression == null) {
+      return null;
+    }
+    try {
+      return ParallelCompressor.create(
+          options.compression,
+          Runtime.getRuntime().availableProcessors()
+      );
+    } catch (IllegalArgumentException iae) {
+      System.err.printf("%s: %s: %s%n", PROGRAM_NAME, COMPRESS_LONG_FLAG, iae.getMessage());
+      usage(1);
+      return null;
+    }
+  }
 
-      if (encoding == JSON_ENCODING) {
-        encoder = EncoderFactory.get().jsonEncoder(generator.schema(), output, jsonFormat);
-      } else {
-        encoder = EncoderFactory.get().binaryEncoder(output, null);
-      }
+  private static RecordFraming createFraming(MainOptions options, Generator generator) {
+    if (options.framing == null) {
+      return null;
+    }
+    try {
+      return RecordFraming.parse(options.framing, generator.schema());
+    } catch (IllegalArgumentException iae) {
+      System.err.printf("%s: %s: %s%n", PROGRAM_NAME, FRAMING_LONG_FLAG, iae.getMessage());
+      usage(1);
+      return null;
+    }
+  }
 
-      GenericDatumWriter<Object> objectWriter = new GenericDatumWriter<>(generator.schema());
-      for (int i = 0; i < iterations; i++) {
-        objectWriter.write(generator.generate(), encoder);
+  private static RecordPartitioner createPartitioner(MainOptions options, Generator generator) {
+    try {
+      if (options.partitionField != null) {
+        return new KeyPartitioner(generator.schema(), options.partitionField, options.partitions);
       }
-      encoder.flush();
-      output.write('\n');
-    } catch (IOException ioe) {
-      System.err.println("Error occurred while trying to write to output file");
+      return RecordPartitioner.roundRobin(
+          options.tcpAddress != null ? options.connections : options.shards
+      );
+    } catch (IllegalArgumentException iae) {
+      System.err.printf("%s: %s%n", PROGRAM_NAME, iae.getMessage());
       System.exit(1);
+      return null;
+    }
+  }
+
+  // Sets up the pipeline the run goes through: replaying a corpus, generating updates, or
+  // generating every record afresh (by index, if seeded), with compiled code if it was asked for
+  private static RecordPipeline createPipeline(
+      MainOptions options,
+      Generator generator,
+      RecordEncoder.Factory encoderFactory,
+      RecordPartitioner partitioner,
+      RecordFraming framing) {
+    RecordCorpus corpus = null;
+    if (options.corpusRecords > 0) {
+      try {
+        corpus = new RecordCorpus(
+            generator,
+            (int) Math.min(options.corpusRecords, options.iterations),
+            options.indexed() ? options.firstRecordIndex() : -1,
+            encoderFactory,
+            getValueEncoders(options.encoding),
+            partitioner
+        );
+      } catch (IOException ioe) {
+        System.err.println("Error occurred while trying to write the corpus to a temporary file");
+        System.exit(1);
+      }
+    }
+
+    UpdateStream updates = null;
+    if (options.entities > 0) {
+      updates = new UpdateStream(
+          generator,
+          options.entities,
+          options.mutations > 0 ? options.mutations : 1,
+          options.seed != null
+              ? RandomEngine.create(options.rng, ~options.seed)
+              : RandomEngine.create(options.rng)
+      );
+      if (options.encoding.equals(MainOptions.BINARY_ENCODING)) {
+        encoderFactory = updates.binaryEncoderFactory();
+      }
+    }
+
+    CompiledGenerator compiled = options.codegen ? compile(generator) : null;
+    warnAboutLargeCollections(generator, compiled);
+
+    SizeEstimate recordSize = null;
+    if (corpus != null) {
+      recordSize = corpus.recordSize();
+    } else {
+      try {
+        recordSize = RecordSizeEstimator.estimate(generator, options.iterations);
+      } catch (RuntimeException exception) {
+        // Generating records will run into the same problem, and report it properly
+      }
+    }
+
+    RecordPipeline pipeline =
+        new RecordPipeline(generator, encoderFactory, partitioner, options.iterations)
+            .maxBytes(options.maxBytes)
+            .maxDurationNanos(options.maxDurationNanos)
+            .rollBytes(options.rollBytes)
+            .rollIntervalNanos(options.rollIntervalNanos)
+            .framing(framing)
+            .lineTerminated(!options.encoding.equals(MainOptions.BINARY_ENCODING));
+    if (recordSize != null) {
+      pipeline.expectedRecordSize(recordSize);
+    }
+    if (corpus != null) {
+      pipeline.replay(corpus);
+    } else if (updates != null) {
+      // Updates are generated one after another; a seeded generator still makes them reproducible
+      pipeline.updates(updates);
+    } else if (options.indexed()) {
+      // Seeded runs are generated by index, so any range of them can be reproduced on its own
+      pipeline.firstRecordIndex(options.firstRecordIndex());
     }
+    if (compiled != null) {
+      pipeline.compiled(compiled);
+    }
+    return pipeline;
   }
 
-  private static long parseIterations(String arg, String flag) {
+  // Falls back to interpreting the schema (by returning null) if it can't be compiled
+  private static CompiledGenerator compile(Generator generator) {
     try {
-      long result = Long.parseLong(arg);
-      if (result < 0) {
-        System.err.printf("%s: %s: argument cannot be negative%n", PROGRAM_NAME, flag);
-        usage(1);
+      CompiledGenerator compiled = GeneratorCompiler.compile(generator);
+      if (compiled == null) {
+        System.err.printf(
+            "%s: %s: no Java compiler is available, so the schema is interpreted instead%n",
+            PROGRAM_NAME,
+            CODEGEN_LONG_FLAG
+        );
       }
-      return result;
-    } catch (NumberFormatException nfe) {
-      System.err.printf("%s: %s: argument must be a number%n", PROGRAM_NAME, flag);
-      usage(1);
+      return compiled;
+    } catch (RuntimeException exception) {
+      System.err.printf(
+          "%s: %s: %s; the schema is interpreted instead%n",
+          PROGRAM_NAME,
+          CODEGEN_LONG_FLAG,
+          exception.getMessage()
+      );
+      return null;
+    }
+  }
+
+  // Only compiled code writes arrays as it generates them; every other array, and every map, is
+  // built whole before it's written
+  private static void warnAboutLargeCollections(Generator generator, CompiledGenerator compiled) {
+    long longestCollection = generator.longestCollection(compiled == null);
+    if (longestCollection > LARGE_COLLECTION) {
+      System.err.printf(
+          "%s: warning: a single %s can be given up to %d elements, all of which are held in "
+              + "memory until it's written; a length annotation or %s can keep it shorter%s%n",
+          PROGRAM_NAME,
+          compiled == null ? "array or map" : "map",
+          longestCollection,
+          MAX_ELEMENTS_LONG_FLAG,
+          compiled == null
+              ? String.format(", and with %s, %s writes arrays as they're generated",
+                  BINARY_SHORT_FLAG, CODEGEN_LONG_FLAG)
+              : ""
+      );
+    }
+  }
+
+  // Runs the pipeline to completion (or until SIGTERM or SIGINT) and closes every output, exiting
+  // if writing fails; returns when the first record was written, or 0 if none were
+  private static long run(
+      MainOptions options,
+      RecordPipeline pipeline,
+      RecordPartitioner partitioner,
+      ParallelCompressor compressor) {
+    // On SIGTERM or SIGINT, stop generating and give the records already in flight a chance to be
+    // written and every file a chance to be closed before the JVM exits
+    CountDownLatch finished = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      pipeline.stop();
+      try {
+        finished.await(SHUTDOWN_FLUSH_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+      }
+    }, "arg-shutdown"));
+
+    List<RollingOutput> outputs = new ArrayList<>();
+    long firstRecordNanos = 0;
+    Throwable failure = null;
+    try {
+      openOutputs(options, partitioner.partitions(), compressor, outputs);
+      pipeline.run(outputs);
+      firstRecordNanos = pipeline.firstWriteNanos();
+      for (RollingOutput output : outputs) {
+        output.close();
+      }
+    } catch (IOException | RuntimeException | Error exception) {
+      failure = exception;
+    } finally {
+      finished.countDown();
     }
-    System.err.println(
-        "This statement was put in to make the compiler happy."
-        + " If you are seeing it, something has gone very wrong."
+    if (failure != null) {
+      // Whatever was being written when the run failed may end partway through a record
+      for (RollingOutput output : outputs) {
+        output.discard();
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (options.tcpAddress != null) {
+        System.err.printf("%s: %s: %s%n", PROGRAM_NAME, TCP_LONG_FLAG, failure.getMessage());
+      } else {
+        System.err.println("Error occurred while trying to write to output file");
+      }
+      System.exit(1);
+    }
+    return firstRecordNanos;
+  }
+
+  // Adds one output per partition to the given list as it opens them, so that those already open
+  // can be discarded if a later one can't be
+  private static void openOutputs(
+      MainOptions options,
+      int partitions,
+      ParallelCompressor compressor,
+      List<RollingOutput> outputs) throws IOException {
+    UnaryOperator<OutputStream> compress =
+        compressor != null ? compressor::compress : UnaryOperator.identity();
+    for (int i = 0; i < partitions; i++) {
+      if (options.tcpAddress != null) {
+        // One connection per partition
+        outputs.add(RollingOutput.of(compress.apply(new TcpOutput(options.tcpAddress))));
+        continue;
+      }
+      String partitionFile =
+          partitions == 1 ? options.outputFile : numberedFile(options.outputFile, "" + i);
+      if (options.rolling()) {
+        outputs.add(RollingOutput.files(
+            sequence -> numberedFile(partitionFile, String.format("%05d", sequence)),
+            compress
+        ));
+      } else if (options.toFile()) {
+        outputs.add(RollingOutput.file(new File(partitionFile), compress));
+      } else {
+        outputs.add(RollingOutput.of(compress.apply(System.out)));
+      }
+    }
+  }
+
+  // Prints the estimated size of a record, then calibrates that against a short run that's encoded
+  // but thrown away, and uses the measured size and rate to plan the requested run
+  private static void printEstimate(
+      Generator generator,
+      RecordEncoder.Factory encoderFactory,
+      RecordFraming framing,
+      String encodingName,
+      SizeEstimate recordSize,
+      long iterations,
+      long maxBytes,
+      long maxDurationNanos) {
+    System.out.printf("schema: %s per record, binary encoded%n", recordSize);
+
+    RecordPipeline calibration = new RecordPipeline(
+        generator,
+        encoderFactory,
+        RecordPartitioner.roundRobin(1),
+        Math.min(iterations, CALIBRATION_RECORDS)
+    ).maxDurationNanos(CALIBRATION_NANOS).expectedRecordSize(recordSize).framing(framing);
+    long start = System.nanoTime();
+    try {
+      calibration.run(Collections.singletonList(RollingOutput.of(new OutputStream() {
+        @Override
+        public void write(int value) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+      })));
+    } catch (IOException ioe) {
+      throw new AssertionError("Discarded output cannot fail", ioe);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long records = calibration.metrics().getRecords();
+    if (records == 0) {
+      System.out.println("calibration: no records generated");
+      return;
+    }
+    // Every run ends with a newline, unless records are framed
+    double bytesPerRecord =
+        (calibration.metrics().getBytes() - (framing != null ? 0.0 : 1.0)) / records;
+    double recordsPerSecond = records / seconds;
+    System.out.printf(
+        "calibration: %,d records in %.2f s: %.1f bytes per record %s encoded, %,.0f records/s "
+            + "(including JVM warm-up, so rates in long runs are higher)%n",
+        records,
+        seconds,
+        bytesPerRecord,
+        encodingName,
+        recordsPerSecond
+    );
+
+    // Whichever limit is reached first decides how many records the run produces
+    double planned = iterations != MainOptions.UNBOUNDED_ITERATIONS
+        ? iterations
+        : Double.POSITIVE_INFINITY;
+    String limit = ITERATIONS_SHORT_FLAG;
+    if (maxBytes > 0 && maxBytes / bytesPerRecord < planned) {
+      planned = Math.floor(maxBytes / bytesPerRecord);
+      limit = MAX_BYTES_LONG_FLAG;
+    }
+    if (maxDurationNanos > 0 && maxDurationNanos / 1e9 * recordsPerSecond < planned) {
+      planned = Math.floor(maxDurationNanos / 1e9 * recordsPerSecond);
+      limit = MAX_DURATION_LONG_FLAG;
+    }
+    if (Double.isInfinite(planned)) {
+      System.out.println("plan: unbounded run, so there are no totals to plan");
+      return;
+    }
+    // Sizes vary from record to record, but over many records that mostly evens out
+    double spread = recordSize.mean() > 0
+        ? recordSize.standardDeviation() / recordSize.mean() / Math.sqrt(Math.max(planned, 1))
+        : 0.0;
+    System.out.printf(
+        "plan: %,.0f records (limited by %s), %s (give or take %.2f%%), taking about %s%n",
+        planned,
+        limit,
+        formatSize(planned * bytesPerRecord),
+        spread * 100,
+        formatDuration(planned / recordsPerSecond)
     );
-    System.exit(1);
-    return 0L;
   }
 
-  private static String nextArg(Iterator<String> argv, String flag) {
-    if (!argv.hasNext()) {
-      System.err.printf("%s: %s: argument required%n", PROGRAM_NAME, flag);
-      usage(1);
+  private static String formatSize(double bytes) {
+    final String units = "KMGTPE";
+    int unit = -1;
+    while (bytes >= 1024 && unit < units.length() - 1) {
+      bytes /= 1024;
+      unit++;
+    }
+    return unit < 0
+        ? String.format("%.0f bytes", bytes)
+        : String.format("%.1f %siB", bytes, units.charAt(unit));
+  }
+
+  private static String formatDuration(double seconds) {
+    long total = (long) Math.ceil(seconds);
+    if (total < 60) {
+      return String.format("%.1f s", seconds);
+    }
+    long days = TimeUnit.SECONDS.toDays(total);
+    long hours = TimeUnit.SECONDS.toHours(total) % 24;
+    long minutes = TimeUnit.SECONDS.toMinutes(total) % 60;
+    if (days > 0) {
+      return String.format("%dd %02dh %02dm", days, hours, minutes);
+    }
+    return hours > 0
+        ? String.format("%dh %02dm %02ds", hours, minutes, total % 60)
+        : String.format("%dm %02ds", minutes, total % 60);
+  }
+
+  // The management classes are comparatively expensive to load, so the JVM start time is only
+  // looked up here, after everything being measured has already happened
+  private static void printStartupStats(
+      long mainStartMillis,
+      long mainStartNanos,
+      long schemaParsedNanos,
+      long firstRecordNanos) {
+    long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    long jvmToMainMillis = mainStartMillis - jvmStartMillis;
+    double schemaMillis = (schemaParsedNanos - mainStartNanos) / 1e6;
+    if (firstRecordNanos == 0) {
+      System.err.printf(
+          "%s: startup: %d ms JVM start, %.1f ms schema parsing, no records generated%n",
+          PROGRAM_NAME,
+          jvmToMainMillis,
+          schemaMillis
+      );
+      return;
+    }
+    double firstRecordMillis = (firstRecordNanos - schemaParsedNanos) / 1e6;
+    double totalMillis = jvmToMainMillis + (firstRecordNanos - mainStartNanos) / 1e6;
+    System.err.printf(
+        "%s: startup: %d ms JVM start, %.1f ms schema parsing, %.1f ms first record; "
+            + "%.1f ms time to first record%n",
+        PROGRAM_NAME,
+        jvmToMainMillis,
+        schemaMillis,
+        firstRecordMillis,
+        totalMillis
+    );
+  }
+
+  private static void serve(InetSocketAddress address) {
+    try (GeneratorServer server = new GeneratorServer(address)) {
+      System.err.printf("%s: serving on %s%n", PROGRAM_NAME, server.address());
+      server.serve();
+    } catch (IOException ioe) {
+      System.err.printf("%s: server failed: %s%n", PROGRAM_NAME, ioe.getMessage());
+      System.exit(1);
     }
-    return argv.next();
   }
 
   private static void usage() {
@@ -187,16 +645,55 @@ public class Main {
     String header = String.format("%s: Generate random Avro data%n", PROGRAM_NAME);
 
     String summary = String.format(
-        "Usage: %s [%s <file> | %s <schema>] [%s | %s] [%s | %s] [%s <i>] [%s <file>]%n%n",
+        "Usage: %s [%s <file> | %s <schema>] [%s | %s | %s | %s] [%s | %s] [%s <i>]%n"
+            + "           [%s <file> | %s [<host>:]<port> [%s <n>]] [%s <framing>] [%s <format>]%n"
+            + "           [%s <n> | %s <n> [%s <m>]]%n"
+            + "           [%s <seed> [%s <from>:<to> | %s <k>/<n>]] [%s <engine>]%n"
+            + "           [%s <n>] [%s <n>] [%s | %s <size> | %s <duration>]%n"
+            + "           [%s <size>] [%s <duration>] [%s <n> | %s <field> %s <n>]%n"
+            + "           [%s] [%s] [%s <duration>] [%s] [%s] [%s] [%s]%n"
+            + "       %s %s [<host>:]<port>%n%n",
         PROGRAM_NAME,
         SCHEMA_FILE_SHORT_FLAG,
         SCHEMA_SHORT_FLAG,
         JSON_SHORT_FLAG,
         BINARY_SHORT_FLAG,
+        CSV_LONG_FLAG,
+        TSV_LONG_FLAG,
         PRETTY_SHORT_FLAG,
         COMPACT_SHORT_FLAG,
         ITERATIONS_SHORT_FLAG,
-        OUTPUT_FILE_SHORT_FLAG
+        OUTPUT_FILE_SHORT_FLAG,
+        TCP_LONG_FLAG,
+        CONNECTIONS_LONG_FLAG,
+        FRAMING_LONG_FLAG,
+        COMPRESS_LONG_FLAG,
+        CORPUS_LONG_FLAG,
+        ENTITIES_LONG_FLAG,
+        MUTATIONS_LONG_FLAG,
+        SEED_LONG_FLAG,
+        RANGE_LONG_FLAG,
+        PARTITION_LONG_FLAG,
+        RNG_LONG_FLAG,
+        MAX_DEPTH_LONG_FLAG,
+        MAX_ELEMENTS_LONG_FLAG,
+        UNBOUNDED_LONG_FLAG,
+        MAX_BYTES_LONG_FLAG,
+        MAX_DURATION_LONG_FLAG,
+        ROLL_SIZE_LONG_FLAG,
+        ROLL_INTERVAL_LONG_FLAG,
+        SHARDS_LONG_FLAG,
+        PARTITION_BY_LONG_FLAG,
+        PARTITIONS_LONG_FLAG,
+        STARTUP_STATS_LONG_FLAG,
+        PIPELINE_STATS_LONG_FLAG,
+        STATS_INTERVAL_LONG_FLAG,
+        JMX_LONG_FLAG,
+        PROFILE_FIELDS_LONG_FLAG,
+        ESTIMATE_LONG_FLAG,
+        CODEGEN_LONG_FLAG,
+        PROGRAM_NAME,
+        SERVE_LONG_FLAG
     );
 
     final String indentation = "    ";
@@ -218,6 +715,20 @@ public class Main {
             BINARY_LONG_FLAG,
             separation,
             "Encode outputted data in binary format"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            CSV_LONG_FLAG,
+            separation,
+            "Encode outputted data as comma-separated values, with nested records flattened into "
+                + "dotted column names"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            TSV_LONG_FLAG,
+            separation,
+            "Encode outputted data as tab-separated values, with nested records flattened into "
+                + "dotted column names"
         ) + String.format(
             "%s%s, %s:%s%s%n",
             indentation,
@@ -268,6 +779,202 @@ public class Main {
             SCHEMA_LONG_FLAG,
             separation,
             "Spoof the schema <schema>"
+        ) + String.format(
+            "%s%s <seed>:%s%s%n",
+            indentation,
+            SEED_LONG_FLAG,
+            separation,
+            "Generate records reproducibly from <seed>; record i depends only on the schema, "
+                + "<seed> and i"
+        ) + String.format(
+            "%s%s <from>:<to>:%s%s%n",
+            indentation,
+            RANGE_LONG_FLAG,
+            separation,
+            "Generate only records <from> (inclusive) to <to> (exclusive) of the seeded sequence"
+        ) + String.format(
+            "%s%s <k>/<n>:%s%s%n",
+            indentation,
+            PARTITION_LONG_FLAG,
+            separation,
+            "Generate only the <k>th (counting from 0) of <n> equal slices of the "
+                + ITERATIONS_SHORT_FLAG + " records of the seeded sequence"
+        ) + String.format(
+            "%s%s <engine>:%s%s%n",
+            indentation,
+            RNG_LONG_FLAG,
+            separation,
+            "Draw random values from <engine>, one of " + String.join(", ", RandomEngine.NAMES)
+                + " (default is " + RandomEngine.JDK + "); each engine gives different records "
+                + "for the same seed"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            MAX_DEPTH_LONG_FLAG,
+            separation,
+            "Nest records at most <n> deep, ending recursion with nulls and empty collections "
+                + "(default is " + Generator.DEFAULT_MAX_DEPTH + ")"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            MAX_ELEMENTS_LONG_FLAG,
+            separation,
+            "Give each record at most <n> array and map elements in all, shortening collections "
+                + "once they run out; every map, and every array unless " + CODEGEN_LONG_FLAG
+                + " is given, is built whole in memory before it's written"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            UNBOUNDED_LONG_FLAG,
+            separation,
+            "Keep generating until killed; SIGTERM or SIGINT stops cleanly, flushing every file"
+        ) + String.format(
+            "%s%s <size>:%s%s%n",
+            indentation,
+            MAX_BYTES_LONG_FLAG,
+            separation,
+            "Stop before writing more than <size> bytes of records, e.g. 500G (unbounded unless "
+                + ITERATIONS_SHORT_FLAG + " is given)"
+        ) + String.format(
+            "%s%s <duration>:%s%s%n",
+            indentation,
+            MAX_DURATION_LONG_FLAG,
+            separation,
+            "Stop generating after <duration>, e.g. 90s, 15m or 6h (unbounded unless "
+                + ITERATIONS_SHORT_FLAG + " is given)"
+        ) + String.format(
+            "%s%s <size>:%s%s%n",
+            indentation,
+            ROLL_SIZE_LONG_FLAG,
+            separation,
+            "Move on to a new output file once the current one holds <size> bytes, e.g. "
+                + "out-00000.json, out-00001.json, ..."
+        ) + String.format(
+            "%s%s <duration>:%s%s%n",
+            indentation,
+            ROLL_INTERVAL_LONG_FLAG,
+            separation,
+            "Move on to a new output file once the current one has been written to for <duration>"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            SHARDS_LONG_FLAG,
+            separation,
+            "Deal records out round-robin to <n> files named after the output file, e.g. "
+                + "out-0.json, out-1.json, ..."
+        ) + String.format(
+            "%s%s <field>, %s <n>:%s%s%n",
+            indentation,
+            PARTITION_BY_LONG_FLAG,
+            PARTITIONS_LONG_FLAG,
+            separation,
+            "Write each record to the file for its partition, chosen from <field> the same way "
+                + "Kafka's default partitioner would"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            CORPUS_LONG_FLAG,
+            separation,
+            "Generate <n> records once and replay them over and over, generating afresh only "
+                + "fields with iteration, monotonic or refresh properties"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            ENTITIES_LONG_FLAG,
+            separation,
+            "Output a stream of updates to <n> entities, keyed by the field with an entity_key "
+                + "property, instead of independent records"
+        ) + String.format(
+            "%s%s <m>:%s%s%n",
+            indentation,
+            MUTATIONS_LONG_FLAG,
+            separation,
+            "Change <m> fields of the entity in each update, along with any refreshed ones "
+                + "(default is 1)"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            STARTUP_STATS_LONG_FLAG,
+            separation,
+            "Report JVM start, schema parsing and time to first record on stderr"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            PIPELINE_STATS_LONG_FLAG,
+            separation,
+            "Report how long each of the generate, encode and write stages worked and waited"
+        ) + String.format(
+            "%s%s <duration>:%s%s%n",
+            indentation,
+            STATS_INTERVAL_LONG_FLAG,
+            separation,
+            "Every <duration>, report throughput, record size, allocation, how busy each stage was "
+                + "and queue backlogs on stderr"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            JMX_LONG_FLAG,
+            separation,
+            "Expose the same metrics as the MBean " + PipelineMetrics.OBJECT_NAME
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            PROFILE_FIELDS_LONG_FLAG,
+            separation,
+            "Time the fields of one in every " + FieldProfiler.DEFAULT_SAMPLE_INTERVAL + " records "
+                + "and report the hottest fields on stderr (also as JFR events, on JDK 12 or later)"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            ESTIMATE_LONG_FLAG,
+            separation,
+            "Instead of writing records, estimate their size from the schema, calibrate it with a "
+                + "short throwaway run and predict the size and duration of the run"
+        ) + String.format(
+            "%s%s:%s%s%n",
+            indentation,
+            CODEGEN_LONG_FLAG,
+            separation,
+            "Compile the schema into Java code that generates binary-encoded records directly, "
+                + "instead of interpreting it, writing arrays as they're generated rather than "
+                + "holding them in memory (requires " + BINARY_SHORT_FLAG + " and a JDK)"
+        ) + String.format(
+            "%s%s <framing>:%s%s%n",
+            indentation,
+            FRAMING_LONG_FLAG,
+            separation,
+            "Frame each binary-encoded record as a message, with a 4-byte length prefix (length), "
+                + "a single-object encoding header (single-object), a Confluent wire format header "
+                + "(confluent:<schema id>) or a length prefix followed by either header (such as "
+                + "length,confluent:<schema id>)"
+        ) + String.format(
+            "%s%s <format>:%s%s%n",
+            indentation,
+            COMPRESS_LONG_FLAG,
+            separation,
+            "Compress every output file (or stdout) with <format>, one of gzip (concatenated "
+                + "members) or deflate (a zlib stream), in blocks compressed in parallel on "
+                + "every core"
+        ) + String.format(
+            "%s%s [<host>:]<port>:%s%s%n",
+            indentation,
+            TCP_LONG_FLAG,
+            separation,
+            "Send output over TCP to <port> (on loopback unless <host> is given) instead of "
+                + "writing it, reconnecting with backoff if the connection breaks"
+        ) + String.format(
+            "%s%s <n>:%s%s%n",
+            indentation,
+            CONNECTIONS_LONG_FLAG,
+            separation,
+            "Deal records out round-robin over <n> connections, each with its own writer thread "
+                + "(requires " + TCP_LONG_FLAG + ")"
+        ) + String.format(
+            "%s%s [<host>:]<port>:%s%s%n",
+            indentation,
+            SERVE_LONG_FLAG,
+            separation,
+            "Serve generated data over TCP on <port> (loopback unless <host> is given) until killed"
         ) + "\n";
 
     String footer = String.format(
@@ -280,8 +987,9 @@ public class Main {
     System.exit(exitValue);
   }
 
-  private static Generator getGenerator(String schema, String schemaFile) throws IOException {
-    Random random = new Random();
+  private static Generator getGenerator(String schema, String schemaFile, Long seed, String rng)
+      throws IOException {
+    Random random = seed != null ? RandomEngine.create(rng, seed) : RandomEngine.create(rng);
     if (schema != null) {
       return new Generator(schema, random);
     } else if (!schemaFile.equals("-")) {
@@ -292,11 +1000,54 @@ public class Main {
     }
   }
 
-  private static OutputStream getOutput(String outputFile) throws IOException {
-    if (outputFile != null && !outputFile.equals("-")) {
-      return new FileOutputStream(outputFile);
-    } else {
-      return System.out;
+  private static RecordEncoder.Factory getEncoderFactory(
+      String encoding,
+      Generator generator,
+      boolean jsonFormat,
+      boolean header) {
+    switch (encoding) {
+      case MainOptions.BINARY_ENCODING:
+        return AvroRecordEncoder.binary(generator.schema());
+      case MainOptions.CSV_ENCODING:
+        return DelimitedRecordEncoder.csv(generator.schema(), header);
+      case MainOptions.TSV_ENCODING:
+        return DelimitedRecordEncoder.tsv(generator.schema(), header);
+      default:
+        return JsonRecordEncoder.factory(generator.schema(), jsonFormat);
+    }
+  }
+
+  private static Function<Schema, RecordEncoder.ValueEncoder> getValueEncoders(String encoding) {
+    switch (encoding) {
+      case MainOptions.BINARY_ENCODING:
+        return AvroRecordEncoder::binaryValue;
+      case MainOptions.CSV_ENCODING:
+        return DelimitedRecordEncoder::csvValue;
+      case MainOptions.TSV_ENCODING:
+        return DelimitedRecordEncoder::tsvValue;
+      default:
+        return JsonRecordEncoder::value;
+    }
+  }
+
+  // Inserts a shard or roll number before the file's extension, if it has one: "data.json" becomes
+  // "data-0.json", "data-1.json", and so on. A compressed file's extension is the one before its
+  // compression suffix, so "data.json.gz" becomes "data-0.json.gz"
+  private static String numberedFile(String outputFile, String number) {
+    int name = outputFile.lastIndexOf(File.separatorChar) + 1;
+    int extension = outputFile.lastIndexOf('.');
+    for (String suffix : COMPRESSION_SUFFIXES) {
+      if (outputFile.endsWith(suffix) && extension > name) {
+        extension = outputFile.lastIndexOf('.', extension - 1);
+        if (extension <= name) {
+          extension = outputFile.length() - suffix.length();
+        }
+        break;
+      }
+    }
+    if (extension <= name) {
+      return outputFile + "-" + number;
     }
+    return outputFile.substring(0, extension) + "-" + number + outputFile.substring(extension);
   }
 }
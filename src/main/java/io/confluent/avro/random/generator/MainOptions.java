@@ -0,0 +1,593 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The options {@link Main} is run with: the command line, parsed and checked for options that
+ * can't be combined, with whatever options imply about others filled in (a {@code --partition}
+ * turned into the range of records it covers, a default number of records, and so on). Anything
+ * wrong with the command line is reported as an {@link IllegalArgumentException} whose message
+ * says what, for {@link Main} to print along with its usage.
+ */
+final class MainOptions {
+
+  static final String JSON_ENCODING = "JSON";
+  static final String BINARY_ENCODING = "binary";
+  static final String CSV_ENCODING = "CSV";
+  static final String TSV_ENCODING = "TSV";
+
+  static final long UNSET_ITERATIONS = -1;
+  static final long UNBOUNDED_ITERATIONS = Long.MAX_VALUE;
+
+  private static final boolean PRETTY_FORMAT = true;
+  private static final boolean COMPACT_FORMAT = false;
+
+  private static final Pattern SIZE_PATTERN =
+      Pattern.compile("(\\d+)\\s*(|k|m|g|t)(?:i?b)?", Pattern.CASE_INSENSITIVE);
+  private static final Pattern DURATION_PATTERN =
+      Pattern.compile("(\\d+)\\s*(|ms|s|m|h|d)", Pattern.CASE_INSENSITIVE);
+
+  boolean help = false;
+
+  String schema = null;
+  String schemaFile = "-";
+
+  boolean jsonFormat = PRETTY_FORMAT;
+  String encoding = JSON_ENCODING;
+
+  long iterations = UNSET_ITERATIONS;
+  Long seed = null;
+  // The (inclusive) first and (exclusive) last index of the records to generate, if not all of them
+  long[] range = null;
+  String rng = RandomEngine.JDK;
+  int maxDepth = Generator.DEFAULT_MAX_DEPTH;
+  long maxElements = Generator.UNLIMITED_ELEMENTS;
+  long maxBytes = 0;
+  long maxDurationNanos = 0;
+  String outputFile = null;
+
+  long rollBytes = 0;
+  long rollIntervalNanos = 0;
+
+  int shards = 1;
+  String partitionField = null;
+  int partitions = 0;
+
+  int corpusRecords = 0;
+
+  int entities = 0;
+  int mutations = 0;
+
+  boolean codegen = false;
+
+  String framing = null;
+
+  String compression = null;
+
+  InetSocketAddress tcpAddress = null;
+  int connections = 0;
+
+  boolean startupStats = false;
+  boolean pipelineStats = false;
+  long statsIntervalNanos = 0;
+  boolean jmx = false;
+  boolean profileFields = false;
+  boolean estimate = false;
+
+  InetSocketAddress serveAddress = null;
+
+  // Only while parsing: the slice given with --partition, until it's turned into a range
+  private int[] slice = null;
+
+  private MainOptions() {
+  }
+
+  /**
+   * @param args The command line.
+   * @return The options it gives. If it asks for help, no more of it is parsed, and nothing else
+   *     is set; if it asks to serve, none of the other options are checked.
+   * @throws IllegalArgumentException if an option is unrecognized or has an invalid argument, or
+   *     options are given that can't be combined.
+   */
+  static MainOptions parse(String... args) {
+    MainOptions options = new MainOptions();
+    Iterator<String> argv = Arrays.asList(args).iterator();
+    while (argv.hasNext()) {
+      if (!options.parseFlag(argv.next(), argv)) {
+        options.help = true;
+        return options;
+      }
+    }
+    if (options.serveAddress == null) {
+      options.validate();
+      options.resolve();
+    }
+    return options;
+  }
+
+  /**
+   * @return Whether records are written to files that are rolled over as they grow or age.
+   */
+  boolean rolling() {
+    return rollBytes > 0 || rollIntervalNanos > 0;
+  }
+
+  /**
+   * @return Whether output goes to a file, rather than to stdout or over TCP.
+   */
+  boolean toFile() {
+    return outputFile != null && !outputFile.equals("-");
+  }
+
+  /**
+   * @return Whether records are generated by index (see {@link Generator#generate(long)}), which
+   *     makes any range of a seeded run reproducible on its own.
+   */
+  boolean indexed() {
+    return seed != null;
+  }
+
+  /**
+   * @return The index of the first record to generate.
+   */
+  long firstRecordIndex() {
+    return range != null ? range[0] : 0;
+  }
+
+  // Returns false for a request for help, which ends parsing
+  private boolean parseFlag(String flag, Iterator<String> argv) {
+    switch (flag) {
+      case Main.SCHEMA_SHORT_FLAG:
+      case Main.SCHEMA_LONG_FLAG:
+        schemaFile = null;
+        schema = nextArg(argv, flag);
+        break;
+      case Main.SCHEMA_FILE_SHORT_FLAG:
+      case Main.SCHEMA_FILE_LONG_FLAG:
+        schema = null;
+        schemaFile = nextArg(argv, flag);
+        break;
+      case Main.PRETTY_SHORT_FLAG:
+      case Main.PRETTY_LONG_FLAG:
+        jsonFormat = PRETTY_FORMAT;
+        break;
+      case Main.COMPACT_SHORT_FLAG:
+      case Main.COMPACT_LONG_FLAG:
+        jsonFormat = COMPACT_FORMAT;
+        break;
+      case Main.JSON_SHORT_FLAG:
+      case Main.JSON_LONG_FLAG:
+        encoding = JSON_ENCODING;
+        break;
+      case Main.BINARY_SHORT_FLAG:
+      case Main.BINARY_LONG_FLAG:
+        encoding = BINARY_ENCODING;
+        break;
+      case Main.CSV_LONG_FLAG:
+        encoding = CSV_ENCODING;
+        break;
+      case Main.TSV_LONG_FLAG:
+        encoding = TSV_ENCODING;
+        break;
+      case Main.ITERATIONS_SHORT_FLAG:
+      case Main.ITERATIONS_LONG_FLAG:
+        iterations = parseIterations(nextArg(argv, flag), flag);
+        break;
+      case Main.OUTPUT_FILE_SHORT_FLAG:
+      case Main.OUTPUT_FILE_LONG_FLAG:
+        outputFile = nextArg(argv, flag);
+        break;
+      case Main.SEED_LONG_FLAG:
+        seed = parseSeed(nextArg(argv, flag), flag);
+        break;
+      case Main.RANGE_LONG_FLAG:
+        range = parseRange(nextArg(argv, flag), flag);
+        slice = null;
+        break;
+      case Main.PARTITION_LONG_FLAG:
+        slice = parseSlice(nextArg(argv, flag), flag);
+        range = null;
+        break;
+      case Main.RNG_LONG_FLAG:
+        rng = parseEngine(nextArg(argv, flag), flag);
+        break;
+      case Main.MAX_DEPTH_LONG_FLAG:
+        maxDepth = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.MAX_ELEMENTS_LONG_FLAG:
+        maxElements = parseIterations(nextArg(argv, flag), flag);
+        break;
+      case Main.UNBOUNDED_LONG_FLAG:
+        iterations = UNBOUNDED_ITERATIONS;
+        break;
+      case Main.MAX_BYTES_LONG_FLAG:
+        maxBytes = parseSize(nextArg(argv, flag), flag);
+        break;
+      case Main.MAX_DURATION_LONG_FLAG:
+        maxDurationNanos = parseDuration(nextArg(argv, flag), flag);
+        break;
+      case Main.ROLL_SIZE_LONG_FLAG:
+        rollBytes = parseSize(nextArg(argv, flag), flag);
+        break;
+      case Main.ROLL_INTERVAL_LONG_FLAG:
+        rollIntervalNanos = parseDuration(nextArg(argv, flag), flag);
+        break;
+      case Main.STARTUP_STATS_LONG_FLAG:
+        startupStats = true;
+        break;
+      case Main.SHARDS_LONG_FLAG:
+        shards = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.PARTITION_BY_LONG_FLAG:
+        partitionField = nextArg(argv, flag);
+        break;
+      case Main.PARTITIONS_LONG_FLAG:
+        partitions = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.CORPUS_LONG_FLAG:
+        corpusRecords = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.ENTITIES_LONG_FLAG:
+        entities = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.MUTATIONS_LONG_FLAG:
+        mutations = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.CODEGEN_LONG_FLAG:
+        codegen = true;
+        break;
+      case Main.FRAMING_LONG_FLAG:
+        framing = nextArg(argv, flag);
+        break;
+      case Main.COMPRESS_LONG_FLAG:
+        compression = nextArg(argv, flag);
+        break;
+      case Main.TCP_LONG_FLAG:
+        tcpAddress = parseAddress(nextArg(argv, flag), flag);
+        break;
+      case Main.CONNECTIONS_LONG_FLAG:
+        connections = parsePositiveInt(nextArg(argv, flag), flag);
+        break;
+      case Main.PIPELINE_STATS_LONG_FLAG:
+        pipelineStats = true;
+        break;
+      case Main.STATS_INTERVAL_LONG_FLAG:
+        statsIntervalNanos = parseDuration(nextArg(argv, flag), flag);
+        break;
+      case Main.JMX_LONG_FLAG:
+        jmx = true;
+        break;
+      case Main.PROFILE_FIELDS_LONG_FLAG:
+        profileFields = true;
+        break;
+      case Main.ESTIMATE_LONG_FLAG:
+        estimate = true;
+        break;
+      case Main.SERVE_LONG_FLAG:
+        serveAddress = parseAddress(nextArg(argv, flag), flag);
+        break;
+      case Main.HELP_SHORT_FLAG_1:
+      case Main.HELP_SHORT_FLAG_2:
+      case Main.HELP_LONG_FLAG:
+        return false;
+      default:
+        throw new IllegalArgumentException(String.format("%s: unrecognized option", flag));
+    }
+    return true;
+  }
+
+  private void validate() {
+    if (connections > 0 && tcpAddress == null) {
+      throw requires(Main.CONNECTIONS_LONG_FLAG, Main.TCP_LONG_FLAG);
+    }
+    if (tcpAddress != null && (outputFile != null || shards > 1 || partitionField != null
+        || rolling())) {
+      throw cannotCombine(
+          Main.TCP_LONG_FLAG,
+          Main.OUTPUT_FILE_SHORT_FLAG,
+          Main.SHARDS_LONG_FLAG,
+          Main.PARTITION_BY_LONG_FLAG,
+          Main.ROLL_SIZE_LONG_FLAG,
+          Main.ROLL_INTERVAL_LONG_FLAG
+      );
+    }
+    if ((partitionField == null) != (partitions == 0)) {
+      throw new IllegalArgumentException(String.format(
+          "%s and %s must be given together",
+          Main.PARTITION_BY_LONG_FLAG,
+          Main.PARTITIONS_LONG_FLAG
+      ));
+    }
+    if (partitionField != null && shards > 1) {
+      throw cannotCombine(Main.SHARDS_LONG_FLAG, Main.PARTITION_BY_LONG_FLAG);
+    }
+    if ((shards > 1 || partitionField != null) && !toFile()) {
+      throw requireAnOutputFile(Main.SHARDS_LONG_FLAG, Main.PARTITION_BY_LONG_FLAG);
+    }
+    if (rolling() && !toFile()) {
+      throw requireAnOutputFile(Main.ROLL_SIZE_LONG_FLAG, Main.ROLL_INTERVAL_LONG_FLAG);
+    }
+    if (mutations > 0 && entities == 0) {
+      throw requires(Main.MUTATIONS_LONG_FLAG, Main.ENTITIES_LONG_FLAG);
+    }
+    if (entities > 0 && (corpusRecords > 0 || range != null || slice != null)) {
+      throw cannotCombine(
+          Main.ENTITIES_LONG_FLAG,
+          Main.CORPUS_LONG_FLAG,
+          Main.RANGE_LONG_FLAG,
+          Main.PARTITION_LONG_FLAG
+      );
+    }
+    if (codegen && !encoding.equals(BINARY_ENCODING)) {
+      throw requires(Main.CODEGEN_LONG_FLAG, Main.BINARY_LONG_FLAG);
+    }
+    if (framing != null && !encoding.equals(BINARY_ENCODING)) {
+      throw requires(Main.FRAMING_LONG_FLAG, Main.BINARY_LONG_FLAG);
+    }
+    if (codegen && (partitionField != null || corpusRecords > 0 || entities > 0 || profileFields)) {
+      throw cannotCombine(
+          Main.CODEGEN_LONG_FLAG,
+          Main.PARTITION_BY_LONG_FLAG,
+          Main.CORPUS_LONG_FLAG,
+          Main.ENTITIES_LONG_FLAG,
+          Main.PROFILE_FIELDS_LONG_FLAG
+      );
+    }
+    if ((range != null || slice != null) && seed == null) {
+      throw new IllegalArgumentException(String.format(
+          "%s and %s require %s, so that every slice is cut from the same records",
+          Main.RANGE_LONG_FLAG,
+          Main.PARTITION_LONG_FLAG,
+          Main.SEED_LONG_FLAG
+      ));
+    }
+    if (slice != null && (iterations == UNSET_ITERATIONS || iterations == UNBOUNDED_ITERATIONS)) {
+      throw new IllegalArgumentException(String.format(
+          "%s requires the total number of records to be given with %s",
+          Main.PARTITION_LONG_FLAG,
+          Main.ITERATIONS_SHORT_FLAG
+      ));
+    }
+  }
+
+  private void resolve() {
+    if (tcpAddress != null && connections == 0) {
+      connections = 1;
+    }
+    if (slice != null) {
+      range = sliceRange(iterations, slice[0], slice[1]);
+      slice = null;
+    }
+    if (range != null) {
+      iterations = range[1] - range[0];
+    }
+    if (iterations == UNSET_ITERATIONS) {
+      // A size or time limit on its own means "this much data", not "one record"
+      iterations = maxBytes > 0 || maxDurationNanos > 0 ? UNBOUNDED_ITERATIONS : 1;
+    }
+  }
+
+  private static IllegalArgumentException requires(String flag, String required) {
+    return new IllegalArgumentException(String.format("%s requires %s", flag, required));
+  }
+
+  private static IllegalArgumentException requireAnOutputFile(String flag, String other) {
+    return new IllegalArgumentException(String.format(
+        "%s and %s require an output file",
+        flag,
+        other
+    ));
+  }
+
+  // "<flag> cannot be combined with <a>, <b> or <c>"
+  private static IllegalArgumentException cannotCombine(String flag, String... others) {
+    String list = others[others.length - 1];
+    if (others.length > 1) {
+      list = String.join(", ", Arrays.copyOf(others, others.length - 1)) + " or " + list;
+    }
+    return new IllegalArgumentException(String.format(
+        "%s cannot be combined with %s",
+        flag,
+        list
+    ));
+  }
+
+  private static long parseIterations(String arg, String flag) {
+    long result;
+    try {
+      result = Long.parseLong(arg);
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "argument must be a number");
+    }
+    if (result < 0) {
+      throw invalidArgument(flag, "argument cannot be negative");
+    }
+    return result;
+  }
+
+  // Accepts a whole number of bytes, optionally followed by one of the (binary) units K, M, G or T,
+  // e.g. "500G", "64MiB" or "1048576"
+  private static long parseSize(String arg, String flag) {
+    Matcher matcher = SIZE_PATTERN.matcher(arg.trim());
+    if (!matcher.matches()) {
+      throw invalidArgument(flag, "argument must be a size, such as 1048576, 512K, 64M or 500G");
+    }
+    String unit = matcher.group(2).toUpperCase(Locale.ROOT);
+    int shift = unit.isEmpty() ? 0 : 10 * ("KMGT".indexOf(unit) + 1);
+    return parsePositiveLong(matcher.group(1), flag, shift, arg);
+  }
+
+  // Accepts a whole number of seconds, optionally followed by one of the units ms, s, m, h or d,
+  // e.g. "90", "500ms", "15m" or "6h"; the result is in nanoseconds
+  private static long parseDuration(String arg, String flag) {
+    Matcher matcher = DURATION_PATTERN.matcher(arg.trim());
+    if (!matcher.matches()) {
+      throw invalidArgument(flag, "argument must be a duration, such as 90, 500ms, 15m or 6h");
+    }
+    TimeUnit unit;
+    switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+      case "ms":
+        unit = TimeUnit.MILLISECONDS;
+        break;
+      case "m":
+        unit = TimeUnit.MINUTES;
+        break;
+      case "h":
+        unit = TimeUnit.HOURS;
+        break;
+      case "d":
+        unit = TimeUnit.DAYS;
+        break;
+      default:
+        unit = TimeUnit.SECONDS;
+        break;
+    }
+    long amount = parsePositiveLong(matcher.group(1), flag, 0, arg);
+    if (unit.toNanos(amount) == Long.MAX_VALUE) {
+      throw invalidArgument(flag, arg + " is too long");
+    }
+    return unit.toNanos(amount);
+  }
+
+  // Parses a positive number and multiplies it by 2^shift, rejecting anything that would overflow
+  private static long parsePositiveLong(String digits, String flag, int shift, String arg) {
+    long result;
+    try {
+      result = Long.parseLong(digits);
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, arg + " is too large");
+    }
+    if (result <= 0) {
+      throw invalidArgument(flag, "argument must be positive");
+    }
+    if (shift > 0 && result > Long.MAX_VALUE >> shift) {
+      throw invalidArgument(flag, arg + " is too large");
+    }
+    return result << shift;
+  }
+
+  private static long parseSeed(String arg, String flag) {
+    try {
+      return Long.parseLong(arg);
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "argument must be a number");
+    }
+  }
+
+  private static String parseEngine(String arg, String flag) {
+    if (!RandomEngine.NAMES.contains(arg)) {
+      throw invalidArgument(
+          flag,
+          "argument must be one of " + String.join(", ", RandomEngine.NAMES)
+      );
+    }
+    return arg;
+  }
+
+  // Accepts <from>:<to>, the (inclusive) index of the first record and the (exclusive) index of the
+  // last one
+  private static long[] parseRange(String arg, String flag) {
+    int separator = arg.indexOf(':');
+    long from;
+    long to;
+    try {
+      if (separator < 0) {
+        throw new NumberFormatException();
+      }
+      from = Long.parseLong(arg.substring(0, separator));
+      to = Long.parseLong(arg.substring(separator + 1));
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "argument must be of the form <from>:<to>");
+    }
+    if (from < 0 || to < from) {
+      throw invalidArgument(flag, "<from> cannot be negative or greater than <to>");
+    }
+    return new long[] {from, to};
+  }
+
+  // Accepts <k>/<n>, where slices are numbered from 0 to n - 1
+  private static int[] parseSlice(String arg, String flag) {
+    int separator = arg.indexOf('/');
+    int slice;
+    int slices;
+    try {
+      if (separator < 0) {
+        throw new NumberFormatException();
+      }
+      slice = Integer.parseInt(arg.substring(0, separator));
+      slices = Integer.parseInt(arg.substring(separator + 1));
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "argument must be of the form <k>/<n>");
+    }
+    if (slices <= 0 || slice < 0 || slice >= slices) {
+      throw invalidArgument(flag, "<k> must be at least 0 and less than <n>");
+    }
+    return new int[] {slice, slices};
+  }
+
+  // Splits [0, records) into the given number of contiguous slices, whose sizes differ by at most
+  // one, and returns the range of the requested one
+  private static long[] sliceRange(long records, int slice, int slices) {
+    long size = records / slices;
+    long remainder = records % slices;
+    long from = slice * size + Math.min(slice, remainder);
+    long to = from + size + (slice < remainder ? 1 : 0);
+    return new long[] {from, to};
+  }
+
+  // Accepts either <port> (which listens on the loopback address) or <host>:<port>
+  private static InetSocketAddress parseAddress(String arg, String flag) {
+    int separator = arg.lastIndexOf(':');
+    String host = separator >= 0 ? arg.substring(0, separator) : null;
+    int port;
+    try {
+      port = Integer.parseInt(arg.substring(separator + 1));
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "port must be a number");
+    }
+    if (port < 0 || port > 65535) {
+      throw invalidArgument(flag, "port must be between 0 and 65535");
+    }
+    return host != null
+        ? new InetSocketAddress(host, port)
+        : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+  }
+
+  private static int parsePositiveInt(String arg, String flag) {
+    int result;
+    try {
+      result = Integer.parseInt(arg);
+    } catch (NumberFormatException nfe) {
+      throw invalidArgument(flag, "argument must be a number");
+    }
+    if (result <= 0) {
+      throw invalidArgument(flag, "argument must be positive");
+    }
+    return result;
+  }
+
+  private static String nextArg(Iterator<String> argv, String flag) {
+    if (!argv.hasNext()) {
+      throw invalidArgument(flag, "argument required");
+    }
+    return argv.next();
+  }
+
+  private static IllegalArgumentException invalidArgument(String flag, String problem) {
+    return new IllegalArgumentException(String.format("%s: %s", flag, problem));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumReader;
+
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the values listed in an options file. Kept apart from {@link Generator} so that Avro's
+ * decoding classes (the datum reader, the decoders and the grammar the JSON decoder is driven by,
+ * around fifty classes) are only loaded for schemas that actually reference a file. Jackson isn't
+ * spared this way, since parsing the schema has already loaded it.
+ */
+final class OptionsFileReader {
+
+  private OptionsFileReader() {
+  }
+
+  /**
+   * Decodes every datum in the given file.
+   * @param schema The schema that each datum in the file conforms to.
+   * @param optionsFile The path of the file to read.
+   * @param optionsEncoding The encoding of the file; either "binary" or "json".
+   * @return The decoded (but not yet validated) options, in the order they appear in the file.
+   * @throws IOException if the file cannot be opened or decoded.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Object> read(
+      Schema schema,
+      String optionsFile,
+      String optionsEncoding) throws IOException {
+    try (InputStream optionsStream = new FileInputStream(optionsFile)) {
+      DatumReader<Object> optionReader = new GenericDatumReader(schema);
+      Decoder decoder;
+      if ("binary".equals(optionsEncoding)) {
+        decoder = DecoderFactory.get().binaryDecoder(optionsStream, null);
+      } else if ("json".equals(optionsEncoding)) {
+        decoder = DecoderFactory.get().jsonDecoder(schema, optionsStream);
+      } else {
+        throw new RuntimeException(String.format(
+            "'%s' field of %s property only supports two formats: 'binary' and 'json'",
+            Generator.OPTIONS_PROP_ENCODING,
+            Generator.OPTIONS_PROP
+        ));
+      }
+      List<Object> options = new ArrayList<>();
+      Object option = optionReader.read(null, decoder);
+      while (option != null) {
+        options.add(option);
+        try {
+          option = optionReader.read(null, decoder);
+        } catch (EOFException eofe) {
+          break;
+        }
+      }
+      return options;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outputs on a pool of worker threads, the way pigz does: everything written to a
+ * compressed stream is cut into fixed-size blocks, each block is compressed on its own by whichever
+ * worker is free, and the compressed blocks are written out in the order they were cut. The workers
+ * are shared by every stream, so compression keeps up with as many outputs as there are cores to
+ * spare.
+ *
+ * <p>{@value #GZIP} output is a series of gzip members, one per block, which gzip and every other
+ * gzip reader decompress as one. {@value #DEFLATE} output is a single zlib stream: each block is
+ * compressed into deflate blocks that end on a byte boundary, primed with the end of the block
+ * before it so that matches reach across blocks, and the block checksums are combined into the
+ * one the stream ends with.
+ */
+final class ParallelCompressor {
+
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+
+  // The same block size as pigz's
+  static final int BLOCK_SIZE = 128 * 1024;
+  // The most that deflate matches reach back
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  // How many blocks each stream keeps in flight per worker before it waits for the oldest one
+  private static final int BLOCKS_PER_WORKER = 2;
+
+  private static final byte[] GZIP_HEADER = {
+      0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+  };
+  // Default compression, no preset dictionary
+  private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+  // An empty, final block with fixed Huffman codes
+  private static final byte[] DEFLATE_END = {0x03, 0x00};
+  private static final int ADLER_BASE = 65521;
+
+  private final boolean gzip;
+  private final int workers;
+  private final ExecutorService pool;
+  private final ThreadLocal<Deflater> deflaters;
+
+  private ParallelCompressor(boolean gzip, int workers) {
+    this.gzip = gzip;
+    this.workers = workers;
+    AtomicInteger threads = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "arg-compress-" + threads.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Gzip members are complete streams of their own; zlib blocks are pieces of one
+    this.deflaters = ThreadLocal.withInitial(
+        () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+    );
+  }
+
+  /**
+   * @param format The compression format, {@value #GZIP} or {@value #DEFLATE}.
+   * @param workers The number of threads to compress on.
+   * @return A compressor for that format.
+   * @throws IllegalArgumentException if the format isn't one of those.
+   */
+  static ParallelCompressor create(String format, int workers) {
+    switch (format) {
+      case GZIP:
+        return new ParallelCompressor(true, workers);
+      case DEFLATE:
+        return new ParallelCompressor(false, workers);
+      default:
+        throw new IllegalArgumentException(String.format(
+            "unknown compression format '%s'; must be '%s' or '%s'",
+            format,
+            GZIP,
+            DEFLATE
+        ));
+    }
+  }
+
+  /**
+   * @param output The stream to write compressed data to.
+   * @return A stream that compresses what's written to it onto the given stream. Flushing it
+   *     compresses and writes out everything written so far, and closing it finishes the
+   *     compressed data and closes the given stream. Only one thread may use it at a time.
+   */
+  OutputStream compress(OutputStream output) {
+    return new CompressedOutputStream(output);
+  }
+
+  private Block compress(byte[] data, int length, byte[] previous, int previousLength) {
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    Block result = new Block();
+    result.length = gzip ? GZIP_HEADER.length : 0;
+    result.bytes = new byte[result.length + length + length / 1000 + 64];
+    if (gzip) {
+      System.arraycopy(GZIP_HEADER, 0, result.bytes, 0, GZIP_HEADER.length);
+    } else if (previous != null) {
+      int dictionary = Math.min(DICTIONARY_SIZE, previousLength);
+      deflater.setDictionary(previous, previousLength - dictionary, dictionary);
+    }
+    deflater.setInput(data, 0, length);
+    if (gzip) {
+      deflater.finish();
+    }
+    while (true) {
+      int flush = gzip ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+      result.length += deflater.deflate(
+          result.bytes,
+          result.length,
+          result.bytes.length - result.length,
+          flush
+      );
+      boolean done = gzip ? deflater.finished() : result.length < result.bytes.length;
+      if (done) {
+        break;
+      }
+      result.bytes = Arrays.copyOf(result.bytes, result.bytes.length * 2);
+    }
+    if (gzip) {
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, length);
+      result.bytes = Arrays.copyOf(result.bytes, result.length + 2 * Integer.BYTES);
+      writeIntLittleEndian(result.bytes, result.length, (int) crc.getValue());
+      writeIntLittleEndian(result.bytes, result.length + Integer.BYTES, length);
+      result.length += 2 * Integer.BYTES;
+    } else {
+      Adler32 adler = new Adler32();
+      adler.update(data, 0, length);
+      result.checksum = adler.getValue();
+    }
+    result.uncompressed = length;
+    return result;
+  }
+
+  private static void writeIntLittleEndian(byte[] bytes, int offset, int value) {
+    for (int i = 0; i < Integer.BYTES; i++) {
+      bytes[offset + i] = (byte) (value >>> (i * Byte.SIZE));
+    }
+  }
+
+  // zlib's adler32_combine(): the checksum of two pieces of data one after the other, from the
+  // checksums of each and the length of the second
+  private static long combineAdler32(long first, long second, long secondLength) {
+    long remainder = secondLength % ADLER_BASE;
+    long sum1 = first & 0xffff;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (second & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((first >>> 16) & 0xffff) + ((second >>> 16) & 0xffff) + ADLER_BASE - remainder;
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum2 >= 2 * ADLER_BASE) {
+      sum2 -= 2 * ADLER_BASE;
+    }
+    if (sum2 >= ADLER_BASE) {
+      sum2 -= ADLER_BASE;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
+  // A compressed block, and what the stream needs to know about the data it came from
+  private static final class Block {
+    byte[] bytes;
+    int length;
+    int uncompressed;
+    long checksum;
+  }
+
+  private final class CompressedOutputStream extends OutputStream {
+    private final OutputStream output;
+    private final Deque<Future<Block>> pending;
+    private byte[] block;
+    private int length;
+    // The block before the current one, whose end primes the next zlib block
+    private byte[] previous;
+    private int previousLength;
+    private boolean started;
+    private long checksum;
+    private boolean closed;
+
+    CompressedOutputStream(OutputStream output) {
+      this.output = output;
+      this.pending = new ArrayDeque<>();
+      this.block = new byte[BLOCK_SIZE];
+      this.length = 0;
+      this.previous = null;
+      this.previousLength = 0;
+      this.started = false;
+      this.checksum = 1;
+      this.closed = false;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      if (length == block.length) {
+        submit();
+      }
+      block[length++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      while (count > 0) {
+        if (length == block.length) {
+          submit();
+        }
+        int copied = Math.min(count, block.length - length);
+        System.arraycopy(buffer, offset, block, length, copied);
+        length += copied;
+        offset += copied;
+        count -= copied;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      submit();
+      while (!pending.isEmpty()) {
+        writeOldest();
+      }
+      output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        flush();
+        if (gzip) {
+          if (!started) {
+            // Nothing reads an empty file as gzip, so there has to be at least one (empty) member
+            Block empty = compress(new byte[0], 0, null, 0);
+            start();
+            output.write(empty.bytes, 0, empty.length);
+          }
+        } else {
+          start();
+          output.write(DEFLATE_END);
+          output.write((int) (checksum >>> 24));
+          output.write((int) (checksum >>> 16));
+          output.write((int) (checksum >>> 8));
+          output.write((int) checksum);
+        }
+      } finally {
+        output.close();
+      }
+    }
+
+    // Hands the current block to the workers, and makes room for the next one
+    private void submit() throws IOException {
+      if (length == 0) {
+        return;
+      }
+      final byte[] data = block;
+      final int dataLength = length;
+      final byte[] dictionary = previous;
+      final int dictionaryLength = previousLength;
+      pending.add(pool.submit(() -> compress(data, dataLength, dictionary, dictionaryLength)));
+      previous = data;
+      previousLength = dataLength;
+      // The old block is still being read by the worker, so it can't be reused
+      block = new byte[BLOCK_SIZE];
+      length = 0;
+      while (pending.size() > workers * BLOCKS_PER_WORKER) {
+        writeOldest();
+      }
+    }
+
+    private void writeOldest() throws IOException {
+      Block compressed = RollingOutput.await(pending.poll());
+      start();
+      output.write(compressed.bytes, 0, compressed.length);
+      if (!gzip) {
+        checksum = combineAdler32(checksum, compressed.checksum, compressed.uncompressed);
+      }
+    }
+
+    private void start() throws IOException {
+      if (!started && !gzip) {
+        output.write(ZLIB_HEADER);
+      }
+      started = true;
+    }
+  }
+
+}
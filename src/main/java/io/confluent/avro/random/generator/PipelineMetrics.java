@@ -0,0 +1,290 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Throughput, allocation and backlog counters for a {@link RecordPipeline}. Each stage adds to
+ * them once per batch rather than once per record, and the counters are striped, so keeping them
+ * up to date costs next to nothing; they can be read at any time from any thread, over JMX or as a
+ * periodic one-line report.
+ */
+final class PipelineMetrics implements PipelineMetricsMBean {
+
+  static final String OBJECT_NAME = "io.confluent.avro.random.generator:type=Pipeline";
+
+  private final LongAdder records;
+  private final LongAdder bytes;
+  private final LongAdder generateNanos;
+  private final LongAdder encodeNanos;
+  private final LongAdder writeNanos;
+  private final LongAdder allocatedBytes;
+  private final IntSupplier recordBacklog;
+  private final IntSupplier byteBacklog;
+  private final int byteQueueCapacity;
+  private final int recordQueueCapacity;
+  private final int writers;
+  private final long startNanos;
+  private volatile boolean trackAllocation;
+
+  /**
+   * @param recordBacklog Reports how many batches of records are waiting to be encoded.
+   * @param recordQueueCapacity How many batches of records can be waiting at most.
+   * @param byteBacklog Reports how many batches of bytes are waiting to be written.
+   * @param byteQueueCapacity How many batches of bytes can be waiting at most.
+   * @param writers The number of writer threads.
+   */
+  PipelineMetrics(
+      IntSupplier recordBacklog,
+      int recordQueueCapacity,
+      IntSupplier byteBacklog,
+      int byteQueueCapacity,
+      int writers) {
+    this.records = new LongAdder();
+    this.bytes = new LongAdder();
+    this.generateNanos = new LongAdder();
+    this.encodeNanos = new LongAdder();
+    this.writeNanos = new LongAdder();
+    this.allocatedBytes = new LongAdder();
+    this.recordBacklog = recordBacklog;
+    this.recordQueueCapacity = recordQueueCapacity;
+    this.byteBacklog = byteBacklog;
+    this.byteQueueCapacity = byteQueueCapacity;
+    this.writers = writers;
+    this.startNanos = System.nanoTime();
+    this.trackAllocation = false;
+  }
+
+  /**
+   * Starts measuring how much the generate and encode stages allocate, if the JVM supports it.
+   * This is off by default, since looking up a thread's allocation isn't free and loading the
+   * management classes slows startup down.
+   */
+  void trackAllocation() {
+    trackAllocation = Allocation.SUPPORTED;
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, under {@link #OBJECT_NAME}.
+   * @throws IllegalStateException if they can't be registered.
+   */
+  void register() {
+    Jmx.register(this);
+  }
+
+  /**
+   * Starts a daemon thread that prints a one-line summary of the last interval to the given
+   * stream, over and over until the JVM exits.
+   * @param intervalNanos How often to print.
+   * @param out Where to print to.
+   */
+  void report(long intervalNanos, PrintStream out) {
+    Thread reporter = new Thread(() -> {
+      Snapshot previous = new Snapshot();
+      try {
+        while (true) {
+          TimeUnit.NANOSECONDS.sleep(intervalNanos);
+          Snapshot current = new Snapshot();
+          out.printf("%s: stats: %s%n", Main.PROGRAM_NAME, current.since(previous));
+          previous = current;
+        }
+      } catch (InterruptedException interruptedException) {
+        // Nothing left to report
+      }
+    }, "arg-stats");
+    reporter.setDaemon(true);
+    reporter.start();
+  }
+
+  /**
+   * @return A one-line summary of the whole run so far.
+   */
+  String summary() {
+    return new Snapshot().since(null);
+  }
+
+  /**
+   * @return The number of bytes the calling thread has allocated so far, or zero if allocation
+   *     isn't being tracked.
+   */
+  long threadAllocatedBytes() {
+    return trackAllocation ? Allocation.currentThread() : 0;
+  }
+
+  void generated(long nanos, long allocated) {
+    generateNanos.add(nanos);
+    allocatedBytes.add(allocated);
+  }
+
+  void encoded(int count, long nanos, long allocated) {
+    records.add(count);
+    encodeNanos.add(nanos);
+    allocatedBytes.add(allocated);
+  }
+
+  void written(long count, long nanos) {
+    bytes.add(count);
+    writeNanos.add(nanos);
+  }
+
+  @Override
+  public long getRecords() {
+    return records.sum();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  @Override
+  public double getRecordsPerSecond() {
+    return perSecond(records.sum(), System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return perSecond(bytes.sum(), System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public double getAverageRecordSize() {
+    return perRecord(bytes.sum(), records.sum());
+  }
+
+  @Override
+  public double getAllocatedBytesPerRecord() {
+    return trackAllocation ? perRecord(allocatedBytes.sum(), records.sum()) : -1;
+  }
+
+  @Override
+  public long getGenerateMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(generateNanos.sum());
+  }
+
+  @Override
+  public long getEncodeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(encodeNanos.sum());
+  }
+
+  @Override
+  public long getWriteMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(writeNanos.sum());
+  }
+
+  @Override
+  public int getRecordBacklog() {
+    return recordBacklog.getAsInt();
+  }
+
+  @Override
+  public int getByteBacklog() {
+    return byteBacklog.getAsInt();
+  }
+
+  private static double perSecond(long count, long nanos) {
+    return nanos > 0 ? count * 1e9 / nanos : 0.0;
+  }
+
+  private static double perRecord(long count, long records) {
+    return records > 0 ? (double) count / records : 0.0;
+  }
+
+  private static String percent(long nanos, long intervalNanos) {
+    return intervalNanos > 0 ? String.format("%.0f%%", nanos * 100.0 / intervalNanos) : "-";
+  }
+
+  // The counters at a single point in time; the difference between two of them describes what
+  // happened in between
+  private final class Snapshot {
+    final long nanos = System.nanoTime();
+    final long records = PipelineMetrics.this.records.sum();
+    final long bytes = PipelineMetrics.this.bytes.sum();
+    final long generateNanos = PipelineMetrics.this.generateNanos.sum();
+    final long encodeNanos = PipelineMetrics.this.encodeNanos.sum();
+    final long writeNanos = PipelineMetrics.this.writeNanos.sum();
+    final long allocatedBytes = PipelineMetrics.this.allocatedBytes.sum();
+
+    // Busy percentages are of the interval's wall-clock time, so whichever stage sits near 100%
+    // is the one holding the others back; the writers' time is averaged over all of them
+    String since(Snapshot previous) {
+      long intervalNanos = nanos - (previous != null ? previous.nanos : startNanos);
+      long intervalRecords = records - (previous != null ? previous.records : 0);
+      long intervalBytes = bytes - (previous != null ? previous.bytes : 0);
+      long intervalAllocated = allocatedBytes - (previous != null ? previous.allocatedBytes : 0);
+      return String.format(
+          "%,.0f records/s, %,.1f MB/s, %,.0f B/record, %s allocated/record; "
+              + "busy: generate %s, encode %s, write %s; backlog: %d/%d record batches, "
+              + "%d/%d byte batches",
+          perSecond(intervalRecords, intervalNanos),
+          perSecond(intervalBytes, intervalNanos) / (1024 * 1024),
+          perRecord(intervalBytes, intervalRecords),
+          trackAllocation
+              ? String.format("%,.0f B", perRecord(intervalAllocated, intervalRecords))
+              : "unknown",
+          percent(generateNanos - (previous != null ? previous.generateNanos : 0), intervalNanos),
+          percent(encodeNanos - (previous != null ? previous.encodeNanos : 0), intervalNanos),
+          percent(
+              (writeNanos - (previous != null ? previous.writeNanos : 0)) / writers,
+              intervalNanos
+          ),
+          recordBacklog.getAsInt(),
+          recordQueueCapacity,
+          byteBacklog.getAsInt(),
+          byteQueueCapacity
+      );
+    }
+  }
+
+  // Kept in its own class so that the JMX classes are only loaded when metrics are registered
+  private static final class Jmx {
+    static void register(PipelineMetricsMBean metrics) {
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+            .registerMBean(metrics, new ObjectName(OBJECT_NAME));
+      } catch (JMException exception) {
+        throw new IllegalStateException(
+            String.format("Unable to register %s: %s", OBJECT_NAME, exception.getMessage()),
+            exception
+        );
+      }
+    }
+  }
+
+  // Kept in its own class so that the management classes are only loaded once allocation tracking
+  // is asked for
+  private static final class Allocation {
+    static final com.sun.management.ThreadMXBean THREADS = threads();
+    static final boolean SUPPORTED = THREADS != null;
+
+    static long currentThread() {
+      return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+      java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+        return null;
+      }
+      com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threads;
+      if (!result.isThreadAllocatedMemorySupported()) {
+        return null;
+      }
+      result.setThreadAllocatedMemoryEnabled(true);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+/**
+ * The live metrics of a running {@link RecordPipeline}, as exposed over JMX. All rates and
+ * averages are over the whole run so far.
+ */
+public interface PipelineMetricsMBean {
+
+  long getRecords();
+
+  long getBytes();
+
+  double getRecordsPerSecond();
+
+  double getBytesPerSecond();
+
+  double getAverageRecordSize();
+
+  /**
+   * @return The bytes allocated by the generate and encode stages per record, or -1 if the JVM
+   *     can't measure allocation.
+   */
+  double getAllocatedBytesPerRecord();
+
+  long getGenerateMillis();
+
+  long getEncodeMillis();
+
+  long getWriteMillis();
+
+  /**
+   * @return The number of batches of generated records waiting to be encoded.
+   */
+  int getRecordBacklog();
+
+  /**
+   * @return The number of batches of encoded bytes waiting to be written, over all outputs.
+   */
+  int getByteBacklog();
+}
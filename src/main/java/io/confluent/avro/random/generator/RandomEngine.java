@@ -0,0 +1,407 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A faster source of randomness than {@link Random} itself, for generators that don't need the
+ * exact values {@link Random} would have produced. {@link Random} keeps its state in an
+ * {@link java.util.concurrent.atomic.AtomicLong} that every draw updates with a compare-and-set,
+ * and only produces 32 bits at a time; an engine keeps plain fields and produces 64 bits at a
+ * time, from which every other kind of value is derived. Engines are subclasses of {@link Random}
+ * so that they can be given to a {@link Generator} (or anything else that takes a {@link Random})
+ * as they are, but unlike {@link Random} they aren't safe to share between threads: each thread
+ * needs an engine of its own.
+ *
+ * <p>{@link #setSeed(long)} is cheap for every engine, since generating records
+ * {@link Generator#generate(long) by index} reseeds the generator's source for each record.
+ */
+public abstract class RandomEngine extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The name of {@link Random} itself, for {@link #create(String, long)}.
+   */
+  public static final String JDK = "jdk";
+  /**
+   * The name of {@link SplitMix64}, for {@link #create(String, long)}.
+   */
+  public static final String SPLITMIX64 = "splitmix64";
+  /**
+   * The name of {@link Xoroshiro128PlusPlus}, for {@link #create(String, long)}.
+   */
+  public static final String XOROSHIRO128PP = "xoroshiro128pp";
+  /**
+   * The name of {@link Xoshiro256StarStar}, for {@link #create(String, long)}.
+   */
+  public static final String XOSHIRO256SS = "xoshiro256ss";
+  /**
+   * The name of {@link Philox4x32}, for {@link #create(String, long)}.
+   */
+  public static final String PHILOX4X32 = "philox4x32";
+
+  /**
+   * The names of every engine, {@link Random} itself included.
+   */
+  public static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(
+      JDK, SPLITMIX64, XOROSHIRO128PP, XOSHIRO256SS, PHILOX4X32
+  ));
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private double nextGaussian;
+  private boolean haveNextGaussian;
+
+  // Random's constructor seeds it through setSeed(), which is where every engine sets up its state;
+  // so engines mustn't give their fields initial values of their own
+  protected RandomEngine(long seed) {
+    super(seed);
+  }
+
+  /**
+   * @param engine The name of an engine, one of {@link #NAMES}.
+   * @param seed The seed to start the engine with.
+   * @return A new engine of that name, or a new {@link Random} for {@link #JDK}.
+   */
+  public static Random create(String engine, long seed) {
+    switch (engine) {
+      case JDK:
+        return new Random(seed);
+      case SPLITMIX64:
+        return new SplitMix64(seed);
+      case XOROSHIRO128PP:
+        return new Xoroshiro128PlusPlus(seed);
+      case XOSHIRO256SS:
+        return new Xoshiro256StarStar(seed);
+      case PHILOX4X32:
+        return new Philox4x32(seed);
+      default:
+        throw new IllegalArgumentException(String.format(
+            "Unknown random engine '%s'; must be one of %s",
+            engine,
+            NAMES
+        ));
+    }
+  }
+
+  /**
+   * @param engine The name of an engine, one of {@link #NAMES}.
+   * @return A new engine of that name, seeded as a {@link Random} created without a seed would be.
+   */
+  public static Random create(String engine) {
+    return JDK.equals(engine) ? new Random() : create(engine, new Random().nextLong());
+  }
+
+  /**
+   * Starts the engine over from a seed; the same seed always gives the same values after it.
+   * @param seed The seed.
+   */
+  @Override
+  public final void setSeed(long seed) {
+    haveNextGaussian = false;
+    seed(seed);
+  }
+
+  /**
+   * Sets up the engine's state from a seed.
+   * @param seed The seed.
+   */
+  protected abstract void seed(long seed);
+
+  /**
+   * @return The next 64 random bits; every other value is made from these.
+   */
+  @Override
+  public abstract long nextLong();
+
+  /**
+   * Fills an array with the next random longs, as many calls to {@link #nextLong()} would.
+   * @param values The array to fill.
+   */
+  public void nextLongs(long[] values) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = nextLong();
+    }
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (Long.SIZE - bits));
+  }
+
+  @Override
+  public int nextInt() {
+    return (int) (nextLong() >>> Integer.SIZE);
+  }
+
+  // Lemire's nearly divisionless method: the high half of a random 32-bit number times the bound,
+  // rejecting the few low halves that would make some results more likely than others
+  @Override
+  public int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+    long product = (nextLong() >>> Integer.SIZE) * bound;
+    if ((product & 0xffffffffL) < bound) {
+      long threshold = (0x100000000L - bound) % bound;
+      while ((product & 0xffffffffL) < threshold) {
+        product = (nextLong() >>> Integer.SIZE) * bound;
+      }
+    }
+    return (int) (product >>> Integer.SIZE);
+  }
+
+  @Override
+  public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  @Override
+  public float nextFloat() {
+    return (nextLong() >>> 40) * 0x1.0p-24f;
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  @Override
+  public void nextBytes(byte[] bytes) {
+    int position = 0;
+    while (position < bytes.length) {
+      long value = nextLong();
+      int end = Math.min(position + Long.BYTES, bytes.length);
+      for (; position < end; position++, value >>>= Byte.SIZE) {
+        bytes[position] = (byte) value;
+      }
+    }
+  }
+
+  // The same polar method as Random's, without the lock
+  @Override
+  public double nextGaussian() {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1;
+    double v2;
+    double squares;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      squares = v1 * v1 + v2 * v2;
+    } while (squares >= 1 || squares == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(squares) / squares);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  /**
+   * SplitMix64, the generator behind {@link java.util.SplittableRandom}: a counter advanced by the
+   * golden ratio, scrambled by a 64-bit finalizer. One word of state, and about as cheap as a
+   * generator gets; good enough for anything but the most demanding statistical tests.
+   */
+  public static final class SplitMix64 extends RandomEngine {
+    private static final long serialVersionUID = 1L;
+
+    private long state;
+
+    public SplitMix64(long seed) {
+      super(seed);
+    }
+
+    @Override
+    protected void seed(long seed) {
+      state = seed;
+    }
+
+    @Override
+    public long nextLong() {
+      state += GOLDEN_GAMMA;
+      return Generator.mix(state);
+    }
+  }
+
+  /**
+   * xoroshiro128++ (Blackman and Vigna): two words of state updated with shifts, rotations and
+   * XORs, and a scrambler that passes every statistical test suite in common use. The state is
+   * seeded from SplitMix64, as its authors recommend.
+   */
+  public static final class Xoroshiro128PlusPlus extends RandomEngine {
+    private static final long serialVersionUID = 1L;
+
+    private long s0;
+    private long s1;
+
+    public Xoroshiro128PlusPlus(long seed) {
+      super(seed);
+    }
+
+    @Override
+    protected void seed(long seed) {
+      s0 = Generator.mix(seed + GOLDEN_GAMMA);
+      s1 = Generator.mix(seed + 2 * GOLDEN_GAMMA);
+    }
+
+    @Override
+    public long nextLong() {
+      long first = s0;
+      long second = s1;
+      final long result = Long.rotateLeft(first + second, 17) + first;
+      second ^= first;
+      s0 = Long.rotateLeft(first, 49) ^ second ^ (second << 21);
+      s1 = Long.rotateLeft(second, 28);
+      return result;
+    }
+
+    @Override
+    public void nextLongs(long[] values) {
+      long first = s0;
+      long second = s1;
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Long.rotateLeft(first + second, 17) + first;
+        second ^= first;
+        first = Long.rotateLeft(first, 49) ^ second ^ (second << 21);
+        second = Long.rotateLeft(second, 28);
+      }
+      s0 = first;
+      s1 = second;
+    }
+  }
+
+  /**
+   * xoshiro256** (Blackman and Vigna): the bigger sibling of {@link Xoroshiro128PlusPlus}, with
+   * four words of state, for a period long enough that no two of any number of seeds will ever
+   * run into each other's values. The state is seeded from SplitMix64.
+   */
+  public static final class Xoshiro256StarStar extends RandomEngine {
+    private static final long serialVersionUID = 1L;
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    public Xoshiro256StarStar(long seed) {
+      super(seed);
+    }
+
+    @Override
+    protected void seed(long seed) {
+      s0 = Generator.mix(seed + GOLDEN_GAMMA);
+      s1 = Generator.mix(seed + 2 * GOLDEN_GAMMA);
+      s2 = Generator.mix(seed + 3 * GOLDEN_GAMMA);
+      s3 = Generator.mix(seed + 4 * GOLDEN_GAMMA);
+    }
+
+    @Override
+    public long nextLong() {
+      final long result = Long.rotateLeft(s1 * 5, 7) * 9;
+      final long shifted = s1 << 17;
+      s2 ^= s0;
+      s3 ^= s1;
+      s1 ^= s2;
+      s0 ^= s3;
+      s2 ^= shifted;
+      s3 = Long.rotateLeft(s3, 45);
+      return result;
+    }
+
+    @Override
+    public void nextLongs(long[] values) {
+      long first = s0;
+      long second = s1;
+      long third = s2;
+      long fourth = s3;
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Long.rotateLeft(second * 5, 7) * 9;
+        final long shifted = second << 17;
+        third ^= first;
+        fourth ^= second;
+        second ^= third;
+        first ^= fourth;
+        third ^= shifted;
+        fourth = Long.rotateLeft(fourth, 45);
+      }
+      s0 = first;
+      s1 = second;
+      s2 = third;
+      s3 = fourth;
+    }
+  }
+
+  /**
+   * Philox4x32-10 (Salmon et al., "Parallel Random Numbers: As Easy as 1, 2, 3"): a counter-based
+   * generator, whose values are ten rounds of a keyed bijection applied to a counter. The seed is
+   * the key, so reseeding costs nothing but two assignments, and the value at any position can be
+   * computed without going through the ones before it. Each block of the counter gives two longs.
+   */
+  public static final class Philox4x32 extends RandomEngine {
+    private static final long serialVersionUID = 1L;
+
+    private static final long M0 = 0xd2511f53L;
+    private static final long M1 = 0xcd9e8d57L;
+    private static final int W0 = 0x9e3779b9;
+    private static final int W1 = 0xbb67ae85;
+    private static final int ROUNDS = 10;
+
+    private int key0;
+    private int key1;
+    private long counter;
+    private long buffered;
+    private boolean haveBuffered;
+
+    public Philox4x32(long seed) {
+      super(seed);
+    }
+
+    @Override
+    protected void seed(long seed) {
+      key0 = (int) seed;
+      key1 = (int) (seed >>> Integer.SIZE);
+      counter = 0;
+      haveBuffered = false;
+    }
+
+    @Override
+    public long nextLong() {
+      if (haveBuffered) {
+        haveBuffered = false;
+        return buffered;
+      }
+      int c0 = (int) counter;
+      int c1 = (int) (counter >>> Integer.SIZE);
+      int c2 = 0;
+      int c3 = 0;
+      int k0 = key0;
+      int k1 = key1;
+      for (int round = 0; round < ROUNDS; round++) {
+        long product0 = M0 * (c0 & 0xffffffffL);
+        long product1 = M1 * (c2 & 0xffffffffL);
+        c0 = (int) (product1 >>> Integer.SIZE) ^ c1 ^ k0;
+        c1 = (int) product1;
+        c2 = (int) (product0 >>> Integer.SIZE) ^ c3 ^ k1;
+        c3 = (int) product0;
+        k0 += W0;
+        k1 += W1;
+      }
+      counter++;
+      buffered = ((long) c2 << Integer.SIZE) | (c3 & 0xffffffffL);
+      haveBuffered = true;
+      return ((long) c0 << Integer.SIZE) | (c1 & 0xffffffffL);
+    }
+  }
+}
@@ -0,0 +1,598 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A fixed number of generated records, encoded once and then replayed over and over, so that
+ * producing a record costs little more than copying its bytes. The encoded records are kept in a
+ * temporary file that's mapped into memory rather than on the heap.
+ *
+ * <p>The first time round, every record is replayed exactly as it was generated. After that, the
+ * fields that have to keep changing from one record to the next, such as IDs and timestamps, are
+ * generated afresh each time: those with an iteration or unique annotation or a monotonic logical
+ * type, and any others marked with {@value Generator#REFRESH_PROP}. Only the new values are
+ * encoded, and spliced in between the bytes that surround the old ones. Where each value lies in
+ * each record is found by encoding the record again with two other values in its place and seeing
+ * which bytes change, which works for any encoding that encodes a value the same way wherever it
+ * appears. That rules out values inside records reached through a union, array or map, which are
+ * replayed as they were; refreshed values can't be records, arrays, maps or unions themselves
+ * either.
+ */
+final class RecordCorpus {
+
+  private static final long NOT_INDEXED = -1;
+
+  private final Generator generator;
+  private final int size;
+  private final long firstRecordIndex;
+  private final RecordEncoder.Factory encoderFactory;
+  private final Function<Schema, RecordEncoder.ValueEncoder> valueEncoders;
+  private final RecordPartitioner partitioner;
+  private final Slot[] slots;
+  private final Schema[] refreshed;
+
+  // Every record is stored the way it's encoded after another one; the first record of each file
+  // has its first lead bytes swapped for firstLead (a CSV header, or no JSON separator)
+  private final MappedByteBuffer bytes;
+  private final int[] offsets;
+  private final byte[] firstLead;
+  private final int lead;
+  private final int maxRecordBytes;
+  // The start and end of every refreshed value in every record, relative to the record
+  private final int[] spans;
+  // The output each record goes to, if records are partitioned by a key that's never refreshed
+  private final int[] partitions;
+  private final SizeEstimate recordSize;
+
+  /**
+   * Generates and encodes the records of a corpus.
+   * @param generator The generator to produce records and refreshed values with.
+   * @param size The number of records in the corpus.
+   * @param firstRecordIndex Generate records {@link Generator#generate(long) by index}, starting
+   *     from this one, instead of one after another; -1 for the latter.
+   * @param encoderFactory Creates encoders for the encoding to replay records in.
+   * @param valueEncoders Creates encoders for refreshed values in the same encoding.
+   * @param partitioner Decides which output each record is written to; records partitioned by key
+   *     stick to the output their key first sent them to.
+   * @throws IOException if the corpus cannot be written to its temporary file.
+   */
+  RecordCorpus(
+      Generator generator,
+      int size,
+      long firstRecordIndex,
+      RecordEncoder.Factory encoderFactory,
+      Function<Schema, RecordEncoder.ValueEncoder> valueEncoders,
+      RecordPartitioner partitioner) throws IOException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Corpus size must be positive: " + size);
+    }
+    this.generator = generator;
+    this.size = size;
+    this.firstRecordIndex = firstRecordIndex;
+    this.encoderFactory = encoderFactory;
+    this.valueEncoders = valueEncoders;
+    this.partitioner = partitioner;
+
+    List<Slot> found = new ArrayList<>();
+    Set<Schema> enclosing = Collections.newSetFromMap(new IdentityHashMap<>());
+    findSlots(generator.schema(), "", new int[0], enclosing, found);
+    this.slots = found.toArray(new Slot[0]);
+    this.refreshed = new Schema[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      refreshed[i] = slots[i].schema;
+    }
+    boolean keyed = partitioner instanceof KeyPartitioner;
+    if (keyed) {
+      String key = ((KeyPartitioner) partitioner).field();
+      for (Slot slot : slots) {
+        if (slot.name.equals(key)) {
+          throw new RuntimeException(String.format(
+              "Cannot partition a corpus by field '%s', since it's refreshed on every replay",
+              key
+          ));
+        }
+      }
+    }
+
+    this.offsets = new int[size + 1];
+    this.spans = new int[Math.multiplyExact(2 * slots.length, size)];
+    this.partitions = keyed ? new int[size] : null;
+    RecordEncoder.ValueEncoder[] values = valueEncoders(valueEncoders, refreshed);
+    Scratch scratch = new Scratch();
+    RecordEncoder encoder = encoderFactory.create(scratch);
+    byte[] leadBytes = null;
+    int leadLength = 0;
+    int maxBytes = 0;
+    double sum = 0.0;
+    double sumOfSquares = 0.0;
+    Path file = Files.createTempFile("arg-corpus-", ".bin");
+    try {
+      try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(file))) {
+        long written = 0;
+        for (int i = 0; i < size; i++) {
+          Object record = firstRecordIndex == NOT_INDEXED
+              ? generator.generate()
+              : generator.generate(firstRecordIndex + i);
+          if (i == 0) {
+            // A fresh encoder writes the first record of a file; the one kept here has always
+            // written another record first
+            byte[] first = scratch.encode(encoderFactory.create(scratch), record);
+            scratch.encode(encoder, record);
+            byte[] subsequent = scratch.encode(encoder, record);
+            int common = commonSuffix(first, subsequent);
+            leadBytes = Arrays.copyOf(first, first.length - common);
+            leadLength = subsequent.length - common;
+          }
+          if (keyed) {
+            partitions[i] = partitioner.partition(record);
+          }
+          byte[] encoded = scratch.encode(encoder, record);
+          int end = leadLength;
+          for (int j = 0; j < slots.length; j++) {
+            int start = locate(slots[j], record, encoded, encoder, values[j], scratch);
+            if (start < end) {
+              throw new RuntimeException(String.format(
+                  "Cannot refresh field '%s', since it isn't encoded after the fields before it",
+                  slots[j].name
+              ));
+            }
+            end = start + scratch.encode(values[j], slots[j].get(record)).length;
+            spans[2 * (i * slots.length + j)] = start;
+            spans[2 * (i * slots.length + j) + 1] = end;
+          }
+          output.write(encoded);
+          written += encoded.length;
+          if (written > Integer.MAX_VALUE) {
+            throw new RuntimeException(String.format(
+                "Cannot keep a corpus of %,d records: the first %,d already take more than the "
+                    + "%,d bytes that can be mapped into memory at once",
+                size,
+                i + 1,
+                Integer.MAX_VALUE
+            ));
+          }
+          offsets[i + 1] = (int) written;
+          maxBytes = Math.max(maxBytes, encoded.length);
+          sum += encoded.length;
+          sumOfSquares += (double) encoded.length * encoded.length;
+        }
+      }
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, offsets[size]);
+      }
+    } finally {
+      try {
+        // The mapping outlives the file where the operating system allows it
+        Files.delete(file);
+      } catch (IOException ioe) {
+        file.toFile().deleteOnExit();
+      }
+    }
+    this.firstLead = leadBytes;
+    this.lead = leadLength;
+    this.maxRecordBytes = maxBytes;
+    double mean = sum / size;
+    this.recordSize = SizeEstimate.measured(mean, sumOfSquares / size - mean * mean);
+  }
+
+  /**
+   * @return The size of an encoded record, measured over the whole corpus.
+   */
+  SizeEstimate recordSize() {
+    return recordSize;
+  }
+
+  /**
+   * @return A factory for encoders that write out {@link Replay replays} of the corpus's records,
+   *     in the same encoding the corpus was created with.
+   */
+  RecordEncoder.Factory encoderFactory() {
+    return output -> new ReplayEncoder(encoderFactory.create(output), output);
+  }
+
+  /**
+   * @return A partitioner for {@link Replay replays} of the corpus's records that sends each one to
+   *     the same output as the partitioner the corpus was created with.
+   */
+  RecordPartitioner partitioner() {
+    if (partitions == null) {
+      // Nothing else looks at the records themselves
+      return partitioner;
+    }
+    return new RecordPartitioner() {
+      @Override
+      public int partitions() {
+        return partitioner.partitions();
+      }
+
+      @Override
+      public int partition(Object record) {
+        return partitions[((Replay) record).record];
+      }
+    };
+  }
+
+  /**
+   * @return A replay to fill in with {@link #next(Replay, long)}.
+   */
+  Replay newReplay() {
+    return new Replay(slots.length);
+  }
+
+  /**
+   * Sets up the replay of a record, generating new values for its refreshed fields if it's been
+   * replayed before. Not safe to call from more than one thread, or from the same thread as the
+   * generator is used on otherwise.
+   * @param replay The replay to fill in.
+   * @param position The position of the record in the run, counting from zero.
+   * @return The given replay.
+   */
+  Replay next(Replay replay, long position) {
+    replay.record = (int) (position % size);
+    replay.refreshed = position >= size && slots.length > 0;
+    if (replay.refreshed) {
+      generator.generateValues(
+          refreshed,
+          firstRecordIndex == NOT_INDEXED ? NOT_INDEXED : firstRecordIndex + position,
+          replay.values
+      );
+    }
+    return replay;
+  }
+
+  // Finds the values under a schema that are refreshed, following fields into records, but not
+  // into any other kind of schema
+  private static void findSlots(
+      Schema schema,
+      String name,
+      int[] path,
+      Set<Schema> enclosing,
+      List<Slot> slots) {
+    boolean refresh = isRefreshed(schema);
+    switch (schema.getType()) {
+      case RECORD:
+        if (refresh) {
+          throw cannotRefresh(schema, name);
+        }
+        if (!enclosing.add(schema)) {
+          return;
+        }
+        for (Schema.Field field : schema.getFields()) {
+          int[] fieldPath = Arrays.copyOf(path, path.length + 1);
+          fieldPath[path.length] = field.pos();
+          String fieldName = name.isEmpty() ? field.name() : name + "." + field.name();
+          findSlots(field.schema(), fieldName, fieldPath, enclosing, slots);
+        }
+        enclosing.remove(schema);
+        return;
+      case ARRAY:
+      case MAP:
+      case UNION:
+        if (refresh) {
+          throw cannotRefresh(schema, name);
+        }
+        return;
+      default:
+        // A value that can only ever be one thing never needs refreshing
+        if (refresh && probe(schema, false) != null) {
+          slots.add(new Slot(name.isEmpty() ? schema.getName() : name, path, schema));
+        }
+    }
+  }
+
+  // Also decides which fields an update stream changes in every update
+  static boolean isRefreshed(Schema schema) {
+    Object propertiesProp = schema.getObjectProp(Generator.ARG_PROPERTIES_PROP);
+    if (!(propertiesProp instanceof Map)) {
+      return false;
+    }
+    Map properties = (Map) propertiesProp;
+    Object refreshProp = properties.get(Generator.REFRESH_PROP);
+    if (refreshProp != null) {
+      if (!(refreshProp instanceof Boolean)) {
+        throw new RuntimeException(String.format(
+            "%s property must be given as a boolean, was %s instead",
+            Generator.REFRESH_PROP,
+            refreshProp.getClass().getName()
+        ));
+      }
+      return (Boolean) refreshProp;
+    }
+    Object monotonicProp = properties.get(Generator.MONOTONIC_PROP);
+    return properties.containsKey(Generator.ITERATION_PROP)
+        || Generator.isUnique(properties)
+        || (monotonicProp != null && !Boolean.FALSE.equals(monotonicProp));
+  }
+
+  private static RuntimeException cannotRefresh(Schema schema, String name) {
+    return new RuntimeException(String.format(
+        "Cannot refresh %s: a refreshed value can't be a %s",
+        name.isEmpty() ? "the top-level value" : "field '" + name + "'",
+        schema.getType().getName()
+    ));
+  }
+
+  // One of two different values of a schema that are used to find out where a value of it is
+  // encoded; null if there's only one value it can have
+  private static Object probe(Schema schema, boolean second) {
+    switch (schema.getType()) {
+      case BOOLEAN:
+        return second;
+      case INT:
+        return second ? -1 : 0;
+      case LONG:
+        return second ? -1L : 0L;
+      case FLOAT:
+        return second ? -1.0f : 0.0f;
+      case DOUBLE:
+        return second ? -1.0 : 0.0;
+      case STRING:
+        return second ? "b" : "a";
+      case BYTES:
+        return ByteBuffer.wrap(new byte[] {(byte) (second ? 'b' : 'a')});
+      case ENUM:
+        List<String> symbols = schema.getEnumSymbols();
+        return symbols.size() < 2
+            ? null
+            : new GenericData.EnumSymbol(schema, symbols.get(second ? 1 : 0));
+      case FIXED:
+        if (schema.getFixedSize() == 0) {
+          return null;
+        }
+        byte[] fixed = new byte[schema.getFixedSize()];
+        Arrays.fill(fixed, (byte) (second ? 'b' : 'a'));
+        return new GenericData.Fixed(schema, fixed);
+      default:
+        return null;
+    }
+  }
+
+  // Finds where the value in a slot starts in the encoded record, by encoding the record with each
+  // of the slot's probes in its place: everything before and after it stays the same, and the
+  // bytes in between have to be exactly the encodings of the values on their own
+  private static int locate(
+      Slot slot,
+      Object record,
+      byte[] encoded,
+      RecordEncoder encoder,
+      RecordEncoder.ValueEncoder values,
+      Scratch scratch) throws IOException {
+    Object original = slot.get(record);
+    Object first = probe(slot.schema, false);
+    Object second = probe(slot.schema, true);
+    byte[] encodedFirst = scratch.encode(encoder, slot.set(record, first));
+    byte[] encodedSecond = scratch.encode(encoder, slot.set(record, second));
+    slot.set(record, original);
+    byte[] value = scratch.encode(values, original);
+    byte[] firstValue = scratch.encode(values, first);
+    byte[] secondValue = scratch.encode(values, second);
+    int common = commonPrefix(encodedFirst, encodedFirst.length, encodedSecond);
+    int start = Math.max(0, common - commonPrefix(firstValue, firstValue.length, secondValue));
+    for (; start <= common; start++) {
+      if (splits(encodedFirst, firstValue, encodedSecond, secondValue, start)
+          && splits(encoded, value, encodedFirst, firstValue, start)) {
+        return start;
+      }
+    }
+    throw new RuntimeException(String.format(
+        "Cannot refresh field '%s', since it isn't always encoded the same way",
+        slot.name
+    ));
+  }
+
+  // Whether both records are made up of the same bytes before and after the given position, with
+  // their own values in between
+  private static boolean splits(
+      byte[] record,
+      byte[] value,
+      byte[] other,
+      byte[] otherValue,
+      int start) {
+    int rest = record.length - start - value.length;
+    return rest >= 0
+        && rest == other.length - start - otherValue.length
+        && commonPrefix(record, start, other) == start
+        && regionMatches(record, start, value, 0, value.length)
+        && regionMatches(other, start, otherValue, 0, otherValue.length)
+        && regionMatches(record, start + value.length, other, start + otherValue.length, rest);
+  }
+
+  private static int commonPrefix(byte[] left, int limit, byte[] right) {
+    int length = Math.min(limit, right.length);
+    for (int i = 0; i < length; i++) {
+      if (left[i] != right[i]) {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  private static int commonSuffix(byte[] left, byte[] right) {
+    int length = Math.min(left.length, right.length);
+    for (int i = 1; i <= length; i++) {
+      if (left[left.length - i] != right[right.length - i]) {
+        return i - 1;
+      }
+    }
+    return length;
+  }
+
+  private static boolean regionMatches(
+      byte[] left,
+      int leftStart,
+      byte[] right,
+      int rightStart,
+      int length) {
+    for (int i = 0; i < length; i++) {
+      if (left[leftStart + i] != right[rightStart + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static RecordEncoder.ValueEncoder[] valueEncoders(
+      Function<Schema, RecordEncoder.ValueEncoder> factory,
+      Schema[] schemas) {
+    RecordEncoder.ValueEncoder[] result = new RecordEncoder.ValueEncoder[schemas.length];
+    for (int i = 0; i < schemas.length; i++) {
+      result[i] = factory.apply(schemas[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Which record of the corpus to replay, along with the new values of its refreshed fields.
+   */
+  static final class Replay {
+    final Object[] values;
+    int record;
+    // Whether the values are to be written in place of the ones the record was generated with
+    boolean refreshed;
+
+    private Replay(int slots) {
+      this.values = new Object[slots];
+    }
+  }
+
+  // A refreshed value, along with the positions of the fields that lead to it from the top-level
+  // record; a top-level value that isn't a record has no fields leading to it at all
+  private static final class Slot {
+    final String name;
+    final int[] path;
+    final Schema schema;
+
+    Slot(String name, int[] path, Schema schema) {
+      this.name = name;
+      this.path = path;
+      this.schema = schema;
+    }
+
+    Object get(Object record) {
+      return path.length == 0 ? record : parent(record).get(path[path.length - 1]);
+    }
+
+    // Returns the record with the value in place, which is the value itself for a top-level one
+    Object set(Object record, Object value) {
+      if (path.length == 0) {
+        return value;
+      }
+      parent(record).put(path[path.length - 1], value);
+      return record;
+    }
+
+    private IndexedRecord parent(Object record) {
+      Object result = record;
+      for (int i = 0; i < path.length - 1; i++) {
+        result = ((IndexedRecord) result).get(path[i]);
+      }
+      return (IndexedRecord) result;
+    }
+  }
+
+  // Collects whatever an encoder writes, a record or a value at a time
+  private static final class Scratch extends ByteArrayOutputStream {
+    byte[] encode(RecordEncoder encoder, Object record) throws IOException {
+      encoder.write(record);
+      encoder.flush();
+      return take();
+    }
+
+    byte[] encode(RecordEncoder.ValueEncoder encoder, Object value) throws IOException {
+      encoder.write(value, this);
+      return take();
+    }
+
+    private byte[] take() {
+      byte[] result = toByteArray();
+      reset();
+      return result;
+    }
+  }
+
+  /**
+   * Writes out replays, copying each record from the corpus with any new values spliced in. A file
+   * that no record is replayed to is finished by an ordinary encoder, which writes whatever an
+   * encoding writes into an otherwise empty file.
+   */
+  private final class ReplayEncoder implements RecordEncoder {
+    private final RecordEncoder empty;
+    private final OutputStream output;
+    private final ByteBuffer corpus;
+    private final byte[] record;
+    private final RecordEncoder.ValueEncoder[] values;
+    private boolean started;
+
+    ReplayEncoder(RecordEncoder empty, OutputStream output) {
+      this.empty = empty;
+      this.output = output;
+      this.corpus = bytes.duplicate();
+      this.record = new byte[maxRecordBytes];
+      this.values = valueEncoders(valueEncoders, refreshed);
+      this.started = false;
+    }
+
+    @Override
+    public void write(Object replayed) throws IOException {
+      Replay replay = (Replay) replayed;
+      int start = offsets[replay.record];
+      int length = offsets[replay.record + 1] - start;
+      corpus.position(start);
+      corpus.get(record, 0, length);
+      int from = 0;
+      if (!started) {
+        output.write(firstLead);
+        from = lead;
+        started = true;
+      }
+      if (replay.refreshed) {
+        int span = 2 * replay.record * values.length;
+        for (int i = 0; i < values.length; i++, span += 2) {
+          output.write(record, from, spans[span] - from);
+          values[i].write(replay.values[i], output);
+          from = spans[span + 1];
+        }
+      }
+      output.write(record, from, length - from);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // Everything else is written straight through
+      if (!started) {
+        empty.flush();
+      }
+    }
+  }
+}
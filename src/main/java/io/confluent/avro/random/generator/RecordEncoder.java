@@ -0,0 +1,57 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes generated records onto an output stream, one after another.
+ */
+interface RecordEncoder {
+
+  /**
+   * Encodes a single record. The encoded bytes may be buffered until {@link #flush()} is called.
+   * @param record The record to encode, as produced by {@link Generator#generate()}.
+   * @throws IOException if the underlying stream cannot be written to.
+   */
+  void write(Object record) throws IOException;
+
+  /**
+   * Pushes every record written so far through to the underlying stream.
+   * @throws IOException if the underlying stream cannot be written to.
+   */
+  void flush() throws IOException;
+
+  /**
+   * Creates encoders for a particular encoding.
+   */
+  interface Factory {
+    /**
+     * @param output The stream the encoder should write to.
+     * @return A new encoder.
+     * @throws IOException if the encoder cannot be set up.
+     */
+    RecordEncoder create(OutputStream output) throws IOException;
+  }
+
+  /**
+   * Encodes lone values of a single schema exactly as they're encoded within a record, so that an
+   * encoded record can have some of its values swapped for new ones without being encoded all over
+   * again; see {@link RecordCorpus}. Only needed for schemas that aren't records, arrays, maps or
+   * unions.
+   */
+  interface ValueEncoder {
+    /**
+     * @param value The value to encode.
+     * @param output The stream to write the encoded value to.
+     * @throws IOException if the stream cannot be written to.
+     */
+    void write(Object value, OutputStream output) throws IOException;
+  }
+}
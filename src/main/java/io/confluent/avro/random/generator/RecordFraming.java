@@ -0,0 +1,181 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frames each binary encoded record as a message of its own, so that whatever reads the output can
+ * find where every record starts and ends without decoding any of them. A framing is a header
+ * written before each record, a length prefix, or both:
+ *
+ * <ul>
+ *   <li>{@value #SINGLE_OBJECT}: Avro's single-object encoding, a header of the bytes C3 01
+ *   followed by the 64-bit Rabin fingerprint of the schema's parsing canonical form, in
+ *   little-endian byte order;</li>
+ *   <li>{@value #CONFLUENT}{@code :<id>}: the Confluent wire format used by Schema Registry
+ *   serializers, a header of a zero byte followed by the schema's registered ID as a 4-byte
+ *   big-endian integer;</li>
+ *   <li>{@value #LENGTH}: the number of bytes in the rest of the message (header included), as a
+ *   4-byte big-endian integer.</li>
+ * </ul>
+ *
+ * <p>Framings are given as a comma-separated list, such as {@code length,confluent:42}; the length
+ * prefix, if there is one, always comes first.
+ */
+final class RecordFraming {
+
+  static final String LENGTH = "length";
+  static final String SINGLE_OBJECT = "single-object";
+  static final String CONFLUENT = "confluent";
+
+  private static final byte[] SINGLE_OBJECT_MAGIC = {(byte) 0xc3, (byte) 0x01};
+  private static final byte CONFLUENT_MAGIC = 0x00;
+
+  private final boolean lengthPrefixed;
+  private final byte[] header;
+
+  private RecordFraming(boolean lengthPrefixed, byte[] header) {
+    this.lengthPrefixed = lengthPrefixed;
+    this.header = header;
+  }
+
+  /**
+   * @param framing The framing, as a comma-separated list of {@value #LENGTH},
+   *     {@value #SINGLE_OBJECT} and {@value #CONFLUENT}{@code :<id>}.
+   * @param schema The schema of the records to frame.
+   * @return The framing.
+   * @throws IllegalArgumentException if the framing isn't one of those, lists more than one header
+   *     or lists anything twice.
+   */
+  static RecordFraming parse(String framing, Schema schema) {
+    boolean lengthPrefixed = false;
+    byte[] header = null;
+    for (String part : framing.split(",", -1)) {
+      String name = part.trim();
+      if (name.equals(LENGTH)) {
+        if (lengthPrefixed) {
+          throw new IllegalArgumentException(String.format("'%s' is listed twice", LENGTH));
+        }
+        lengthPrefixed = true;
+        continue;
+      }
+      if (header != null) {
+        throw new IllegalArgumentException(String.format(
+            "only one of '%s' and '%s' can be listed",
+            SINGLE_OBJECT,
+            CONFLUENT
+        ));
+      }
+      if (name.equals(SINGLE_OBJECT)) {
+        header = singleObjectHeader(schema);
+      } else if (name.startsWith(CONFLUENT + ":")) {
+        header = confluentHeader(name.substring(CONFLUENT.length() + 1));
+      } else {
+        throw new IllegalArgumentException(String.format(
+            "unknown framing '%s'; must be '%s', '%s' or '%s:<schema id>'",
+            name,
+            LENGTH,
+            SINGLE_OBJECT,
+            CONFLUENT
+        ));
+      }
+    }
+    return new RecordFraming(lengthPrefixed, header != null ? header : new byte[0]);
+  }
+
+  /**
+   * @return The number of bytes the framing adds to every record.
+   */
+  int overhead() {
+    return (lengthPrefixed ? Integer.BYTES : 0) + header.length;
+  }
+
+  /**
+   * @param encoders Creates the encoders whose records to frame; they have to write every record
+   *     out in full when flushed, as binary encoders do.
+   * @return A factory for encoders that frame each record as they write it.
+   */
+  RecordEncoder.Factory frame(RecordEncoder.Factory encoders) {
+    return output -> new FramedEncoder(encoders, output);
+  }
+
+  private static byte[] singleObjectHeader(Schema schema) {
+    long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+    byte[] result = new byte[SINGLE_OBJECT_MAGIC.length + Long.BYTES];
+    System.arraycopy(SINGLE_OBJECT_MAGIC, 0, result, 0, SINGLE_OBJECT_MAGIC.length);
+    for (int i = 0; i < Long.BYTES; i++) {
+      result[SINGLE_OBJECT_MAGIC.length + i] = (byte) (fingerprint >>> (i * Byte.SIZE));
+    }
+    return result;
+  }
+
+  private static byte[] confluentHeader(String schemaId) {
+    int id;
+    try {
+      id = Integer.parseInt(schemaId);
+    } catch (NumberFormatException exception) {
+      id = -1;
+    }
+    if (id < 0) {
+      throw new IllegalArgumentException(String.format(
+          "schema ID '%s' must be a non-negative integer",
+          schemaId
+      ));
+    }
+    byte[] result = new byte[1 + Integer.BYTES];
+    result[0] = CONFLUENT_MAGIC;
+    writeInt(result, 1, id);
+    return result;
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  // Has the framed encoder write each record into a buffer of its own, so that its length is known
+  // before the record is written out behind its frame
+  private final class FramedEncoder implements RecordEncoder {
+    private final RecordPipeline.ByteBatch record;
+    private final RecordEncoder encoder;
+    private final OutputStream output;
+    private final byte[] frame;
+
+    FramedEncoder(RecordEncoder.Factory encoders, OutputStream output) throws IOException {
+      this.record = new RecordPipeline.ByteBatch();
+      this.encoder = encoders.create(record);
+      this.output = output;
+      this.frame = new byte[overhead()];
+      System.arraycopy(header, 0, frame, frame.length - header.length, header.length);
+    }
+
+    @Override
+    public void write(Object value) throws IOException {
+      record.length = 0;
+      encoder.write(value);
+      encoder.flush();
+      if (lengthPrefixed) {
+        writeInt(frame, 0, header.length + record.length);
+      }
+      output.write(frame);
+      output.write(record.bytes, 0, record.length);
+    }
+
+    @Override
+    public void flush() {
+      // Each record is written out in full as soon as it's framed
+    }
+  }
+}
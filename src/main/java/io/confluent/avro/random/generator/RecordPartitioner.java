@@ -0,0 +1,54 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+/**
+ * Decides which of several outputs each generated record goes to.
+ */
+interface RecordPartitioner {
+
+  /**
+   * @return The number of outputs that records are spread over.
+   */
+  int partitions();
+
+  /**
+   * @param record A generated record.
+   * @return The output the record belongs to, in the range [0, {@link #partitions()}).
+   */
+  int partition(Object record);
+
+  /**
+   * @return A partitioner that sends every record to the same, single output.
+   */
+  static RecordPartitioner single() {
+    return roundRobin(1);
+  }
+
+  /**
+   * @param partitions The number of outputs.
+   * @return A partitioner that deals records out to each output in turn.
+   */
+  static RecordPartitioner roundRobin(int partitions) {
+    return new RecordPartitioner() {
+      private int next = 0;
+
+      @Override
+      public int partitions() {
+        return partitions;
+      }
+
+      @Override
+      public int partition(Object record) {
+        int result = next;
+        next = result + 1 == partitions ? 0 : result + 1;
+        return result;
+      }
+    };
+  }
+}
@@ -0,0 +1,898 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs generation, encoding and writing as concurrent stages, so that the CPU keeps generating
+ * while output drains. The stages hand batches to each other through
+ * {@link RingBuffer ring buffers}: one of generated records, and one of encoded bytes per output.
+ * Records are spread over the outputs by a {@link RecordPartitioner}; every output has its own
+ * encoder, queue and writer thread. Batches of bytes always end on a record boundary, except that
+ * a record generated by compiled code is handed on in pieces once it outgrows a batch, so that not
+ * even a record with collections millions of elements long has to be held in memory whole.
+ *
+ * <p>A run can be bounded by a number of records, a number of bytes or a duration, and can be
+ * {@link #stop() stopped} early; either way, every record generated up to that point is still
+ * written out. Outputs can also be rolled over to a new file once the current one reaches a given
+ * size or age; that decision is made by the encoding stage, so each file ends on a record
+ * boundary and is complete on its own.
+ */
+final class RecordPipeline {
+
+  static final int RECORDS_PER_BATCH = 256;
+  static final int BYTES_PER_BATCH = 64 * 1024;
+  static final int QUEUE_BATCHES = 16;
+  // Batches of records are cut short once they'd be expected to encode to more than this, so that
+  // large records don't multiply the memory held by the record queue
+  static final int RECORD_BATCH_BYTES = 4 * BYTES_PER_BATCH;
+  // Room for the record that takes a batch over BYTES_PER_BATCH, unless records are expected to be
+  // larger than this
+  static final int BYTE_BATCH_SLACK = BYTES_PER_BATCH / 4;
+  // How many standard deviations above average a record can be before its batch has to grow
+  private static final int LARGE_RECORD_DEVIATIONS = 4;
+  // Batches for records larger than this grow into them as they're written, as they always have
+  private static final int MAX_BYTE_BATCH_CAPACITY = 1 << 26;
+  // Once a record generated by compiled code takes up this much of its batch, what there is of it
+  // so far is handed on, and the rest of it goes to the next batch
+  static final int RECORD_PIECE_BYTES = RECORD_BATCH_BYTES;
+
+  private static final long NOT_INDEXED = -1;
+
+  private final Generator generator;
+  private RecordEncoder.Factory encoderFactory;
+  private RecordPartitioner partitioner;
+  private final long iterations;
+  private final RingBuffer<RecordBatch> recordQueue;
+  private final List<Shard> shards;
+  private final PipelineMetrics metrics;
+  private long firstRecordIndex;
+  private RecordCorpus corpus;
+  private UpdateStream updates;
+  private CompiledGenerator compiled;
+  private RecordPieces pieces;
+  private RecordFraming framing;
+  private boolean lineTerminated;
+  private long maxBytes;
+  private long maxDurationNanos;
+  private long rollBytes;
+  private long rollIntervalNanos;
+  private int recordsPerBatch;
+
+  private volatile Throwable failure;
+  private volatile boolean stopped;
+  private long generateNanos;
+  private long encodeNanos;
+  private long firstWriteNanos;
+
+  /**
+   * @param generator The generator to produce records with.
+   * @param encoderFactory Creates the encoder used for each output.
+   * @param partitioner Decides which output each record is written to.
+   * @param iterations The number of records to produce; {@link Long#MAX_VALUE} to keep going
+   *     until another limit is reached or the pipeline is {@link #stop() stopped}.
+   */
+  RecordPipeline(
+      Generator generator,
+      RecordEncoder.Factory encoderFactory,
+      RecordPartitioner partitioner,
+      long iterations) {
+    this.generator = generator;
+    this.encoderFactory = encoderFactory;
+    this.partitioner = partitioner;
+    this.iterations = iterations;
+    this.recordQueue = new RingBuffer<>(QUEUE_BATCHES, RecordBatch::new);
+    this.shards = new ArrayList<>(partitioner.partitions());
+    int shardQueueBatches = shardQueueBatches(partitioner.partitions());
+    for (int i = 0; i < partitioner.partitions(); i++) {
+      shards.add(new Shard(i, shardQueueBatches));
+    }
+    this.metrics = new PipelineMetrics(
+        recordQueue::backlog,
+        recordQueue.capacity(),
+        () -> shards.stream().mapToInt(shard -> shard.queue.backlog()).sum(),
+        shardQueueBatches * shards.size(),
+        shards.size()
+    );
+    this.firstRecordIndex = NOT_INDEXED;
+    this.corpus = null;
+    this.updates = null;
+    this.compiled = null;
+    this.pieces = null;
+    this.framing = null;
+    this.lineTerminated = true;
+    this.maxBytes = 0;
+    this.maxDurationNanos = 0;
+    this.rollBytes = 0;
+    this.rollIntervalNanos = 0;
+    this.recordsPerBatch = RECORDS_PER_BATCH;
+    this.failure = null;
+    this.stopped = false;
+  }
+
+  /**
+   * @param firstRecordIndex Generate records {@link Generator#generate(long) by index}, starting
+   *     from this one, instead of one after another.
+   * @return This pipeline.
+   */
+  RecordPipeline firstRecordIndex(long firstRecordIndex) {
+    this.firstRecordIndex = firstRecordIndex;
+    return this;
+  }
+
+  /**
+   * Replays the records of a corpus instead of generating new ones, which also takes over encoding
+   * and partitioning them from the encoder factory and partitioner the pipeline was created with.
+   * @param corpus The corpus to replay; it must have been created with the same generator, encoder
+   *     factory and partitioner as this pipeline, and already decides which records to generate.
+   * @return This pipeline.
+   */
+  RecordPipeline replay(RecordCorpus corpus) {
+    this.corpus = corpus;
+    this.encoderFactory = corpus.encoderFactory();
+    this.partitioner = corpus.partitioner();
+    return this;
+  }
+
+  /**
+   * @param updates Output the updates of this stream instead of generating records one after
+   *     another; it must have been created with the same generator as this pipeline.
+   * @return This pipeline.
+   */
+  RecordPipeline updates(UpdateStream updates) {
+    this.updates = updates;
+    return this;
+  }
+
+  /**
+   * Generates and encodes records in one go with code compiled for the schema, instead of having
+   * the generator produce records and an encoder encode them. Takes over encoding from the encoder
+   * factory the pipeline was created with, which must have been for the Avro binary encoding.
+   * @param compiled Code compiled for the generator this pipeline was created with.
+   * @return This pipeline.
+   */
+  RecordPipeline compiled(CompiledGenerator compiled) {
+    this.compiled = compiled;
+    this.pieces = new RecordPieces();
+    this.encoderFactory = output -> new RecordEncoder() {
+      @Override
+      public void write(Object record) throws IOException {
+        EncodedRecord encoded = (EncodedRecord) record;
+        output.write(encoded.batch.bytes, encoded.offset, encoded.length);
+      }
+
+      @Override
+      public void flush() {
+        // Records are already encoded, and written straight through
+      }
+    };
+    return this;
+  }
+
+  /**
+   * Frames each record as it's encoded, whether it was encoded by the encoder factory the pipeline
+   * was created with or by anything that took over from it.
+   * @param framing The framing; the records must be binary encoded.
+   * @return This pipeline.
+   */
+  RecordPipeline framing(RecordFraming framing) {
+    this.framing = framing;
+    return this;
+  }
+
+  /**
+   * @param lineTerminated Whether to end every file that has anything in it with a newline, as
+   *     text encodings end their last line; binary output, framed or not, is left as it is, so that
+   *     files cut from the same records concatenate into exactly what a single run would write. On
+   *     by default.
+   * @return This pipeline.
+   */
+  RecordPipeline lineTerminated(boolean lineTerminated) {
+    this.lineTerminated = lineTerminated;
+    return this;
+  }
+
+  /**
+   * @param maxBytes The most encoded bytes to write over all outputs, not counting the newline
+   *     that ends each file; no record is ever cut short to stay under it. Zero for no limit.
+   * @return This pipeline.
+   */
+  RecordPipeline maxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * @param maxDurationNanos How long to keep generating records for. Zero for no limit.
+   * @return This pipeline.
+   */
+  RecordPipeline maxDurationNanos(long maxDurationNanos) {
+    this.maxDurationNanos = maxDurationNanos;
+    return this;
+  }
+
+  /**
+   * @param rollBytes The size after which each output moves on to its next file. Zero to never
+   *     roll by size.
+   * @return This pipeline.
+   */
+  RecordPipeline rollBytes(long rollBytes) {
+    this.rollBytes = rollBytes;
+    return this;
+  }
+
+  /**
+   * @param rollIntervalNanos How long each output writes to a file before moving on to its next
+   *     one. Zero to never roll by time.
+   * @return This pipeline.
+   */
+  RecordPipeline rollIntervalNanos(long rollIntervalNanos) {
+    this.rollIntervalNanos = rollIntervalNanos;
+    return this;
+  }
+
+  /**
+   * Sizes batches to fit the records being generated: fewer records to a batch if they're large,
+   * and byte batches with room for a whole large record from the start, rather than having to
+   * grow into it.
+   * @param estimate The estimated size of an encoded record.
+   * @return This pipeline.
+   */
+  RecordPipeline expectedRecordSize(SizeEstimate estimate) {
+    if (Double.isNaN(estimate.mean()) || Double.isNaN(estimate.variance())) {
+      // Nothing to go on; the default batch sizes will do
+      return this;
+    }
+    double mean = Math.max(estimate.mean(), 1.0);
+    double large = mean + LARGE_RECORD_DEVIATIONS * estimate.standardDeviation();
+    this.recordsPerBatch =
+        (int) Math.max(1, Math.min(RECORDS_PER_BATCH, RECORD_BATCH_BYTES / mean));
+    int capacity = (int) Math.min(
+        MAX_BYTE_BATCH_CAPACITY,
+        BYTES_PER_BATCH + Math.max(BYTE_BATCH_SLACK, large)
+    );
+    for (Shard shard : shards) {
+      shard.output.capacity = capacity;
+    }
+    return this;
+  }
+
+  /**
+   * Stops generating new records. Records that have already been generated are still encoded and
+   * written, after which {@link #run(List)} returns as usual. Safe to call from any thread.
+   */
+  void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Runs every stage on its own thread, returning once every record has been written (followed by
+   * a single newline on each output, if {@link #lineTerminated(boolean) line terminated}).
+   * @param outputs The outputs to write to, one for each partition. They must be rollable if a roll
+   *     size or interval has been set.
+   * @throws IOException if any of the outputs cannot be written to.
+   */
+  void run(List<RollingOutput> outputs) throws IOException {
+    if (outputs.size() != shards.size()) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d outputs, got %d",
+          shards.size(),
+          outputs.size()
+      ));
+    }
+    if (cutsRecords()) {
+      // No byte batch has to hold more than what's pending plus a piece of a record
+      for (Shard shard : shards) {
+        shard.output.capacity =
+            Math.min(shard.output.capacity, BYTES_PER_BATCH + RECORD_PIECE_BYTES);
+      }
+    }
+    List<Thread> threads = new ArrayList<>();
+    threads.add(new Thread(this::generate, "arg-generate"));
+    threads.add(new Thread(this::encode, "arg-encode"));
+    for (Shard shard : shards) {
+      RollingOutput output = outputs.get(shard.index);
+      threads.add(new Thread(() -> shard.write(output), "arg-write-" + shard.index));
+    }
+    for (Thread thread : threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      join(thread);
+    }
+    rethrowFailure();
+  }
+
+  /**
+   * @return The live throughput, allocation and backlog metrics of this pipeline.
+   */
+  PipelineMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * @return The {@link System#nanoTime()} at which the first batch was written, or zero if
+   *     nothing was written.
+   */
+  synchronized long firstWriteNanos() {
+    return firstWriteNanos;
+  }
+
+  /**
+   * @return A single-line summary of how long each stage spent working and waiting, and how full
+   *     the queues between them were on average.
+   */
+  String stats() {
+    long encodeBlockedNanos = 0;
+    long writeNanos = 0;
+    long writeIdleNanos = 0;
+    double byteQueueOccupancy = 0.0;
+    for (Shard shard : shards) {
+      encodeBlockedNanos += shard.queue.producerStallNanos();
+      writeNanos += shard.writeNanos;
+      writeIdleNanos += shard.queue.consumerStallNanos();
+      byteQueueOccupancy += shard.queue.averageOccupancy() / shards.size();
+    }
+    return String.format(
+        "generate %.1f ms (%.1f ms blocked), encode %.1f ms (%.1f ms idle, %.1f ms blocked), "
+            + "write %.1f ms (%.1f ms idle)%s; record queue %.0f%% full, byte queue%s %.0f%% full",
+        millis(generateNanos - recordQueue.producerStallNanos()),
+        millis(recordQueue.producerStallNanos()),
+        millis(encodeNanos - recordQueue.consumerStallNanos() - encodeBlockedNanos),
+        millis(recordQueue.consumerStallNanos()),
+        millis(encodeBlockedNanos),
+        millis(writeNanos - writeIdleNanos),
+        millis(writeIdleNanos),
+        shards.size() > 1 ? String.format(" over %d writers", shards.size()) : "",
+        recordQueue.averageOccupancy() * 100,
+        shards.size() > 1 ? "s" : "",
+        byteQueueOccupancy * 100
+    );
+  }
+
+  private void generate() {
+    long start = System.nanoTime();
+    try {
+      long remaining = iterations;
+      long nextRecordIndex = firstRecordIndex;
+      long replayed = 0;
+      while (remaining > 0 && !stopped) {
+        if (maxDurationNanos > 0 && System.nanoTime() - start >= maxDurationNanos) {
+          break;
+        }
+        RecordBatch batch = recordQueue.claim();
+        final long batchStart = System.nanoTime();
+        final long allocationStart = metrics.threadAllocatedBytes();
+        int size = (int) Math.min(remaining, recordsPerBatch);
+        batch.size = size;
+        batch.continued = false;
+        batch.cut = false;
+        if (corpus != null) {
+          for (int i = 0; i < size; i++) {
+            batch.records[i] = corpus.next(batch.replay(corpus, i), replayed++);
+          }
+        } else if (updates != null) {
+          for (int i = 0; i < size; i++) {
+            batch.records[i] = updates.next();
+          }
+        } else if (compiled != null) {
+          pieces.start(batch);
+          for (int i = 0; i < size; i++) {
+            pieces.startRecord();
+            compiled.generate(nextRecordIndex, pieces);
+            if (nextRecordIndex != NOT_INDEXED) {
+              nextRecordIndex++;
+            }
+            pieces.endRecord();
+          }
+          // Any pieces of records before the last were handed on in batches of their own
+          batch = pieces.batch;
+        } else if (nextRecordIndex == NOT_INDEXED) {
+          for (int i = 0; i < size; i++) {
+            batch.records[i] = generator.generate();
+          }
+        } else {
+          for (int i = 0; i < size; i++) {
+            batch.records[i] = generator.generate(nextRecordIndex++);
+          }
+        }
+        metrics.generated(
+            System.nanoTime() - batchStart,
+            metrics.threadAllocatedBytes() - allocationStart
+        );
+        recordQueue.publish();
+        remaining -= size;
+      }
+      recordQueue.close();
+    } catch (RingBuffer.AbortedException abortedException) {
+      // Another stage failed and has already recorded why
+    } catch (IOException | RuntimeException | Error exception) {
+      fail(exception);
+    }
+    generateNanos = System.nanoTime() - start;
+  }
+
+  private void encode() {
+    long start = System.nanoTime();
+    try {
+      for (Shard shard : shards) {
+        startFile(shard, start);
+      }
+      long totalBytes = 0;
+      boolean full = false;
+      // The shard the last record went to, which gets the rest of it if it was cut
+      Shard last = null;
+      for (RecordBatch batch = recordQueue.take(); batch != null; batch = recordQueue.take()) {
+        long batchStart = System.nanoTime();
+        long allocationStart = metrics.threadAllocatedBytes();
+        long blockedStart = encodeBlockedNanos();
+        long now = rollIntervalNanos > 0 ? batchStart : 0;
+        int encoded = 0;
+        for (int i = 0; i < batch.size && !full; i++) {
+          Object record = batch.records[i];
+          boolean continuation = i == 0 && batch.continued;
+          Shard shard = continuation ? last : shards.get(partitioner.partition(record));
+          if (!continuation && shard.fileBytes() > 0 && shouldRoll(shard, now)) {
+            rollFile(shard, now);
+          }
+          last = shard;
+          if (maxBytes > 0) {
+            // Flushing after each record is the only way to learn its exact size; if it takes the
+            // total over the limit, it's cut back out of the batch it was written to
+            long mark = shard.output.written();
+            shard.encoder.write(record);
+            shard.encoder.flush();
+            long recordBytes = shard.output.written() - mark;
+            if (totalBytes + recordBytes > maxBytes) {
+              shard.output.truncate(mark);
+              full = true;
+              stop();
+              break;
+            }
+            totalBytes += recordBytes;
+          } else {
+            shard.encoder.write(record);
+            if (rollBytes > 0) {
+              // Encoders buffer a few kilobytes of their own, which the size of the file has to
+              // take in for it to be rolled once it reaches the roll size rather than after
+              shard.encoder.flush();
+            }
+          }
+          if (shard.output.pending() >= BYTES_PER_BATCH) {
+            shard.encoder.flush();
+            shard.output.publish();
+          }
+          if (i < batch.size - 1 || !batch.cut) {
+            encoded++;
+          }
+        }
+        // Time spent waiting for a writer to free up a batch isn't time spent encoding
+        metrics.encoded(
+            encoded,
+            System.nanoTime() - batchStart - (encodeBlockedNanos() - blockedStart),
+            metrics.threadAllocatedBytes() - allocationStart
+        );
+        Arrays.fill(batch.records, 0, batch.size, null);
+        recordQueue.release();
+      }
+      for (Shard shard : shards) {
+        finishFile(shard);
+        shard.output.publish();
+        shard.queue.close();
+      }
+    } catch (RingBuffer.AbortedException abortedException) {
+      // Another stage failed and has already recorded why
+    } catch (IOException | RuntimeException | Error exception) {
+      fail(exception);
+    }
+    encodeNanos = System.nanoTime() - start;
+  }
+
+  // Records can only be cut if they don't have to be whole to be framed or measured
+  private boolean cutsRecords() {
+    return compiled != null && framing == null && maxBytes == 0;
+  }
+
+  private long encodeBlockedNanos() {
+    long result = 0;
+    for (Shard shard : shards) {
+      result += shard.queue.producerStallNanos();
+    }
+    return result;
+  }
+
+  private boolean shouldRoll(Shard shard, long now) {
+    return (rollBytes > 0 && shard.fileBytes() >= rollBytes)
+        || (rollIntervalNanos > 0 && now - shard.fileStartNanos >= rollIntervalNanos);
+  }
+
+  private void startFile(Shard shard, long now) throws IOException {
+    RecordEncoder.Factory encoders =
+        framing != null ? framing.frame(encoderFactory) : encoderFactory;
+    shard.encoder = encoders.create(shard.output);
+    shard.fileStart = shard.output.written();
+    shard.fileStartNanos = now;
+  }
+
+  // Finishes the shard's current file the same way the last one is finished at the end of the run,
+  // then starts the next one with a fresh encoder so that it doesn't depend on anything written
+  // before it
+  private void rollFile(Shard shard, long now) throws IOException {
+    finishFile(shard);
+    shard.output.endFile();
+    startFile(shard, now);
+  }
+
+  private void finishFile(Shard shard) throws IOException {
+    shard.encoder.flush();
+    if (lineTerminated && shard.fileBytes() > 0) {
+      shard.output.write('\n');
+    }
+  }
+
+  private synchronized void recordFirstWrite() {
+    if (firstWriteNanos == 0) {
+      firstWriteNanos = System.nanoTime();
+    }
+  }
+
+  private void fail(Throwable exception) {
+    synchronized (this) {
+      if (failure == null) {
+        failure = exception;
+      }
+    }
+    recordQueue.abort(exception);
+    for (Shard shard : shards) {
+      shard.queue.abort(exception);
+    }
+  }
+
+  private void rethrowFailure() throws IOException {
+    Throwable exception = failure;
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    } else if (exception instanceof RuntimeException) {
+      throw (RuntimeException) exception;
+    } else if (exception instanceof Error) {
+      throw (Error) exception;
+    }
+  }
+
+  private static void join(Thread thread) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException interruptedException) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  // Keeps the total amount of memory held by the byte queues roughly constant as the number of
+  // outputs grows
+  private static int shardQueueBatches(int shards) {
+    return Integer.highestOneBit(Math.min(QUEUE_BATCHES, Math.max(4, QUEUE_BATCHES * 4 / shards)));
+  }
+
+  private final class Shard {
+    final int index;
+    final RingBuffer<ByteBatch> queue;
+    final BatchOutputStream output;
+    // Only used by the encoding stage
+    RecordEncoder encoder;
+    long fileStart;
+    long fileStartNanos;
+    long writeNanos;
+
+    Shard(int index, int queueBatches) {
+      this.index = index;
+      this.queue = new RingBuffer<>(queueBatches, ByteBatch::new);
+      this.output = new BatchOutputStream(queue);
+    }
+
+    long fileBytes() {
+      return output.written() - fileStart;
+    }
+
+    // Outputs that are channels (connections, rather than files) are handed every batch that's
+    // ready in a single gathering write, instead of one batch at a time
+    void write(RollingOutput destination) {
+      long start = System.nanoTime();
+      boolean written = false;
+      ByteBuffer[] gathered = new ByteBuffer[queue.capacity()];
+      try {
+        for (ByteBatch batch = queue.take(); batch != null; batch = queue.take()) {
+          final long batchStart = System.nanoTime();
+          OutputStream current = destination.current();
+          ByteBatch last = batch;
+          int batches = 1;
+          long bytes = batch.length;
+          if (current instanceof GatheringByteChannel) {
+            gathered[0] = batch.buffer();
+            for (ByteBatch next = queue.peek(batches); next != null && !last.endOfFile;
+                next = queue.peek(batches)) {
+              gathered[batches++] = next.buffer();
+              bytes += next.length;
+              last = next;
+            }
+            ((GatheringByteChannel) current).write(gathered, 0, batches);
+          } else {
+            current.write(batch.bytes, 0, batch.length);
+          }
+          if (!written) {
+            current.flush();
+            recordFirstWrite();
+            written = true;
+          }
+          if (last.endOfFile) {
+            destination.roll();
+          }
+          metrics.written(bytes, System.nanoTime() - batchStart);
+          queue.release(batches);
+        }
+        destination.current().flush();
+      } catch (RingBuffer.AbortedException abortedException) {
+        // Another stage failed and has already recorded why
+      } catch (IOException | RuntimeException | Error exception) {
+        fail(exception);
+      }
+      writeNanos = System.nanoTime() - start;
+    }
+  }
+
+  private static final class RecordBatch {
+    final Object[] records = new Object[RECORDS_PER_BATCH];
+    int size;
+    // Whether the first record is the rest of the last one of the batch before, and whether the
+    // last record goes on in the batch after
+    boolean continued;
+    boolean cut;
+    // Reused from one batch to the next, when replaying a corpus
+    RecordCorpus.Replay[] replays;
+
+    // Likewise, when generating with compiled code
+    ByteBatch encodedBytes;
+    EncodedRecord[] encodedRecords;
+
+    RecordCorpus.Replay replay(RecordCorpus corpus, int index) {
+      if (replays == null) {
+        replays = new RecordCorpus.Replay[RECORDS_PER_BATCH];
+      }
+      if (replays[index] == null) {
+        replays[index] = corpus.newReplay();
+      }
+      return replays[index];
+    }
+
+    // Empties the bytes the batch's records are encoded into, for a new batch
+    ByteBatch encodedBytes() {
+      if (encodedBytes == null) {
+        encodedBytes = new ByteBatch();
+        encodedRecords = new EncodedRecord[RECORDS_PER_BATCH];
+      }
+      encodedBytes.length = 0;
+      return encodedBytes;
+    }
+
+    // The record at the given index, as everything encoded since the given offset
+    EncodedRecord encoded(int index, int offset) {
+      if (encodedRecords[index] == null) {
+        encodedRecords[index] = new EncodedRecord(encodedBytes);
+      }
+      EncodedRecord result = encodedRecords[index];
+      result.offset = offset;
+      result.length = encodedBytes.length - offset;
+      return result;
+    }
+  }
+
+  // Has compiled code encode records into the bytes of a batch, moving on to a new batch in the
+  // middle of a record that grows too large for its own
+  private final class RecordPieces extends OutputStream {
+    RecordBatch batch;
+    private ByteBatch bytes;
+    private int count;
+    // Where the current record, or the piece of it in this batch, starts
+    private int offset;
+
+    void start(RecordBatch first) {
+      batch = first;
+      bytes = first.encodedBytes();
+      count = 0;
+    }
+
+    void startRecord() {
+      offset = bytes.length;
+    }
+
+    void endRecord() {
+      batch.records[count] = batch.encoded(count, offset);
+      batch.size = ++count;
+    }
+
+    @Override
+    public void write(int value) {
+      bytes.write(value);
+      if (bytes.length - offset >= RECORD_PIECE_BYTES) {
+        cut();
+      }
+    }
+
+    @Override
+    public void write(byte[] buffer, int off, int length) {
+      bytes.write(buffer, off, length);
+      if (bytes.length - offset >= RECORD_PIECE_BYTES) {
+        cut();
+      }
+    }
+
+    // Hands on the batch with the record so far, and carries on with the rest in a new one
+    private void cut() {
+      if (!cutsRecords()) {
+        return;
+      }
+      endRecord();
+      batch.cut = true;
+      recordQueue.publish();
+      batch = recordQueue.claim();
+      bytes = batch.encodedBytes();
+      batch.continued = true;
+      batch.cut = false;
+      count = 0;
+      offset = 0;
+    }
+  }
+
+  // A record that compiled code has already encoded into its batch's bytes
+  private static final class EncodedRecord {
+    final ByteBatch batch;
+    int offset;
+    int length;
+
+    EncodedRecord(ByteBatch batch) {
+      this.batch = batch;
+    }
+  }
+
+  /**
+   * A growable, reusable buffer of encoded bytes.
+   */
+  static final class ByteBatch extends OutputStream {
+    byte[] bytes = new byte[BYTES_PER_BATCH + BYTE_BATCH_SLACK];
+    int length;
+    // Whether this batch finishes the file it's written to
+    boolean endOfFile;
+    private ByteBuffer buffer;
+
+    @Override
+    public void write(int value) {
+      if (length == bytes.length) {
+        grow(length + 1);
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+      if (length + count > bytes.length) {
+        grow(length + count);
+      }
+      System.arraycopy(buffer, offset, bytes, length, count);
+      length += count;
+    }
+
+    // The batch's bytes, as a buffer for gathering writes
+    ByteBuffer buffer() {
+      if (buffer == null || buffer.array() != bytes) {
+        buffer = ByteBuffer.wrap(bytes);
+      }
+      buffer.clear();
+      buffer.limit(length);
+      return buffer;
+    }
+
+    private void grow(int minimumLength) {
+      bytes = Arrays.copyOf(bytes, Math.max(minimumLength, bytes.length * 2));
+    }
+  }
+
+  // Forwards everything written to it into the byte batch currently claimed from the queue,
+  // claiming a new one on the first write after each publish
+  private static final class BatchOutputStream extends OutputStream {
+    private final RingBuffer<ByteBatch> queue;
+    private ByteBatch current;
+    private long written;
+    // The size each batch is given before it's written to
+    int capacity;
+
+    BatchOutputStream(RingBuffer<ByteBatch> queue) {
+      this.queue = queue;
+      this.current = null;
+      this.written = 0;
+      this.capacity = BYTES_PER_BATCH + BYTE_BATCH_SLACK;
+    }
+
+    @Override
+    public void write(int value) {
+      batch().write(value);
+      written++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+      batch().write(buffer, offset, count);
+      written += count;
+    }
+
+    int pending() {
+      return current != null ? current.length : 0;
+    }
+
+    // The total number of bytes written to this stream so far
+    long written() {
+      return written;
+    }
+
+    // Discards everything written since the given position, which must lie within the batch that
+    // hasn't been published yet
+    void truncate(long position) {
+      int discarded = (int) (written - position);
+      if (discarded > pending()) {
+        throw new IllegalStateException("Cannot truncate bytes that have already been published");
+      }
+      if (discarded > 0) {
+        current.length -= discarded;
+        written = position;
+      }
+    }
+
+    // Publishes the current batch (claiming one if need be) as the last one of its file
+    void endFile() {
+      batch().endOfFile = true;
+      publish();
+    }
+
+    void publish() {
+      if (current != null) {
+        queue.publish();
+        current = null;
+      }
+    }
+
+    private ByteBatch batch() {
+      if (current == null) {
+        current = queue.claim();
+        if (current.bytes.length < capacity) {
+          current.bytes = new byte[capacity];
+        }
+        current.length = 0;
+        current.endOfFile = false;
+      }
+      return current;
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Works out how large the records of a {@link Generator} are once binary encoded, on average and
+ * how much they vary, straight from the schema and its annotations rather than by generating
+ * records: length bounds, the sizes of options, the arity of unions, and how many bytes the
+ * zig-zag encoding of numbers in a given range takes. Values are assumed to be independent of one
+ * another, so the variance of a record is the sum of the variances of its fields.
+ *
+ * <p>Everything is modelled exactly except for regex strings (whose lengths depend on the regex,
+ * and are measured from a fixed sample of strings generated for it, so that the estimate is still
+ * the same every time), random map keys of varying length (which all have the same length within
+ * a map), and per-record element budgets (which are ignored, so that the estimate is an upper
+ * bound); estimates involving any of these are marked as {@link SizeEstimate#exact() inexact}.
+ * Maps whose keys are picked from a small set are estimated from the expected number of distinct
+ * keys, and unique values from every value they can take, which they're spread evenly over.
+ */
+public final class RecordSizeEstimator {
+
+  // Random strings are ASCII, so every character takes a single byte
+  private static final double BYTES_PER_RANDOM_CHARACTER = 1.0;
+  private static final double RANDOM_CHARACTERS = 128;
+  // Past these, key collisions are too rare or too expensive to work out to be worth modelling
+  private static final double MAX_COLLIDING_KEYS = 1 << 20;
+  private static final long MAX_COLLIDING_LENGTHS = 1 << 12;
+  // Just the zero-length block that ends every array and map
+  private static final SizeEstimate EMPTY_COLLECTION = SizeEstimate.constant(1);
+  // Enough regex strings to pin their mean size down to a tenth of a byte or so
+  private static final int REGEX_SAMPLES = 1024;
+  private static final long REGEX_SAMPLE_SEED = 0;
+
+  private final Generator generator;
+  private final long records;
+  // Estimates depend on how deeply the schema is nested in records, since that's what decides
+  // whether unions and collections are cut short
+  private final Map<Schema, Map<Integer, SizeEstimate>> estimates;
+  private GenericDatumWriter<Object> valueWriter;
+  private BinaryEncoder valueEncoder;
+  private CountingOutputStream valueBytes;
+
+  private RecordSizeEstimator(Generator generator, long records) {
+    this.generator = generator;
+    this.records = records;
+    this.estimates = new IdentityHashMap<>();
+  }
+
+  /**
+   * @param generator The generator whose records to estimate the size of, given its schema, depth
+   *     limit and element budget.
+   * @param records How many records the estimate is for; this only matters for iterations, whose
+   *     values (and so their sizes) spread out over the course of a run.
+   * @return The estimated binary encoded size of a single record.
+   */
+  public static SizeEstimate estimate(Generator generator, long records) {
+    RecordSizeEstimator estimator = new RecordSizeEstimator(generator, Math.max(records, 1));
+    SizeEstimate result = estimator.estimate(generator.schema(), 0);
+    return generator.maxElements() != Generator.UNLIMITED_ELEMENTS
+        ? result.approximate()
+        : result;
+  }
+
+  private SizeEstimate estimate(Schema schema, int depth) {
+    Map<Integer, SizeEstimate> byDepth = estimates.get(schema);
+    if (byDepth == null) {
+      byDepth = new HashMap<>();
+      estimates.put(schema, byDepth);
+    }
+    SizeEstimate result = byDepth.get(depth);
+    if (result == null) {
+      result = estimateObject(schema, depth);
+      byDepth.put(depth, result);
+    }
+    return result;
+  }
+
+  private SizeEstimate estimateObject(Schema schema, int depth) {
+    Map propertiesProp = properties(schema.getObjectProp(Generator.ARG_PROPERTIES_PROP));
+    if (Generator.isUnique(propertiesProp) && schema.getType() == Schema.Type.STRING) {
+      return estimateUniqueString(schema, propertiesProp);
+    }
+    if (propertiesProp.containsKey(Generator.OPTIONS_PROP)) {
+      return estimateOptions(schema, generator.options(schema, propertiesProp));
+    }
+    if (propertiesProp.containsKey(Generator.ITERATION_PROP)) {
+      return estimateIteration(schema, propertiesProp);
+    }
+    LogicalTypeGenerator logicalType = LogicalTypeGenerator.of(schema, propertiesProp);
+    if (logicalType != null) {
+      return logicalType.binarySize();
+    }
+    switch (schema.getType()) {
+      case ARRAY:
+        if (depth >= generator.maxDepth()) {
+          return EMPTY_COLLECTION;
+        }
+        return estimateCollection(
+            estimate(schema.getElementType(), depth),
+            lengthBounds(propertiesProp.get(Generator.LENGTH_PROP))
+        );
+      case BOOLEAN:
+        return SizeEstimate.constant(1);
+      case BYTES:
+        return estimateRandomString(lengthBounds(propertiesProp.get(Generator.LENGTH_PROP)));
+      case STRING:
+        if (propertiesProp.containsKey(Generator.REGEX_PROP)) {
+          return estimateRegexString(schema, propertiesProp);
+        }
+        return estimateRandomString(lengthBounds(propertiesProp.get(Generator.LENGTH_PROP)));
+      case DOUBLE:
+        return SizeEstimate.constant(Double.BYTES);
+      case ENUM:
+        return SizeEstimate.varint(0, schema.getEnumSymbols().size());
+      case FIXED:
+        return SizeEstimate.constant(schema.getFixedSize());
+      case FLOAT:
+        return SizeEstimate.constant(Float.BYTES);
+      case INT:
+        return estimateRange(propertiesProp, Integer.MIN_VALUE, Integer.MAX_VALUE + 1.0);
+      case LONG:
+        return estimateRange(propertiesProp, Long.MIN_VALUE, Long.MAX_VALUE + 1.0);
+      case MAP:
+        if (depth >= generator.maxDepth()) {
+          return EMPTY_COLLECTION;
+        }
+        return estimateMap(
+            estimateMapKey(schema, propertiesProp).plus(estimate(schema.getValueType(), depth)),
+            lengthBounds(propertiesProp.get(Generator.LENGTH_PROP)),
+            mapKeys(schema, propertiesProp)
+        );
+      case NULL:
+        return SizeEstimate.ZERO;
+      case RECORD:
+        return estimateRecord(schema, depth);
+      case UNION:
+        return estimateUnion(schema, depth);
+      default:
+        throw new RuntimeException("Unrecognized schema type: " + schema.getType());
+    }
+  }
+
+  private SizeEstimate estimateRecord(Schema schema, int depth) {
+    if (depth >= generator.maxDepth()) {
+      throw new RuntimeException(String.format(
+          "Record %s would be nested more than %d deep; the schema has no optional branch to cut "
+              + "it short with, so either the depth limit is too low or the schema can't end",
+          schema.getFullName(),
+          generator.maxDepth()
+      ));
+    }
+    SizeEstimate result = SizeEstimate.ZERO;
+    for (Schema.Field field : schema.getFields()) {
+      result = result.plus(estimate(field.schema(), depth + 1));
+    }
+    return result;
+  }
+
+  // The branch index, followed by the branch itself
+  private SizeEstimate estimateUnion(Schema schema, int depth) {
+    List<Schema> branches = schema.getTypes();
+    if (depth >= generator.maxDepth()) {
+      Schema branch = Generator.shallowestBranch(branches);
+      return SizeEstimate.varint(branches.indexOf(branch), branches.indexOf(branch) + 1)
+          .plus(estimate(branch, depth));
+    }
+    List<SizeEstimate> options = new ArrayList<>(branches.size());
+    for (int i = 0; i < branches.size(); i++) {
+      options.add(SizeEstimate.varint(i, i + 1).plus(estimate(branches.get(i), depth)));
+    }
+    return SizeEstimate.uniformChoice(options);
+  }
+
+  // Avro writes a non-empty array or map as a block (its length, then its elements), followed by
+  // a zero-length block to end it
+  private static SizeEstimate estimateCollection(SizeEstimate element, long[] lengths) {
+    long minLength = Math.max(lengths[0], 1);
+    if (minLength >= lengths[1]) {
+      // Never has any elements, so there's no block header either
+      return EMPTY_COLLECTION;
+    }
+    double nonEmpty = (double) (lengths[1] - minLength) / (lengths[1] - lengths[0]);
+    SizeEstimate header = SizeEstimate.varint(minLength, lengths[1]).sometimes(nonEmpty);
+    return header.plus(element.repeated(lengths[0], lengths[1])).plus(EMPTY_COLLECTION);
+  }
+
+  // Keys picked from a small set collide, and a map keeps a single entry for each distinct key, so
+  // its size follows from the expected number of distinct keys among the ones picked
+  private static SizeEstimate estimateMap(SizeEstimate entry, long[] lengths, double keys) {
+    if (keys > MAX_COLLIDING_KEYS || lengths[1] - lengths[0] > MAX_COLLIDING_LENGTHS) {
+      return estimateCollection(entry, lengths);
+    }
+    List<SizeEstimate> sizes = new ArrayList<>((int) (lengths[1] - lengths[0]));
+    for (long picked = lengths[0]; picked < lengths[1]; picked++) {
+      double distinct = keys * -Math.expm1(picked * Math.log1p(-1 / keys));
+      SizeEstimate size = entry.times(distinct).plus(EMPTY_COLLECTION);
+      if (distinct > 0) {
+        size = size.plus(SizeEstimate.varint(Math.round(distinct), Math.round(distinct) + 1));
+      }
+      sizes.add(size);
+    }
+    return SizeEstimate.uniformChoice(sizes);
+  }
+
+  // The number of distinct keys a map's keys are picked from
+  private double mapKeys(Schema schema, Map propertiesProp) {
+    Object keyProp = propertiesProp.get(Generator.KEYS_PROP);
+    if (!(keyProp instanceof Map)) {
+      return RANDOM_CHARACTERS;
+    }
+    Map keyPropMap = (Map) keyProp;
+    if (keyPropMap.containsKey(Generator.OPTIONS_PROP)) {
+      return new HashSet<>(generator.keyOptions(schema, keyPropMap)).size();
+    }
+    return Math.pow(RANDOM_CHARACTERS, lengthBounds(keyPropMap.get(Generator.LENGTH_PROP))[0]);
+  }
+
+  private SizeEstimate estimateMapKey(Schema schema, Map propertiesProp) {
+    Object keyProp = propertiesProp.get(Generator.KEYS_PROP);
+    if (!(keyProp instanceof Map)) {
+      return estimateRandomString(new long[] {1, 2});
+    }
+    Map keyPropMap = (Map) keyProp;
+    if (keyPropMap.containsKey(Generator.OPTIONS_PROP)) {
+      return estimateOptions(
+          Schema.create(Schema.Type.STRING),
+          generator.keyOptions(schema, keyPropMap)
+      );
+    }
+    // Every key in a map has the same length, so key sizes don't vary independently of each other;
+    // treating them as if they did only understates the variance a little
+    return estimateRandomString(lengthBounds(keyPropMap.get(Generator.LENGTH_PROP))).approximate();
+  }
+
+  // A length, followed by that many characters
+  private static SizeEstimate estimateRandomString(long[] lengths) {
+    return SizeEstimate.varint(lengths[0], lengths[1])
+        .plus(SizeEstimate.constant(BYTES_PER_RANDOM_CHARACTER).repeated(lengths[0], lengths[1]));
+  }
+
+  // Regex strings are generated by a random walk through the regex's automaton, which stops at
+  // each accepting state with some probability and backs out of dead ends, so their lengths depend
+  // on the shape of the automaton far more than on the length bounds; the sizes of a sample of
+  // strings are measured instead
+  private SizeEstimate estimateRegexString(Schema schema, Map propertiesProp) {
+    final String regex = regex(propertiesProp);
+    final int[] lengths = generator.lengthBounds(propertiesProp.get(Generator.LENGTH_PROP));
+    final Random random = new Random(REGEX_SAMPLE_SEED);
+    return estimateSample(
+        schema,
+        () -> RegexStringGenerator.random(random, schema, regex, lengths[0], lengths[1])
+    );
+  }
+
+  // Unique strings are spread evenly over every string the regex matches within their lengths
+  private SizeEstimate estimateUniqueString(Schema schema, Map propertiesProp) {
+    Object lengthProp = propertiesProp.get(Generator.LENGTH_PROP);
+    int[] lengths = lengthProp != null
+        ? generator.lengthBounds(lengthProp)
+        : new int[] {0, Integer.MAX_VALUE};
+    final RegexStringGenerator.RankedLanguage language =
+        RegexStringGenerator.ranked(regex(propertiesProp), lengths[0], lengths[1]);
+    final Random random = new Random(REGEX_SAMPLE_SEED);
+    return estimateSample(
+        schema,
+        () -> language.get(Math.floorMod(random.nextLong(), language.size()))
+    );
+  }
+
+  private SizeEstimate estimateSample(Schema schema, Supplier<Object> values) {
+    double sum = 0.0;
+    double sumOfSquares = 0.0;
+    for (int i = 0; i < REGEX_SAMPLES; i++) {
+      double size = encodedSize(schema, values.get());
+      sum += size;
+      sumOfSquares += size * size;
+    }
+    double mean = sum / REGEX_SAMPLES;
+    return SizeEstimate.measured(mean, sumOfSquares / REGEX_SAMPLES - mean * mean).approximate();
+  }
+
+  private static String regex(Map propertiesProp) {
+    Object regexProp = propertiesProp.get(Generator.REGEX_PROP);
+    if (!(regexProp instanceof String)) {
+      throw new RuntimeException(
+          String.format("%s property must be a string", Generator.REGEX_PROP)
+      );
+    }
+    return (String) regexProp;
+  }
+
+  private static SizeEstimate estimateRange(Map propertiesProp, double min, double max) {
+    Object rangeProp = propertiesProp.get(Generator.RANGE_PROP);
+    if (rangeProp instanceof Map) {
+      Map rangeProps = (Map) rangeProp;
+      if (rangeProps.get(Generator.RANGE_PROP_MIN) instanceof Number) {
+        min = ((Number) rangeProps.get(Generator.RANGE_PROP_MIN)).doubleValue();
+      }
+      if (rangeProps.get(Generator.RANGE_PROP_MAX) instanceof Number) {
+        max = ((Number) rangeProps.get(Generator.RANGE_PROP_MAX)).doubleValue();
+      }
+    }
+    return SizeEstimate.varint(min, max);
+  }
+
+  // Over a run, an iteration covers the values from its start onwards, one step at a time,
+  // wrapping around once it reaches its restart
+  private SizeEstimate estimateIteration(Schema schema, Map propertiesProp) {
+    Map iterationProps = properties(propertiesProp.get(Generator.ITERATION_PROP));
+    switch (schema.getType()) {
+      case BOOLEAN:
+        return SizeEstimate.constant(1);
+      case FLOAT:
+        return SizeEstimate.constant(Float.BYTES);
+      case DOUBLE:
+        return SizeEstimate.constant(Double.BYTES);
+      default:
+        break;
+    }
+    double start = number(iterationProps.get(Generator.ITERATION_PROP_START), 0.0);
+    Double restart = iterationProps.get(Generator.ITERATION_PROP_RESTART) instanceof Number
+        ? ((Number) iterationProps.get(Generator.ITERATION_PROP_RESTART)).doubleValue()
+        : null;
+    double step = number(
+        iterationProps.get(Generator.ITERATION_PROP_STEP),
+        restart != null && restart < start ? -1.0 : 1.0
+    );
+    double typeMax = schema.getType() == Schema.Type.INT ? Integer.MAX_VALUE : Long.MAX_VALUE;
+    double typeMin = schema.getType() == Schema.Type.INT ? Integer.MIN_VALUE : Long.MIN_VALUE;
+    double end = restart != null ? restart : step > 0 ? typeMax : typeMin;
+    double covered = Math.min(Math.abs(end - start), records * Math.abs(step));
+    return step > 0
+        ? SizeEstimate.varint(start, start + covered)
+        : SizeEstimate.varint(start - covered + 1, start + 1);
+  }
+
+  private SizeEstimate estimateOptions(Schema schema, List<Object> options) {
+    List<SizeEstimate> sizes = new ArrayList<>(options.size());
+    for (Object option : options) {
+      sizes.add(SizeEstimate.constant(encodedSize(schema, option)));
+    }
+    return SizeEstimate.uniformChoice(sizes);
+  }
+
+  private long encodedSize(Schema schema, Object value) {
+    if (valueWriter == null) {
+      valueWriter = new GenericDatumWriter<>();
+      valueBytes = new CountingOutputStream();
+    }
+    valueWriter.setSchema(schema);
+    valueEncoder = EncoderFactory.get().directBinaryEncoder(valueBytes, valueEncoder);
+    long start = valueBytes.count;
+    try {
+      valueWriter.write(value, valueEncoder);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Unable to encode value: " + value, ioe);
+    }
+    return valueBytes.count - start;
+  }
+
+  // The same bounds as the generator uses: [min, max), with a single value n given as [n, n + 1)
+  private static long[] lengthBounds(Object lengthProp) {
+    if (lengthProp instanceof Number) {
+      long length = ((Number) lengthProp).longValue();
+      return new long[] {length, length + 1};
+    }
+    if (lengthProp instanceof Map) {
+      Map lengthProps = (Map) lengthProp;
+      return new long[] {
+          (long) number(lengthProps.get(Generator.LENGTH_PROP_MIN), 0),
+          (long) number(lengthProps.get(Generator.LENGTH_PROP_MAX), Integer.MAX_VALUE)
+      };
+    }
+    return new long[] {Generator.DEFAULT_LENGTH_MIN, Generator.DEFAULT_LENGTH_MAX};
+  }
+
+  private static double number(Object value, double defaultValue) {
+    return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+  }
+
+  private static Map properties(Object propertiesProp) {
+    return propertiesProp instanceof Map ? (Map) propertiesProp : new HashMap();
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int value) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      count += length;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import com.mifmif.common.regex.Generex;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+import org.apache.avro.Schema;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates strings matching the regex property of a schema. Kept apart from {@link Generator} so
+ * that Generex and the dk.brics automaton library are only loaded (and their automata only
+ * compiled) once a schema with a regex property is actually generated. Also ranks the strings a
+ * regex matches, for strings that are {@link Generator#UNIQUE_PROP unique}.
+ */
+final class RegexStringGenerator {
+
+  private static final Map<Schema, Generex> generexCache = new ConcurrentHashMap<>();
+
+  // How Generex rewrites a regex before handing it to dk.brics, which doesn't know these
+  private static final Pattern QUOTED = Pattern.compile("\\\\Q(.*?)\\\\E");
+  private static final Pattern QUOTED_SPECIAL = Pattern.compile("[.^$*+?(){|\\[\\\\@]");
+  private static final String[][] PREDEFINED_CHARACTER_CLASSES = {
+      {"\\\\d", "[0-9]"},
+      {"\\\\D", "[^0-9]"},
+      {"\\\\s", "[ \t\n\f\r]"},
+      {"\\\\S", "[^ \t\n\f\r]"},
+      {"\\\\w", "[a-zA-Z_0-9]"},
+      {"\\\\W", "[^a-zA-Z_0-9]"}
+  };
+
+  // How many lengths past the shortest allowed are ranked, when the regex can match strings of any
+  // length and no maximum is given; enough for all but the sparsest of languages to run past the
+  // 2^63 strings a long can rank before then
+  private static final int MAX_RANKED_LENGTHS = 256;
+
+  private RegexStringGenerator() {
+  }
+
+  /**
+   * @param random The source of randomness for the string. Generex keeps its own, so it's reseeded
+   *               from this one for every string, which makes regex strings exactly as
+   *               reproducible as everything else the generator produces.
+   * @param schema The schema the regex was specified for; used as the key for caching its
+   *               compiled automaton.
+   * @param regex The regex that the generated string should match.
+   * @param minLength The (inclusive) minimum length of the generated string.
+   * @param maxLength The (exclusive) maximum length of the generated string.
+   * @return A string matching the given regex.
+   */
+  static String random(Random random, Schema schema, String regex, int minLength, int maxLength) {
+    Generex generex = generexCache.get(schema);
+    if (generex == null) {
+      generex = new Generex(regex);
+      generexCache.put(schema, generex);
+    }
+    // Generex.random(low, high) generates in range [low, high]; we want [low, high), so subtract
+    // 1 from maxLength. The same Generex is shared by every generator for the schema, so it has to
+    // be reseeded and used in one go
+    synchronized (generex) {
+      generex.setSeed(random.nextLong());
+      return generex.random(minLength, maxLength - 1);
+    }
+  }
+
+  /**
+   * @param regex A regex, as given by a regex property.
+   * @param minLength The (inclusive) minimum length of the strings to rank.
+   * @param maxLength The (exclusive) maximum length of the strings to rank.
+   * @return The strings the regex matches within those lengths, ranked.
+   */
+  static RankedLanguage ranked(String regex, int minLength, int maxLength) {
+    Automaton automaton = automaton(regex);
+    automaton.determinize();
+    List<State> states = new ArrayList<>(automaton.getStates());
+    Map<State, Integer> numbers = new IdentityHashMap<>();
+    for (State state : states) {
+      numbers.put(state, numbers.size());
+    }
+    int[][] transitions = new int[states.size()][];
+    boolean[] accepting = new boolean[states.size()];
+    for (State state : states) {
+      int number = numbers.get(state);
+      List<Transition> sorted = state.getSortedTransitions(false);
+      int[] stateTransitions = new int[sorted.size() * 3];
+      for (int i = 0; i < sorted.size(); i++) {
+        Transition transition = sorted.get(i);
+        stateTransitions[3 * i] = transition.getMin();
+        stateTransitions[3 * i + 1] = transition.getMax();
+        stateTransitions[3 * i + 2] = numbers.get(transition.getDest());
+      }
+      transitions[number] = stateTransitions;
+      accepting[number] = state.isAccept();
+    }
+    int longest = automaton.isFinite()
+        ? Math.min(maxLength - 1, states.size())
+        : (int) Math.min(maxLength - 1, (long) minLength + MAX_RANKED_LENGTHS - 1);
+    return new RankedLanguage(
+        regex,
+        numbers.get(automaton.getInitialState()),
+        transitions,
+        accepting,
+        minLength,
+        longest
+    );
+  }
+
+  private static Automaton automaton(String regex) {
+    StringBuffer requoted = new StringBuffer();
+    Matcher quoted = QUOTED.matcher(regex);
+    while (quoted.find()) {
+      String escaped = QUOTED_SPECIAL.matcher(quoted.group(1)).replaceAll("\\\\$0");
+      quoted.appendReplacement(requoted, Matcher.quoteReplacement(escaped));
+    }
+    quoted.appendTail(requoted);
+    String rewritten = requoted.toString();
+    for (String[] characterClass : PREDEFINED_CHARACTER_CLASSES) {
+      rewritten = rewritten.replaceAll(characterClass[0], characterClass[1]);
+    }
+    return new RegExp(rewritten).toAutomaton();
+  }
+
+  private static long saturatedAdd(long left, long right) {
+    long sum = left + right;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  private static long saturatedMultiply(long left, long right) {
+    return left != 0 && right > Long.MAX_VALUE / left ? Long.MAX_VALUE : left * right;
+  }
+
+  /**
+   * The strings a regex matches within a range of lengths, in order: shorter strings first, and
+   * strings of the same length ordered by their characters. Any one of them can be found from its
+   * rank without going through the ones before it, by way of a table of how many ways there are
+   * to get from each state of the regex's automaton to the end of a string in each number of
+   * characters; the table is all it keeps, so its size depends on the regex and not on how many
+   * strings are ranked. Counts saturate at {@link Long#MAX_VALUE}, so at most that many strings
+   * are ranked.
+   */
+  static final class RankedLanguage {
+    private final int initialState;
+    // For each state, the first character, last character and next state of each of its
+    // transitions, in order of their characters
+    private final int[][] transitions;
+    private final int minLength;
+    // completions[n][state] is how many strings of n more characters lead from state to a match
+    private final long[][] completions;
+    private final long size;
+
+    private RankedLanguage(
+        String regex,
+        int initialState,
+        int[][] transitions,
+        boolean[] accepting,
+        int minLength,
+        int maxLength) {
+      this.initialState = initialState;
+      this.transitions = transitions;
+      this.minLength = minLength;
+      List<long[]> rows = new ArrayList<>();
+      long[] row = new long[transitions.length];
+      for (int state = 0; state < row.length; state++) {
+        row[state] = accepting[state] ? 1 : 0;
+      }
+      rows.add(row);
+      long size = minLength == 0 ? row[initialState] : 0;
+      for (int length = 1; length <= maxLength && size < Long.MAX_VALUE; length++) {
+        long[] next = new long[transitions.length];
+        for (int state = 0; state < next.length; state++) {
+          int[] stateTransitions = transitions[state];
+          long count = 0;
+          for (int i = 0; i < stateTransitions.length; i += 3) {
+            long characters = stateTransitions[i + 1] - stateTransitions[i] + 1;
+            count = saturatedAdd(
+                count,
+                saturatedMultiply(characters, row[stateTransitions[i + 2]])
+            );
+          }
+          next[state] = count;
+        }
+        row = next;
+        rows.add(row);
+        if (length >= minLength) {
+          size = saturatedAdd(size, row[initialState]);
+        }
+      }
+      if (size == 0) {
+        throw new RuntimeException(String.format(
+            "Cannot generate unique strings for regex '%s': it matches no strings of the given "
+                + "length",
+            regex
+        ));
+      }
+      this.completions = rows.toArray(new long[rows.size()][]);
+      this.size = size;
+    }
+
+    /**
+     * @return How many strings are ranked.
+     */
+    long size() {
+      return size;
+    }
+
+    /**
+     * @param rank The rank of a string, from zero up to {@link #size()}.
+     * @return The string with that rank.
+     */
+    String get(long rank) {
+      int length = minLength;
+      while (rank >= completions[length][initialState]) {
+        rank -= completions[length][initialState];
+        length++;
+      }
+      char[] result = new char[length];
+      int state = initialState;
+      for (int position = 0; position < length; position++) {
+        long[] remaining = completions[length - position - 1];
+        int[] stateTransitions = transitions[state];
+        for (int i = 0; ; i += 3) {
+          long each = remaining[stateTransitions[i + 2]];
+          if (each == 0) {
+            continue;
+          }
+          long characters = stateTransitions[i + 1] - stateTransitions[i] + 1;
+          long block = saturatedMultiply(characters, each);
+          if (rank < block) {
+            result[position] = (char) (stateTransitions[i] + rank / each);
+            rank %= each;
+            state = stateTransitions[i + 2];
+            break;
+          }
+          rank -= block;
+        }
+      }
+      return new String(result);
+    }
+  }
+}
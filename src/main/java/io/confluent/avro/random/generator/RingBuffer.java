@@ -0,0 +1,220 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, single-producer/single-consumer queue of preallocated slots that are reused for the
+ * lifetime of the buffer. The producer {@link #claim() claims} a free slot, fills it and
+ * {@link #publish() publishes} it; the consumer {@link #take() takes} the oldest published slot,
+ * drains it and {@link #release() releases} it back to the producer. A full buffer makes the
+ * producer wait (backpressure) and an empty one makes the consumer wait; the time each side
+ * spends waiting is recorded.
+ * @param <T> The type of the slots.
+ */
+final class RingBuffer<T> {
+
+  private static final int SPINS_BEFORE_PARKING = 100;
+  private static final long PARK_NANOS = 20_000;
+
+  private final Object[] slots;
+  private final int mask;
+  // The position of the next slot to be taken, written only by the consumer
+  private final AtomicLong head;
+  // The position of the next slot to be claimed, written only by the producer
+  private final AtomicLong tail;
+  private volatile boolean closed;
+  private volatile Throwable failure;
+
+  // Written only by the producer
+  private long producerStallNanos;
+  private long occupancyTotal;
+  private long occupancySamples;
+  // Written only by the consumer
+  private long consumerStallNanos;
+
+  /**
+   * @param capacity The number of slots; must be a power of two.
+   * @param slotFactory Creates each of the slots up front.
+   */
+  RingBuffer(int capacity, Supplier<T> slotFactory) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Ring buffer capacity must be a power of two");
+    }
+    this.slots = new Object[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = slotFactory.get();
+    }
+    this.mask = capacity - 1;
+    this.head = new AtomicLong();
+    this.tail = new AtomicLong();
+    this.closed = false;
+    this.failure = null;
+  }
+
+  /**
+   * Waits for a free slot and returns it; must be followed by {@link #publish()}.
+   * @return The slot to fill.
+   */
+  T claim() {
+    long position = tail.get();
+    if (position - head.get() > mask) {
+      long stallStart = System.nanoTime();
+      int spins = 0;
+      while (position - head.get() > mask) {
+        checkFailure();
+        spins = backOff(spins);
+      }
+      producerStallNanos += System.nanoTime() - stallStart;
+    }
+    occupancyTotal += position - head.get();
+    occupancySamples++;
+    return slot(position);
+  }
+
+  /**
+   * Makes the most recently claimed slot available to the consumer.
+   */
+  void publish() {
+    checkFailure();
+    tail.lazySet(tail.get() + 1);
+  }
+
+  /**
+   * Signals that the producer will not publish any more slots.
+   */
+  void close() {
+    closed = true;
+  }
+
+  /**
+   * Waits for a published slot and returns it; must be followed by {@link #release()}.
+   * @return The oldest published slot, or null if the buffer has been closed and drained.
+   */
+  T take() {
+    long position = head.get();
+    if (position == tail.get()) {
+      long stallStart = System.nanoTime();
+      int spins = 0;
+      while (position == tail.get()) {
+        checkFailure();
+        // Check closed before re-reading the tail, so that a final publish isn't missed
+        if (closed && position == tail.get()) {
+          consumerStallNanos += System.nanoTime() - stallStart;
+          return null;
+        }
+        spins = backOff(spins);
+      }
+      consumerStallNanos += System.nanoTime() - stallStart;
+    }
+    return slot(position);
+  }
+
+  /**
+   * Returns a slot published after the most recently taken one, without waiting for it, so that
+   * the consumer can drain several slots at once; they're handed back along with the taken one by
+   * {@link #release(int)}.
+   * @param ahead How far after the most recently taken slot to look; must be positive.
+   * @return That slot, or null if it hasn't been published yet.
+   */
+  T peek(int ahead) {
+    long position = head.get() + ahead;
+    return position < tail.get() ? slot(position) : null;
+  }
+
+  /**
+   * Hands the most recently taken slot back to the producer.
+   */
+  void release() {
+    release(1);
+  }
+
+  /**
+   * Hands the most recently taken slot and the given number of slots from it, counting it, back to
+   * the producer.
+   * @param count The number of slots to hand back; one more than the furthest slot peeked at.
+   */
+  void release(int count) {
+    head.lazySet(head.get() + count);
+  }
+
+  /**
+   * Makes any current or future wait on either side of the buffer throw an
+   * {@link AbortedException} with the given cause.
+   * @param cause The reason the pipeline using this buffer is being torn down.
+   */
+  void abort(Throwable cause) {
+    failure = cause;
+  }
+
+  int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * @return The number of slots published but not yet released; safe to call from any thread,
+   *     though the answer may already be out of date.
+   */
+  int backlog() {
+    long position = head.get();
+    return (int) Math.max(0, tail.get() - position);
+  }
+
+  long producerStallNanos() {
+    return producerStallNanos;
+  }
+
+  long consumerStallNanos() {
+    return consumerStallNanos;
+  }
+
+  /**
+   * @return The fraction of slots that were in use, averaged over every claim.
+   */
+  double averageOccupancy() {
+    return occupancySamples == 0
+        ? 0.0
+        : (double) occupancyTotal / occupancySamples / slots.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T slot(long position) {
+    return (T) slots[(int) position & mask];
+  }
+
+  private void checkFailure() {
+    Throwable cause = failure;
+    if (cause != null) {
+      throw new AbortedException(cause);
+    }
+  }
+
+  private static int backOff(int spins) {
+    if (spins < SPINS_BEFORE_PARKING) {
+      Thread.yield();
+      return spins + 1;
+    }
+    LockSupport.parkNanos(PARK_NANOS);
+    return spins;
+  }
+
+  /**
+   * Thrown out of a wait on a buffer once the pipeline using it has been
+   * {@link #abort(Throwable) aborted}.
+   */
+  static final class AbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    AbortedException(Throwable cause) {
+      super(cause);
+    }
+  }
+}
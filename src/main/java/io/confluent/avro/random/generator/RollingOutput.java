@@ -0,0 +1,215 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * An output that may be rotated through a series of files. To keep rotation from stalling the
+ * writer, the next file is opened ahead of time and each finished file is closed in the
+ * background.
+ */
+final class RollingOutput implements Closeable {
+
+  private final File file;
+  private final LongFunction<String> fileNames;
+  private final UnaryOperator<OutputStream> streams;
+  private final ExecutorService background;
+  private final List<Future<?>> pendingCloses;
+  private OutputStream current;
+  private Future<OutputStream> next;
+  private long sequence;
+
+  private RollingOutput(OutputStream current, File file) {
+    this.file = file;
+    this.fileNames = null;
+    this.streams = null;
+    this.background = null;
+    this.pendingCloses = new ArrayList<>();
+    this.current = current;
+    this.next = null;
+    this.sequence = 0;
+  }
+
+  private RollingOutput(LongFunction<String> fileNames, UnaryOperator<OutputStream> streams)
+      throws IOException {
+    this.file = null;
+    this.fileNames = fileNames;
+    this.streams = streams;
+    this.background = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "arg-roll");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pendingCloses = new ArrayList<>();
+    this.current = streams.apply(new FileOutputStream(fileNames.apply(0)));
+    this.sequence = 0;
+    this.next = openNext();
+  }
+
+  /**
+   * @param output The stream to write to.
+   * @return An output that always writes to the given stream and cannot be rolled.
+   */
+  static RollingOutput of(OutputStream output) {
+    return new RollingOutput(output, null);
+  }
+
+  /**
+   * @param file The file to write to.
+   * @param streams Wraps the stream of the file once it's opened, for example to compress it.
+   * @return An output that always writes to the given file and cannot be rolled.
+   * @throws IOException if the file cannot be opened.
+   */
+  static RollingOutput file(File file, UnaryOperator<OutputStream> streams) throws IOException {
+    return new RollingOutput(streams.apply(new FileOutputStream(file)), file);
+  }
+
+  /**
+   * @param fileNames Gives the name of each file in the series, starting from zero.
+   * @return An output that starts with the first file in the series and moves on to the next one
+   *     each time it's rolled.
+   * @throws IOException if the first file cannot be opened.
+   */
+  static RollingOutput files(LongFunction<String> fileNames) throws IOException {
+    return new RollingOutput(fileNames, UnaryOperator.identity());
+  }
+
+  /**
+   * @param fileNames Gives the name of each file in the series, starting from zero.
+   * @param streams Wraps the stream of each file as it's opened, for example to compress it.
+   * @return An output that starts with the first file in the series and moves on to the next one
+   *     each time it's rolled, writing to each through its wrapped stream.
+   * @throws IOException if the first file cannot be opened.
+   */
+  static RollingOutput files(LongFunction<String> fileNames, UnaryOperator<OutputStream> streams)
+      throws IOException {
+    return new RollingOutput(fileNames, streams);
+  }
+
+  /**
+   * @return The stream currently being written to.
+   */
+  OutputStream current() {
+    return current;
+  }
+
+  /**
+   * Finishes the current file and moves on to the next one.
+   * @throws IOException if the next file could not be opened, or an earlier file failed to close.
+   */
+  void roll() throws IOException {
+    if (fileNames == null) {
+      throw new IllegalStateException("Output is not a series of files and cannot be rolled");
+    }
+    checkPendingCloses();
+    OutputStream finished = current;
+    current = await(next);
+    pendingCloses.add(background.submit(() -> {
+      finished.close();
+      return null;
+    }));
+    next = openNext();
+  }
+
+  /**
+   * Closes the current file and waits for any earlier ones to finish closing. The file that was
+   * opened ahead of time for the next roll is never written to, so it is deleted.
+   * @throws IOException if any file failed to close.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      current.close();
+      if (next != null) {
+        await(next).close();
+        File unused = new File(fileNames.apply(sequence));
+        if (!unused.delete()) {
+          throw new IOException("Unable to delete unused output file " + unused);
+        }
+      }
+      for (Future<?> pendingClose : pendingCloses) {
+        await(pendingClose);
+      }
+    } finally {
+      if (background != null) {
+        background.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Closes the output after a failed run and deletes the file it was writing to, which may end in
+   * the middle of a record; files it had already rolled past are complete, and are kept. An output
+   * that isn't a file, such as standard output, is only closed.
+   */
+  void discard() {
+    try {
+      close();
+    } catch (IOException ioe) {
+      // The file is about to be deleted anyway
+    }
+    File unfinished = fileNames != null ? new File(fileNames.apply(sequence - 1)) : file;
+    if (unfinished != null) {
+      unfinished.delete();
+    }
+  }
+
+  private Future<OutputStream> openNext() {
+    String fileName = fileNames.apply(++sequence);
+    return background.submit(() -> streams.apply(new FileOutputStream(fileName)));
+  }
+
+  private void checkPendingCloses() throws IOException {
+    List<Future<?>> finished = new ArrayList<>();
+    for (Future<?> pendingClose : pendingCloses) {
+      if (pendingClose.isDone()) {
+        await(pendingClose);
+        finished.add(pendingClose);
+      }
+    }
+    pendingCloses.removeAll(finished);
+  }
+
+  // Waits for a task, rethrowing whatever it failed with as an IOException
+  static <T> T await(Future<T> future) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException interruptedException) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException executionException) {
+      Throwable cause = executionException.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
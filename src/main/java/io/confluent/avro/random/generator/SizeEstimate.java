@@ -0,0 +1,197 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.util.List;
+
+/**
+ * The expected size of a randomly generated value once it's encoded, along with how much that
+ * size varies from one value to the next. Estimates of independent values add up, so the estimate
+ * for a record is built up from the estimates for its fields, and the estimate for a run of n
+ * records has n times the mean and n times the variance of a single one.
+ */
+public final class SizeEstimate {
+
+  static final SizeEstimate ZERO = new SizeEstimate(0.0, 0.0, true);
+
+  // Avro's variable-length zig-zag encoding holds 7 bits per byte, so a long takes up to 10
+  private static final int MAX_VARINT_BYTES = 10;
+
+  private final double mean;
+  private final double variance;
+  private final boolean exact;
+
+  private SizeEstimate(double mean, double variance, boolean exact) {
+    this.mean = mean;
+    this.variance = Math.max(variance, 0.0);
+    this.exact = exact;
+  }
+
+  /**
+   * @return The expected number of bytes.
+   */
+  public double mean() {
+    return mean;
+  }
+
+  /**
+   * @return The variance of the number of bytes.
+   */
+  public double variance() {
+    return variance;
+  }
+
+  /**
+   * @return The standard deviation of the number of bytes.
+   */
+  public double standardDeviation() {
+    return Math.sqrt(variance);
+  }
+
+  /**
+   * @return Whether the estimate follows exactly from the schema and its annotations; if not,
+   *     something about how values are generated (such as a regex, or a per-record element budget)
+   *     could only be approximated, and the actual sizes may differ.
+   */
+  public boolean exact() {
+    return exact;
+  }
+
+  /**
+   * @param count A number of independent values.
+   * @return The estimate for the total size of that many values.
+   */
+  public SizeEstimate times(double count) {
+    return new SizeEstimate(mean * count, variance * count, exact);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s%.1f bytes (standard deviation %.1f)",
+        exact ? "" : "about ",
+        mean,
+        standardDeviation()
+    );
+  }
+
+  static SizeEstimate constant(double bytes) {
+    return new SizeEstimate(bytes, 0.0, true);
+  }
+
+  // For sizes that are known from having actually encoded every value there will be
+  static SizeEstimate measured(double mean, double variance) {
+    return new SizeEstimate(mean, variance, true);
+  }
+
+  SizeEstimate plus(SizeEstimate other) {
+    return new SizeEstimate(mean + other.mean, variance + other.variance, exact && other.exact);
+  }
+
+  SizeEstimate approximate() {
+    return exact ? new SizeEstimate(mean, variance, false) : this;
+  }
+
+  /**
+   * @param probability How likely the value is to be there at all.
+   * @return The estimate for a value that's only there some of the time, and takes up no space
+   *     otherwise.
+   */
+  SizeEstimate sometimes(double probability) {
+    double secondMoment = probability * (variance + mean * mean);
+    double result = probability * mean;
+    return new SizeEstimate(result, secondMoment - result * result, exact);
+  }
+
+  /**
+   * @param options Estimates for values, any one of which is picked with equal probability.
+   * @return The estimate for the picked value.
+   */
+  static SizeEstimate uniformChoice(List<SizeEstimate> options) {
+    double mean = 0.0;
+    double secondMoment = 0.0;
+    boolean exact = true;
+    for (SizeEstimate option : options) {
+      mean += option.mean;
+      secondMoment += option.variance + option.mean * option.mean;
+      exact &= option.exact;
+    }
+    mean /= options.size();
+    secondMoment /= options.size();
+    return new SizeEstimate(mean, secondMoment - mean * mean, exact);
+  }
+
+  /**
+   * @param minCount The (inclusive) minimum number of values.
+   * @param maxCount The (exclusive) maximum number of values; all counts in between are equally
+   *     likely.
+   * @return The estimate for the total size of that many independent values like this one.
+   */
+  SizeEstimate repeated(long minCount, long maxCount) {
+    double count = (minCount + maxCount - 1) / 2.0;
+    double countVariance = uniformVariance(maxCount - minCount);
+    return new SizeEstimate(
+        count * mean,
+        count * variance + countVariance * mean * mean,
+        exact
+    );
+  }
+
+  /**
+   * @param min The (inclusive) minimum value.
+   * @param max The (exclusive) maximum value; all values in between are equally likely.
+   * @return The estimate for a value encoded as a zig-zag variable-length integer.
+   */
+  static SizeEstimate varint(double min, double max) {
+    double count = max - min;
+    double mean = 0.0;
+    double secondMoment = 0.0;
+    double previous = 0.0;
+    for (int bytes = 1; bytes <= MAX_VARINT_BYTES; bytes++) {
+      // Zig-zag encoding interleaves positive and negative values, so everything in
+      // [-2^(7b - 1), 2^(7b - 1)) fits in b bytes
+      double bound = Math.scalb(1.0, 7 * bytes - 1);
+      double fitting = overlap(min, max, -bound, bound);
+      double probability = (fitting - previous) / count;
+      mean += probability * bytes;
+      secondMoment += probability * bytes * bytes;
+      previous = fitting;
+    }
+    return new SizeEstimate(mean, secondMoment - mean * mean, true);
+  }
+
+  /**
+   * @param min The (inclusive) minimum value.
+   * @param max The (exclusive) maximum value; all values in between are equally likely.
+   * @return The estimate for the shortest big-endian two's complement representation of a value.
+   */
+  static SizeEstimate twosComplement(double min, double max) {
+    double count = max - min;
+    double mean = 0.0;
+    double secondMoment = 0.0;
+    double previous = 0.0;
+    for (int bytes = 1; previous < count; bytes++) {
+      double bound = Math.scalb(1.0, 8 * bytes - 1);
+      double fitting = overlap(min, max, -bound, bound);
+      double probability = (fitting - previous) / count;
+      mean += probability * bytes;
+      secondMoment += probability * bytes * bytes;
+      previous = fitting;
+    }
+    return new SizeEstimate(mean, secondMoment - mean * mean, true);
+  }
+
+  private static double overlap(double min, double max, double low, double high) {
+    return Math.max(0.0, Math.min(max, high) - Math.max(min, low));
+  }
+
+  // The variance of a value picked uniformly from n consecutive integers
+  private static double uniformVariance(long count) {
+    return ((double) count * count - 1) / 12.0;
+  }
+}
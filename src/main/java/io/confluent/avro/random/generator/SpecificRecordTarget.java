@@ -0,0 +1,257 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Conversion;
+import org.apache.avro.LogicalType;
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericFixed;
+
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificFixed;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import java.nio.ByteBuffer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The classes a schema's records, enums and fixed values are generated into, when generating
+ * instances of a {@link SpecificRecord} class instead of generic records. Everything that can be
+ * is resolved once up front, so that generating a value costs no more reflection than a lookup by
+ * its schema: records are created through their constructors and filled by field position, with
+ * the logical type conversions their class declares applied to the values of their fields.
+ */
+final class SpecificRecordTarget {
+
+  private static final MethodType RECORD_CONSTRUCTOR = MethodType.methodType(SpecificRecord.class);
+  private static final MethodType FIXED_CONSTRUCTOR = MethodType.methodType(SpecificFixed.class);
+
+  private final SpecificData model;
+  private final Map<Schema, RecordClass> records;
+  private final Map<Schema, Object[]> enums;
+  private final Map<Schema, MethodHandle> fixeds;
+
+  /**
+   * @param recordClass The class to generate instances of.
+   * @param schema The schema of that class, which every value generated must come from.
+   */
+  SpecificRecordTarget(Class<? extends SpecificRecord> recordClass, Schema schema) {
+    this.model = new SpecificData(recordClass.getClassLoader());
+    this.records = new IdentityHashMap<>();
+    this.enums = new IdentityHashMap<>();
+    this.fixeds = new IdentityHashMap<>();
+    resolve(schema);
+  }
+
+  /**
+   * @param schema The schema of the record.
+   * @return The class the record is generated into.
+   */
+  RecordClass recordClass(Schema schema) {
+    return records.get(schema);
+  }
+
+  /**
+   * @param schema The schema of the enum.
+   * @param symbol The position of the symbol among the enum's symbols.
+   * @return The constant of the enum's class for the symbol.
+   */
+  Object enumSymbol(Schema schema, int symbol) {
+    return enums.get(schema)[symbol];
+  }
+
+  /**
+   * @param schema The schema of the fixed value.
+   * @param bytes The bytes of the value, which it takes ownership of.
+   * @return A new instance of the fixed value's class holding the bytes.
+   */
+  Object fixed(Schema schema, byte[] bytes) {
+    SpecificFixed fixed;
+    try {
+      fixed = (SpecificFixed) fixeds.get(schema).invokeExact();
+    } catch (Throwable exception) {
+      throw new RuntimeException(
+          "Failed to create an instance of " + SpecificData.getClassName(schema),
+          exception
+      );
+    }
+    fixed.bytes(bytes);
+    return fixed;
+  }
+
+  /**
+   * @param schema The schema of the value.
+   * @param value A value given by an options annotation, which are parsed into generic records,
+   *     enum symbols and fixed values.
+   * @return A copy of the value made of the classes its schema is generated into.
+   */
+  Object copy(Schema schema, Object value) {
+    switch (schema.getType()) {
+      case ARRAY:
+      case ENUM:
+      case FIXED:
+      case MAP:
+      case RECORD:
+      case UNION:
+        return model.deepCopy(schema, value);
+      default:
+        return value;
+    }
+  }
+
+  private void resolve(Schema schema) {
+    switch (schema.getType()) {
+      case RECORD:
+        if (records.containsKey(schema)) {
+          return;
+        }
+        RecordClass recordClass = new RecordClass(
+            schema,
+            constructor(schema, RECORD_CONSTRUCTOR),
+            new Conversion<?>[schema.getFields().size()]
+        );
+        // Put the record's class before resolving its fields, in case the schema is recursive
+        records.put(schema, recordClass);
+        SpecificRecord prototype = recordClass.newInstance();
+        for (Schema.Field field : schema.getFields()) {
+          if (prototype instanceof SpecificRecordBase && field.schema().getLogicalType() != null) {
+            recordClass.conversions[field.pos()] =
+                ((SpecificRecordBase) prototype).getConversion(field.pos());
+          }
+          resolve(field.schema());
+        }
+        return;
+      case ENUM:
+        Object[] constants = new Object[schema.getEnumSymbols().size()];
+        for (int i = 0; i < constants.length; i++) {
+          constants[i] = model.createEnum(schema.getEnumSymbols().get(i), schema);
+        }
+        enums.put(schema, constants);
+        return;
+      case FIXED:
+        fixeds.put(schema, constructor(schema, FIXED_CONSTRUCTOR));
+        return;
+      case ARRAY:
+        resolve(schema.getElementType());
+        return;
+      case MAP:
+        resolve(schema.getValueType());
+        return;
+      case UNION:
+        for (Schema branch : schema.getTypes()) {
+          resolve(branch);
+        }
+        return;
+      default:
+        // Primitives are generated as the same classes either way
+    }
+  }
+
+  private MethodHandle constructor(Schema schema, MethodType type) {
+    Class<?> schemaClass = model.getClass(schema);
+    if (schemaClass == null || !type.returnType().isAssignableFrom(schemaClass)) {
+      throw new RuntimeException(String.format(
+          "Cannot generate %s values: no %s class named %s was found",
+          schema.getFullName(),
+          type.returnType().getSimpleName(),
+          SpecificData.getClassName(schema)
+      ));
+    }
+    try {
+      return MethodHandles.publicLookup()
+          .findConstructor(schemaClass, MethodType.methodType(void.class))
+          .asType(type);
+    } catch (NoSuchMethodException | IllegalAccessException exception) {
+      throw new RuntimeException(String.format(
+          "Cannot generate %s values: %s has no public no-argument constructor",
+          schema.getFullName(),
+          schemaClass.getName()
+      ), exception);
+    }
+  }
+
+  private static Object convert(Conversion<Object> conversion, Schema schema, Object value) {
+    LogicalType logicalType = schema.getLogicalType();
+    switch (schema.getType()) {
+      case BOOLEAN:
+        return conversion.fromBoolean((Boolean) value, schema, logicalType);
+      case INT:
+        return conversion.fromInt((Integer) value, schema, logicalType);
+      case LONG:
+        return conversion.fromLong((Long) value, schema, logicalType);
+      case FLOAT:
+        return conversion.fromFloat((Float) value, schema, logicalType);
+      case DOUBLE:
+        return conversion.fromDouble((Double) value, schema, logicalType);
+      case STRING:
+        return conversion.fromCharSequence((CharSequence) value, schema, logicalType);
+      case BYTES:
+        return conversion.fromBytes((ByteBuffer) value, schema, logicalType);
+      case FIXED:
+        return conversion.fromFixed((GenericFixed) value, schema, logicalType);
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * The class a record schema is generated into.
+   */
+  static final class RecordClass {
+    private final Schema schema;
+    private final MethodHandle constructor;
+    // Indexed by field position; null for fields whose values are set as generated
+    private final Conversion<?>[] conversions;
+
+    private RecordClass(Schema schema, MethodHandle constructor, Conversion<?>[] conversions) {
+      this.schema = schema;
+      this.constructor = constructor;
+      this.conversions = conversions;
+    }
+
+    /**
+     * @return A new, empty instance of the class, to be filled in with
+     *     {@link #put(SpecificRecord, Schema.Field, Object)}.
+     */
+    SpecificRecord newInstance() {
+      try {
+        return (SpecificRecord) constructor.invokeExact();
+      } catch (Throwable exception) {
+        throw new RuntimeException(
+            "Failed to create an instance of " + SpecificData.getClassName(schema),
+            exception
+        );
+      }
+    }
+
+    /**
+     * Sets a field of an instance of the class.
+     * @param record The instance.
+     * @param field The field to set, from the schema of the class.
+     * @param value The value to set it to, as generated for the field's schema; if the class
+     *     converts the field's logical type, the value is converted first.
+     */
+    @SuppressWarnings("unchecked")
+    void put(SpecificRecord record, Schema.Field field, Object value) {
+      Conversion<Object> conversion = (Conversion<Object>) conversions[field.pos()];
+      if (conversion != null && value != null) {
+        value = convert(conversion, field.schema(), value);
+      }
+      record.put(field.pos(), value);
+    }
+  }
+
+}
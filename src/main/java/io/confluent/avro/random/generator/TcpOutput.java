@@ -0,0 +1,193 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends output over a TCP connection. It's a {@link GatheringByteChannel} as well as an
+ * {@link OutputStream}, so that several batches of encoded records can be handed to the kernel in
+ * a single write.
+ *
+ * <p>If the connection can't be made or breaks, it's made again after a delay that doubles with
+ * each failure in a row, from {@value #MIN_BACKOFF_MILLIS} ms up to {@value #MAX_BACKOFF_MILLIS}
+ * ms; a write that was cut short by a broken connection is sent again in full over the new one.
+ * Writes start on a record boundary (unless a record was too large to be written in one piece), so
+ * the new connection does too. TCP doesn't tell the sender how much of what it sent was received,
+ * though, so records still in flight when a connection breaks may be lost, and records from the
+ * write that was cut short may be received twice. Only once the connection has been failing for
+ * {@value #GIVE_UP_SECONDS} seconds straight does a write give up and throw.
+ */
+final class TcpOutput extends OutputStream implements GatheringByteChannel {
+
+  static final long MIN_BACKOFF_MILLIS = 100;
+  static final long MAX_BACKOFF_MILLIS = 5000;
+  static final long GIVE_UP_SECONDS = 60;
+
+  private final InetSocketAddress address;
+  private SocketChannel channel;
+  private boolean closed;
+
+  /**
+   * Connects to a receiver, retrying as a broken connection would be.
+   * @param address The address of the receiver.
+   * @throws IOException if no connection could be made before giving up.
+   */
+  TcpOutput(InetSocketAddress address) throws IOException {
+    this.address = address;
+    this.channel = null;
+    this.closed = false;
+    reconnect(null);
+  }
+
+  @Override
+  public void write(int value) throws IOException {
+    write(new byte[] {(byte) value}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    write(new ByteBuffer[] {ByteBuffer.wrap(buffer, offset, length)});
+  }
+
+  @Override
+  public int write(ByteBuffer source) throws IOException {
+    return (int) write(new ByteBuffer[] {source});
+  }
+
+  @Override
+  public long write(ByteBuffer[] sources) throws IOException {
+    return write(sources, 0, sources.length);
+  }
+
+  /**
+   * Writes every byte remaining in the buffers, reconnecting as often as it takes.
+   */
+  @Override
+  public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+    int[] positions = new int[length];
+    long total = 0;
+    for (int i = 0; i < length; i++) {
+      positions[i] = sources[offset + i].position();
+      total += sources[offset + i].remaining();
+    }
+    while (true) {
+      try {
+        long written = 0;
+        while (written < total) {
+          written += channel.write(sources, offset, length);
+        }
+        return total;
+      } catch (IOException exception) {
+        if (closed) {
+          throw exception;
+        }
+        // Start over from the record boundary the write started on
+        for (int i = 0; i < length; i++) {
+          sources[offset + i].position(positions[i]);
+        }
+        reconnect(exception);
+      }
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Shuts down the sending side of the connection, so that the receiver sees the end of the
+   * stream, and then closes it.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      channel.shutdownOutput();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void reconnect(IOException cause) throws IOException {
+    if (channel != null) {
+      closeQuietly(channel);
+      channel = null;
+    }
+    long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(GIVE_UP_SECONDS);
+    long backoffMillis = MIN_BACKOFF_MILLIS;
+    IOException failure = cause;
+    while (true) {
+      // Delay only reconnections, not the first connection
+      if (failure != null) {
+        if (System.nanoTime() - giveUp >= 0) {
+          throw new IOException(
+              String.format("Unable to connect to %s", address),
+              failure
+          );
+        }
+        sleep(backoffMillis);
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+      }
+      try {
+        channel = connect();
+        return;
+      } catch (IOException | UnresolvedAddressException exception) {
+        failure = exception instanceof IOException
+            ? (IOException) exception
+            : new IOException("Unable to resolve " + address.getHostString(), exception);
+      }
+    }
+  }
+
+  private SocketChannel connect() throws IOException {
+    // An address that couldn't be resolved is looked up again, in case it's only just appeared
+    InetSocketAddress target = address.isUnresolved()
+        ? new InetSocketAddress(address.getHostString(), address.getPort())
+        : address;
+    SocketChannel result = SocketChannel.open();
+    try {
+      // Batches are large, and the last one shouldn't wait for an acknowledgement
+      result.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      result.connect(target);
+      return result;
+    } catch (IOException | RuntimeException exception) {
+      closeQuietly(result);
+      throw exception;
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ioe) {
+      // It's being replaced anyway
+    }
+  }
+
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reconnecting");
+    }
+  }
+}
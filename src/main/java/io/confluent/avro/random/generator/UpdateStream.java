@@ -0,0 +1,229 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a stream of updates to a bounded set of entities, the way a change data capture feed
+ * would see them. Each entity is a record whose identity is the top-level field marked with
+ * {@link Generator#ENTITY_KEY_PROP}; every record output is the latest state of one entity, picked
+ * at random. An entity seen for the first time is generated whole; after that, a few of its other
+ * top-level fields are generated afresh and the rest of it is kept as it was, along with any
+ * fields that are {@link RecordCorpus refreshed}, which change with every update.
+ *
+ * <p>Only the entity key and the set of entities are tracked here; the generator's own state
+ * (iteration counters and the like) carries on from one update to the next as it would from one
+ * record to the next.
+ */
+final class UpdateStream {
+
+  private final Generator generator;
+  private final Schema schema;
+  private final Random random;
+  private final int mutations;
+  private final GenericData.Record[] entities;
+  // The top-level fields an update may pick to change, and those it always changes
+  private final int[] mutableFields;
+  private final int[] refreshedFields;
+  private final Schema[] schemas;
+  private final Object[] values;
+
+  /**
+   * @param generator The generator to generate the entities and their changes with; it must produce
+   *     records, and nothing else may use it while this stream does.
+   * @param entities How many entities to keep track of.
+   * @param mutations How many fields to change in each update, not counting refreshed ones; clamped
+   *     to the number of fields other than the entity key.
+   * @param random Decides which entity each update is to, and which of its fields change.
+   */
+  UpdateStream(Generator generator, int entities, int mutations, Random random) {
+    this.generator = generator;
+    this.schema = generator.schema();
+    this.random = random;
+    this.entities = new GenericData.Record[entities];
+
+    if (schema.getType() != Schema.Type.RECORD) {
+      throw new RuntimeException(String.format(
+          "Cannot generate updates to %s values: only records can be updated",
+          schema.getType().getName()
+      ));
+    }
+    List<Schema.Field> fields = schema.getFields();
+    int keyField = -1;
+    List<Integer> mutable = new ArrayList<>();
+    List<Integer> refreshed = new ArrayList<>();
+    for (Schema.Field field : fields) {
+      if (isEntityKey(field)) {
+        if (keyField >= 0) {
+          throw new RuntimeException(String.format(
+              "Cannot generate updates: both '%s' and '%s' are marked as the entity key",
+              fields.get(keyField).name(),
+              field.name()
+          ));
+        }
+        keyField = field.pos();
+      } else if (RecordCorpus.isRefreshed(field.schema())) {
+        refreshed.add(field.pos());
+      } else {
+        mutable.add(field.pos());
+      }
+    }
+    if (keyField < 0) {
+      throw new RuntimeException(String.format(
+          "Cannot generate updates: no field of %s has a %s property",
+          schema.getFullName(),
+          Generator.ENTITY_KEY_PROP
+      ));
+    }
+    this.mutableFields = toArray(mutable);
+    this.refreshedFields = toArray(refreshed);
+    this.mutations = Math.min(mutations, mutableFields.length);
+    this.schemas = new Schema[this.mutations + refreshedFields.length];
+    this.values = new Object[schemas.length];
+  }
+
+  /**
+   * @return The next update: the new state of one of the entities, as an {@link Update}.
+   */
+  Object next() {
+    int entity = random.nextInt(entities.length);
+    GenericData.Record record = entities[entity];
+    BitSet changed = new BitSet(schema.getFields().size());
+    if (record == null) {
+      record = (GenericData.Record) generator.generate();
+      entities[entity] = record;
+      changed.set(0, schema.getFields().size());
+      return new Update(record, entity, changed);
+    }
+
+    // Pick the fields to change with a partial Fisher-Yates shuffle; they're generated in the order
+    // they appear in the record, as they would be in a whole one
+    for (int i = 0; i < mutations; i++) {
+      int pick = i + random.nextInt(mutableFields.length - i);
+      int field = mutableFields[pick];
+      mutableFields[pick] = mutableFields[i];
+      mutableFields[i] = field;
+      changed.set(field);
+    }
+    for (int field : refreshedFields) {
+      changed.set(field);
+    }
+    List<Schema.Field> fields = schema.getFields();
+    int count = 0;
+    for (int field = changed.nextSetBit(0); field >= 0; field = changed.nextSetBit(field + 1)) {
+      schemas[count++] = fields.get(field).schema();
+    }
+    generator.generateValues(schemas, -1, values);
+    count = 0;
+    for (int field = changed.nextSetBit(0); field >= 0; field = changed.nextSetBit(field + 1)) {
+      record.put(field, values[count]);
+      values[count++] = null;
+    }
+    return new Update(record, entity, changed);
+  }
+
+  /**
+   * @return A factory for encoders that encode updates in the Avro binary encoding, reusing the
+   *     encoded bytes of every field an update didn't change. The encoders share what they've
+   *     encoded, so they must all be used from one thread, and see the updates in the order they
+   *     were generated.
+   */
+  RecordEncoder.Factory binaryEncoderFactory() {
+    List<Schema.Field> fields = schema.getFields();
+    final List<GenericDatumWriter<Object>> writers = new ArrayList<>(fields.size());
+    for (Schema.Field field : fields) {
+      writers.add(new GenericDatumWriter<>(field.schema()));
+    }
+    final byte[][][] encoded = new byte[entities.length][][];
+    final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+    final BinaryEncoder scratchEncoder = EncoderFactory.get().directBinaryEncoder(scratch, null);
+    return output -> new RecordEncoder() {
+      @Override
+      public void write(Object record) throws IOException {
+        Update update = (Update) record;
+        byte[][] cached = encoded[update.entity];
+        if (cached == null) {
+          cached = new byte[writers.size()][];
+          encoded[update.entity] = cached;
+        }
+        for (int field = 0; field < cached.length; field++) {
+          if (cached[field] == null || update.changed.get(field)) {
+            scratch.reset();
+            writers.get(field).write(update.get(field), scratchEncoder);
+            cached[field] = scratch.toByteArray();
+          }
+          output.write(cached[field]);
+        }
+      }
+
+      @Override
+      public void flush() {
+        // Every field is written to the output as soon as it's encoded
+      }
+    };
+  }
+
+  private static boolean isEntityKey(Schema.Field field) {
+    Object propertiesProp = field.schema().getObjectProp(Generator.ARG_PROPERTIES_PROP);
+    if (!(propertiesProp instanceof Map)) {
+      return false;
+    }
+    Object entityKeyProp = ((Map) propertiesProp).get(Generator.ENTITY_KEY_PROP);
+    if (entityKeyProp == null) {
+      return false;
+    }
+    if (!(entityKeyProp instanceof Boolean)) {
+      throw new RuntimeException(String.format(
+          "%s property must be given as a boolean, was %s instead",
+          Generator.ENTITY_KEY_PROP,
+          entityKeyProp.getClass().getName()
+      ));
+    }
+    return (Boolean) entityKeyProp;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * The state of an entity as of one update. A copy of the entity's record at the time, so it
+   * stays as it was while later updates to the same entity are generated, and can be encoded and
+   * partitioned like any other record.
+   */
+  static final class Update extends GenericData.Record {
+    final int entity;
+    final BitSet changed;
+
+    private Update(GenericData.Record record, int entity, BitSet changed) {
+      super(record, false);
+      this.entity = entity;
+      this.changed = changed;
+    }
+  }
+
+}
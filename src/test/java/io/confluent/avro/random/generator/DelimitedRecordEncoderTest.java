@@ -0,0 +1,71 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class DelimitedRecordEncoderTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"prices\", \"fields\": ["
+          + "{\"name\": \"price\", \"type\": {\"type\": \"bytes\", \"logicalType\": \"decimal\", "
+          + "\"precision\": 6, \"scale\": 2}}, "
+          + "{\"name\": \"discount\", \"type\": [\"null\", {\"type\": \"fixed\", \"name\": \"d\", "
+          + "\"size\": 4, \"logicalType\": \"decimal\", \"precision\": 8, \"scale\": 3}]}, "
+          + "{\"name\": \"history\", \"type\": {\"type\": \"array\", \"items\": {\"type\": "
+          + "\"bytes\", \"logicalType\": \"decimal\", \"precision\": 4, \"scale\": 4}}}, "
+          + "{\"name\": \"raw\", \"type\": \"bytes\"}"
+          + "]}"
+  );
+
+  @Test
+  public void decimalsAreWrittenAsNumbers() throws IOException {
+    GenericRecord record = new GenericData.Record(SCHEMA);
+    record.put("price", unscaled(-123456));
+    record.put("discount", new GenericData.Fixed(
+        SCHEMA.getField("discount").schema().getTypes().get(1),
+        new byte[] {0, 0, 0, 5}
+    ));
+    record.put("history", Arrays.asList(unscaled(1), unscaled(-2500)));
+    record.put("raw", ByteBuffer.wrap(new byte[] {'A', 'B'}));
+
+    Assert.assertEquals(
+        "price,discount,history,raw\n-1234.56,0.005,\"[0.0001,-0.2500]\",AB",
+        encode(DelimitedRecordEncoder.csv(SCHEMA, true), record)
+    );
+    Assert.assertEquals(
+        "-1234.56\t0.005\t[0.0001,-0.2500]\tAB",
+        encode(DelimitedRecordEncoder.tsv(SCHEMA, false), record)
+    );
+  }
+
+  private static ByteBuffer unscaled(long value) {
+    return ByteBuffer.wrap(BigInteger.valueOf(value).toByteArray());
+  }
+
+  private static String encode(RecordEncoder.Factory factory, Object record) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordEncoder encoder = factory.create(output);
+    encoder.write(record);
+    encoder.flush();
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+public class FeistelPermutationTest {
+
+  // Mostly sizes that aren't powers of four, so that images have to be cycle walked back into the
+  // domain, along with the smallest domains and a few that are
+  private static final long[] SIZES = {1, 2, 3, 4, 5, 7, 10, 16, 17, 100, 255, 1000, 1025, 4097};
+  private static final long[] KEYS = {0, 1, 42, -1};
+
+  @Test
+  public void permutationIsBijection() {
+    for (long size : SIZES) {
+      for (long key : KEYS) {
+        FeistelPermutation permutation = new FeistelPermutation(size, key);
+        BitSet images = new BitSet((int) size);
+        for (long value = 0; value < size; value++) {
+          long image = permutation.permute(value);
+          String description = String.format("size %d, key %d, value %d", size, key, value);
+          Assert.assertTrue(description, image >= 0 && image < size);
+          Assert.assertFalse(description + " collides", images.get((int) image));
+          images.set((int) image);
+        }
+        Assert.assertEquals(size, images.cardinality());
+      }
+    }
+  }
+
+  @Test
+  public void permutationDependsOnKey() {
+    FeistelPermutation first = new FeistelPermutation(1000, 1);
+    FeistelPermutation second = new FeistelPermutation(1000, 2);
+    boolean differs = false;
+    for (long value = 0; value < 1000 && !differs; value++) {
+      differs = first.permute(value) != second.permute(value);
+    }
+    Assert.assertTrue(differs);
+    Assert.assertEquals(first.permute(123), new FeistelPermutation(1000, 1).permute(123));
+  }
+
+  @Test
+  public void wholeRangeOfLongNeverRepeats() {
+    FeistelPermutation permutation = new FeistelPermutation(0, 42);
+    Set<Long> images = new HashSet<>();
+    for (long value = 0; value < 10000; value++) {
+      Assert.assertTrue(images.add(permutation.permute(value)));
+      Assert.assertTrue(images.add(permutation.permute(-1 - value)));
+    }
+  }
+}
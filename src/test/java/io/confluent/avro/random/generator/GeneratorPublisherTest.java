@@ -0,0 +1,169 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumReader;
+
+import org.apache.avro.io.DecoderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+public class GeneratorPublisherTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"long\"}, "
+          + "{\"name\": \"name\", \"type\": \"string\"}"
+          + "]}"
+  );
+
+  // Runs tasks only when told to, so that the test decides when records are generated
+  private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+  @Test
+  public void recordsAreOnlyGeneratedOnDemand() {
+    RecordingSubscriber<Object> subscriber = new RecordingSubscriber<>();
+    GeneratorPublisher.records(generator(), tasks::add).batchSize(2).subscribe(subscriber);
+    runTasks();
+    Assert.assertTrue(subscriber.items.isEmpty());
+
+    subscriber.subscription.request(3);
+    // Nothing is generated on the requesting thread
+    Assert.assertTrue(subscriber.items.isEmpty());
+    runTasks();
+    Assert.assertEquals(3, subscriber.items.size());
+
+    subscriber.subscription.request(5);
+    runTasks();
+    Assert.assertEquals(expected(8), subscriber.items);
+    Assert.assertFalse(subscriber.completed);
+    Assert.assertNull(subscriber.error);
+  }
+
+  @Test
+  public void cancellingStopsDelivery() {
+    RecordingSubscriber<Object> subscriber = new RecordingSubscriber<>();
+    subscriber.cancelAfter = 10;
+    GeneratorPublisher.records(generator(), tasks::add).batchSize(4).subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    runTasks();
+    Assert.assertEquals(expected(10), subscriber.items);
+    Assert.assertFalse(subscriber.completed);
+    // Requests after cancelling are ignored
+    subscriber.subscription.request(1);
+    runTasks();
+    Assert.assertEquals(10, subscriber.items.size());
+  }
+
+  @Test
+  public void subscriptionsCompleteAfterMaxRecords() {
+    RecordingSubscriber<Object> subscriber = new RecordingSubscriber<>();
+    GeneratorPublisher.records(generator(), tasks::add).maxRecords(5).subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    runTasks();
+    Assert.assertEquals(expected(5), subscriber.items);
+    Assert.assertTrue(subscriber.completed);
+
+    RecordingSubscriber<Object> empty = new RecordingSubscriber<>();
+    GeneratorPublisher.records(generator(), tasks::add).maxRecords(0).subscribe(empty);
+    runTasks();
+    Assert.assertTrue(empty.completed);
+  }
+
+  @Test
+  public void nonPositiveRequestsAreErrors() {
+    RecordingSubscriber<Object> subscriber = new RecordingSubscriber<>();
+    GeneratorPublisher.records(generator(), tasks::add).subscribe(subscriber);
+    subscriber.subscription.request(0);
+    runTasks();
+    Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    Assert.assertTrue(subscriber.items.isEmpty());
+  }
+
+  @Test
+  public void binaryItemsDecodeToTheGeneratedRecords() throws IOException {
+    RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<>();
+    GeneratorPublisher.binary(generator(), tasks::add).subscribe(subscriber);
+    subscriber.subscription.request(20);
+    runTasks();
+    List<Object> decoded = new ArrayList<>();
+    GenericDatumReader<Object> reader = new GenericDatumReader<>(SCHEMA);
+    for (ByteBuffer item : subscriber.items) {
+      decoded.add(reader.read(null, DecoderFactory.get().binaryDecoder(item.array(), null)));
+    }
+    Assert.assertEquals(expected(20), decoded);
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.poll().run();
+    }
+  }
+
+  private static Generator generator() {
+    return new Generator(SCHEMA, new Random(42));
+  }
+
+  // The records a generator of its own produces, which every subscription should see in turn
+  private static List<Object> expected(int count) {
+    Generator generator = generator();
+    List<Object> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(generator.generate());
+    }
+    return result;
+  }
+
+  private static final class RecordingSubscriber<T> implements Subscriber<T> {
+    final List<T> items = new ArrayList<>();
+    Subscription subscription;
+    int cancelAfter = -1;
+    boolean completed;
+    Throwable error;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      Assert.assertNull(this.subscription);
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T item) {
+      Assert.assertFalse(completed);
+      items.add(item);
+      if (items.size() == cancelAfter) {
+        subscription.cancel();
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      Assert.assertFalse(completed);
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeneratorServerTest {
+
+  private static final String RANDOM_SCHEMA = "test/schemas/primitives.json";
+  private static final String ITERATION_SCHEMA = "test/schemas/iteration.json";
+  private static final int RECORDS = 25;
+  private static final String BAD_RANGE_SCHEMA =
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": [{\"name\": \"f\", \"type\": "
+          + "{\"type\": \"int\", \"arg.properties\": {\"range\": {\"min\": 10, \"max\": 5}}}}]}";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private GeneratorServer server;
+  private Thread serverThread;
+
+  /**
+   * Serves on an ephemeral port from a thread of its own.
+   */
+  @Before
+  public void startServer() throws IOException {
+    server = new GeneratorServer(new InetSocketAddress("localhost", 0));
+    serverThread = new Thread(() -> {
+      try {
+        server.serve();
+      } catch (IOException ioe) {
+        throw new RuntimeException(ioe);
+      }
+    });
+    serverThread.start();
+  }
+
+  @After
+  public void stopServer() throws InterruptedException {
+    server.close();
+    serverThread.join();
+  }
+
+  @Test
+  public void sameSeedGetsSameRecords() throws IOException {
+    try (Socket first = connect(); Socket second = connect()) {
+      String fingerprint = register(first, RANDOM_SCHEMA);
+      Assert.assertEquals(fingerprint, register(second, RANDOM_SCHEMA));
+      byte[] records = generate(first, fingerprint, 42);
+      Assert.assertArrayEquals(records, generate(second, fingerprint, 42));
+      Assert.assertArrayEquals(records, generate(first, fingerprint, 42));
+      Assert.assertFalse(Arrays.equals(records, generate(first, fingerprint, 7)));
+      Assert.assertArrayEquals(records, generate(second, fingerprint, 42));
+    }
+  }
+
+  @Test
+  public void recordsMatchSeededRun() throws IOException {
+    byte[] expected = run(ITERATION_SCHEMA, "-b");
+    try (Socket socket = connect()) {
+      String fingerprint = register(socket, ITERATION_SCHEMA);
+      // Iterations start over instead of carrying on from the first request
+      Assert.assertArrayEquals(expected, generate(socket, fingerprint, 42));
+      Assert.assertArrayEquals(expected, generate(socket, fingerprint, 42));
+    }
+  }
+
+  @Test
+  public void jsonMatchesSeededRun() throws IOException {
+    byte[] expected = run(RANDOM_SCHEMA, "-j", "-c");
+    try (Socket socket = connect()) {
+      String fingerprint = register(socket, RANDOM_SCHEMA);
+      Assert.assertArrayEquals(
+          expected,
+          generate(socket, fingerprint, GeneratorServer.JSON_ENCODING, 42)
+      );
+    }
+  }
+
+  @Test
+  public void invalidAnnotationsAreRejectedAtRegistration() throws IOException {
+    try (Socket socket = connect()) {
+      String response = send(socket, BAD_RANGE_SCHEMA.getBytes(StandardCharsets.UTF_8));
+      Assert.assertTrue(response, response.startsWith("ERR invalid schema: "));
+      Assert.assertTrue(response, response.contains("range"));
+      // The connection is still usable afterwards
+      register(socket, RANDOM_SCHEMA);
+    }
+  }
+
+  private byte[] run(String schemaFile, String... encoding) throws IOException {
+    File output = folder.newFile();
+    String[] args = {
+        "-f", schemaFile,
+        "-i", Integer.toString(RECORDS),
+        "--seed", "42",
+        "-o", output.getPath()
+    };
+    List<String> withEncoding = new ArrayList<>(Arrays.asList(args));
+    withEncoding.addAll(Arrays.asList(encoding));
+    Main.main(withEncoding.toArray(new String[0]));
+    return Files.readAllBytes(output.toPath());
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket("localhost", server.address().getPort());
+  }
+
+  private static String register(Socket socket, String schemaFile) throws IOException {
+    String response = send(socket, Files.readAllBytes(Paths.get(schemaFile)));
+    Assert.assertTrue(response, response.startsWith("OK "));
+    return response.substring("OK ".length());
+  }
+
+  private static String send(Socket socket, byte[] schema) throws IOException {
+    OutputStream output = socket.getOutputStream();
+    output.write(
+        String.format("%s %d\n", GeneratorServer.SCHEMA_COMMAND, schema.length)
+            .getBytes(StandardCharsets.UTF_8)
+    );
+    output.write(schema);
+    output.flush();
+    return readLine(socket);
+  }
+
+  private static byte[] generate(Socket socket, String fingerprint, long seed) throws IOException {
+    return generate(socket, fingerprint, GeneratorServer.BINARY_ENCODING, seed);
+  }
+
+  private static byte[] generate(Socket socket, String fingerprint, String encoding, long seed)
+      throws IOException {
+    socket.getOutputStream().write(
+        String.format(
+            "%s %s %d %s %d\n",
+            GeneratorServer.GENERATE_COMMAND,
+            fingerprint,
+            RECORDS,
+            encoding,
+            seed
+        ).getBytes(StandardCharsets.UTF_8)
+    );
+    Assert.assertEquals("OK", readLine(socket));
+    DataInputStream input = new DataInputStream(socket.getInputStream());
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    for (int length = input.readInt(); length != 0; length = input.readInt()) {
+      Assert.assertTrue("generation failed", length > 0);
+      byte[] chunk = new byte[length];
+      input.readFully(chunk);
+      records.write(chunk);
+    }
+    return records.toByteArray();
+  }
+
+  private static String readLine(Socket socket) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b = socket.getInputStream().read(); b != '\n'; b = socket.getInputStream().read()) {
+      if (b < 0) {
+        throw new IOException("Connection closed");
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeneratorTest {
+
+  private static final String UNIQUE_INT =
+      "{\"type\": \"int\", \"arg.properties\": "
+          + "{\"unique\": true, \"range\": {\"min\": 1000, \"max\": 1037}}}";
+  private static final String UNIQUE_FIXED =
+      "{\"type\": \"fixed\", \"name\": \"octet\", \"size\": 1, \"arg.properties\": "
+          + "{\"unique\": true}}";
+  private static final String UNIQUE_STRING =
+      "{\"type\": \"string\", \"arg.properties\": "
+          + "{\"unique\": true, \"regex\": \"[A-E][0-9]{1,2}\"}}";
+
+  private static final String UNIQUE_ARRAY =
+      "{\"type\": \"array\", \"arg.properties\": {\"length\": {\"min\": 1, \"max\": 4}}, "
+          + "\"items\": {\"type\": \"long\", \"arg.properties\": {\"unique\": true, "
+          + "\"range\": {\"min\": 0, \"max\": 300}}}}";
+
+  private static final String ITERATION_ARRAY =
+      "{\"type\": \"array\", \"arg.properties\": {\"length\": 3}, "
+          + "\"items\": {\"type\": \"int\", \"arg.properties\": "
+          + "{\"iteration\": {\"start\": 0}}}}";
+
+  private static final String TREE =
+      "{\"type\": \"record\", \"name\": \"node\", \"fields\": ["
+          + "{\"name\": \"children\", \"type\": {\"type\": \"array\", \"items\": \"node\", "
+          + "\"arg.properties\": {\"length\": {\"min\": 1, \"max\": 3}}}}, "
+          + "{\"name\": \"next\", \"type\": [\"node\", \"null\"]}"
+          + "]}";
+  private static final String ENDLESS =
+      "{\"type\": \"record\", \"name\": \"loop\", \"fields\": ["
+          + "{\"name\": \"next\", \"type\": \"loop\"}"
+          + "]}";
+  private static final String NESTED_ARRAYS =
+      "{\"type\": \"array\", \"arg.properties\": {\"length\": {\"min\": 5, \"max\": 10}}, "
+          + "\"items\": {\"type\": \"array\", \"items\": \"int\", "
+          + "\"arg.properties\": {\"length\": {\"min\": 5, \"max\": 10}}}}";
+
+  private static final int MAX_DEPTH = 4;
+  private static final int MAX_ELEMENTS = 12;
+
+  private static final int INT_DOMAIN = 37;
+  private static final int FIXED_DOMAIN = 256;
+  // Five letters, each followed by one of ten single digits or a hundred pairs of them
+  private static final int STRING_DOMAIN = 5 * (10 + 100);
+
+  @Test
+  public void uniqueIntsCoverTheirRangeBeforeRepeating() {
+    Generator generator = new Generator(UNIQUE_INT, new Random(1));
+    Set<String> values = distinct(generator, INT_DOMAIN);
+    for (String value : values) {
+      int number = Integer.parseInt(value);
+      Assert.assertTrue(value, number >= 1000 && number < 1000 + INT_DOMAIN);
+    }
+    // The next pass over the domain starts over with the same values
+    Assert.assertEquals(values, distinct(generator, INT_DOMAIN));
+  }
+
+  @Test
+  public void uniqueFixedValuesCoverEveryValue() {
+    Generator generator = new Generator(UNIQUE_FIXED, new Random(1));
+    Set<Integer> octets = new HashSet<>();
+    for (int i = 0; i < FIXED_DOMAIN; i++) {
+      byte[] bytes = ((GenericFixed) generator.generate()).bytes();
+      Assert.assertTrue("repeated " + bytes[0], octets.add(bytes[0] & 0xff));
+    }
+  }
+
+  @Test
+  public void uniqueStringsCoverTheirRegex() {
+    Generator generator = new Generator(UNIQUE_STRING, new Random(1));
+    for (String value : distinct(generator, STRING_DOMAIN)) {
+      Assert.assertTrue(value, value.matches("[A-E][0-9]{1,2}"));
+    }
+  }
+
+  @Test
+  public void uniqueValuesByIndexDontCollideAcrossSlices() {
+    Set<String> values = new HashSet<>();
+    // Separate generators for separate slices of the same seeded sequence, as on separate machines
+    for (int slice = 0; slice < 4; slice++) {
+      Generator generator = new Generator(UNIQUE_STRING, new Random(42));
+      for (long index = slice; index < STRING_DOMAIN; index += 4) {
+        Object value = generator.generate(index);
+        Assert.assertTrue("repeated " + value + " at " + index, values.add(value.toString()));
+      }
+    }
+    Assert.assertEquals(STRING_DOMAIN, values.size());
+  }
+
+  // Values are compared as text, so that strings compare equal whether they're Utf8 or String
+  @Test
+  public void uniqueArrayElementsStayDistinctAcrossRecords() {
+    // Up to three elements per record, so a hundred records need at most the three hundred values
+    // the range has
+    Generator sequential = new Generator(UNIQUE_ARRAY, new Random(1));
+    Generator indexed = new Generator(UNIQUE_ARRAY, new Random(1));
+    Set<Long> sequentialValues = new HashSet<>();
+    Set<Long> indexedValues = new HashSet<>();
+    for (int record = 0; record < 100; record++) {
+      for (Object value : (Collection<?>) sequential.generate()) {
+        Assert.assertTrue("repeated " + value, sequentialValues.add((Long) value));
+      }
+      for (Object value : (Collection<?>) indexed.generate(record)) {
+        Assert.assertTrue("repeated " + value, indexedValues.add((Long) value));
+      }
+    }
+  }
+
+  @Test
+  public void repeatedIterationsAgreeWithAndWithoutIndexes() {
+    Generator sequential = new Generator(ITERATION_ARRAY, new Random(1));
+    Generator indexed = new Generator(ITERATION_ARRAY, new Random(1));
+    for (int record = 0; record < 10; record++) {
+      Object expected = Arrays.asList(3 * record, 3 * record + 1, 3 * record + 2);
+      Assert.assertEquals(expected, sequential.generate());
+      Assert.assertEquals(expected, indexed.generate(record));
+    }
+  }
+
+  @Test
+  public void iterationCannotBeUnique() {
+    Generator generator = new Generator(
+        "{\"type\": \"int\", \"arg.properties\": "
+            + "{\"unique\": true, \"iteration\": {\"start\": 0}}}",
+        new Random(1)
+    );
+    try {
+      generator.generate();
+      Assert.fail("iteration and unique were both accepted");
+    } catch (RuntimeException exception) {
+      Assert.assertEquals(
+          "Cannot specify unique prop when iteration prop is given",
+          exception.getMessage()
+      );
+    }
+  }
+
+  @Test
+  public void recursiveSchemasStopAtTheMaxDepth() {
+    Generator generator = new Generator(TREE, new Random(1)).maxDepth(MAX_DEPTH);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(depth(generator.generate()) <= MAX_DEPTH);
+    }
+  }
+
+  @Test
+  public void schemasThatCantEndAreReportedAtTheMaxDepth() {
+    Generator generator = new Generator(ENDLESS, new Random(1)).maxDepth(MAX_DEPTH);
+    try {
+      generator.generate();
+      Assert.fail("a record was nested past the max depth");
+    } catch (RuntimeException exception) {
+      Assert.assertTrue(
+          exception.getMessage(),
+          exception.getMessage().startsWith("Record loop would be nested more than 4 deep")
+      );
+    }
+  }
+
+  @Test
+  public void elementBudgetCoversEveryCollectionInTheRecord() {
+    // Every length is at least five, so the budget always runs out partway through the record
+    Generator sequential = new Generator(NESTED_ARRAYS, new Random(1)).maxElements(MAX_ELEMENTS);
+    Generator indexed = new Generator(NESTED_ARRAYS, new Random(1)).maxElements(MAX_ELEMENTS);
+    for (int record = 0; record < 100; record++) {
+      Assert.assertEquals(MAX_ELEMENTS, elements(sequential.generate()));
+      Assert.assertEquals(MAX_ELEMENTS, elements(indexed.generate(record)));
+    }
+  }
+
+  // The most records nested inside one another in the value, counting the value itself
+  private static int depth(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    GenericRecord node = (GenericRecord) value;
+    int deepest = depth(node.get("next"));
+    for (Object child : (List<?>) node.get("children")) {
+      deepest = Math.max(deepest, depth(child));
+    }
+    return deepest + 1;
+  }
+
+  private static long elements(Object value) {
+    long result = 0;
+    for (Object array : (Collection<?>) value) {
+      result += 1 + ((Collection<?>) array).size();
+    }
+    return result;
+  }
+
+  private static Set<String> distinct(Generator generator, int count) {
+    Set<String> values = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      Object value = generator.generate();
+      Assert.assertTrue("repeated " + value, values.add(value.toString()));
+    }
+    return values;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+public class JsonRecordEncoderTest {
+
+  private static final String[] SCHEMAS = {
+      "test/schemas/primitives.json",
+      "test/schemas/array.json",
+      "test/schemas/maps.json",
+      "test/schemas/unions.json",
+      "test/schemas/nulls.json",
+      "test/schemas/enum.json",
+      "test/schemas/fixed.json",
+      "test/schemas/logical-types.json",
+      "test/schemas/matryoshka-dolls.json",
+      "test/schemas/regex.json"
+  };
+  // Everything the encoder has to treat specially, in one record
+  private static final Schema QUIRKS = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"quirks\", \"fields\": ["
+          + "{\"name\": \"text\", \"type\": \"string\"}, "
+          + "{\"name\": \"doubles\", \"type\": {\"type\": \"array\", \"items\": \"double\"}}, "
+          + "{\"name\": \"floats\", \"type\": {\"type\": \"array\", \"items\": \"float\"}}, "
+          + "{\"name\": \"raw\", \"type\": \"bytes\"}, "
+          + "{\"name\": \"empty\", \"type\": {\"type\": \"record\", \"name\": \"empty\", "
+          + "\"fields\": []}}, "
+          + "{\"name\": \"tagged\", \"type\": [\"null\", \"empty\", {\"type\": \"map\", "
+          + "\"values\": \"long\"}]}"
+          + "]}"
+  );
+  private static final int RECORDS = 200;
+
+  @Test
+  public void generatedRecordsMatchAvro() throws IOException {
+    for (String file : SCHEMAS) {
+      Schema schema = new Schema.Parser().parse(new File(file));
+      Generator generator = new Generator(schema, new Random(42));
+      Object[] records = new Object[RECORDS];
+      for (int i = 0; i < RECORDS; i++) {
+        records[i] = generator.generate();
+      }
+      assertMatchesAvro(file, schema, records);
+    }
+  }
+
+  @Test
+  public void quirksMatchAvro() throws IOException {
+    GenericRecord empty = new GenericData.Record(QUIRKS.getField("empty").schema());
+    GenericRecord record = new GenericData.Record(QUIRKS);
+    record.put("text", "tab\t quote\" slash\\ nul" + (char) 0 + " bell" + (char) 7 + " é 中 😀");
+    record.put("doubles", Arrays.asList(
+        0.0, -0.0, 1.0E7, 1.0E-3, 9.999999E-4, 2.0E23, Double.MIN_VALUE, Double.MAX_VALUE,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    ));
+    record.put("floats", Arrays.asList(
+        0.1f, -1.5E-8f, 3.4028235E38f, Float.MIN_VALUE, Float.NaN, Float.NEGATIVE_INFINITY
+    ));
+    record.put("raw", ByteBuffer.wrap(new byte[] {0, 0x1f, 0x7f, (byte) 0x80, (byte) 0xff}));
+    record.put("empty", empty);
+    for (Object tagged : Arrays.asList(null, empty, Collections.singletonMap("k\n", -1L))) {
+      record.put("tagged", tagged);
+      assertMatchesAvro("quirks", QUIRKS, record);
+    }
+  }
+
+  private static void assertMatchesAvro(String name, Schema schema, Object... records)
+      throws IOException {
+    for (boolean pretty : new boolean[] {false, true}) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema);
+      Encoder avro = EncoderFactory.get().jsonEncoder(schema, expected, pretty);
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      RecordEncoder encoder = JsonRecordEncoder.factory(schema, pretty).create(actual);
+      for (Object record : records) {
+        writer.write(record, avro);
+        encoder.write(record);
+      }
+      avro.flush();
+      encoder.flush();
+      Assert.assertEquals(
+          name + (pretty ? ", pretty" : ", compact"),
+          new String(expected.toByteArray(), "UTF-8"),
+          new String(actual.toByteArray(), "UTF-8")
+      );
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class KeyPartitionerTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"order\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"string\"}, "
+          + "{\"name\": \"customer\", \"type\": {\"type\": \"record\", \"name\": \"customer\", "
+          + "\"fields\": [{\"name\": \"number\", \"type\": [\"null\", \"int\"]}]}}"
+          + "]}"
+  );
+  private static final int PARTITIONS = 16;
+
+  // The same cases as the tests of Kafka's own Utils.murmur2()
+  @Test
+  public void murmur2MatchesKafka() {
+    Assert.assertEquals(-973932308, murmur2("21"));
+    Assert.assertEquals(-790332482, murmur2("foobar"));
+    Assert.assertEquals(-985981536, murmur2("a-little-bit-long-string"));
+    Assert.assertEquals(-1486304829, murmur2("a-little-bit-longer-string"));
+    Assert.assertEquals(-58897971, murmur2("lkjh234lh9fiuh90y23oiuhsafujhadof229phr9h19h89h8"));
+    Assert.assertEquals(479470107, murmur2("abc"));
+  }
+
+  @Test
+  public void stringKeysArePartitionedLikeKafka() {
+    KeyPartitioner partitioner = new KeyPartitioner(SCHEMA, "id", PARTITIONS);
+    // Kafka's default partitioner: toPositive(murmur2(serialized key)) % partitions
+    Assert.assertEquals(
+        (-790332482 & 0x7fffffff) % PARTITIONS,
+        partitioner.partition(order("foobar", 7))
+    );
+  }
+
+  @Test
+  public void intKeysAreSerializedBigEndian() {
+    KeyPartitioner partitioner = new KeyPartitioner(SCHEMA, "customer.number", PARTITIONS);
+    Assert.assertEquals(
+        (KeyPartitioner.murmur2(new byte[] {0, 0, 0x01, 0x02}) & 0x7fffffff) % PARTITIONS,
+        partitioner.partition(order("foobar", 0x0102))
+    );
+  }
+
+  @Test
+  public void nullKeysAreDealtOutRoundRobin() {
+    KeyPartitioner partitioner = new KeyPartitioner(SCHEMA, "customer.number", 3);
+    for (int i = 0; i < 7; i++) {
+      Assert.assertEquals(i % 3, partitioner.partition(order("foobar", null)));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void missingFieldsAreRejected() {
+    new KeyPartitioner(SCHEMA, "customer.name", PARTITIONS);
+  }
+
+  private static GenericRecord order(String id, Integer customerNumber) {
+    GenericRecord customer = new GenericData.Record(SCHEMA.getField("customer").schema());
+    customer.put("number", customerNumber);
+    GenericRecord order = new GenericData.Record(SCHEMA);
+    order.put("id", id);
+    order.put("customer", customer);
+    return order;
+  }
+
+  private static int murmur2(String data) {
+    return KeyPartitioner.murmur2(data.getBytes(StandardCharsets.UTF_8));
+  }
+}
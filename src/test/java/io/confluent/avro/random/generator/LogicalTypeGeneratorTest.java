@@ -0,0 +1,167 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class LogicalTypeGeneratorTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": {\"type\": \"string\", \"logicalType\": \"uuid\"}}, "
+          + "{\"name\": \"day\", \"type\": {\"type\": \"int\", \"logicalType\": \"date\", "
+          + "\"arg.properties\": {\"range\": "
+          + "{\"min\": \"2018-04-01\", \"max\": \"2018-05-01\"}}}}, "
+          + "{\"name\": \"at\", \"type\": {\"type\": \"long\", "
+          + "\"logicalType\": \"timestamp-millis\", "
+          + "\"arg.properties\": {\"monotonic\": {\"step\": 1000}}}}, "
+          + "{\"name\": \"price\", \"type\": {\"type\": \"bytes\", \"logicalType\": \"decimal\", "
+          + "\"precision\": 5, \"scale\": 2, "
+          + "\"arg.properties\": {\"range\": {\"min\": -10.5, \"max\": \"20.25\"}}}}, "
+          + "{\"name\": \"total\", \"type\": {\"type\": \"fixed\", \"name\": \"total\", "
+          + "\"size\": 8, \"logicalType\": \"decimal\", \"precision\": 12, \"scale\": 3}}, "
+          + "{\"name\": \"connectAmount\", \"type\": {\"type\": \"bytes\", "
+          + "\"connect.name\": \"org.apache.kafka.connect.data.Decimal\", "
+          + "\"connect.parameters\": {\"scale\": \"1\", \"connect.decimal.precision\": \"3\"}}}, "
+          + "{\"name\": \"connectTime\", \"type\": {\"type\": \"int\", "
+          + "\"connect.name\": \"org.apache.kafka.connect.data.Time\"}}"
+          + "]}"
+  );
+  private static final Pattern UUID = Pattern.compile(
+      "[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"
+  );
+  private static final int RECORDS = 1000;
+
+  @Test
+  public void uuidsAreCanonicalVersion4() {
+    for (GenericRecord record : records()) {
+      String id = record.get("id").toString();
+      Assert.assertTrue(id, UUID.matcher(id).matches());
+    }
+  }
+
+  @Test
+  public void isoDateRangesAreRespected() {
+    long min = LocalDate.parse("2018-04-01").toEpochDay();
+    long max = LocalDate.parse("2018-05-01").toEpochDay();
+    for (GenericRecord record : records()) {
+      int day = (Integer) record.get("day");
+      Assert.assertTrue(day >= min && day < max);
+    }
+  }
+
+  @Test
+  public void monotonicTimestampsIncreaseByAboutAStep() {
+    long min = Instant.parse("2000-01-01T00:00:00Z").toEpochMilli();
+    Generator generator = new Generator(SCHEMA, new Random(42));
+    long previous = Long.MIN_VALUE;
+    for (int i = 0; i < RECORDS; i++) {
+      long at = (Long) ((GenericRecord) generator.generate(i)).get("at");
+      Assert.assertTrue(at > previous);
+      Assert.assertTrue(at >= min + i * 1000L && at < min + (i + 1) * 1000L);
+      previous = at;
+    }
+  }
+
+  @Test
+  public void decimalsStayWithinTheirRangeAndPrecision() {
+    BigDecimal priceMin = new BigDecimal("-10.50");
+    BigDecimal priceMax = new BigDecimal("20.25");
+    BigDecimal totalLimit = BigDecimal.TEN.pow(9);
+    for (GenericRecord record : records()) {
+      BigDecimal price = decimal((ByteBuffer) record.get("price"), 2);
+      Assert.assertTrue(price.toString(), price.compareTo(priceMin) >= 0);
+      Assert.assertTrue(price.toString(), price.compareTo(priceMax) < 0);
+
+      GenericData.Fixed total = (GenericData.Fixed) record.get("total");
+      Assert.assertEquals(8, total.bytes().length);
+      BigDecimal value = new BigDecimal(new BigInteger(total.bytes()), 3);
+      Assert.assertTrue(value.toString(), value.abs().compareTo(totalLimit) < 0);
+    }
+  }
+
+  @Test
+  public void connectTypesAreRecognized() {
+    BigDecimal limit = new BigDecimal("100");
+    long millisPerDay = 24 * 60 * 60 * 1000;
+    for (GenericRecord record : records()) {
+      BigDecimal amount = decimal((ByteBuffer) record.get("connectAmount"), 1);
+      Assert.assertTrue(amount.toString(), amount.abs().compareTo(limit) < 0);
+      int time = (Integer) record.get("connectTime");
+      Assert.assertTrue(time >= 0 && time < millisPerDay);
+    }
+    Assert.assertEquals(1, LogicalTypeGenerator.decimalScaleOf(
+        SCHEMA.getField("connectAmount").schema()
+    ));
+  }
+
+  @Test
+  public void monotonicUuidsAreRejected() {
+    assertRejected(
+        "{\"type\": \"string\", \"logicalType\": \"uuid\", "
+            + "\"arg.properties\": {\"monotonic\": true}}",
+        "monotonic"
+    );
+  }
+
+  @Test
+  public void decimalRangesBeyondThePrecisionAreRejected() {
+    assertRejected(
+        "{\"type\": \"bytes\", \"logicalType\": \"decimal\", \"precision\": 3, \"scale\": 1, "
+            + "\"arg.properties\": {\"range\": {\"max\": 1000}}}",
+        "precision"
+    );
+  }
+
+  @Test
+  public void malformedIsoBoundsAreRejected() {
+    assertRejected(
+        "{\"type\": \"int\", \"logicalType\": \"date\", "
+            + "\"arg.properties\": {\"range\": {\"min\": \"April 1st\"}}}",
+        "ISO-8601"
+    );
+  }
+
+  private static GenericRecord[] records() {
+    Generator generator = new Generator(SCHEMA, new Random(42));
+    GenericRecord[] records = new GenericRecord[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      records[i] = (GenericRecord) generator.generate();
+    }
+    return records;
+  }
+
+  private static BigDecimal decimal(ByteBuffer unscaled, int scale) {
+    byte[] bytes = new byte[unscaled.remaining()];
+    unscaled.duplicate().get(bytes);
+    return new BigDecimal(new BigInteger(bytes), scale);
+  }
+
+  private static void assertRejected(String schema, String reason) {
+    try {
+      new Generator(new Schema.Parser().parse(schema), new Random(42)).generate();
+      Assert.fail("Expected the schema to be rejected");
+    } catch (RuntimeException exception) {
+      Assert.assertTrue(exception.getMessage(), exception.getMessage().contains(reason));
+    }
+  }
+}
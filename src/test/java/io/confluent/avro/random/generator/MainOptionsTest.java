@@ -0,0 +1,156 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class MainOptionsTest {
+
+  @Test
+  public void oneRecordIsGeneratedUnlessToldOtherwise() {
+    MainOptions options = MainOptions.parse();
+    Assert.assertEquals(1, options.iterations);
+    Assert.assertEquals(MainOptions.JSON_ENCODING, options.encoding);
+    Assert.assertFalse(options.help);
+    Assert.assertFalse(options.toFile());
+
+    // A size or time limit on its own asks for as many records as fit in it
+    Assert.assertEquals(
+        MainOptions.UNBOUNDED_ITERATIONS,
+        MainOptions.parse("--max-bytes", "64M").iterations
+    );
+    Assert.assertEquals(
+        MainOptions.UNBOUNDED_ITERATIONS,
+        MainOptions.parse("--max-duration", "15m").iterations
+    );
+    Assert.assertEquals(10, MainOptions.parse("-i", "10", "--max-bytes", "64M").iterations);
+  }
+
+  @Test
+  public void sizesAndDurationsTakeUnits() {
+    MainOptions options = MainOptions.parse(
+        "--max-bytes", "64MiB",
+        "--max-duration", "500ms",
+        "-o", "data.json",
+        "--roll-size", "2G",
+        "--roll-interval", "6h"
+    );
+    Assert.assertEquals(64L << 20, options.maxBytes);
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), options.maxDurationNanos);
+    Assert.assertEquals(2L << 30, options.rollBytes);
+    Assert.assertEquals(TimeUnit.HOURS.toNanos(6), options.rollIntervalNanos);
+    Assert.assertTrue(options.rolling());
+    Assert.assertTrue(options.toFile());
+  }
+
+  @Test
+  public void partitionsAreTurnedIntoRanges() {
+    // 10 records in 3 slices are split 4, 3, 3
+    assertRange(0, 4, MainOptions.parse("--seed", "1", "-i", "10", "--partition", "0/3"));
+    assertRange(4, 7, MainOptions.parse("--seed", "1", "-i", "10", "--partition", "1/3"));
+    assertRange(7, 10, MainOptions.parse("--seed", "1", "-i", "10", "--partition", "2/3"));
+    // A range on its own gives the number of records too
+    assertRange(5, 25, MainOptions.parse("--seed", "1", "--range", "5:25"));
+    // Whichever of them comes last wins
+    assertRange(5, 25, MainOptions.parse("--seed", "1", "-i", "10", "--partition", "2/3",
+        "--range", "5:25"));
+  }
+
+  @Test
+  public void tcpOutputUsesOneConnectionUnlessToldOtherwise() {
+    Assert.assertEquals(1, MainOptions.parse("--tcp", "9092").connections);
+    Assert.assertEquals(4, MainOptions.parse("--tcp", "9092", "--connections", "4").connections);
+    Assert.assertEquals(9092, MainOptions.parse("--tcp", "kafka:9092").tcpAddress.getPort());
+  }
+
+  @Test
+  public void helpEndsParsing() {
+    Assert.assertTrue(MainOptions.parse("-i", "10", "--help", "--no-such-option").help);
+  }
+
+  @Test
+  public void serversIgnoreEverythingElse() {
+    MainOptions options = MainOptions.parse("--connections", "2", "--serve", "0");
+    Assert.assertEquals(0, options.serveAddress.getPort());
+  }
+
+  @Test
+  public void invalidArgumentsAreRejected() {
+    assertRejected("--no-such-option: unrecognized option", "--no-such-option");
+    assertRejected("-i: argument required", "-i");
+    assertRejected("-i: argument cannot be negative", "-i", "-1");
+    assertRejected("--seed: argument must be a number", "--seed", "forty-two");
+    assertRejected("--shards: argument must be positive", "--shards", "0");
+    assertRejected(
+        "--max-bytes: argument must be a size, such as 1048576, 512K, 64M or 500G",
+        "--max-bytes", "lots"
+    );
+    assertRejected("--max-bytes: 16777216T is too large", "--max-bytes", "16777216T");
+    assertRejected("--range: argument must be of the form <from>:<to>", "--range", "5");
+    assertRejected("--range: <from> cannot be negative or greater than <to>", "--range", "5:4");
+    assertRejected("--partition: <k> must be at least 0 and less than <n>", "--partition", "3/3");
+    assertRejected("--tcp: port must be between 0 and 65535", "--tcp", "65536");
+  }
+
+  @Test
+  public void optionsThatDontGoTogetherAreRejected() {
+    assertRejected("--connections requires --tcp", "--connections", "2");
+    assertRejected(
+        "--tcp cannot be combined with -o, --shards, --partition-by, --roll-size or "
+            + "--roll-interval",
+        "--tcp", "9092", "-o", "data.json"
+    );
+    assertRejected(
+        "--partition-by and --partitions must be given together",
+        "-o", "data.json", "--partition-by", "id"
+    );
+    assertRejected(
+        "--shards and --partition-by require an output file",
+        "--shards", "2", "-o", "-"
+    );
+    assertRejected("--roll-size and --roll-interval require an output file", "--roll-size", "1G");
+    assertRejected("--mutations requires --entities", "--mutations", "2");
+    assertRejected(
+        "--entities cannot be combined with --corpus, --range or --partition",
+        "--entities", "10", "--corpus", "10"
+    );
+    assertRejected("--codegen requires --binary", "--codegen");
+    assertRejected("--framing requires --binary", "--framing", "length");
+    assertRejected(
+        "--codegen cannot be combined with --partition-by, --corpus, --entities or "
+            + "--profile-fields",
+        "-b", "--codegen", "--profile-fields"
+    );
+    assertRejected(
+        "--range and --partition require --seed, so that every slice is cut from the same records",
+        "--range", "0:10"
+    );
+    assertRejected(
+        "--partition requires the total number of records to be given with -i",
+        "--seed", "1", "--partition", "0/2"
+    );
+  }
+
+  private static void assertRange(long from, long to, MainOptions options) {
+    Assert.assertArrayEquals(new long[] {from, to}, options.range);
+    Assert.assertEquals(from, options.firstRecordIndex());
+    Assert.assertEquals(to - from, options.iterations);
+  }
+
+  private static void assertRejected(String message, String... args) {
+    try {
+      MainOptions.parse(args);
+      Assert.fail("Expected " + String.join(" ", args) + " to be rejected");
+    } catch (IllegalArgumentException exception) {
+      Assert.assertEquals(message, exception.getMessage());
+    }
+  }
+}
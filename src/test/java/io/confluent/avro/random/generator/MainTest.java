@@ -0,0 +1,207 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumReader;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.ToolProvider;
+
+public class MainTest {
+
+  private static final String[] SCHEMAS = {
+      "test/schemas/primitives.json",
+      "test/schemas/array.json",
+      "test/schemas/maps.json",
+      "test/schemas/unions.json",
+      "test/schemas/nulls.json",
+      "test/schemas/unique.json"
+  };
+
+  private static final String[][] ENCODINGS = {
+      {"-j", "-c"},
+      {"-j", "-p"},
+      {"-b"},
+      {"-b", "--codegen"},
+      {"-b", "--framing", "length,single-object"},
+      {"--csv"},
+      {"--tsv"}
+  };
+
+  // Keys of three or four characters, millions of possible ones
+  private static final String LARGE_KEY_SPACE_MAP_SCHEMA =
+      "{\"type\": \"map\", \"values\": \"int\", \"arg.properties\": "
+          + "{\"length\": 200, \"keys\": {\"length\": {\"min\": 3, \"max\": 5}}}}";
+
+  private static final int RECORDS = 25;
+  private static final int SLICES = 4;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void concatenatedSlicesEqualSingleRun() throws IOException {
+    for (String schema : SCHEMAS) {
+      for (String[] encoding : ENCODINGS) {
+        String description = schema + " " + String.join(" ", encoding);
+        byte[] single = run(schema, encoding);
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (int slice = 0; slice < SLICES; slice++) {
+          concatenated.write(run(schema, encoding, "--partition", slice + "/" + SLICES));
+        }
+        Assert.assertTrue(description, single.length > 0);
+        Assert.assertArrayEquals(description, single, concatenated.toByteArray());
+      }
+    }
+  }
+
+  @Test
+  public void concatenatedRangesEqualSingleRun() throws IOException {
+    String[] encoding = {"--csv"};
+    byte[] single = run("test/schemas/primitives.json", encoding);
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    // Uneven ranges, one of them empty
+    for (String range : Arrays.asList("0:1", "1:1", "1:17", "17:25")) {
+      concatenated.write(run("test/schemas/primitives.json", encoding, "--range", range));
+    }
+    Assert.assertArrayEquals(single, concatenated.toByteArray());
+  }
+
+  @Test
+  public void binaryOutputHasNoTrailingNewline() throws IOException {
+    byte[] withNewline = run("test/schemas/enum.json", new String[] {"-j"});
+    byte[] binary = run("test/schemas/enum.json", new String[] {"-b"});
+    Assert.assertEquals('\n', withNewline[withNewline.length - 1]);
+    // One enum index per record, each a single zig-zag encoded byte
+    Assert.assertEquals(RECORDS, binary.length);
+  }
+
+  @Test
+  public void maxBytesLeavesOutTheRecordThatWouldGoOverIt() throws IOException {
+    String schema = "test/schemas/primitives.json";
+    String[] encoding = {"-b"};
+    byte[] single = run(schema, encoding);
+    int maxBytes = single.length / 2;
+    int lastWholeRecordEnd = 0;
+    for (int end : recordEnds(schema, single)) {
+      if (end <= maxBytes) {
+        lastWholeRecordEnd = end;
+      }
+    }
+    // The records before it are written in full, and none of the one that doesn't fit
+    Assert.assertTrue(lastWholeRecordEnd < maxBytes);
+    Assert.assertArrayEquals(
+        Arrays.copyOf(single, lastWholeRecordEnd),
+        run(schema, encoding, "--max-bytes", Integer.toString(maxBytes))
+    );
+  }
+
+  @Test
+  public void rolledFilesEndOnRecordBoundaries() throws IOException {
+    String schema = "test/schemas/primitives.json";
+    byte[] single = run(schema, new String[] {"-b"});
+    List<Integer> recordEnds = recordEnds(schema, single);
+    Main.main(new String[] {
+        "-f", schema,
+        "-i", Integer.toString(RECORDS),
+        "--seed", "42",
+        "-b",
+        "--roll-size", Integer.toString(single.length / 5),
+        "-o", new File(folder.getRoot(), "rolled.bin").getPath()
+    });
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    int files = 0;
+    for (File file = rolledFile(files); file.exists(); file = rolledFile(++files)) {
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      Assert.assertTrue(file.getName(), bytes.length > 0);
+      concatenated.write(bytes);
+      Assert.assertTrue(file.getName(), recordEnds.contains(concatenated.size()));
+    }
+    Assert.assertTrue(files >= 5);
+    Assert.assertArrayEquals(single, concatenated.toByteArray());
+  }
+
+  @Test
+  public void compiledOutputEqualsInterpreted() throws IOException {
+    Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    for (File schema : new File("test/schemas").listFiles()) {
+      if (schema.getName().endsWith("-list.json")) {
+        continue;
+      }
+      String[] interpreted = {"-b"};
+      String[] compiled = {"-b", "--codegen"};
+      Assert.assertArrayEquals(
+          schema.getPath(),
+          run(schema.getPath(), interpreted),
+          run(schema.getPath(), compiled)
+      );
+    }
+  }
+
+  @Test
+  public void compiledMapsWithManyPossibleKeysEqualInterpreted() throws IOException {
+    Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    File schemaFile = folder.newFile();
+    Files.write(schemaFile.toPath(), LARGE_KEY_SPACE_MAP_SCHEMA.getBytes(StandardCharsets.UTF_8));
+    Assert.assertArrayEquals(
+        run(schemaFile.getPath(), new String[] {"-b"}),
+        run(schemaFile.getPath(), new String[] {"-b", "--codegen"})
+    );
+  }
+
+  private File rolledFile(int sequence) {
+    return new File(folder.getRoot(), String.format("rolled-%05d.bin", sequence));
+  }
+
+  // The offset just past each of the binary-encoded records
+  private static List<Integer> recordEnds(String schemaFile, byte[] records) throws IOException {
+    GenericDatumReader<Object> reader =
+        new GenericDatumReader<>(new Schema.Parser().parse(new File(schemaFile)));
+    ByteArrayInputStream input = new ByteArrayInputStream(records);
+    BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(input, null);
+    List<Integer> ends = new ArrayList<>();
+    while (input.available() > 0) {
+      reader.read(null, decoder);
+      ends.add(records.length - input.available());
+    }
+    return ends;
+  }
+
+  private byte[] run(String schema, String[] encoding, String... extra) throws IOException {
+    File output = folder.newFile();
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-f", schema,
+        "-i", Integer.toString(RECORDS),
+        "--seed", "42",
+        "-o", output.getPath()
+    ));
+    args.addAll(Arrays.asList(encoding));
+    args.addAll(Arrays.asList(extra));
+    Main.main(args.toArray(new String[0]));
+    return Files.readAllBytes(output.toPath());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class ParallelCompressorTest {
+
+  private static final int WORKERS = 4;
+  private static final long TIMEOUT_MILLIS = 30000;
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void gzipRoundTrips() throws IOException {
+    ParallelCompressor compressor = ParallelCompressor.create(ParallelCompressor.GZIP, WORKERS);
+    byte[] data = data(7 * ParallelCompressor.BLOCK_SIZE / 2);
+    Assert.assertArrayEquals(data, gunzip(compress(compressor, data)));
+    Assert.assertArrayEquals(new byte[0], gunzip(compress(compressor, new byte[0])));
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void deflateRoundTrips() throws IOException {
+    ParallelCompressor compressor = ParallelCompressor.create(ParallelCompressor.DEFLATE, WORKERS);
+    byte[] data = data(7 * ParallelCompressor.BLOCK_SIZE / 2);
+    // The inflater checks the combined checksum the stream ends with
+    Assert.assertArrayEquals(data, inflate(compress(compressor, data)));
+    Assert.assertArrayEquals(new byte[0], inflate(compress(compressor, new byte[0])));
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void flushingWritesOutEverythingSoFar() throws IOException {
+    ParallelCompressor compressor = ParallelCompressor.create(ParallelCompressor.DEFLATE, WORKERS);
+    byte[] data = data(ParallelCompressor.BLOCK_SIZE / 3);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream compressed = compressor.compress(output);
+    compressed.write(data);
+    compressed.flush();
+    // Everything written so far can be inflated, even though the stream isn't finished yet
+    InflaterInputStream input = new InflaterInputStream(
+        new ByteArrayInputStream(output.toByteArray())
+    );
+    byte[] flushed = new byte[data.length];
+    int read = 0;
+    while (read < flushed.length) {
+      read += input.read(flushed, read, flushed.length - read);
+    }
+    Assert.assertArrayEquals(data, flushed);
+    compressed.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownFormatsAreRejected() {
+    ParallelCompressor.create("zstd", WORKERS);
+  }
+
+  // Text that repeats itself often enough to compress, and across block boundaries
+  private static byte[] data(int length) {
+    Random random = new Random(42);
+    String[] words = {"alpha ", "bravo ", "charlie ", "delta ", "echo ", "foxtrot "};
+    StringBuilder text = new StringBuilder(length + 16);
+    while (text.length() < length) {
+      text.append(words[random.nextInt(words.length)]).append(random.nextInt(1000));
+    }
+    return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // Written in uneven pieces, with a flush in the middle, the way encoders write records
+  private static byte[] compress(ParallelCompressor compressor, byte[] data) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (OutputStream compressed = compressor.compress(output)) {
+      int offset = 0;
+      for (int piece = 1; offset < data.length; piece = piece * 3 % 10007) {
+        int length = Math.min(piece, data.length - offset);
+        compressed.write(data, offset, length);
+        offset += length;
+        if (offset > data.length / 2 && offset - length <= data.length / 2) {
+          compressed.flush();
+        }
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  private static byte[] inflate(byte[] compressed) throws IOException {
+    return readAll(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+      result.write(buffer, 0, read);
+    }
+    return result.toByteArray();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class PipelineMetricsTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"long\"}, "
+          + "{\"name\": \"name\", \"type\": \"string\"}"
+          + "]}"
+  );
+  private static final int RECORDS = 3 * RecordPipeline.RECORDS_PER_BATCH + 1;
+
+  @Test
+  public void countersAddUpOverBatches() {
+    PipelineMetrics metrics = new PipelineMetrics(() -> 1, 16, () -> 2, 8, 2);
+    metrics.encoded(3, 10, 0);
+    metrics.encoded(2, 10, 0);
+    metrics.written(100, 10);
+    metrics.written(50, 10);
+    Assert.assertEquals(5, metrics.getRecords());
+    Assert.assertEquals(150, metrics.getBytes());
+    Assert.assertEquals(30.0, metrics.getAverageRecordSize(), 0.0);
+    // Allocation isn't tracked unless asked for
+    Assert.assertEquals(-1.0, metrics.getAllocatedBytesPerRecord(), 0.0);
+    Assert.assertEquals(1, metrics.getRecordBacklog());
+    Assert.assertEquals(2, metrics.getByteBacklog());
+    Assert.assertTrue(metrics.summary(), metrics.summary().contains("1/16 record batches"));
+  }
+
+  @Test
+  public void pipelineCountsEveryRecordAndByte() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordPipeline pipeline = new RecordPipeline(
+        new Generator(SCHEMA, new Random(42)),
+        AvroRecordEncoder.binary(SCHEMA),
+        RecordPartitioner.roundRobin(1),
+        RECORDS
+    ).lineTerminated(false);
+    pipeline.run(Collections.singletonList(RollingOutput.of(output)));
+    PipelineMetrics metrics = pipeline.metrics();
+    Assert.assertEquals(RECORDS, metrics.getRecords());
+    Assert.assertEquals(output.size(), metrics.getBytes());
+    Assert.assertEquals(0, metrics.getRecordBacklog());
+    Assert.assertEquals(0, metrics.getByteBacklog());
+  }
+
+  @Test
+  public void metricsCanBeReadOverJmx() throws JMException {
+    PipelineMetrics metrics = new PipelineMetrics(() -> 0, 16, () -> 0, 8, 1);
+    metrics.encoded(7, 10, 0);
+    metrics.register();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(PipelineMetrics.OBJECT_NAME);
+    try {
+      Assert.assertEquals(7L, server.getAttribute(name, "Records"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
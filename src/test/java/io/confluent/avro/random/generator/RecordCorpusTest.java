@@ -0,0 +1,129 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.function.Function;
+
+public class RecordCorpusTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"event\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": {\"type\": \"long\", "
+          + "\"arg.properties\": {\"iteration\": {\"start\": 0}}}}, "
+          + "{\"name\": \"name\", \"type\": {\"type\": \"string\", "
+          + "\"arg.properties\": {\"regex\": \"[a-z]{2,12}\"}}}, "
+          + "{\"name\": \"score\", \"type\": \"double\"}, "
+          + "{\"name\": \"at\", \"type\": {\"type\": \"long\", "
+          + "\"logicalType\": \"timestamp-millis\", \"arg.properties\": {\"monotonic\": true}}}, "
+          + "{\"name\": \"tag\", \"type\": {\"type\": \"string\", "
+          + "\"arg.properties\": {\"refresh\": true, \"length\": {\"min\": 1, \"max\": 20}}}}"
+          + "]}"
+  );
+  private static final String[] REFRESHED = {"id", "at", "tag"};
+  private static final int CORPUS_SIZE = 10;
+  private static final int RECORDS = 3 * CORPUS_SIZE + 7;
+
+  @Test
+  public void binaryReplaysSpliceInRefreshedValues() throws IOException {
+    assertReplaysMatch(AvroRecordEncoder.binary(SCHEMA), AvroRecordEncoder::binaryValue);
+  }
+
+  @Test
+  public void jsonReplaysSpliceInRefreshedValues() throws IOException {
+    assertReplaysMatch(JsonRecordEncoder.factory(SCHEMA, false), JsonRecordEncoder::value);
+  }
+
+  @Test
+  public void csvReplaysSpliceInRefreshedValues() throws IOException {
+    assertReplaysMatch(
+        DelimitedRecordEncoder.csv(SCHEMA, true),
+        DelimitedRecordEncoder::csvValue
+    );
+  }
+
+  @Test
+  public void corpusCannotBePartitionedByARefreshedField() throws IOException {
+    try {
+      new RecordCorpus(
+          new Generator(SCHEMA, new Random(42)),
+          CORPUS_SIZE,
+          0,
+          AvroRecordEncoder.binary(SCHEMA),
+          AvroRecordEncoder::binaryValue,
+          new KeyPartitioner(SCHEMA, "id", 4)
+      );
+      Assert.fail("Expected the corpus to be rejected");
+    } catch (RuntimeException exception) {
+      Assert.assertEquals(
+          "Cannot partition a corpus by field 'id', since it's refreshed on every replay",
+          exception.getMessage()
+      );
+    }
+  }
+
+  // A replayed run has to be the corpus's records over and over, each with fresh values for its
+  // refreshed fields after the first time round: ids and timestamps in the same place of their
+  // sequences as in the record generated for the same position
+  private static void assertReplaysMatch(
+      RecordEncoder.Factory encoderFactory,
+      Function<Schema, RecordEncoder.ValueEncoder> valueEncoders) throws IOException {
+    Generator generator = new Generator(SCHEMA, new Random(42));
+    RecordCorpus corpus = new RecordCorpus(
+        generator,
+        CORPUS_SIZE,
+        0,
+        encoderFactory,
+        valueEncoders,
+        RecordPartitioner.single()
+    );
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new RecordPipeline(generator, encoderFactory, RecordPartitioner.single(), RECORDS)
+        .firstRecordIndex(0)
+        .lineTerminated(false)
+        .replay(corpus)
+        .run(Collections.singletonList(RollingOutput.of(output)));
+
+    Generator expectedGenerator = new Generator(SCHEMA, new Random(42));
+    Schema[] schemas = new Schema[REFRESHED.length];
+    for (int i = 0; i < schemas.length; i++) {
+      schemas[i] = SCHEMA.getField(REFRESHED[i]).schema();
+    }
+    Object[] values = new Object[schemas.length];
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    RecordEncoder encoder = encoderFactory.create(expected);
+    for (int i = 0; i < RECORDS; i++) {
+      GenericRecord record = (GenericRecord) expectedGenerator.generate(i % CORPUS_SIZE);
+      GenericRecord whole = (GenericRecord) expectedGenerator.generate(i);
+      if (i >= CORPUS_SIZE) {
+        expectedGenerator.generateValues(schemas, i, values);
+        for (int j = 0; j < values.length; j++) {
+          record.put(REFRESHED[j], values[j]);
+        }
+      }
+      Assert.assertEquals((long) i, record.get("id"));
+      Assert.assertEquals((Long) whole.get("at") / 1000, (Long) record.get("at") / 1000);
+      encoder.write(record);
+    }
+    encoder.flush();
+    Assert.assertEquals(
+        new String(expected.toByteArray(), "ISO-8859-1"),
+        new String(output.toByteArray(), "ISO-8859-1")
+    );
+  }
+}
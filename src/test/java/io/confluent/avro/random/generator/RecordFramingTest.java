@@ -0,0 +1,143 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import org.apache.avro.generic.GenericDatumReader;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RecordFramingTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"long\"}, "
+          + "{\"name\": \"name\", \"type\": \"string\"}"
+          + "]}"
+  );
+  private static final int RECORDS = 50;
+
+  @Test
+  public void lengthPrefixedConfluentFramesWrapEachRecord() throws IOException {
+    Object[] records = records();
+    ByteBuffer framed = ByteBuffer.wrap(frame("confluent:42, length", records));
+    for (Object record : records) {
+      int length = framed.getInt();
+      Assert.assertEquals(0, framed.get());
+      Assert.assertEquals(42, framed.getInt());
+      Assert.assertEquals(record, decode(framed, length - 5));
+    }
+    Assert.assertFalse(framed.hasRemaining());
+  }
+
+  @Test
+  public void singleObjectFramesCarryTheSchemaFingerprint() throws IOException {
+    Object[] records = records();
+    long fingerprint = SchemaNormalization.parsingFingerprint64(SCHEMA);
+    ByteBuffer framed = ByteBuffer.wrap(frame("single-object", records));
+    byte[] encoded = encode(records);
+    ByteBuffer unframed = ByteBuffer.wrap(encoded);
+    for (Object record : records) {
+      Assert.assertEquals((byte) 0xc3, framed.get());
+      Assert.assertEquals((byte) 0x01, framed.get());
+      Assert.assertEquals(fingerprint, framed.order(ByteOrder.LITTLE_ENDIAN).getLong());
+      framed.order(ByteOrder.BIG_ENDIAN);
+      // Without a length, each record ends wherever decoding it does
+      int start = unframed.position();
+      Assert.assertEquals(record, decode(unframed, unframed.remaining()));
+      int length = unframed.position() - start;
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(encoded, start, start + length),
+          Arrays.copyOfRange(framed.array(), framed.position(), framed.position() + length)
+      );
+      framed.position(framed.position() + length);
+    }
+    Assert.assertFalse(framed.hasRemaining());
+  }
+
+  @Test
+  public void overheadCountsEveryFramingByte() {
+    Assert.assertEquals(4, RecordFraming.parse("length", SCHEMA).overhead());
+    Assert.assertEquals(10, RecordFraming.parse("single-object", SCHEMA).overhead());
+    Assert.assertEquals(9, RecordFraming.parse("length,confluent:7", SCHEMA).overhead());
+  }
+
+  @Test
+  public void invalidFramingsAreRejected() {
+    assertRejected("length,length", "'length' is listed twice");
+    assertRejected(
+        "single-object,confluent:1",
+        "only one of 'single-object' and 'confluent' can be listed"
+    );
+    assertRejected("confluent:-1", "schema ID '-1' must be a non-negative integer");
+    assertRejected(
+        "crc",
+        "unknown framing 'crc'; must be 'length', 'single-object' or 'confluent:<schema id>'"
+    );
+  }
+
+  private static Object[] records() {
+    Generator generator = new Generator(SCHEMA, new Random(42));
+    Object[] records = new Object[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      records[i] = generator.generate();
+    }
+    return records;
+  }
+
+  private static byte[] frame(String framing, Object[] records) throws IOException {
+    RecordEncoder.Factory encoders = AvroRecordEncoder.binary(SCHEMA);
+    return write(RecordFraming.parse(framing, SCHEMA).frame(encoders), records);
+  }
+
+  private static byte[] encode(Object[] records) throws IOException {
+    return write(AvroRecordEncoder.binary(SCHEMA), records);
+  }
+
+  private static byte[] write(RecordEncoder.Factory encoders, Object[] records)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordEncoder encoder = encoders.create(output);
+    for (Object record : records) {
+      encoder.write(record);
+    }
+    encoder.flush();
+    return output.toByteArray();
+  }
+
+  // Decodes a record from the buffer, which is moved on past the bytes it took up
+  private static Object decode(ByteBuffer buffer, int length) throws IOException {
+    int start = buffer.position();
+    BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(buffer.array(), start, length, null);
+    Object record = new GenericDatumReader<>(SCHEMA).read(null, decoder);
+    buffer.position(start + length - decoder.inputStream().available());
+    return record;
+  }
+
+  private static void assertRejected(String framing, String message) {
+    try {
+      RecordFraming.parse(framing, SCHEMA);
+      Assert.fail("Expected " + framing + " to be rejected");
+    } catch (IllegalArgumentException exception) {
+      Assert.assertEquals(message, exception.getMessage());
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumReader;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RecordPipelineTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"long\"}, "
+          + "{\"name\": \"name\", \"type\": \"string\"}"
+          + "]}"
+  );
+  // Several batches' worth, so that records go through every queue more than once
+  private static final int RECORDS = 10 * RecordPipeline.RECORDS_PER_BATCH + 7;
+  private static final long TIMEOUT_MILLIS = 30000;
+
+  @Test
+  public void everyRecordIsWrittenInOrder() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    pipeline(RECORDS).firstRecordIndex(0).run(outputs(output));
+
+    Generator generator = new Generator(SCHEMA, new Random(42));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    RecordEncoder encoder = AvroRecordEncoder.binary(SCHEMA).create(expected);
+    for (int i = 0; i < RECORDS; i++) {
+      encoder.write(generator.generate(i));
+    }
+    encoder.flush();
+    Assert.assertArrayEquals(expected.toByteArray(), output.toByteArray());
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void stoppingDrainsWhatWasGenerated() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordPipeline pipeline = pipeline(Long.MAX_VALUE);
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread run = new Thread(() -> {
+      try {
+        pipeline.run(outputs(output));
+      } catch (IOException | RuntimeException exception) {
+        failure.set(exception);
+      }
+    });
+    run.start();
+    while (pipeline.metrics().getRecords() < RECORDS) {
+      Thread.sleep(1);
+    }
+    pipeline.stop();
+    run.join();
+    Assert.assertNull(failure.get());
+    // Every record that made it out is whole
+    long decoded = decode(output.toByteArray()).size();
+    Assert.assertTrue(decoded >= RECORDS);
+    Assert.assertEquals(pipeline.metrics().getRecords(), decoded);
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void failedWriteAbortsEveryStage() {
+    IOException cause = new IOException("disk full");
+    RollingOutput broken = RollingOutput.of(new OutputStream() {
+      @Override
+      public void write(int value) throws IOException {
+        throw cause;
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        throw cause;
+      }
+    });
+    try {
+      pipeline(Long.MAX_VALUE).run(Collections.singletonList(broken));
+      Assert.fail("Expected the run to fail");
+    } catch (IOException exception) {
+      Assert.assertSame(cause, exception);
+    }
+  }
+
+  private static RecordPipeline pipeline(long iterations) {
+    return new RecordPipeline(
+        new Generator(SCHEMA, new Random(42)),
+        AvroRecordEncoder.binary(SCHEMA),
+        RecordPartitioner.single(),
+        iterations
+    ).lineTerminated(false);
+  }
+
+  private static List<RollingOutput> outputs(ByteArrayOutputStream output) {
+    return Collections.singletonList(RollingOutput.of(output));
+  }
+
+  static List<Object> decode(byte[] bytes) throws IOException {
+    GenericDatumReader<Object> reader = new GenericDatumReader<>(SCHEMA);
+    BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(bytes, null);
+    List<Object> records = new ArrayList<>();
+    while (!decoder.isEnd()) {
+      records.add(reader.read(null, decoder));
+    }
+    return records;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RingBufferTest {
+
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  @Test
+  public void slotsPublishedBeforeCloseAreStillTaken() {
+    RingBuffer<int[]> buffer = new RingBuffer<>(4, () -> new int[1]);
+    for (int i = 0; i < 3; i++) {
+      buffer.claim()[0] = i;
+      buffer.publish();
+    }
+    buffer.close();
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(i, buffer.take()[0]);
+      buffer.release();
+    }
+    Assert.assertNull(buffer.take());
+  }
+
+  @Test
+  public void peekedSlotsAreReleasedTogether() {
+    RingBuffer<int[]> buffer = new RingBuffer<>(4, () -> new int[1]);
+    for (int i = 0; i < 4; i++) {
+      buffer.claim()[0] = i;
+      buffer.publish();
+    }
+    Assert.assertEquals(0, buffer.take()[0]);
+    Assert.assertEquals(1, buffer.peek(1)[0]);
+    Assert.assertEquals(3, buffer.peek(3)[0]);
+    Assert.assertNull(buffer.peek(4));
+    buffer.release(3);
+    Assert.assertEquals(1, buffer.backlog());
+    Assert.assertEquals(3, buffer.take()[0]);
+  }
+
+  @Test
+  public void fullBufferHoldsTheProducerBack() throws InterruptedException {
+    RingBuffer<int[]> buffer = new RingBuffer<>(2, () -> new int[1]);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < 100; i++) {
+        buffer.claim()[0] = i;
+        buffer.publish();
+      }
+      buffer.close();
+    });
+    producer.start();
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(buffer.backlog() <= buffer.capacity());
+      Assert.assertEquals(i, buffer.take()[0]);
+      buffer.release();
+    }
+    Assert.assertNull(buffer.take());
+    producer.join(TIMEOUT_MILLIS);
+    Assert.assertFalse(producer.isAlive());
+  }
+
+  @Test
+  public void abortWakesAWaitingConsumer() throws InterruptedException {
+    RingBuffer<int[]> buffer = new RingBuffer<>(2, () -> new int[1]);
+    IOException cause = new IOException("disk full");
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread consumer = new Thread(() -> {
+      try {
+        buffer.take();
+      } catch (RingBuffer.AbortedException abortedException) {
+        thrown.set(abortedException.getCause());
+      }
+    });
+    consumer.start();
+    buffer.abort(cause);
+    consumer.join(TIMEOUT_MILLIS);
+    Assert.assertFalse(consumer.isAlive());
+    Assert.assertSame(cause, thrown.get());
+  }
+
+  @Test
+  public void abortWakesAWaitingProducer() throws InterruptedException {
+    RingBuffer<int[]> buffer = new RingBuffer<>(2, () -> new int[1]);
+    for (int i = 0; i < buffer.capacity(); i++) {
+      buffer.claim();
+      buffer.publish();
+    }
+    IOException cause = new IOException("connection reset");
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread producer = new Thread(() -> {
+      try {
+        buffer.claim();
+      } catch (RingBuffer.AbortedException abortedException) {
+        thrown.set(abortedException.getCause());
+      }
+    });
+    producer.start();
+    buffer.abort(cause);
+    producer.join(TIMEOUT_MILLIS);
+    Assert.assertFalse(producer.isAlive());
+    Assert.assertSame(cause, thrown.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void capacityMustBeAPowerOfTwo() {
+    new RingBuffer<>(3, () -> new int[1]);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Conversion;
+import org.apache.avro.Conversions;
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericDatumWriter;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificFixed;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.math.BigDecimal;
+import java.util.Random;
+
+public class SpecificRecordTargetTest {
+
+  // Written out the way the Avro compiler would generate them; the namespace is this class, so that
+  // Avro finds them as nested classes of it
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"Order\", "
+          + "\"namespace\": \"io.confluent.avro.random.generator.SpecificRecordTargetTest$\", "
+          + "\"fields\": ["
+          + "{\"name\": \"id\", \"type\": {\"type\": \"long\", "
+          + "\"arg.properties\": {\"iteration\": {\"start\": 1}}}}, "
+          + "{\"name\": \"status\", \"type\": {\"type\": \"enum\", \"name\": \"Status\", "
+          + "\"symbols\": [\"OPEN\", \"SHIPPED\", \"CLOSED\"]}}, "
+          + "{\"name\": \"checksum\", \"type\": {\"type\": \"fixed\", \"name\": \"Checksum\", "
+          + "\"size\": 4}}, "
+          + "{\"name\": \"price\", \"type\": {\"type\": \"bytes\", \"logicalType\": \"decimal\", "
+          + "\"precision\": 6, \"scale\": 2}}, "
+          + "{\"name\": \"next\", \"type\": [\"null\", \"Order\"]}"
+          + "]}"
+  );
+  private static final int RECORDS = 100;
+
+  public enum Status {
+    OPEN, SHIPPED, CLOSED
+  }
+
+  public static final class Checksum extends SpecificFixed {
+    @Override
+    public Schema getSchema() {
+      return SCHEMA.getField("checksum").schema();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput output) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readExternal(ObjectInput input) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public static final class Order extends SpecificRecordBase {
+    public static final Schema SCHEMA$ = SCHEMA;
+
+    private static final Conversion<?>[] CONVERSIONS = {
+        null, null, null, new Conversions.DecimalConversion(), null
+    };
+
+    private long id;
+    private Status status;
+    private Checksum checksum;
+    private BigDecimal price;
+    private Order next;
+
+    @Override
+    public Schema getSchema() {
+      return SCHEMA$;
+    }
+
+    @Override
+    public Conversion<?> getConversion(int field) {
+      return CONVERSIONS[field];
+    }
+
+    @Override
+    public Object get(int field) {
+      switch (field) {
+        case 0:
+          return id;
+        case 1:
+          return status;
+        case 2:
+          return checksum;
+        case 3:
+          return price;
+        case 4:
+          return next;
+        default:
+          throw new IndexOutOfBoundsException("Bad field: " + field);
+      }
+    }
+
+    @Override
+    public void put(int field, Object value) {
+      switch (field) {
+        case 0:
+          id = (Long) value;
+          break;
+        case 1:
+          status = (Status) value;
+          break;
+        case 2:
+          checksum = (Checksum) value;
+          break;
+        case 3:
+          price = (BigDecimal) value;
+          break;
+        case 4:
+          next = (Order) value;
+          break;
+        default:
+          throw new IndexOutOfBoundsException("Bad field: " + field);
+      }
+    }
+  }
+
+  @Test
+  public void recordsAreInstancesOfTheirClasses() {
+    Generator generator = new Generator(Order.class, new Random(42));
+    boolean nested = false;
+    for (int i = 0; i < RECORDS; i++) {
+      for (Order order = (Order) generator.generate(); order != null; order = order.next) {
+        Assert.assertNotNull(order.status);
+        Assert.assertEquals(4, order.checksum.bytes().length);
+        Assert.assertEquals(2, order.price.scale());
+        Assert.assertTrue(order.price.toString(), order.price.abs().precision() <= 6);
+        nested |= order.next != null;
+      }
+    }
+    Assert.assertTrue(nested);
+  }
+
+  @Test
+  public void specificRecordsHoldTheSameValuesAsGenericOnes() throws IOException {
+    Generator specific = new Generator(Order.class, new Random(42));
+    Generator generic = new Generator(SCHEMA, new Random(42));
+    for (int i = 0; i < RECORDS; i++) {
+      Assert.assertArrayEquals(
+          encode(new GenericDatumWriter<>(SCHEMA), generic.generate(i)),
+          encode(new SpecificDatumWriter<>(SCHEMA), specific.generate(i))
+      );
+    }
+  }
+
+  private static byte[] encode(DatumWriter<Object> writer, Object record) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(output, null);
+    writer.write(record, encoder);
+    return output.toByteArray();
+  }
+}
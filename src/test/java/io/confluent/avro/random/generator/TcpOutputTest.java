@@ -0,0 +1,144 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TcpOutputTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"r\", \"fields\": ["
+          + "{\"name\": \"id\", \"type\": \"long\"}, "
+          + "{\"name\": \"name\", \"type\": \"string\"}"
+          + "]}"
+  );
+  private static final int RECORDS = 5 * RecordPipeline.RECORDS_PER_BATCH + 3;
+  private static final long TIMEOUT_MILLIS = 30000;
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void everythingWrittenIsReceived() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (ServerSocket server = listen()) {
+      Future<byte[]> received = executor.submit(() -> receive(server));
+      try (TcpOutput output = new TcpOutput(address(server))) {
+        output.write('[');
+        output.write(ascii("streamed"), 0, 8);
+        output.write(new ByteBuffer[] {
+            ByteBuffer.wrap(ascii(", gathered")),
+            ByteBuffer.wrap(ascii(" and ")),
+            ByteBuffer.wrap(ascii("x, y, all in one]"), 3, 14)
+        });
+      }
+      // Closing the output ends the stream the receiver reads
+      Assert.assertEquals(
+          "[streamed, gathered and y, all in one]",
+          new String(received.get(), StandardCharsets.US_ASCII)
+      );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void pipelinesSendEveryRecord() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (ServerSocket server = listen()) {
+      final Future<byte[]> received = executor.submit(() -> receive(server));
+      try (RollingOutput output = RollingOutput.of(new TcpOutput(address(server)))) {
+        new RecordPipeline(
+            new Generator(SCHEMA, new Random(42)),
+            AvroRecordEncoder.binary(SCHEMA),
+            RecordPartitioner.single(),
+            RECORDS
+        ).lineTerminated(false).run(Collections.singletonList(output));
+      }
+
+      Generator generator = new Generator(SCHEMA, new Random(42));
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      RecordEncoder encoder = AvroRecordEncoder.binary(SCHEMA).create(expected);
+      for (int i = 0; i < RECORDS; i++) {
+        encoder.write(generator.generate());
+      }
+      encoder.flush();
+      Assert.assertArrayEquals(expected.toByteArray(), received.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void connectingWaitsForTheReceiver() throws Exception {
+    InetSocketAddress address;
+    try (ServerSocket server = listen()) {
+      address = address(server);
+    }
+    // Nothing is listening yet, so the first attempts to connect are refused
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> sent = executor.submit(() -> {
+        try (TcpOutput output = new TcpOutput(address)) {
+          output.write(ascii("late"), 0, 4);
+        }
+        return null;
+      });
+      Thread.sleep(3 * TcpOutput.MIN_BACKOFF_MILLIS);
+      Assert.assertFalse(sent.isDone());
+      try (ServerSocket server = new ServerSocket()) {
+        server.setReuseAddress(true);
+        server.bind(address);
+        Assert.assertEquals("late", new String(receive(server), StandardCharsets.US_ASCII));
+      }
+      sent.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static ServerSocket listen() throws IOException {
+    return new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+  }
+
+  private static InetSocketAddress address(ServerSocket server) {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+  }
+
+  // Accepts one connection, and reads from it until the sender shuts it down
+  private static byte[] receive(ServerSocket server) throws IOException {
+    try (Socket socket = server.accept(); InputStream input = socket.getInputStream()) {
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+        result.write(buffer, 0, read);
+      }
+      return result.toByteArray();
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
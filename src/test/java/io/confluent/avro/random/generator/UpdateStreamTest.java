@@ -0,0 +1,123 @@
+/*
+    Copyright © 2016 - 2018 Chris Egerton <fearthecellos@gmail.com>
+    This work is free. You can redistribute it and/or modify it under the
+    terms of the Do What The Fuck You Want To Public License, Version 2,
+    as published by Sam Hocevar. See the LICENSE file for more details.
+ */
+
+package io.confluent.avro.random.generator;
+
+import org.apache.avro.Schema;
+
+import org.apache.avro.generic.GenericData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class UpdateStreamTest {
+
+  private static final Schema SCHEMA = new Schema.Parser().parse(
+      "{\"type\": \"record\", \"name\": \"account\", \"fields\": ["
+          + "{\"name\": \"balance\", \"type\": \"long\"}, "
+          + "{\"name\": \"id\", \"type\": {\"type\": \"string\", "
+          + "\"arg.properties\": {\"entity_key\": true}}}, "
+          + "{\"name\": \"owner\", \"type\": \"string\"}, "
+          + "{\"name\": \"tags\", \"type\": {\"type\": \"array\", \"items\": \"int\"}}, "
+          + "{\"name\": \"version\", \"type\": {\"type\": \"long\", "
+          + "\"arg.properties\": {\"iteration\": {\"start\": 0}}}}"
+          + "]}"
+  );
+  private static final int ENTITIES = 5;
+  private static final int MUTATIONS = 1;
+  private static final int UPDATES = 200;
+
+  @Test
+  public void updatesChangeOnlyWhatTheySayTheyChange() {
+    UpdateStream stream = stream();
+    Map<Integer, GenericData.Record> entities = new HashMap<>();
+    long version = 0;
+    for (int i = 0; i < UPDATES; i++) {
+      UpdateStream.Update update = (UpdateStream.Update) stream.next();
+      GenericData.Record previous = entities.put(update.entity, copy(update));
+      // The version is refreshed, and carries on from one update to the next
+      Assert.assertEquals(version++, update.get("version"));
+      if (previous == null) {
+        Assert.assertEquals(SCHEMA.getFields().size(), update.changed.cardinality());
+        continue;
+      }
+      Assert.assertEquals(MUTATIONS + 1, update.changed.cardinality());
+      Assert.assertFalse(update.changed.get(SCHEMA.getField("id").pos()));
+      for (Schema.Field field : SCHEMA.getFields()) {
+        if (!update.changed.get(field.pos())) {
+          Assert.assertEquals(field.name(), previous.get(field.pos()), update.get(field.pos()));
+        }
+      }
+    }
+    Assert.assertEquals(ENTITIES, entities.size());
+  }
+
+  @Test
+  public void updatesDontChangeEarlierOnes() {
+    UpdateStream stream = stream();
+    UpdateStream.Update first = (UpdateStream.Update) stream.next();
+    GenericData.Record copy = copy(first);
+    for (int i = 0; i < UPDATES; i++) {
+      stream.next();
+    }
+    Assert.assertEquals(copy, first);
+  }
+
+  @Test
+  public void binaryEncodingMatchesAvro() throws IOException {
+    UpdateStream stream = stream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    RecordEncoder avro = AvroRecordEncoder.binary(SCHEMA).create(expected);
+    RecordEncoder encoder = stream.binaryEncoderFactory().create(actual);
+    for (int i = 0; i < UPDATES; i++) {
+      Object update = stream.next();
+      avro.write(update);
+      encoder.write(update);
+    }
+    avro.flush();
+    encoder.flush();
+    Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  public void schemasWithoutAnEntityKeyAreRejected() {
+    Schema schema = new Schema.Parser().parse(
+        "{\"type\": \"record\", \"name\": \"keyless\", \"fields\": ["
+            + "{\"name\": \"id\", \"type\": \"string\"}"
+            + "]}"
+    );
+    try {
+      new UpdateStream(new Generator(schema, new Random(42)), ENTITIES, MUTATIONS, new Random(7));
+      Assert.fail("Expected the schema to be rejected");
+    } catch (RuntimeException exception) {
+      Assert.assertEquals(
+          "Cannot generate updates: no field of keyless has a entity_key property",
+          exception.getMessage()
+      );
+    }
+  }
+
+  private static UpdateStream stream() {
+    return new UpdateStream(
+        new Generator(SCHEMA, new Random(42)),
+        ENTITIES,
+        MUTATIONS,
+        new Random(7)
+    );
+  }
+
+  private static GenericData.Record copy(GenericData.Record record) {
+    return new GenericData.Record(record, true);
+  }
+}